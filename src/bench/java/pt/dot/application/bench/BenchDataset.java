@@ -0,0 +1,324 @@
+package pt.dot.application.bench;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import pt.dot.application.config.SearchConfig;
+import pt.dot.application.db.entity.District;
+import pt.dot.application.db.repo.DistrictRepository;
+import pt.dot.application.db.repo.PoiFacetView;
+import pt.dot.application.db.repo.PoiRepository;
+import pt.dot.application.db.repo.PoiSearchView;
+import pt.dot.application.service.search.PoiFacetIndex;
+import pt.dot.application.service.search.SearchCache;
+import pt.dot.application.service.search.SearchService;
+import pt.dot.application.util.TextNorm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+
+/**
+ * Dataset de benchmark: sipa/pois.csv + sipa/districts.csv + N POIs
+ * sintéticos (determinísticos, seed fixa), servidos por repositórios em
+ * memória que imitam a semântica das queries SQL
+ * ({@code unaccent(lower(..)) like %q%}, ordenado por nome, com limit).
+ *
+ * Assim o SearchService real (fan-out, ranking, cache, facetas) é medido
+ * sem Postgres, de forma reproduzível.
+ */
+public final class BenchDataset {
+
+    public static final long SYNTHETIC_ID_OFFSET = 1_000_000L;
+
+    private static final long SEED = 42L;
+
+    private final List<Row> pois;
+    private final List<Row> districts;
+
+    private BenchDataset(List<Row> pois, List<Row> districts) {
+        this.pois = pois;
+        this.districts = districts;
+    }
+
+    public static BenchDataset load(int syntheticPois) {
+        List<Row> pois = readPois();
+        List<Row> districts = readDistricts();
+
+        if (syntheticPois > 0) {
+            pois.addAll(synthesize(pois, syntheticPois));
+        }
+
+        return new BenchDataset(pois, districts);
+    }
+
+    public int poiCount() {
+        return pois.size();
+    }
+
+    public Harness newHarness() {
+        DistrictRepository districtRepository = districtRepository();
+        PoiRepository poiRepository = poiRepository();
+
+        PoiFacetIndex facetIndex = new PoiFacetIndex(poiRepository, districtRepository, 3600);
+        SearchCache cache = new SearchCache(facetIndex, 10_000, 3600);
+        ExecutorService executor = new SearchConfig().searchExecutor(4, 64);
+
+        SearchService service = new SearchService(
+                districtRepository,
+                poiRepository,
+                cache,
+                facetIndex,
+                executor,
+                5_000,
+                200
+        );
+
+        return new Harness(service, cache, executor);
+    }
+
+    public static List<String> lines(String resource) {
+        List<String> out = new ArrayList<>();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(resource), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String t = line.trim();
+                if (t.isEmpty() || t.startsWith("#")) continue;
+                out.add(t);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return out;
+    }
+
+    // ------------------------------------------------------------------ repos
+
+    private DistrictRepository districtRepository() {
+        return repository(DistrictRepository.class, Map.of(
+                "searchByName", args -> matching(districts, (String) args[0], (Integer) args[1]).stream()
+                        .map(BenchDataset::toDistrict)
+                        .toList(),
+                "findAll", args -> districts.stream().map(BenchDataset::toDistrict).toList()
+        ));
+    }
+
+    private PoiRepository poiRepository() {
+        return repository(PoiRepository.class, Map.of(
+                "searchLiteByName", args -> List.copyOf(matching(pois, (String) args[0], (Integer) args[1])),
+                "findAllFacetRows", args -> List.copyOf(pois)
+        ));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T repository(Class<T> type, Map<String, Function<Object[], Object>> handlers) {
+        return (T) Proxy.newProxyInstance(
+                type.getClassLoader(),
+                new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    Function<Object[], Object> handler = handlers.get(method.getName());
+                    if (handler != null) return handler.apply(args);
+
+                    return switch (method.getName()) {
+                        case "toString" -> "Bench" + type.getSimpleName();
+                        case "hashCode" -> System.identityHashCode(proxy);
+                        case "equals" -> proxy == args[0];
+                        default -> throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName());
+                    };
+                }
+        );
+    }
+
+    private static List<Row> matching(List<Row> rows, String q, int limit) {
+        String needle = TextNorm.normalize(q);
+
+        return rows.stream()
+                .filter(r -> r.sqlName().contains(needle) || r.sqlAltName().contains(needle))
+                .sorted(Comparator.comparing(Row::sortName))
+                .limit(limit)
+                .toList();
+    }
+
+    private static District toDistrict(Row r) {
+        District d = new District();
+        d.setId(r.getId());
+        d.setName(r.getName());
+        d.setNamePt(r.getNamePt());
+        return d;
+    }
+
+    // ------------------------------------------------------------------ CSV
+
+    private static List<Row> readPois() {
+        List<Row> out = new ArrayList<>();
+
+        for (CSVRecord r : csv("sipa/pois.csv")) {
+            Long id = parseLong(r.get("id"));
+            String name = r.get("name");
+            if (id == null || name == null || name.isBlank()) continue;
+
+            String namePt = r.get("name_pt");
+            out.add(Row.of(
+                    id,
+                    name,
+                    namePt == null || namePt.isBlank() ? name : namePt,
+                    r.get("category"),
+                    r.get("source"),
+                    null,
+                    false
+            ));
+        }
+
+        return out;
+    }
+
+    private static List<Row> readDistricts() {
+        List<Row> out = new ArrayList<>();
+        long id = 1;
+
+        for (CSVRecord r : csv("sipa/districts.csv")) {
+            String name = r.get("district");
+            if (name == null || name.isBlank()) continue;
+            out.add(Row.of(id++, name.trim(), name.trim(), null, null, null, false));
+        }
+
+        return out;
+    }
+
+    private static List<CSVRecord> csv(String resource) {
+        CSVFormat format = CSVFormat.DEFAULT.builder()
+                .setHeader()
+                .setSkipHeaderRecord(true)
+                .setIgnoreEmptyLines(true)
+                .setTrim(true)
+                .build();
+
+        try (Reader reader = new InputStreamReader(open(resource), StandardCharsets.UTF_8);
+             CSVParser parser = new CSVParser(reader, format)) {
+            return parser.getRecords();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static InputStream open(String resource) {
+        InputStream in = BenchDataset.class.getClassLoader().getResourceAsStream(resource);
+        if (in == null) throw new IllegalStateException("Recurso não encontrado: " + resource);
+        return in;
+    }
+
+    // ------------------------------------------------------------------ synthetic
+
+    /**
+     * POIs sintéticos com nomes recombinados a partir das palavras dos POIs
+     * reais, para que as queries de prefixo encontrem ruído realista.
+     */
+    private static List<Row> synthesize(List<Row> real, int count) {
+        List<String> words = new ArrayList<>();
+        List<String> categories = new ArrayList<>();
+
+        for (Row r : real) {
+            for (String w : r.getNamePt().split("\\s+")) {
+                String clean = w.replaceAll("[()\\[\\],;:/]", "");
+                if (clean.length() >= 3) words.add(clean);
+            }
+            if (r.getCategory() != null && !categories.contains(r.getCategory())) {
+                categories.add(r.getCategory());
+            }
+        }
+
+        Random rnd = new Random(SEED);
+        List<Row> out = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            int n = 2 + rnd.nextInt(4);
+            StringBuilder name = new StringBuilder();
+            for (int w = 0; w < n; w++) {
+                if (w > 0) name.append(' ');
+                name.append(words.get(rnd.nextInt(words.size())));
+            }
+
+            out.add(Row.of(
+                    SYNTHETIC_ID_OFFSET + i,
+                    name.toString(),
+                    name.toString(),
+                    categories.get(rnd.nextInt(categories.size())),
+                    "synthetic",
+                    null,
+                    rnd.nextInt(3) == 0
+            ));
+        }
+
+        return out;
+    }
+
+    private static Long parseLong(String v) {
+        try {
+            return v == null ? null : Long.parseLong(v.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public record Harness(SearchService service, SearchCache cache, ExecutorService executor) {}
+
+    /**
+     * Linha em memória que serve de projeção para as duas queries de POI.
+     */
+    private static final class Row implements PoiSearchView, PoiFacetView {
+
+        private final Long id;
+        private final String name;
+        private final String namePt;
+        private final String category;
+        private final String source;
+        private final Long districtId;
+        private final boolean hasImages;
+        private final String sqlName;
+        private final String sqlAltName;
+        private final String sortName;
+
+        private Row(Long id, String name, String namePt, String category, String source, Long districtId, boolean hasImages) {
+            this.id = id;
+            this.name = name;
+            this.namePt = namePt;
+            this.category = category;
+            this.source = source;
+            this.districtId = districtId;
+            this.hasImages = hasImages;
+            this.sqlName = TextNorm.normalize(namePt != null ? namePt : name);
+            this.sqlAltName = TextNorm.normalize(name);
+            this.sortName = namePt != null ? namePt : name;
+        }
+
+        static Row of(Long id, String name, String namePt, String category, String source, Long districtId, boolean hasImages) {
+            return new Row(id, name, namePt, category, source, districtId, hasImages);
+        }
+
+        @Override public Long getId() { return id; }
+        @Override public String getName() { return name; }
+        @Override public String getNamePt() { return namePt; }
+        @Override public String getCategory() { return category; }
+        @Override public String getSource() { return source; }
+        @Override public Long getDistrictId() { return districtId; }
+        @Override public Boolean getHasImages() { return hasImages; }
+
+        String sqlName() { return sqlName; }
+        String sqlAltName() { return sqlAltName; }
+        String sortName() { return sortName; }
+    }
+}
@@ -0,0 +1,60 @@
+package pt.dot.application.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.dot.application.api.dto.search.SearchFacetedResponseDto;
+import pt.dot.application.service.search.SearchFilters;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pesquisa facetada (bitmaps em memória) com a mesma sequência de queries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FacetedSearchBenchmark {
+
+    private static final SearchFilters CHURCHES_AND_CASTLES =
+            SearchFilters.parse("church,castle", null, null, null);
+
+    @Param({"0", "100000"})
+    public int syntheticPois;
+
+    private BenchDataset.Harness harness;
+    private List<String> queries;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        harness = BenchDataset.load(syntheticPois).newHarness();
+        queries = BenchDataset.lines("bench/search-replay.txt");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        harness.executor().shutdownNow();
+    }
+
+    @Benchmark
+    public SearchFacetedResponseDto faceted() {
+        String q = queries.get(cursor);
+        cursor = (cursor + 1) % queries.size();
+        return harness.service().searchFaceted(q, 10, CHURCHES_AND_CASTLES);
+    }
+}
@@ -0,0 +1,69 @@
+package pt.dot.application.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.dot.application.api.dto.search.SearchItemDto;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latência (p50/p99 via SampleTime) e alocação por query (-prof gc) de
+ * {@code SearchService.search}, a repetir a sequência fixa de
+ * bench/search-replay.txt.
+ *
+ * cached=false invalida a cache antes de cada chamada (caminho frio, fan-out
+ * completo); cached=true mede o caminho de autocomplete com prefixos em cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({"0", "100000"})
+    public int syntheticPois;
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    private BenchDataset.Harness harness;
+    private List<String> queries;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        harness = BenchDataset.load(syntheticPois).newHarness();
+        queries = BenchDataset.lines("bench/search-replay.txt");
+    }
+
+    @Setup(Level.Invocation)
+    public void coldCache() {
+        if (!cached) harness.cache().invalidateAll();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        harness.executor().shutdownNow();
+    }
+
+    @Benchmark
+    public List<SearchItemDto> search() {
+        String q = queries.get(cursor);
+        cursor = (cursor + 1) % queries.size();
+        return harness.service().search(q, 10);
+    }
+}
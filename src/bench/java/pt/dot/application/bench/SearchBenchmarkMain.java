@@ -0,0 +1,36 @@
+package pt.dot.application.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Ponto de entrada do perfil "bench": primeiro a qualidade (recall/precision),
+ * depois os benchmarks JMH com o GC profiler (alocação por query).
+ *
+ * Argumentos extra são passados ao JMH (ex.: ".*Faceted.*" ou "-p syntheticPois=0").
+ */
+public final class SearchBenchmarkMain {
+
+    private SearchBenchmarkMain() {}
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        SearchQualityReport.run();
+
+        CommandLineOptions cli = new CommandLineOptions(args);
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(cli)
+                .addProfiler(GCProfiler.class);
+
+        if (cli.getIncludes().isEmpty()) {
+            options.include("pt\\.dot\\.application\\..*Benchmark.*");
+        }
+
+        new Runner(options.build()).run();
+    }
+}
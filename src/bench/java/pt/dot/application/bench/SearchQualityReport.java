@@ -0,0 +1,68 @@
+package pt.dot.application.bench;
+
+import pt.dot.application.api.dto.search.SearchItemDto;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Recall/precision@K da pesquisa contra bench/search-expected.csv, sobre o
+ * dataset real (sem POIs sintéticos, que não têm labels).
+ */
+public final class SearchQualityReport {
+
+    private static final int K = 10;
+
+    private SearchQualityReport() {}
+
+    public static void main(String[] args) {
+        run();
+    }
+
+    public static void run() {
+        BenchDataset.Harness harness = BenchDataset.load(0).newHarness();
+
+        double sumPrecision = 0;
+        double sumRecall = 0;
+        int queries = 0;
+
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%-32s %6s %6s %4s %4s%n", "query", "P@" + K, "R@" + K, "hit", "rel");
+
+        try {
+            for (String line : BenchDataset.lines("bench/search-expected.csv")) {
+                String[] parts = line.split(";", 2);
+                if (parts.length != 2) continue;
+
+                String query = parts[0].trim();
+                Set<String> relevant = new HashSet<>(List.of(parts[1].trim().split("\\|")));
+
+                harness.cache().invalidateAll();
+                List<SearchItemDto> results = harness.service().search(query, K);
+
+                int hits = 0;
+                for (SearchItemDto r : results) {
+                    if (relevant.contains(r.getKind() + ":" + r.getId())) hits++;
+                }
+
+                double precision = results.isEmpty() ? 0 : (double) hits / results.size();
+                double recall = relevant.isEmpty() ? 0 : (double) hits / relevant.size();
+
+                sumPrecision += precision;
+                sumRecall += recall;
+                queries++;
+
+                System.out.printf(Locale.ROOT, "%-32s %6.2f %6.2f %4d %4d%n", query, precision, recall, hits, relevant.size());
+            }
+        } finally {
+            harness.executor().shutdownNow();
+        }
+
+        if (queries == 0) return;
+
+        System.out.printf(Locale.ROOT, "%nmacro P@%d=%.3f  R@%d=%.3f  (%d queries)%n%n",
+                K, sumPrecision / queries, K, sumRecall / queries, queries);
+    }
+}
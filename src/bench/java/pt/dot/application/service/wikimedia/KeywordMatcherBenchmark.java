@@ -0,0 +1,101 @@
+package pt.dot.application.service.wikimedia;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pt.dot.application.util.KeywordMatcher;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hints do ranking Wikimedia num candidato (título + URL): o antigo
+ * {@code toLowerCase} + {@code containsAny} por família contra o
+ * {@link KeywordMatcher} com todas as famílias num autómato. As famílias são
+ * as do código de produção (por isso o benchmark vive neste package).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeywordMatcherBenchmark {
+
+    private static final String[][] FAMILIES = {
+            WikimediaMediaService.GENERIC_ARCHITECTURE_HINTS,
+            WikimediaMediaService.HERO_VIEW_HINTS,
+            WikimediaMediaService.HERO_DISTRICT_HINTS,
+            WikimediaMediaService.DETAIL_PENALTY_HINTS,
+            WikimediaMediaService.LOW_LIGHT_PENALTY_HINTS,
+            WikimediaMediaService.POLITICAL_PENALTY_HINTS,
+            WikimediaMediaService.DISTRICT_SPECIFIC_POI_PENALTY_HINTS,
+            WikimediaMediaService.DISTRICT_WORD_HINTS,
+            WikimediaCommonsClient.BAD_KEYWORDS
+    };
+
+    private static final String[][] CANDIDATES = {
+            {"File:Castelo de Guimarães - vista geral.jpg",
+                    "https://upload.wikimedia.org/wikipedia/commons/3/3a/Castelo_de_Guimar%C3%A3es_-_vista_geral.jpg"},
+            {"File:Porto - Ribeira seen from Vila Nova de Gaia (2019).jpg",
+                    "https://upload.wikimedia.org/wikipedia/commons/8/8e/Porto_-_Ribeira_seen_from_Vila_Nova_de_Gaia_%282019%29.jpg"},
+            {"File:Mosteiro dos Jerónimos - interior da igreja.JPG",
+                    "https://upload.wikimedia.org/wikipedia/commons/1/1d/Mosteiro_dos_Jer%C3%B3nimos_-_interior_da_igreja.JPG"},
+            {"File:IMG 20190714 183205.jpg",
+                    "https://upload.wikimedia.org/wikipedia/commons/c/c4/IMG_20190714_183205.jpg"},
+            {"File:Braga, Portugal - panoramio (12).jpg",
+                    "https://upload.wikimedia.org/wikipedia/commons/f/f0/Braga%2C_Portugal_-_panoramio_%2812%29.jpg"},
+            {"File:Évora Templo Romano at night.jpg",
+                    "https://upload.wikimedia.org/wikipedia/commons/2/2b/%C3%89vora_Templo_Romano_at_night.jpg"},
+            {"File:LocMap Portugal Distrito de Viseu.svg",
+                    "https://upload.wikimedia.org/wikipedia/commons/5/5e/LocMap_Portugal_Distrito_de_Viseu.svg"},
+            {"File:Aveiro - Canal Central e fachadas Arte Nova.jpg",
+                    "https://upload.wikimedia.org/wikipedia/commons/9/9a/Aveiro_-_Canal_Central_e_fachadas_Arte_Nova.jpg"}
+    };
+
+    private final KeywordMatcher matcher = buildMatcher();
+    private int cursor;
+
+    @Benchmark
+    public long containsAny() {
+        String[] c = next();
+        String hay = (c[0] + " " + c[1]).toLowerCase(Locale.ROOT);
+
+        long hits = 0L;
+        for (int f = 0; f < FAMILIES.length; f++) {
+            for (String k : FAMILIES[f]) {
+                if (hay.contains(k)) {
+                    hits |= 1L << f;
+                    break;
+                }
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public long keywordMatcher() {
+        String[] c = next();
+        return matcher.match(c[0], c[1]);
+    }
+
+    private String[] next() {
+        String[] c = CANDIDATES[cursor];
+        cursor = (cursor + 1) % CANDIDATES.length;
+        return c;
+    }
+
+    private static KeywordMatcher buildMatcher() {
+        KeywordMatcher.Builder builder = KeywordMatcher.builder();
+        for (int f = 0; f < FAMILIES.length; f++) {
+            builder.add(1L << f, FAMILIES[f]);
+        }
+        return builder.build();
+    }
+}
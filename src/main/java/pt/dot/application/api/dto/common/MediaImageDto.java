@@ -0,0 +1,20 @@
+package pt.dot.application.api.dto.common;
+
+import java.util.Map;
+
+/**
+ * Imagem com as derivadas por largura, para {@code <img src srcset>}.
+ *
+ * {@code width}/{@code height} (do original) permitem reservar o espaço antes
+ * de a imagem carregar; {@code blurHash} e {@code dominantColor} servem de
+ * placeholder. Ficam a null até o processamento em background terminar.
+ */
+public record MediaImageDto(
+        String url,
+        String srcset,
+        Map<Integer, String> variants,
+        Integer width,
+        Integer height,
+        String blurHash,
+        String dominantColor
+) {}
@@ -0,0 +1,14 @@
+package pt.dot.application.api.dto.common;
+
+import java.time.Instant;
+
+public record WikimediaPrefetchStatusDto(
+        boolean running,
+        String trigger,
+        Instant startedAt,
+        Instant finishedAt,
+        long processed,
+        long hydrated,
+        long empty,
+        long failed
+) {}
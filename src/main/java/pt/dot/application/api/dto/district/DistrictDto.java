@@ -3,6 +3,7 @@ package pt.dot.application.api.dto.district;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import pt.dot.application.api.dto.common.MediaImageDto;
 
 import java.util.List;
 
@@ -27,4 +28,6 @@ public class DistrictDto {
 
     private List<String> files;
     private List<String> sources;
+
+    private List<MediaImageDto> media;
 }
\ No newline at end of file
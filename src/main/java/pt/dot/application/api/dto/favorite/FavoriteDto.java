@@ -6,5 +6,6 @@ public record FavoriteDto(
         Long poiId,
         String name,
         String image,
+        String thumb,
         Instant createdAt
 ) {}
\ No newline at end of file
@@ -3,6 +3,7 @@ package pt.dot.application.api.dto.poi;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import pt.dot.application.api.dto.common.MediaImageDto;
 
 import java.util.List;
 import java.util.UUID;
@@ -32,6 +33,11 @@ public class PoiDto {
     private String image;
     private List<String> images;
 
+    /**
+     * Mesma ordem de {@code images}, com srcset das derivadas (só no detalhe).
+     */
+    private List<MediaImageDto> media;
+
     public PoiDto(
             Long id,
             Long districtId,
@@ -0,0 +1,10 @@
+package pt.dot.application.api.dto.search;
+
+import java.util.List;
+import java.util.Map;
+
+public record SearchFacetedResponseDto(
+        List<SearchItemDto> items,
+        int total,
+        Map<String, Map<String, Long>> facets
+) {}
@@ -0,0 +1,7 @@
+package pt.dot.application.api.dto.search;
+
+public record SearchQueryStatDto(
+        String query,
+        long hits,
+        long zeroHits
+) {}
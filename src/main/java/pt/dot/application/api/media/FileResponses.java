@@ -0,0 +1,154 @@
+package pt.dot.application.api.media;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Resposta com o conteúdo de um ficheiro em disco:
+ *
+ * - ETag / Last-Modified com resposta 304 a pedidos condicionais
+ * - Range de um só intervalo (206 / 416), com If-Range
+ * - Corpo por sendfile do Tomcat quando o conector o suporta (zero-copy do
+ *   ficheiro para o socket); senão, FileChannel.transferTo para o output
+ * - Conteúdo de utilizadores: sempre nosniff e CSP sandbox; só imagens
+ *   raster, vídeo e PDF abrem no browser, o resto vai como download
+ *   {@code application/octet-stream}
+ */
+final class FileResponses {
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final String OCTET_STREAM = "application/octet-stream";
+
+    private FileResponses() {
+    }
+
+    /**
+     * @param etag ETag forte, já entre aspas
+     */
+    static void serve(
+            HttpServletRequest request,
+            HttpServletResponse response,
+            Path path,
+            long size,
+            long lastModified,
+            String contentType,
+            String etag,
+            String cacheControl
+    ) throws IOException {
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader("X-Content-Type-Options", "nosniff");
+        response.setHeader("Content-Security-Policy", "sandbox");
+
+        if (!isInline(contentType)) {
+            contentType = OCTET_STREAM;
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment");
+        }
+
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            return;
+        }
+
+        long start = 0;
+        long end = size - 1;
+
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && size > 0 && ifRangeMatches(request, etag, lastModified)) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(rangeHeader);
+            } catch (IllegalArgumentException ex) {
+                ranges = List.of();
+            }
+
+            // vários intervalos (multipart/byteranges) não compensam: vai o ficheiro inteiro
+            if (ranges.size() == 1) {
+                start = ranges.get(0).getRangeStart(size);
+                end = ranges.get(0).getRangeEnd(size);
+
+                if (start >= size || start > end) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+            }
+        }
+
+        long length = end - start + 1;
+        response.setContentType(contentType);
+        response.setContentLengthLong(length);
+
+        if ("HEAD".equals(request.getMethod()) || length <= 0) {
+            return;
+        }
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, path.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                long n = channel.transferTo(position, remaining, out);
+                if (n <= 0) break;
+                position += n;
+                remaining -= n;
+            }
+        }
+    }
+
+    /**
+     * SVG é imagem mas pode ter script, por isso fica de fora.
+     */
+    private static boolean isInline(String contentType) {
+        if (contentType == null) return false;
+        String ct = contentType.toLowerCase(Locale.ROOT);
+        if (ct.startsWith("image/svg")) return false;
+        return ct.startsWith("image/") || ct.startsWith("video/") || ct.equals("application/pdf");
+    }
+
+    /**
+     * Sem If-Range aplica-se o Range; com If-Range só se o ETag (forte) ou a
+     * data coincidirem, senão vai o ficheiro inteiro.
+     */
+    private static boolean ifRangeMatches(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null || ifRange.isBlank()) return true;
+
+        String value = ifRange.trim();
+        if (value.startsWith("\"") || value.startsWith("W/")) {
+            return value.equals(etag);
+        }
+
+        try {
+            return request.getDateHeader(HttpHeaders.IF_RANGE) / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+}
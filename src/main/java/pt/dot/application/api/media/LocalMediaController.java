@@ -0,0 +1,57 @@
+package pt.dot.application.api.media;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UrlPathHelper;
+import pt.dot.application.exception.Errors;
+import pt.dot.application.service.media.LocalMediaStorageService;
+
+import java.io.IOException;
+
+/**
+ * Serve os ficheiros do storage local em {@code /media/<key>} (só existe com
+ * {@code ptdot.media.storage.backend=local}; em R2 o base-url aponta para o
+ * bucket público). ETag, Range e sendfile: ver {@link FileResponses}.
+ */
+@RestController
+@ConditionalOnProperty(name = "ptdot.media.storage.backend", havingValue = "local")
+public class LocalMediaController {
+
+    private static final String PREFIX = "/media/";
+
+    /**
+     * As keys têm UUID ou hash, por isso o conteúdo de uma key não muda.
+     */
+    private static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    private final LocalMediaStorageService storage;
+
+    public LocalMediaController(LocalMediaStorageService storage) {
+        this.storage = storage;
+    }
+
+    @GetMapping("/media/**")
+    public void get(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String path = UrlPathHelper.defaultInstance.getPathWithinApplication(request);
+        String key = path.startsWith(PREFIX) ? path.substring(PREFIX.length()) : "";
+
+        LocalMediaStorageService.StoredFile file = storage.find(key)
+                .orElseThrow(() -> Errors.notFound("MEDIA_NOT_FOUND", "Ficheiro não encontrado."));
+
+        String etag = "\"" + Long.toHexString(file.size()) + "-" + Long.toHexString(file.lastModified()) + "\"";
+
+        FileResponses.serve(
+                request,
+                response,
+                file.path(),
+                file.size(),
+                file.lastModified(),
+                file.contentType(),
+                etag,
+                CACHE_CONTROL
+        );
+    }
+}
@@ -1,28 +1,48 @@
 package pt.dot.application.api.media;
 
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 import pt.dot.application.db.entity.MediaItem;
+import pt.dot.application.exception.Errors;
+import pt.dot.application.security.SecurityUtil;
+import pt.dot.application.service.media.MediaBlobService;
+import pt.dot.application.service.media.MediaImageOptimizer;
 import pt.dot.application.service.media.MediaItemService;
-import pt.dot.application.service.media.R2MediaStorageService;
+import pt.dot.application.service.media.MediaStorage;
+import pt.dot.application.service.media.MediaUploadIntentService;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
 
 @RestController
 @RequestMapping("/api/media")
 public class MediaController {
 
-    private final R2MediaStorageService r2MediaStorageService;
+    private final MediaStorage mediaStorage;
+    private final MediaBlobService mediaBlobService;
     private final MediaItemService mediaItemService;
+    private final MediaUploadIntentService mediaUploadIntentService;
+    private final MediaImageOptimizer mediaImageOptimizer;
 
     public MediaController(
-            R2MediaStorageService r2MediaStorageService,
-            MediaItemService mediaItemService
+            MediaStorage mediaStorage,
+            MediaBlobService mediaBlobService,
+            MediaItemService mediaItemService,
+            MediaUploadIntentService mediaUploadIntentService,
+            MediaImageOptimizer mediaImageOptimizer
     ) {
-        this.r2MediaStorageService = r2MediaStorageService;
+        this.mediaStorage = mediaStorage;
+        this.mediaBlobService = mediaBlobService;
         this.mediaItemService = mediaItemService;
+        this.mediaUploadIntentService = mediaUploadIntentService;
+        this.mediaImageOptimizer = mediaImageOptimizer;
     }
 
     @PostMapping("/upload")
@@ -32,8 +52,66 @@ public class MediaController {
             @RequestParam(value = "entityId", required = false) Long entityId,
             @RequestParam(value = "mediaType", required = false, defaultValue = "file") String mediaType
     ) {
-        R2MediaStorageService.UploadResult result =
-                r2MediaStorageService.upload(file, entityType, entityId, mediaType);
+        MediaStorage.UploadResult result;
+        String originalKey = null;
+
+        if (mediaImageOptimizer.appliesTo(mediaType)) {
+            MediaImageOptimizer.Stored stored = mediaImageOptimizer.upload(file, entityType, entityId, mediaType);
+            result = stored.upload();
+            originalKey = stored.originalKey();
+        } else {
+            result = mediaStorage.upload(file, entityType, entityId, mediaType);
+        }
+
+        result = mediaBlobService.register(result);
+
+        MediaItem item = mediaItemService.createCloudMedia(
+                entityType,
+                entityId,
+                mediaType,
+                result,
+                originalKey
+        );
+
+        return ResponseEntity.ok(new MediaUploadResponseDto(
+                item.getStorageKey(),
+                item.getStorageKey(),
+                result.url(),
+                result.contentType(),
+                result.sizeBytes()
+        ));
+    }
+
+    /**
+     * Upload com o ficheiro como corpo cru do pedido (Content-Type = tipo do
+     * ficheiro). Não passa pelo parsing multipart do Tomcat: o corpo vai direto
+     * do socket para o storage (no R2, multipart upload parte a parte).
+     */
+    @PostMapping("/upload/stream")
+    public ResponseEntity<MediaUploadResponseDto> uploadStream(
+            HttpServletRequest request,
+            @RequestParam(value = "filename", required = false) String filename,
+            @RequestParam(value = "entityType", required = false, defaultValue = "misc") String entityType,
+            @RequestParam(value = "entityId", required = false) Long entityId,
+            @RequestParam(value = "mediaType", required = false, defaultValue = "file") String mediaType
+    ) {
+        MediaStorage.UploadResult result;
+
+        try (InputStream in = request.getInputStream()) {
+            result = mediaStorage.uploadStream(
+                    in,
+                    filename,
+                    request.getContentType(),
+                    entityType,
+                    entityId,
+                    mediaType,
+                    request.getContentLengthLong()
+            );
+        } catch (IOException ex) {
+            throw Errors.badRequest("MEDIA_READ_FAILED", "Não foi possível ler o ficheiro enviado.");
+        }
+
+        result = mediaBlobService.register(result);
 
         MediaItem item = mediaItemService.createCloudMedia(
                 entityType,
@@ -50,4 +128,57 @@ public class MediaController {
                 result.sizeBytes()
         ));
     }
+
+    /**
+     * Passo 1 do upload direto: devolve um PUT assinado para o storage e o
+     * token a enviar em /complete. Os bytes não passam por aqui.
+     */
+    @PostMapping("/upload-intent")
+    public ResponseEntity<MediaUploadIntentResponseDto> uploadIntent(@RequestBody MediaUploadIntentRequest req) {
+        UUID currentUserId = SecurityUtil.getUserIdOrNull();
+        if (currentUserId == null) {
+            return ResponseEntity.status(401).build();
+        }
+
+        MediaUploadIntentService.Intent intent = mediaUploadIntentService.createIntent(
+                currentUserId,
+                req.entityType() == null ? "misc" : req.entityType(),
+                req.entityId(),
+                req.mediaType() == null ? "file" : req.mediaType(),
+                req.filename(),
+                req.contentType(),
+                req.sizeBytes()
+        );
+
+        return ResponseEntity.ok(new MediaUploadIntentResponseDto(
+                intent.storageKey(),
+                intent.upload().url().toString(),
+                "PUT",
+                intent.upload().headers(),
+                intent.upload().expiresAt(),
+                intent.uploadToken()
+        ));
+    }
+
+    /**
+     * Passo 2: confirma o objeto no storage (HEAD) e cria o MediaItem.
+     */
+    @PostMapping("/complete")
+    public ResponseEntity<MediaUploadResponseDto> complete(@RequestBody MediaUploadCompleteRequest req) {
+        UUID currentUserId = SecurityUtil.getUserIdOrNull();
+        if (currentUserId == null) {
+            return ResponseEntity.status(401).build();
+        }
+
+        MediaUploadIntentService.Completed completed =
+                mediaUploadIntentService.complete(currentUserId, req == null ? null : req.uploadToken());
+
+        return ResponseEntity.ok(new MediaUploadResponseDto(
+                completed.item().getStorageKey(),
+                completed.item().getStorageKey(),
+                completed.upload().url(),
+                completed.upload().contentType(),
+                completed.upload().sizeBytes()
+        ));
+    }
 }
@@ -0,0 +1,50 @@
+package pt.dot.application.api.media;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import pt.dot.application.service.media.MediaProxyCache;
+
+import java.io.IOException;
+
+/**
+ * Imagens externas (Wikimedia) servidas a partir da cache em disco do
+ * {@link MediaProxyCache}, com ETag, Range e sendfile como em
+ * {@link LocalMediaController}.
+ */
+@RestController
+public class MediaProxyController {
+
+    /**
+     * O ficheiro na origem pode ser substituído, por isso não é immutable.
+     */
+    private static final String CACHE_CONTROL = "public, max-age=604800";
+
+    private final MediaProxyCache mediaProxyCache;
+
+    public MediaProxyController(MediaProxyCache mediaProxyCache) {
+        this.mediaProxyCache = mediaProxyCache;
+    }
+
+    @GetMapping("/api/media/proxy")
+    public void get(
+            @RequestParam("url") String url,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        MediaProxyCache.Cached cached = mediaProxyCache.get(url);
+
+        FileResponses.serve(
+                request,
+                response,
+                cached.path(),
+                cached.size(),
+                cached.lastModified(),
+                cached.contentType(),
+                cached.etag(),
+                CACHE_CONTROL
+        );
+    }
+}
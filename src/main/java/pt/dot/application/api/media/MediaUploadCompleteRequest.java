@@ -0,0 +1,3 @@
+package pt.dot.application.api.media;
+
+public record MediaUploadCompleteRequest(String uploadToken) {}
@@ -0,0 +1,10 @@
+package pt.dot.application.api.media;
+
+public record MediaUploadIntentRequest(
+        String entityType,
+        Long entityId,
+        String mediaType,
+        String filename,
+        String contentType,
+        Long sizeBytes
+) {}
@@ -0,0 +1,17 @@
+package pt.dot.application.api.media;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * O cliente faz {@code method} para {@code uploadUrl} com {@code headers} e o
+ * ficheiro como corpo, e depois chama /api/media/complete com o uploadToken.
+ */
+public record MediaUploadIntentResponseDto(
+        String storageKey,
+        String uploadUrl,
+        String method,
+        Map<String, String> headers,
+        Instant expiresAt,
+        String uploadToken
+) {}
@@ -0,0 +1,44 @@
+package pt.dot.application.api.media;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import pt.dot.application.api.dto.common.WikimediaPrefetchStatusDto;
+import pt.dot.application.security.AdminGuard;
+import pt.dot.application.service.media.WikimediaPrefetchService;
+
+@RestController
+@RequestMapping("/api/admin/media/prefetch")
+public class WikimediaPrefetchController {
+
+    private final WikimediaPrefetchService wikimediaPrefetchService;
+    private final AdminGuard adminGuard;
+
+    public WikimediaPrefetchController(WikimediaPrefetchService wikimediaPrefetchService,
+                                       AdminGuard adminGuard) {
+        this.wikimediaPrefetchService = wikimediaPrefetchService;
+        this.adminGuard = adminGuard;
+    }
+
+    @GetMapping
+    public WikimediaPrefetchStatusDto status() {
+        adminGuard.requireAdmin();
+        return wikimediaPrefetchService.status();
+    }
+
+    @PostMapping
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public WikimediaPrefetchStatusDto start() {
+        adminGuard.requireAdmin();
+        return wikimediaPrefetchService.start("admin");
+    }
+
+    @PostMapping("/stop")
+    public WikimediaPrefetchStatusDto stop() {
+        adminGuard.requireAdmin();
+        return wikimediaPrefetchService.stop();
+    }
+}
@@ -1,7 +1,12 @@
 package pt.dot.application.api.search;
 
 import org.springframework.web.bind.annotation.*;
+import pt.dot.application.api.dto.search.SearchFacetedResponseDto;
 import pt.dot.application.api.dto.search.SearchItemDto;
+import pt.dot.application.api.dto.search.SearchQueryStatDto;
+import pt.dot.application.security.AdminGuard;
+import pt.dot.application.service.search.SearchAnalyticsService;
+import pt.dot.application.service.search.SearchFilters;
 import pt.dot.application.service.search.SearchService;
 
 import java.util.List;
@@ -11,16 +16,63 @@ import java.util.List;
 public class SearchController {
 
     private final SearchService searchService;
+    private final SearchAnalyticsService searchAnalyticsService;
+    private final AdminGuard adminGuard;
 
-    public SearchController(SearchService searchService) {
+    public SearchController(SearchService searchService,
+                            SearchAnalyticsService searchAnalyticsService,
+                            AdminGuard adminGuard) {
         this.searchService = searchService;
+        this.searchAnalyticsService = searchAnalyticsService;
+        this.adminGuard = adminGuard;
     }
 
     @GetMapping("/search")
     public List<SearchItemDto> search(
-            @RequestParam(name = "q") String q,
-            @RequestParam(name = "limit", defaultValue = "10") int limit
+            @RequestParam(name = "q", required = false) String q,
+            @RequestParam(name = "limit", defaultValue = "10") int limit,
+            @RequestParam(name = "category", required = false) String category,
+            @RequestParam(name = "district", required = false) String district,
+            @RequestParam(name = "source", required = false) String source,
+            @RequestParam(name = "hasImages", required = false) Boolean hasImages
     ) {
-        return searchService.search(q, limit);
+        SearchFilters filters = SearchFilters.parse(category, district, source, hasImages);
+
+        List<SearchItemDto> results = searchService.search(q, limit, filters);
+        searchAnalyticsService.record(q, results.size());
+        return results;
+    }
+
+    @GetMapping("/search/faceted")
+    public SearchFacetedResponseDto searchFaceted(
+            @RequestParam(name = "q", required = false) String q,
+            @RequestParam(name = "limit", defaultValue = "10") int limit,
+            @RequestParam(name = "category", required = false) String category,
+            @RequestParam(name = "district", required = false) String district,
+            @RequestParam(name = "source", required = false) String source,
+            @RequestParam(name = "hasImages", required = false) Boolean hasImages
+    ) {
+        SearchFilters filters = SearchFilters.parse(category, district, source, hasImages);
+
+        SearchFacetedResponseDto response = searchService.searchFaceted(q, limit, filters);
+        searchAnalyticsService.record(q, response.total());
+        return response;
+    }
+
+    @GetMapping("/search/popular")
+    public List<SearchQueryStatDto> popular(
+            @RequestParam(name = "limit", defaultValue = "10") int limit,
+            @RequestParam(name = "days", defaultValue = "7") int days
+    ) {
+        return searchAnalyticsService.popular(days, limit);
+    }
+
+    @GetMapping("/admin/search/zero-results")
+    public List<SearchQueryStatDto> zeroResults(
+            @RequestParam(name = "limit", defaultValue = "50") int limit,
+            @RequestParam(name = "days", defaultValue = "7") int days
+    ) {
+        adminGuard.requireAdmin();
+        return searchAnalyticsService.zeroResults(days, limit);
     }
-}
\ No newline at end of file
+}
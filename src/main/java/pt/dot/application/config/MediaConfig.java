@@ -0,0 +1,136 @@
+package pt.dot.application.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class MediaConfig {
+
+    /**
+     * Pool para o envio de partes do multipart upload para o R2.
+     * O número de partes em voo já é limitado pelo orçamento de memória do
+     * {@code R2MediaStorageService}; se ainda assim a fila encher, a parte é
+     * enviada pela própria thread do pedido.
+     */
+    @Bean(name = "mediaUploadExecutor", destroyMethod = "shutdown")
+    public ExecutorService mediaUploadExecutor(
+            @Value("${ptdot.media.r2.multipart.threads:8}") int threads,
+            @Value("${ptdot.media.r2.multipart.queue-capacity:32}") int queueCapacity
+    ) {
+        int size = Math.max(1, threads);
+        AtomicInteger seq = new AtomicInteger();
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                size,
+                size,
+                30,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                r -> {
+                    Thread t = new Thread(r, "media-upload-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Pool para gerar as derivadas das imagens (decode + resize + encode).
+     * Trabalho pesado em CPU e memória, por isso poucas threads; se a fila
+     * encher a tarefa é rejeitada (as derivadas são opcionais e o original
+     * continua a ser servido).
+     */
+    @Bean(name = "mediaDerivativeExecutor", destroyMethod = "shutdown")
+    public ExecutorService mediaDerivativeExecutor(
+            @Value("${ptdot.media.derivatives.threads:2}") int threads,
+            @Value("${ptdot.media.derivatives.queue-capacity:100}") int queueCapacity
+    ) {
+        int size = Math.max(1, threads);
+        AtomicInteger seq = new AtomicInteger();
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                size,
+                size,
+                30,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                r -> {
+                    Thread t = new Thread(r, "media-derivative-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Pool da otimização de imagens no upload. A thread do pedido espera pelo
+     * resultado; com a fila cheia a tarefa é rejeitada e o upload responde
+     * 503, em vez de acumular imagens descodificadas em memória.
+     */
+    @Bean(name = "mediaOptimizeExecutor", destroyMethod = "shutdown")
+    public ExecutorService mediaOptimizeExecutor(
+            @Value("${ptdot.media.optimize.threads:2}") int threads,
+            @Value("${ptdot.media.optimize.queue-capacity:8}") int queueCapacity
+    ) {
+        int size = Math.max(1, threads);
+        AtomicInteger seq = new AtomicInteger();
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                size,
+                size,
+                30,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                r -> {
+                    Thread t = new Thread(r, "media-optimize-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Pool do GC de órfãos: cada thread processa uma fatia (prefixo + intervalo
+     * de keys) do bucket de cada vez. A fila só recebe os workers de uma
+     * execução, por isso nunca enche.
+     */
+    @Bean(name = "mediaGcExecutor", destroyMethod = "shutdown")
+    public ExecutorService mediaGcExecutor(
+            @Value("${ptdot.media.gc.threads:4}") int threads
+    ) {
+        int size = Math.max(1, threads);
+        AtomicInteger seq = new AtomicInteger();
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                size,
+                size,
+                30,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(size),
+                r -> {
+                    Thread t = new Thread(r, "media-gc-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
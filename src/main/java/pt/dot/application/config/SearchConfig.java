@@ -0,0 +1,46 @@
+package pt.dot.application.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class SearchConfig {
+
+    /**
+     * Pool dedicado ao fan-out da pesquisa (distritos + POIs em paralelo).
+     * Limitado para não esgotar o pool Hikari; se a fila encher, a tarefa é
+     * recusada e o SearchService responde com o que tiver (resultado
+     * parcial). Correr na thread do pedido ficava fora do deadline.
+     */
+    @Bean(name = "searchExecutor", destroyMethod = "shutdown")
+    public ExecutorService searchExecutor(
+            @Value("${ptdot.search.executor.threads:4}") int threads,
+            @Value("${ptdot.search.executor.queue-capacity:64}") int queueCapacity
+    ) {
+        int size = Math.max(1, threads);
+        AtomicInteger seq = new AtomicInteger();
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                size,
+                size,
+                30,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                r -> {
+                    Thread t = new Thread(r, "search-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,69 @@
+package pt.dot.application.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class WikimediaConfig {
+
+    /**
+     * Pool dos pedidos ao Commons feitos pela {@code WikimediaMediaCache}
+     * (misses e refresh-ahead). Limitado para que um Commons lento não
+     * acumule threads; com a fila cheia a tarefa é rejeitada e a cache
+     * responde com o que tiver.
+     */
+    @Bean(name = "wikimediaFetchExecutor", destroyMethod = "shutdown")
+    public ThreadPoolExecutor wikimediaFetchExecutor(
+            @Value("${ptdot.wikimedia.fetch.threads:4}") int threads,
+            @Value("${ptdot.wikimedia.fetch.queue-capacity:32}") int queueCapacity
+    ) {
+        int size = Math.max(1, threads);
+        AtomicInteger seq = new AtomicInteger();
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                size,
+                size,
+                30,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                r -> {
+                    Thread t = new Thread(r, "wikimedia-fetch-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Uma só thread para o prefetch: a cadência já é limitada pelo
+     * {@code WikimediaRateLimiter}, mais threads só disputavam os tokens com
+     * o request path. Uma execução de cada vez (sem fila).
+     */
+    @Bean(name = "wikimediaPrefetchExecutor", destroyMethod = "shutdownNow")
+    public ExecutorService wikimediaPrefetchExecutor() {
+        return new ThreadPoolExecutor(
+                1,
+                1,
+                0,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "wikimedia-prefetch");
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+    }
+}
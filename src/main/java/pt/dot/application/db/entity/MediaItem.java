@@ -37,6 +37,13 @@ public class MediaItem {
     @Column(name = "storage_key", nullable = false, columnDefinition = "text")
     private String storageKey;
 
+    /**
+     * Original tal como foi enviado, quando o upload foi otimizado e
+     * {@code ptdot.media.optimize.keep-original} está ativo.
+     */
+    @Column(name = "original_key", columnDefinition = "text")
+    private String originalKey;
+
     @Column(name = "thumb_url", columnDefinition = "text")
     private String thumbUrl;
 
@@ -46,6 +53,30 @@ public class MediaItem {
     @Column(name = "position")
     private Integer position = 0;
 
+    /**
+     * Larguras das derivadas geradas (ex.: {160, 480, 1024}). A key de cada
+     * uma deriva da storage key: ver MediaDerivativeService#variantKey.
+     */
+    @Column(name = "variant_widths", columnDefinition = "integer[]")
+    private Integer[] variantWidths;
+
+    /**
+     * Dimensões do original e placeholder (BlurHash + cor dominante), para o
+     * cliente reservar o espaço e mostrar algo antes de a imagem chegar.
+     * Preenchidos em background pelo MediaDerivativeService.
+     */
+    @Column(name = "width")
+    private Integer width;
+
+    @Column(name = "height")
+    private Integer height;
+
+    @Column(name = "blur_hash", length = 64)
+    private String blurHash;
+
+    @Column(name = "dominant_color", length = 7)
+    private String dominantColor;
+
     @Column(name = "created_at", nullable = false, updatable = false)
     private Instant createdAt = Instant.now();
 
@@ -109,6 +140,14 @@ public class MediaItem {
         this.storageKey = storageKey;
     }
 
+    public String getOriginalKey() {
+        return originalKey;
+    }
+
+    public void setOriginalKey(String originalKey) {
+        this.originalKey = originalKey;
+    }
+
     public String getThumbUrl() {
         return thumbUrl;
     }
@@ -133,6 +172,46 @@ public class MediaItem {
         this.position = position;
     }
 
+    public Integer[] getVariantWidths() {
+        return variantWidths;
+    }
+
+    public void setVariantWidths(Integer[] variantWidths) {
+        this.variantWidths = variantWidths;
+    }
+
+    public Integer getWidth() {
+        return width;
+    }
+
+    public void setWidth(Integer width) {
+        this.width = width;
+    }
+
+    public Integer getHeight() {
+        return height;
+    }
+
+    public void setHeight(Integer height) {
+        this.height = height;
+    }
+
+    public String getBlurHash() {
+        return blurHash;
+    }
+
+    public void setBlurHash(String blurHash) {
+        this.blurHash = blurHash;
+    }
+
+    public String getDominantColor() {
+        return dominantColor;
+    }
+
+    public void setDominantColor(String dominantColor) {
+        this.dominantColor = dominantColor;
+    }
+
     public Instant getCreatedAt() {
         return createdAt;
     }
@@ -17,11 +17,15 @@ public interface DistrictRepository extends JpaRepository<District, Long> {
 
     Optional<District> findByCodeIgnoreCase(String code);
 
+    /**
+     * {@code q} já normalizada com {@link pt.dot.application.util.TextNorm#normalize};
+     * os nomes levam a mesma normalização no SQL.
+     */
     @Query(value = """
       select *
       from district d
-      where unaccent(lower(coalesce(d.name_pt, d.name))) like concat('%%', unaccent(lower(:q)), '%%')
-         or unaccent(lower(coalesce(d.name, ''))) like concat('%%', unaccent(lower(:q)), '%%')
+      where trim(regexp_replace(unaccent(lower(coalesce(d.name_pt, d.name))), '[^a-z0-9]+', ' ', 'g')) like concat('%%', :q, '%%')
+         or trim(regexp_replace(unaccent(lower(coalesce(d.name, ''))), '[^a-z0-9]+', ' ', 'g')) like concat('%%', :q, '%%')
       order by coalesce(d.name_pt, d.name) asc
       limit :limit
     """, nativeQuery = true)
@@ -0,0 +1,12 @@
+package pt.dot.application.db.repo;
+
+public interface MediaItemKeyView {
+
+    Long getEntityId();
+    String getStorageKey();
+    String getVariantWidths();
+    Integer getWidth();
+    Integer getHeight();
+    String getBlurHash();
+    String getDominantColor();
+}
@@ -1,8 +1,11 @@
 package pt.dot.application.db.repo;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import pt.dot.application.db.entity.MediaItem;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface MediaItemRepository extends JpaRepository<MediaItem, Long> {
@@ -10,4 +13,44 @@ public interface MediaItemRepository extends JpaRepository<MediaItem, Long> {
     List<MediaItem> findByEntityTypeAndEntityIdOrderByPositionAscIdAsc(String entityType, Long entityId);
 
     boolean existsByEntityTypeAndEntityIdAndMediaType(String entityType, Long entityId, String mediaType);
+
+    boolean existsByStorageKey(String storageKey);
+
+    /**
+     * Primeiros {@code limitPerEntity} itens de cada entidade, numa só query.
+     * mediaType null = todos os tipos.
+     */
+    @Query(value = """
+      select x.entity_id as entityId,
+             x.storage_key as storageKey,
+             array_to_string(x.variant_widths, ',') as variantWidths,
+             x.width as width,
+             x.height as height,
+             x.blur_hash as blurHash,
+             x.dominant_color as dominantColor
+      from (
+        select m.entity_id,
+               m.storage_key,
+               m.variant_widths,
+               m.width,
+               m.height,
+               m.blur_hash,
+               m.dominant_color,
+               row_number() over (partition by m.entity_id order by m.position, m.id) as rn
+        from media_item m
+        where m.entity_type = :entityType
+          and m.entity_id in (:entityIds)
+          and (cast(:mediaType as varchar) is null or lower(m.media_type) = lower(cast(:mediaType as varchar)))
+          and m.storage_key is not null
+          and m.storage_key <> ''
+      ) x
+      where x.rn <= :limitPerEntity
+      order by x.entity_id, x.rn
+    """, nativeQuery = true)
+    List<MediaItemKeyView> findTopKeysPerEntity(
+            @Param("entityType") String entityType,
+            @Param("entityIds") Collection<Long> entityIds,
+            @Param("mediaType") String mediaType,
+            @Param("limitPerEntity") int limitPerEntity
+    );
 }
@@ -0,0 +1,12 @@
+package pt.dot.application.db.repo;
+
+public interface PoiFacetView {
+
+    Long getId();
+    String getName();
+    String getNamePt();
+    String getCategory();
+    String getSource();
+    Long getDistrictId();
+    Boolean getHasImages();
+}
@@ -17,15 +17,41 @@ public interface PoiRepository extends JpaRepository<Poi, Long> {
 
     List<Poi> findByOwner_Id(UUID ownerId);
 
+    /**
+     * {@code q} já normalizada com {@link pt.dot.application.util.TextNorm#normalize};
+     * os nomes levam a mesma normalização no SQL.
+     */
     @Query(value = """
-      select *
+      select p.id as id,
+             p.name as name,
+             p.name_pt as namePt,
+             p.district_id as districtId
       from poi p
-      where unaccent(lower(coalesce(p.name_pt, p.name))) like concat('%%', unaccent(lower(:q)), '%%')
-         or unaccent(lower(coalesce(p.name, ''))) like concat('%%', unaccent(lower(:q)), '%%')
+      where trim(regexp_replace(unaccent(lower(coalesce(p.name_pt, p.name))), '[^a-z0-9]+', ' ', 'g')) like concat('%%', :q, '%%')
+         or trim(regexp_replace(unaccent(lower(coalesce(p.name, ''))), '[^a-z0-9]+', ' ', 'g')) like concat('%%', :q, '%%')
       order by coalesce(p.name_pt, p.name) asc
       limit :limit
     """, nativeQuery = true)
-    List<Poi> searchByName(@Param("q") String q, @Param("limit") int limit);
+    List<PoiSearchView> searchLiteByName(@Param("q") String q, @Param("limit") int limit);
+
+    @Query(value = """
+      select p.id as id,
+             p.name as name,
+             p.name_pt as namePt,
+             p.category as category,
+             p.source as source,
+             p.district_id as districtId,
+             exists (
+               select 1
+               from media_item m
+               where m.entity_type = 'POI'
+                 and m.entity_id = p.id
+                 and upper(m.media_type) = 'IMAGE'
+             ) as hasImages
+      from poi p
+      order by p.id
+    """, nativeQuery = true)
+    List<PoiFacetView> findAllFacetRows();
 
     @Query("""
         select
@@ -0,0 +1,9 @@
+package pt.dot.application.db.repo;
+
+public interface PoiSearchView {
+
+    Long getId();
+    String getName();
+    String getNamePt();
+    Long getDistrictId();
+}
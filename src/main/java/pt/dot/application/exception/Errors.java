@@ -22,4 +22,7 @@ public final class Errors {
 
     public static ApiException internalServerError(String message) { return new ApiException(HttpStatus.INTERNAL_SERVER_ERROR, message); }
     public static ApiException internalServerError(String code, String message) { return new ApiException(HttpStatus.INTERNAL_SERVER_ERROR, code, message); }
+
+    public static ApiException serviceUnavailable(String message) { return new ApiException(HttpStatus.SERVICE_UNAVAILABLE, message); }
+    public static ApiException serviceUnavailable(String code, String message) { return new ApiException(HttpStatus.SERVICE_UNAVAILABLE, code, message); }
 }
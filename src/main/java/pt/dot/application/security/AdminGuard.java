@@ -0,0 +1,37 @@
+package pt.dot.application.security;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import pt.dot.application.db.entity.AppUser;
+import pt.dot.application.db.enums.UserRole;
+import pt.dot.application.db.repo.AppUserRepository;
+import pt.dot.application.exception.Errors;
+
+import java.util.UUID;
+
+@Component
+public class AdminGuard {
+
+    private final AppUserRepository userRepository;
+
+    public AdminGuard(AppUserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    @Transactional(readOnly = true)
+    public AppUser requireAdmin() {
+        UUID userId = SecurityUtil.getUserIdOrNull();
+        if (userId == null) {
+            throw Errors.unauthorized("AUTH_REQUIRED", "Inicia sessão para continuar.");
+        }
+
+        AppUser me = userRepository.findById(userId)
+                .orElseThrow(() -> Errors.unauthorized("AUTH_REQUIRED", "Inicia sessão para continuar."));
+
+        if (me.getRole() != UserRole.ADMIN) {
+            throw Errors.forbidden("ADMIN_REQUIRED", "Apenas administradores podem aceder a este recurso.");
+        }
+
+        return me;
+    }
+}
@@ -43,8 +43,12 @@ public class SecurityConfig {
                         .requestMatchers(HttpMethod.GET, "/api/pois").permitAll()
                         .requestMatchers(HttpMethod.GET, "/api/pois/lite").permitAll()
                         .requestMatchers(HttpMethod.GET, "/api/pois/*").permitAll()
-                        .requestMatchers(HttpMethod.GET, "/api/search").permitAll()
+                        .requestMatchers(HttpMethod.GET, "/api/search", "/api/search/faceted", "/api/search/popular").permitAll()
                         .requestMatchers(HttpMethod.GET, "/api/pois/*/comments").permitAll()
+                        .requestMatchers(HttpMethod.GET, "/media/**").permitAll()
+                        .requestMatchers(HttpMethod.HEAD, "/media/**").permitAll()
+                        .requestMatchers(HttpMethod.GET, "/api/media/proxy").permitAll()
+                        .requestMatchers(HttpMethod.HEAD, "/api/media/proxy").permitAll()
 
                         // autenticados
                         .requestMatchers(HttpMethod.GET, "/api/me").authenticated()
@@ -66,6 +70,8 @@ public class SecurityConfig {
 
                         .requestMatchers("/api/chat/**").authenticated()
                         .requestMatchers(HttpMethod.POST, "/api/media/upload").authenticated()
+                        .requestMatchers(HttpMethod.POST, "/api/media/upload/stream").authenticated()
+                        .requestMatchers(HttpMethod.POST, "/api/media/upload-intent", "/api/media/complete").authenticated()
                         .anyRequest().authenticated()
                 )
                 .addFilterBefore(jwtAuthFilter, UsernamePasswordAuthenticationFilter.class);
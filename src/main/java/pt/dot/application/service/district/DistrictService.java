@@ -8,6 +8,8 @@ import pt.dot.application.db.entity.District;
 import pt.dot.application.db.repo.DistrictRepository;
 import pt.dot.application.service.media.LazyWikimediaMediaService;
 import pt.dot.application.service.media.MediaItemService;
+import pt.dot.application.service.media.ResolvedImage;
+import pt.dot.application.service.search.SearchCache;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -22,15 +24,18 @@ public class DistrictService {
     private final DistrictRepository districtRepository;
     private final MediaItemService mediaItemService;
     private final LazyWikimediaMediaService lazyWikimediaMediaService;
+    private final SearchCache searchCache;
 
     public DistrictService(
             DistrictRepository districtRepository,
             MediaItemService mediaItemService,
-            LazyWikimediaMediaService lazyWikimediaMediaService
+            LazyWikimediaMediaService lazyWikimediaMediaService,
+            SearchCache searchCache
     ) {
         this.districtRepository = districtRepository;
         this.mediaItemService = mediaItemService;
         this.lazyWikimediaMediaService = lazyWikimediaMediaService;
+        this.searchCache = searchCache;
     }
 
     @Transactional(readOnly = true)
@@ -55,6 +60,7 @@ public class DistrictService {
         return districtRepository.findById(id).map(d -> {
             applyPatch(d, payload);
             District saved = districtRepository.saveAndFlush(d);
+            searchCache.invalidateAfterCommit();
             return toDistrictDtoWithFiles(saved);
         });
     }
@@ -103,6 +109,7 @@ public class DistrictService {
                 d.getMunicipalitiesCount(),
                 d.getParishesCount(),
                 List.of(),
+                List.of(),
                 List.of()
         );
     }
@@ -110,17 +117,19 @@ public class DistrictService {
     private DistrictDto toDistrictDtoWithFiles(District d) {
         List<String> lazyUrls = lazyWikimediaMediaService.ensureDistrictImages(d);
 
-        List<String> files = mediaItemService.getResolvedUrls(
+        List<ResolvedImage> images = mediaItemService.getResolvedImages(
                 MediaItemService.ENTITY_DISTRICT,
                 d.getId(),
                 MediaItemService.MEDIA_IMAGE,
                 MAX_FILES
         );
 
-        if (files.isEmpty() && !lazyUrls.isEmpty()) {
-            files = lazyUrls.stream().limit(MAX_FILES).toList();
+        if (images.isEmpty() && !lazyUrls.isEmpty()) {
+            images = lazyUrls.stream().limit(MAX_FILES).map(ResolvedImage::of).toList();
         }
 
+        List<String> files = images.stream().map(ResolvedImage::url).toList();
+
         return new DistrictDto(
                 d.getId(),
                 d.getCode(),
@@ -136,7 +145,8 @@ public class DistrictService {
                 d.getMunicipalitiesCount(),
                 d.getParishesCount(),
                 files,
-                normalizeStrings(d.getSources())
+                normalizeStrings(d.getSources()),
+                images.stream().map(ResolvedImage::toDto).toList()
         );
     }
 
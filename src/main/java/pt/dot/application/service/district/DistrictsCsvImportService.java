@@ -13,6 +13,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import pt.dot.application.db.entity.District;
 import pt.dot.application.db.repo.DistrictRepository;
+import pt.dot.application.service.search.SearchCache;
 
 import java.io.InputStreamReader;
 import java.io.Reader;
@@ -27,15 +28,18 @@ public class DistrictsCsvImportService {
     private final DistrictRepository repo;
     private final ResourceLoader resourceLoader;
     private final String csvPath;
+    private final SearchCache searchCache;
 
     public DistrictsCsvImportService(
             DistrictRepository repo,
             ResourceLoader resourceLoader,
-            @Value("${ptdot.sipa.districts-csv-path:classpath:/sipa/districts.csv}") String csvPath
+            @Value("${ptdot.sipa.districts-csv-path:classpath:/sipa/districts.csv}") String csvPath,
+            SearchCache searchCache
     ) {
         this.repo = repo;
         this.resourceLoader = resourceLoader;
         this.csvPath = csvPath;
+        this.searchCache = searchCache;
     }
 
     public record ImportResult(int totalRows, int created, int updated, int invalidRows) {}
@@ -129,6 +133,8 @@ public class DistrictsCsvImportService {
         log.info("[DistrictsCsvImport] Concluído (rows={}, created={}, updated={}, invalid={})",
                 total, created, updated, invalid);
 
+        searchCache.invalidateAfterCommit();
+
         return new ImportResult(total, created, updated, invalid);
     }
 
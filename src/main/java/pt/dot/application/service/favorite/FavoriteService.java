@@ -12,8 +12,10 @@ import pt.dot.application.db.repo.AppUserRepository;
 import pt.dot.application.db.repo.FavoriteRepository;
 import pt.dot.application.db.repo.PoiRepository;
 import pt.dot.application.service.media.MediaItemService;
+import pt.dot.application.service.media.ResolvedImage;
 
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static org.springframework.http.HttpStatus.NOT_FOUND;
@@ -59,9 +61,19 @@ public class FavoriteService {
 
     @Transactional(readOnly = true)
     public List<FavoriteDto> list() {
-        return favoriteRepository.findAllByUser_IdOrderByCreatedAtDesc(requireUserId())
-                .stream()
-                .map(this::toDto)
+        List<Favorite> favorites = favoriteRepository.findAllByUser_IdOrderByCreatedAtDesc(requireUserId());
+        if (favorites.isEmpty()) return List.of();
+
+        // uma query de media para a lista toda (1ª imagem de cada POI)
+        Map<Long, List<ResolvedImage>> imagesByPoi = mediaItemService.getResolvedImages(
+                MediaItemService.ENTITY_POI,
+                favorites.stream().map(f -> f.getPoi().getId()).toList(),
+                MediaItemService.MEDIA_IMAGE,
+                1
+        );
+
+        return favorites.stream()
+                .map(f -> toDto(f, firstOrNull(imagesByPoi.get(f.getPoi().getId()))))
                 .toList();
     }
 
@@ -113,22 +125,29 @@ public class FavoriteService {
     }
 
     private FavoriteDto toDto(Favorite favorite) {
-        Poi poi = favorite.getPoi();
-
-        List<String> images = mediaItemService.getResolvedUrls(
+        List<ResolvedImage> images = mediaItemService.getResolvedImages(
                 MediaItemService.ENTITY_POI,
-                poi.getId(),
+                favorite.getPoi().getId(),
                 MediaItemService.MEDIA_IMAGE,
                 1
         );
 
-        String image = images.isEmpty() ? null : images.get(0);
+        return toDto(favorite, firstOrNull(images));
+    }
+
+    private static FavoriteDto toDto(Favorite favorite, ResolvedImage image) {
+        Poi poi = favorite.getPoi();
 
         return new FavoriteDto(
                 poi.getId(),
                 poi.getNamePt() != null ? poi.getNamePt() : poi.getName(),
-                image,
+                image == null ? null : image.url(),
+                image == null ? null : image.smallestUrl(),
                 favorite.getCreatedAt()
         );
     }
-}
\ No newline at end of file
+
+    private static ResolvedImage firstOrNull(List<ResolvedImage> values) {
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+}
@@ -0,0 +1,16 @@
+package pt.dot.application.service.media;
+
+/**
+ * Dimensões do original e placeholder de uma imagem (campos a null enquanto
+ * não forem calculados).
+ *
+ * @param blurHash      BlurHash (https://blurha.sh), ~20-30 caracteres
+ * @param dominantColor cor dominante em {@code #rrggbb}
+ */
+public record ImageMeta(Integer width, Integer height, String blurHash, String dominantColor) {
+
+    public static ImageMeta of(Integer width, Integer height, String blurHash, String dominantColor) {
+        if (width == null && height == null && blurHash == null && dominantColor == null) return null;
+        return new ImageMeta(width, height, blurHash, dominantColor);
+    }
+}
@@ -0,0 +1,271 @@
+package pt.dot.application.service.media;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * Remove os metadados de uma imagem sem a voltar a codificar (os pixels
+ * ficam iguais ao byte), para os casos em que o {@link MediaImageOptimizer}
+ * não reescreve o ficheiro.
+ *
+ * - JPEG: tira APP1 (EXIF, XMP), APP13 (IPTC) e comentários. A orientação
+ *   não se perde: se o original a tinha, fica um EXIF novo só com essa tag.
+ * - PNG: tira eXIf, tEXt, zTXt, iTXt e tIME.
+ * - WebP: tira os chunks EXIF e XMP e limpa as flags no VP8X. O RIFF tem o
+ *   tamanho total no cabeçalho, por isso este é o único que lê o ficheiro
+ *   todo para memória.
+ *
+ * JPEG e PNG são filtrados em stream: cada segmento/chunk é copiado ou
+ * saltado pelo comprimento, o resto (dados da imagem) passa direto.
+ */
+final class ImageMetadata {
+
+    private static final Set<String> PNG_DROP = Set.of("eXIf", "tEXt", "zTXt", "iTXt", "tIME");
+
+    private ImageMetadata() {
+    }
+
+    /**
+     * @param in          o ficheiro completo, desde o primeiro byte
+     * @param contentType tipo identificado pelo {@link ImageProbe}
+     * @param orientation orientação EXIF do original (1 = normal)
+     * @return o stream sem metadados, ou {@code in} se o formato não os tem
+     */
+    static InputStream strip(InputStream in, String contentType, int orientation) {
+        return switch (contentType) {
+            case "image/jpeg" -> new JpegFilter(in, orientation);
+            case "image/png" -> new PngFilter(in);
+            default -> in;
+        };
+    }
+
+    /**
+     * WebP sem os chunks EXIF/XMP, com o tamanho do RIFF acertado.
+     */
+    static byte[] stripWebp(byte[] b) throws IOException {
+        if (b.length < 12) throw new IOException("WebP truncado");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(b.length);
+        out.write(b, 0, 12);
+
+        int i = 12;
+        while (i + 8 <= b.length) {
+            String fourcc = new String(b, i, 4, StandardCharsets.US_ASCII);
+            long size = u32le(b, i + 4);
+            long end = i + 8 + size + (size & 1);
+            if (end > b.length) {
+                // o último chunk pode vir sem o byte de padding
+                if (i + 8 + size > b.length) throw new IOException("Chunk WebP truncado");
+                end = b.length;
+            }
+
+            if (!fourcc.equals("EXIF") && !fourcc.equals("XMP ")) {
+                byte[] chunk = Arrays.copyOfRange(b, i, (int) end);
+                // flags do VP8X: bit 3 = EXIF, bit 2 = XMP
+                if (fourcc.equals("VP8X") && size >= 1) chunk[8] &= ~0x0C;
+                out.writeBytes(chunk);
+            }
+            i = (int) end;
+        }
+
+        byte[] result = out.toByteArray();
+        int riff = result.length - 8;
+        result[4] = (byte) riff;
+        result[5] = (byte) (riff >>> 8);
+        result[6] = (byte) (riff >>> 16);
+        result[7] = (byte) (riff >>> 24);
+        return result;
+    }
+
+    /**
+     * APP1 só com a tag de orientação (TIFF big-endian, um IFD, uma entrada).
+     */
+    static byte[] orientationApp1(int orientation) {
+        return new byte[]{
+                (byte) 0xFF, (byte) 0xE1, 0, 34,
+                'E', 'x', 'i', 'f', 0, 0,
+                'M', 'M', 0, 0x2A, 0, 0, 0, 8,
+                0, 1,
+                0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                0, 0, 0, 0
+        };
+    }
+
+    /**
+     * Emite blocos (cabeçalhos de segmento, já decididos) e depois copia
+     * {@code passthrough} bytes do original sem os guardar.
+     */
+    private abstract static class Filter extends InputStream {
+
+        final InputStream in;
+
+        private byte[] pending = new byte[0];
+        private int pendingPos;
+        long passthrough;
+        boolean rest;
+
+        Filter(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Prepara o próximo bloco ({@link #emit} / {@link #passthrough} /
+         * {@link #rest}). False no fim do ficheiro.
+         */
+        abstract boolean next() throws IOException;
+
+        final void emit(byte[] bytes) {
+            pending = bytes;
+            pendingPos = 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = read(one, 0, 1);
+            return n < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+
+            while (true) {
+                if (pendingPos < pending.length) {
+                    int n = Math.min(len, pending.length - pendingPos);
+                    System.arraycopy(pending, pendingPos, b, off, n);
+                    pendingPos += n;
+                    return n;
+                }
+                if (passthrough > 0) {
+                    int n = in.read(b, off, (int) Math.min(len, passthrough));
+                    if (n < 0) throw new EOFException("Imagem truncada");
+                    passthrough -= n;
+                    return n;
+                }
+                if (rest) return in.read(b, off, len);
+                if (!next()) return -1;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        final byte[] readExactly(int n) throws IOException {
+            byte[] bytes = in.readNBytes(n);
+            if (bytes.length != n) throw new EOFException("Imagem truncada");
+            return bytes;
+        }
+
+        final void skipExactly(long n) throws IOException {
+            in.skipNBytes(n);
+        }
+    }
+
+    private static final class JpegFilter extends Filter {
+
+        private final int orientation;
+        private boolean started;
+
+        JpegFilter(InputStream in, int orientation) {
+            super(in);
+            this.orientation = orientation;
+        }
+
+        @Override
+        boolean next() throws IOException {
+            if (!started) {
+                started = true;
+                byte[] soi = readExactly(2);
+                // a orientação vai logo a seguir ao SOI
+                emit(orientation > 1 && orientation <= 8 ? concat(soi, orientationApp1(orientation)) : soi);
+                return true;
+            }
+
+            int b = in.read();
+            if (b < 0) return false;
+            if (b != 0xFF) throw new IOException("Marcador JPEG inválido");
+
+            int marker = in.read();
+            while (marker == 0xFF) marker = in.read();
+            if (marker < 0) throw new EOFException("Imagem truncada");
+
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD9)) {
+                emit(new byte[]{(byte) 0xFF, (byte) marker});
+                return true;
+            }
+
+            byte[] length = readExactly(2);
+            int segmentLength = ((length[0] & 0xff) << 8) | (length[1] & 0xff);
+            if (segmentLength < 2) throw new IOException("Segmento JPEG inválido");
+
+            if (marker == 0xE1 || marker == 0xED || marker == 0xFE) {
+                skipExactly(segmentLength - 2);
+                return true;
+            }
+
+            emit(new byte[]{(byte) 0xFF, (byte) marker, length[0], length[1]});
+            passthrough = segmentLength - 2;
+            // a partir do SOS são dados comprimidos: passa tudo
+            if (marker == 0xDA) rest = true;
+            return true;
+        }
+    }
+
+    private static final class PngFilter extends Filter {
+
+        private boolean started;
+
+        PngFilter(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        boolean next() throws IOException {
+            if (!started) {
+                started = true;
+                emit(readExactly(8));
+                return true;
+            }
+
+            byte[] header = in.readNBytes(8);
+            if (header.length == 0) return false;
+            if (header.length != 8) throw new EOFException("Imagem truncada");
+
+            long length = u32be(header, 0);
+            String type = new String(header, 4, 4, StandardCharsets.US_ASCII);
+
+            // dados + CRC
+            if (PNG_DROP.contains(type)) {
+                skipExactly(length + 4);
+                return true;
+            }
+
+            emit(header);
+            passthrough = length + 4;
+            if (type.equals("IEND")) rest = true;
+            return true;
+        }
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] out = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+
+    private static long u32be(byte[] b, int i) {
+        return ((long) (b[i] & 0xff) << 24) | ((b[i + 1] & 0xff) << 16) | ((b[i + 2] & 0xff) << 8) | (b[i + 3] & 0xff);
+    }
+
+    private static long u32le(byte[] b, int i) {
+        return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16) | ((long) (b[i + 3] & 0xff) << 24);
+    }
+}
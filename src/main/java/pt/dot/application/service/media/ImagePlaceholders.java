@@ -0,0 +1,153 @@
+package pt.dot.application.service.media;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * BlurHash e cor dominante de uma imagem já reduzida (ex.: 32px de largura):
+ * o custo é proporcional aos pixels, por isso nunca se calcula sobre o
+ * original.
+ */
+final class ImagePlaceholders {
+
+    private static final char[] BASE83 =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~".toCharArray();
+
+    private ImagePlaceholders() {
+    }
+
+    /**
+     * Encoder de referência do BlurHash: componentes DCT em RGB linear,
+     * quantizados e codificados em base 83.
+     */
+    static String blurHash(BufferedImage image, int componentsX, int componentsY) {
+        int cx = Math.max(1, Math.min(9, componentsX));
+        int cy = Math.max(1, Math.min(9, componentsY));
+        int w = image.getWidth();
+        int h = image.getHeight();
+
+        int[] rgb = image.getRGB(0, 0, w, h, null, 0, w);
+        double[] r = new double[rgb.length];
+        double[] g = new double[rgb.length];
+        double[] b = new double[rgb.length];
+        for (int i = 0; i < rgb.length; i++) {
+            r[i] = srgbToLinear((rgb[i] >> 16) & 0xff);
+            g[i] = srgbToLinear((rgb[i] >> 8) & 0xff);
+            b[i] = srgbToLinear(rgb[i] & 0xff);
+        }
+
+        double[][] factors = new double[cx * cy][];
+        for (int j = 0; j < cy; j++) {
+            for (int i = 0; i < cx; i++) {
+                double normalisation = (i == 0 && j == 0) ? 1 : 2;
+                double fr = 0;
+                double fg = 0;
+                double fb = 0;
+
+                for (int y = 0; y < h; y++) {
+                    double basisY = Math.cos(Math.PI * j * y / h);
+                    for (int x = 0; x < w; x++) {
+                        double basis = normalisation * Math.cos(Math.PI * i * x / w) * basisY;
+                        int p = y * w + x;
+                        fr += basis * r[p];
+                        fg += basis * g[p];
+                        fb += basis * b[p];
+                    }
+                }
+
+                double scale = 1.0 / (w * h);
+                factors[j * cx + i] = new double[]{fr * scale, fg * scale, fb * scale};
+            }
+        }
+
+        StringBuilder out = new StringBuilder(4 + 2 * factors.length + 2);
+        encode83((cx - 1) + (cy - 1) * 9, 1, out);
+
+        double maximumValue;
+        if (factors.length > 1) {
+            double actualMax = 0;
+            for (int k = 1; k < factors.length; k++) {
+                for (double v : factors[k]) actualMax = Math.max(actualMax, Math.abs(v));
+            }
+            int quantisedMax = (int) Math.max(0, Math.min(82, Math.floor(actualMax * 166 - 0.5)));
+            maximumValue = (quantisedMax + 1) / 166.0;
+            encode83(quantisedMax, 1, out);
+        } else {
+            maximumValue = 1;
+            encode83(0, 1, out);
+        }
+
+        double[] dc = factors[0];
+        encode83((linearToSrgb(dc[0]) << 16) + (linearToSrgb(dc[1]) << 8) + linearToSrgb(dc[2]), 4, out);
+
+        for (int k = 1; k < factors.length; k++) {
+            double[] ac = factors[k];
+            int qr = quantiseAc(ac[0], maximumValue);
+            int qg = quantiseAc(ac[1], maximumValue);
+            int qb = quantiseAc(ac[2], maximumValue);
+            encode83(qr * 19 * 19 + qg * 19 + qb, 2, out);
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * Cor mais frequente (histograma de 4 bits por canal), como média dos
+     * pixels desse balde; {@code #rrggbb}.
+     */
+    static String dominantColor(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        int[] rgb = image.getRGB(0, 0, w, h, null, 0, w);
+
+        int[] count = new int[4096];
+        long[] sumR = new long[4096];
+        long[] sumG = new long[4096];
+        long[] sumB = new long[4096];
+
+        int best = 0;
+        for (int p : rgb) {
+            int pr = (p >> 16) & 0xff;
+            int pg = (p >> 8) & 0xff;
+            int pb = p & 0xff;
+            int bucket = ((pr >> 4) << 8) | ((pg >> 4) << 4) | (pb >> 4);
+
+            count[bucket]++;
+            sumR[bucket] += pr;
+            sumG[bucket] += pg;
+            sumB[bucket] += pb;
+            if (count[bucket] > count[best]) best = bucket;
+        }
+
+        int n = Math.max(1, count[best]);
+        return String.format("#%02x%02x%02x", sumR[best] / n, sumG[best] / n, sumB[best] / n);
+    }
+
+    private static int quantiseAc(double value, double maximumValue) {
+        double v = signPow(value / maximumValue, 0.5) * 9 + 9.5;
+        return (int) Math.max(0, Math.min(18, Math.floor(v)));
+    }
+
+    private static double signPow(double value, double exp) {
+        return Math.copySign(Math.pow(Math.abs(value), exp), value);
+    }
+
+    private static double srgbToLinear(int value) {
+        double v = value / 255.0;
+        return v <= 0.04045 ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4);
+    }
+
+    private static int linearToSrgb(double value) {
+        double v = Math.max(0, Math.min(1, value));
+        return v <= 0.0031308
+                ? (int) (v * 12.92 * 255 + 0.5)
+                : (int) ((1.055 * Math.pow(v, 1 / 2.4) - 0.055) * 255 + 0.5);
+    }
+
+    private static void encode83(int value, int length, StringBuilder out) {
+        for (int i = 1; i <= length; i++) {
+            int divisor = 1;
+            for (int k = 0; k < length - i; k++) divisor *= 83;
+            out.append(BASE83[(value / divisor) % 83]);
+        }
+    }
+}
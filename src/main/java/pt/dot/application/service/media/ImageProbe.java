@@ -0,0 +1,288 @@
+package pt.dot.application.service.media;
+
+import pt.dot.application.exception.Errors;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+
+/**
+ * Identifica uma imagem pelos magic bytes e lê as dimensões só do
+ * cabeçalho, sem descodificar nem ler o ficheiro inteiro.
+ *
+ * Formatos: JPEG, PNG, GIF, WebP (VP8 / VP8L / VP8X) e BMP. Tudo o resto
+ * (SVG incluído) é rejeitado, independentemente do Content-Type declarado.
+ *
+ * O cabeçalho lido fica num buffer pequeno (até {@value #MAX_HEADER_BYTES}
+ * bytes, o JPEG pode ter EXIF antes do SOF) e é reposto à frente do resto do
+ * stream, que segue direto para o storage.
+ */
+final class ImageProbe {
+
+    static final int MAX_HEADER_BYTES = 256 * 1024;
+
+    private static final int INITIAL_BUFFER = 8 * 1024;
+
+    /**
+     * Suficiente para a assinatura e dimensões de todos os formatos exceto
+     * JPEG (que percorre segmentos).
+     */
+    private static final int MIN_PROBE = 32;
+
+    private static final Info NEED_MORE = new Info(null, 0, 0, 1);
+    private static final Info NOT_IMAGE = new Info(null, -1, -1, 1);
+
+    private ImageProbe() {
+    }
+
+    /**
+     * @param width       largura como está codificada (antes da orientação EXIF)
+     * @param orientation orientação EXIF do JPEG (1-8; 1 = normal ou sem EXIF)
+     */
+    record Info(String contentType, int width, int height, int orientation) {
+
+        long pixels() {
+            return (long) width * height;
+        }
+    }
+
+    /**
+     * @param stream o stream completo (cabeçalho já lido + resto)
+     */
+    record Probed(Info info, InputStream stream) {}
+
+    /**
+     * Lê o mínimo de {@code in} para identificar o formato. Devolve null se
+     * não for uma imagem suportada ou se o cabeçalho for inválido.
+     */
+    static Probed probe(InputStream in) throws IOException {
+        byte[] buf = new byte[INITIAL_BUFFER];
+        int len = 0;
+        boolean eof = false;
+
+        while (true) {
+            while (!eof && len < buf.length && len < MIN_PROBE) {
+                int n = in.read(buf, len, buf.length - len);
+                if (n < 0) eof = true;
+                else len += n;
+            }
+
+            Info info = parse(buf, len);
+            if (info == NOT_IMAGE) return null;
+            if (info != NEED_MORE) {
+                return new Probed(info, new SequenceInputStream(new ByteArrayInputStream(buf, 0, len), in));
+            }
+
+            if (eof) return null;
+            if (len == buf.length) {
+                if (buf.length >= MAX_HEADER_BYTES) return null;
+                buf = Arrays.copyOf(buf, Math.min(MAX_HEADER_BYTES, buf.length * 2));
+            }
+
+            int n = in.read(buf, len, buf.length - len);
+            if (n < 0) eof = true;
+            else len += n;
+        }
+    }
+
+    /**
+     * Corta o stream ao passar de {@code maxBytes}: a leitura falha com
+     * MEDIA_FILE_TOO_LARGE e o upload em curso é abortado.
+     */
+    static InputStream limit(InputStream in, long maxBytes) {
+        return new FilterInputStream(in) {
+            private long count;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) count(1);
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) count(n);
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                if (skipped > 0) count(skipped);
+                return skipped;
+            }
+
+            private void count(long n) {
+                count += n;
+                if (count > maxBytes) {
+                    throw Errors.badRequest("MEDIA_FILE_TOO_LARGE", "Ficheiro demasiado grande.");
+                }
+            }
+        };
+    }
+
+    static Info parse(byte[] b, int len) {
+        if (len < 2) return NEED_MORE;
+
+        if ((b[0] & 0xff) == 0xFF && (b[1] & 0xff) == 0xD8) return parseJpeg(b, len);
+
+        if (matches(b, len, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            if (len < 24) return NEED_MORE;
+            if (!matchesAt(b, 12, len, 'I', 'H', 'D', 'R')) return NOT_IMAGE;
+            return info("image/png", u32be(b, 16), u32be(b, 20));
+        }
+
+        if (matches(b, len, 'G', 'I', 'F', '8') && len >= 6 && (b[4] == '7' || b[4] == '9') && b[5] == 'a') {
+            if (len < 10) return NEED_MORE;
+            return info("image/gif", u16le(b, 6), u16le(b, 8));
+        }
+
+        if (matches(b, len, 'R', 'I', 'F', 'F') && matchesAt(b, 8, len, 'W', 'E', 'B', 'P')) {
+            return parseWebp(b, len);
+        }
+
+        if (matches(b, len, 'B', 'M')) {
+            if (len < 26) return NEED_MORE;
+            return info("image/bmp", i32le(b, 18), Math.abs(i32le(b, 22)));
+        }
+
+        return NOT_IMAGE;
+    }
+
+    /**
+     * Percorre os segmentos até ao SOFn (onde estão as dimensões); os APPn
+     * são saltados pelo comprimento, exceto o EXIF, de onde se tira só a
+     * orientação.
+     */
+    private static Info parseJpeg(byte[] b, int len) {
+        int i = 2;
+        int orientation = 1;
+
+        while (true) {
+            if (i + 4 > len) return NEED_MORE;
+            if ((b[i] & 0xff) != 0xFF) return NOT_IMAGE;
+
+            int marker = b[i + 1] & 0xff;
+            if (marker == 0xFF) {
+                i++;
+                continue;
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD8)) {
+                i += 2;
+                continue;
+            }
+            if (marker == 0xD9 || marker == 0xDA) return NOT_IMAGE;
+
+            int segmentLength = u16be(b, i + 2);
+            if (segmentLength < 2) return NOT_IMAGE;
+
+            if (marker == 0xE1 && matchesAt(b, i + 4, len, 'E', 'x', 'i', 'f', 0, 0)) {
+                if (i + 2 + segmentLength > len) return NEED_MORE;
+                orientation = exifOrientation(b, i + 10, i + 2 + segmentLength);
+            }
+
+            boolean sof = marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+            if (sof) {
+                if (i + 9 > len) return NEED_MORE;
+                Info info = info("image/jpeg", u16be(b, i + 7), u16be(b, i + 5));
+                return info == NOT_IMAGE ? info : new Info(info.contentType(), info.width(), info.height(), orientation);
+            }
+
+            i += 2 + segmentLength;
+        }
+    }
+
+    /**
+     * Tag 0x0112 do IFD0 do bloco TIFF que começa em {@code tiff}.
+     */
+    private static int exifOrientation(byte[] b, int tiff, int end) {
+        if (tiff + 8 > end) return 1;
+
+        boolean le;
+        if (b[tiff] == 'I' && b[tiff + 1] == 'I') le = true;
+        else if (b[tiff] == 'M' && b[tiff + 1] == 'M') le = false;
+        else return 1;
+
+        long ifd = le ? u32le(b, tiff + 4) : u32be(b, tiff + 4);
+        if (ifd < 8 || tiff + ifd + 2 > end) return 1;
+
+        int p = tiff + (int) ifd;
+        int entries = le ? u16le(b, p) : u16be(b, p);
+
+        for (int k = 0; k < entries; k++) {
+            int e = p + 2 + k * 12;
+            if (e + 12 > end) return 1;
+
+            int tag = le ? u16le(b, e) : u16be(b, e);
+            if (tag == 0x0112) {
+                int value = le ? u16le(b, e + 8) : u16be(b, e + 8);
+                return value >= 1 && value <= 8 ? value : 1;
+            }
+        }
+        return 1;
+    }
+
+    private static Info parseWebp(byte[] b, int len) {
+        if (len < 30) return NEED_MORE;
+
+        if (matchesAt(b, 12, len, 'V', 'P', '8', ' ')) {
+            return info("image/webp", u16le(b, 26) & 0x3FFF, u16le(b, 28) & 0x3FFF);
+        }
+        if (matchesAt(b, 12, len, 'V', 'P', '8', 'L')) {
+            if ((b[20] & 0xff) != 0x2F) return NOT_IMAGE;
+            long bits = u32le(b, 21);
+            return info("image/webp", (int) (bits & 0x3FFF) + 1, (int) ((bits >> 14) & 0x3FFF) + 1);
+        }
+        if (matchesAt(b, 12, len, 'V', 'P', '8', 'X')) {
+            return info("image/webp", u24le(b, 24) + 1, u24le(b, 27) + 1);
+        }
+
+        return NOT_IMAGE;
+    }
+
+    private static Info info(String contentType, long width, long height) {
+        if (width <= 0 || height <= 0 || width > Integer.MAX_VALUE || height > Integer.MAX_VALUE) return NOT_IMAGE;
+        return new Info(contentType, (int) width, (int) height, 1);
+    }
+
+    private static boolean matches(byte[] b, int len, int... signature) {
+        return matchesAt(b, 0, len, signature);
+    }
+
+    private static boolean matchesAt(byte[] b, int offset, int len, int... signature) {
+        if (offset + signature.length > len) return false;
+        for (int i = 0; i < signature.length; i++) {
+            if ((b[offset + i] & 0xff) != signature[i]) return false;
+        }
+        return true;
+    }
+
+    private static int u16be(byte[] b, int i) {
+        return ((b[i] & 0xff) << 8) | (b[i + 1] & 0xff);
+    }
+
+    private static int u16le(byte[] b, int i) {
+        return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8);
+    }
+
+    private static int u24le(byte[] b, int i) {
+        return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16);
+    }
+
+    private static long u32be(byte[] b, int i) {
+        return ((long) (b[i] & 0xff) << 24) | ((b[i + 1] & 0xff) << 16) | ((b[i + 2] & 0xff) << 8) | (b[i + 3] & 0xff);
+    }
+
+    private static long u32le(byte[] b, int i) {
+        return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16) | ((long) (b[i + 3] & 0xff) << 24);
+    }
+
+    private static int i32le(byte[] b, int i) {
+        return (int) u32le(b, i);
+    }
+}
@@ -1,8 +1,9 @@
 package pt.dot.application.service.media;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.ResponseEntity;
 import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
@@ -11,41 +12,68 @@ import org.springframework.web.client.RestClient;
 import pt.dot.application.db.entity.District;
 import pt.dot.application.db.entity.Poi;
 import pt.dot.application.service.wikimedia.WikimediaMediaService;
+import pt.dot.application.service.wikimedia.WikimediaRateLimiter;
+import pt.dot.application.service.wikimedia.WikimediaThrottledException;
 
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Set;
 
 @Service
 public class LazyWikimediaMediaService {
 
-    private static final String USER_AGENT =
+    private static final Logger log = LoggerFactory.getLogger(LazyWikimediaMediaService.class);
+
+    static final String USER_AGENT =
             "PortugalNaMao/1.0 (https://portugal-na-mao.vercel.app; contact: andredmendonca89@gmail.com)";
 
+    /**
+     * Só formatos que o {@link ImageProbe} reconhece.
+     */
+    static final String ACCEPT_IMAGES = "image/webp,image/jpeg,image/png,image/gif;q=0.9,image/*;q=0.5";
+
     private final boolean enabled;
     private final int maxPerEntity;
+    private final long maxBytes;
+    private final int maxDimension;
+    private final long maxPixels;
     private final WikimediaMediaService wikimediaMediaService;
     private final MediaItemService mediaItemService;
-    private final R2MediaStorageService r2MediaStorageService;
+    private final MediaBlobService mediaBlobService;
+    private final MediaStorage mediaStorage;
+    private final MediaProxyCache mediaProxyCache;
+    private final WikimediaRateLimiter rateLimiter;
     private final RestClient restClient;
 
     public LazyWikimediaMediaService(
             @Value("${ptdot.media.lazy-wikimedia.enabled:false}") boolean enabled,
             @Value("${ptdot.media.lazy-wikimedia.max-per-entity:5}") int maxPerEntity,
+            @Value("${ptdot.media.lazy-wikimedia.max-bytes:26214400}") long maxBytes,
+            @Value("${ptdot.media.lazy-wikimedia.max-dimension:12000}") int maxDimension,
+            @Value("${ptdot.media.lazy-wikimedia.max-pixels:50000000}") long maxPixels,
             WikimediaMediaService wikimediaMediaService,
             MediaItemService mediaItemService,
-            R2MediaStorageService r2MediaStorageService
+            MediaBlobService mediaBlobService,
+            MediaStorage mediaStorage,
+            MediaProxyCache mediaProxyCache,
+            WikimediaRateLimiter rateLimiter
     ) {
         this.enabled = enabled;
         this.maxPerEntity = Math.max(1, maxPerEntity);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.maxDimension = Math.max(1, maxDimension);
+        this.maxPixels = Math.max(1, maxPixels);
         this.wikimediaMediaService = wikimediaMediaService;
         this.mediaItemService = mediaItemService;
-        this.r2MediaStorageService = r2MediaStorageService;
+        this.mediaBlobService = mediaBlobService;
+        this.mediaStorage = mediaStorage;
+        this.mediaProxyCache = mediaProxyCache;
+        this.rateLimiter = rateLimiter;
 
         SimpleClientHttpRequestFactory rf = new SimpleClientHttpRequestFactory();
         rf.setConnectTimeout(5000);
@@ -55,7 +83,7 @@ public class LazyWikimediaMediaService {
                 .requestFactory(rf)
                 .defaultHeader(HttpHeaders.USER_AGENT, USER_AGENT)
                 .defaultHeader("Api-User-Agent", USER_AGENT)
-                .defaultHeader(HttpHeaders.ACCEPT, "image/avif,image/webp,image/apng,image/svg+xml,image/*,*/*;q=0.8")
+                .defaultHeader(HttpHeaders.ACCEPT, ACCEPT_IMAGES)
                 .build();
     }
 
@@ -64,11 +92,57 @@ public class LazyWikimediaMediaService {
      * - Se já existir media_item, não faz nada e devolve lista vazia.
      * - Se não existir, procura Wikimedia como antes.
      * - Tenta copiar para R2/media_item.
-     * - Se R2 falhar, devolve URLs Wikimedia para o frontend poder mostrar imagem na mesma.
+     * - Se R2 falhar, devolve URLs Wikimedia (via /api/media/proxy, se ativo) para o frontend poder mostrar imagem na mesma.
      */
     @Transactional(propagation = Propagation.REQUIRES_NEW)
     public List<String> ensurePoiImages(Poi poi) {
-        if (!enabled || poi == null || poi.getId() == null) return List.of();
+        if (!enabled) return List.of();
+        try {
+            return hydratePoi(poi, false);
+        } catch (WikimediaThrottledException ex) {
+            log.info("[LazyWikimedia] POI {} sem imagens por agora: {}", poi.getId(), ex.getMessage());
+            return List.of();
+        }
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public List<String> ensureDistrictImages(District district) {
+        if (!enabled) return List.of();
+        try {
+            return hydrateDistrict(district, false);
+        } catch (WikimediaThrottledException ex) {
+            log.info("[LazyWikimedia] Distrito {} sem imagens por agora: {}", district.getId(), ex.getMessage());
+            return List.of();
+        }
+    }
+
+    /**
+     * Igual a {@link #ensurePoiImages} mas sem depender de
+     * {@code lazy-wikimedia.enabled}: usado pelo prefetch em background.
+     * Devolve só os URLs das imagens guardadas, nunca os de fallback.
+     *
+     * @throws WikimediaThrottledException se o rate limiter impediu a
+     *         pesquisa ou todos os downloads; nada ficou guardado e a
+     *         entidade deve ser tentada outra vez em breve
+     * @throws IllegalStateException se havia imagens mas nenhum download
+     *         chegou ao storage (idem)
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public List<String> hydratePoi(Poi poi) {
+        return hydratePoi(poi, true);
+    }
+
+    /**
+     * @throws WikimediaThrottledException ver {@link #hydratePoi(Poi)}
+     * @throws IllegalStateException ver {@link #hydratePoi(Poi)}
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public List<String> hydrateDistrict(District district) {
+        return hydrateDistrict(district, true);
+    }
+
+    private List<String> hydratePoi(Poi poi, boolean prefetch) {
+        if (poi == null || poi.getId() == null) return List.of();
         if (isBusinessPoi(poi)) return List.of();
 
         if (mediaItemService.hasMedia(
@@ -89,13 +163,13 @@ public class LazyWikimediaMediaService {
         return saveUrlsOrFallback(
                 MediaItemService.ENTITY_POI,
                 poi.getId(),
-                wikimediaUrls
+                wikimediaUrls,
+                prefetch
         );
     }
 
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    public List<String> ensureDistrictImages(District district) {
-        if (!enabled || district == null || district.getId() == null) return List.of();
+    private List<String> hydrateDistrict(District district, boolean prefetch) {
+        if (district == null || district.getId() == null) return List.of();
 
         if (mediaItemService.hasMedia(
                 MediaItemService.ENTITY_DISTRICT,
@@ -115,15 +189,28 @@ public class LazyWikimediaMediaService {
         return saveUrlsOrFallback(
                 MediaItemService.ENTITY_DISTRICT,
                 district.getId(),
-                wikimediaUrls
+                wikimediaUrls,
+                prefetch
         );
     }
 
-    private List<String> saveUrlsOrFallback(String entityType, Long entityId, List<String> urls) {
+    /**
+     * @param prefetch sem fallback: o prefetch conta o que devolve como
+     *                 guardado e não volta à entidade durante
+     *                 {@code retry-hours}, por isso falhar tem de ser falha
+     */
+    private List<String> saveUrlsOrFallback(
+            String entityType,
+            Long entityId,
+            List<String> urls,
+            boolean prefetch
+    ) {
         List<String> wikimediaUrls = normalizeUrls(urls);
         if (wikimediaUrls.isEmpty()) return List.of();
 
         List<String> savedR2Urls = new ArrayList<>();
+        WikimediaThrottledException throttled = null;
+        Exception failure = null;
         int attempted = 0;
 
         for (String url : wikimediaUrls) {
@@ -131,27 +218,13 @@ public class LazyWikimediaMediaService {
             attempted++;
 
             try {
-                DownloadedMedia media = download(url);
-
-                if (media.bytes().length == 0) {
-                    continue;
-                }
+                String filename = filenameFromUrl(url);
 
-                if (!isImageContentType(media.contentType())) {
+                MediaStorage.UploadResult uploaded = downloadAndStore(entityType, entityId, url, filename);
+                if (uploaded == null) {
                     continue;
                 }
 
-                String filename = filenameFromUrl(url);
-
-                R2MediaStorageService.UploadResult uploaded = r2MediaStorageService.uploadBytes(
-                        media.bytes(),
-                        filename,
-                        media.contentType(),
-                        entityType,
-                        entityId,
-                        MediaItemService.MEDIA_IMAGE
-                );
-
                 mediaItemService.createWikimediaMedia(
                         entityType,
                         entityId,
@@ -166,7 +239,11 @@ public class LazyWikimediaMediaService {
                 if (uploadedUrl != null && !uploadedUrl.isBlank()) {
                     savedR2Urls.add(uploadedUrl);
                 }
+            } catch (WikimediaThrottledException ex) {
+                throttled = ex;
+                break;
             } catch (Exception ex) {
+                failure = ex;
                 System.out.println(
                         "[LAZY-WIKIMEDIA] failed entityType=" + entityType +
                                 " entityId=" + entityId +
@@ -180,27 +257,86 @@ public class LazyWikimediaMediaService {
             return savedR2Urls.stream().limit(maxPerEntity).toList();
         }
 
-        return wikimediaUrls.stream().limit(maxPerEntity).toList();
+        if (prefetch) {
+            if (throttled != null) throw throttled;
+            if (failure != null) {
+                throw new IllegalStateException("Nenhuma imagem guardada: " + failure.getMessage(), failure);
+            }
+            // todas rejeitadas (tipo, dimensões, tamanho): não há nada a repetir
+            return List.of();
+        }
+
+        return wikimediaUrls.stream()
+                .limit(maxPerEntity)
+                .map(mediaProxyCache::proxiedUrl)
+                .toList();
     }
 
-    private DownloadedMedia download(String url) {
-        ResponseEntity<byte[]> response = restClient.get()
+    /**
+     * Download em streaming direto para o storage, sem o ficheiro passar por
+     * um byte[]:
+     * - Content-Length declarado acima de {@code max-bytes}: nem se lê o corpo
+     * - magic bytes + dimensões lidos só do cabeçalho ({@link ImageProbe});
+     *   o tipo vem daí, não do header nem do URL
+     * - dimensões acima dos limites: aborta antes de enviar nada
+     * - o resto segue para {@link MediaStorage#uploadStream} com um limite de
+     *   bytes que corta (e aborta o upload) se o servidor mandar mais do que
+     *   o permitido
+     *
+     * Devolve null se a imagem for rejeitada. O conteúdo repetido é resolvido
+     * pelo {@link MediaBlobService#register} depois do upload.
+     *
+     * @throws WikimediaThrottledException se o rate limiter recusou o download
+     */
+    private MediaStorage.UploadResult downloadAndStore(String entityType, Long entityId, String url, String filename) {
+        rateLimiter.acquire();
+
+        return restClient.get()
                 .uri(URI.create(url))
                 .header(HttpHeaders.USER_AGENT, USER_AGENT)
                 .header("Api-User-Agent", USER_AGENT)
-                .header(HttpHeaders.ACCEPT, "image/avif,image/webp,image/apng,image/*,*/*;q=0.8")
+                .header(HttpHeaders.ACCEPT, ACCEPT_IMAGES)
                 .header(HttpHeaders.ACCEPT_LANGUAGE, "pt-PT,pt;q=0.9,en;q=0.8")
                 .header(HttpHeaders.REFERER, "https://commons.wikimedia.org/")
-                .retrieve()
-                .toEntity(byte[].class);
-
-        byte[] body = response.getBody() == null ? new byte[0] : response.getBody();
-
-        String contentType = response.getHeaders().getContentType() == null
-                ? contentTypeFromFilename(url)
-                : response.getHeaders().getContentType().toString();
+                .exchange((request, response) -> {
+                    if (!response.getStatusCode().is2xxSuccessful()) {
+                        reject(url, "status " + response.getStatusCode().value());
+                        return null;
+                    }
+
+                    long declared = response.getHeaders().getContentLength();
+                    if (declared > maxBytes) {
+                        reject(url, "content-length " + declared);
+                        return null;
+                    }
+
+                    InputStream body = response.getBody();
+                    ImageProbe.Probed probed = ImageProbe.probe(body);
+                    if (probed == null) {
+                        reject(url, "não é uma imagem suportada");
+                        return null;
+                    }
+
+                    ImageProbe.Info info = probed.info();
+                    if (info.width() > maxDimension || info.height() > maxDimension || info.pixels() > maxPixels) {
+                        reject(url, info.width() + "x" + info.height());
+                        return null;
+                    }
+
+                    MediaStorage.UploadResult uploaded = mediaStorage.uploadStream(
+                            ImageProbe.limit(probed.stream(), maxBytes),
+                            filename,
+                            info.contentType(),
+                            entityType,
+                            entityId,
+                            MediaItemService.MEDIA_IMAGE
+                    );
+                    return mediaBlobService.register(uploaded);
+                });
+    }
 
-        return new DownloadedMedia(body, contentType);
+    private void reject(String url, String reason) {
+        log.info("[LazyWikimedia] URL rejeitado {}: {}", url, reason);
     }
 
     private List<String> normalizeUrls(List<String> urls) {
@@ -225,11 +361,6 @@ public class LazyWikimediaMediaService {
         return poi.getOwner() != null || "business".equalsIgnoreCase(safe(poi.getSource()));
     }
 
-    private boolean isImageContentType(String contentType) {
-        String ct = safe(contentType).toLowerCase(Locale.ROOT);
-        return ct.startsWith("image/");
-    }
-
     private String filenameFromUrl(String url) {
         try {
             String path = URI.create(url).getPath();
@@ -266,18 +397,6 @@ public class LazyWikimediaMediaService {
         return clean;
     }
 
-    private String contentTypeFromFilename(String url) {
-        String lower = safe(url).toLowerCase(Locale.ROOT);
-
-        if (lower.contains(".jpg") || lower.contains(".jpeg")) return "image/jpeg";
-        if (lower.contains(".png")) return "image/png";
-        if (lower.contains(".webp")) return "image/webp";
-        if (lower.contains(".gif")) return "image/gif";
-        if (lower.contains(".svg")) return "image/svg+xml";
-
-        return "image/jpeg";
-    }
-
     private String firstNonBlank(String a, String b) {
         if (a != null && !a.trim().isBlank()) return a.trim();
         if (b != null && !b.trim().isBlank()) return b.trim();
@@ -287,7 +406,4 @@ public class LazyWikimediaMediaService {
     private String safe(String value) {
         return value == null ? "" : value.trim();
     }
-
-    private record DownloadedMedia(byte[] bytes, String contentType) {
-    }
 }
\ No newline at end of file
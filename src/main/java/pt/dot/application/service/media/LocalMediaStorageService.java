@@ -0,0 +1,378 @@
+package pt.dot.application.service.media;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import pt.dot.application.exception.Errors;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * {@link MediaStorage} em disco local, para nós únicos / on-prem e testes de
+ * performance sem rede.
+ *
+ * Cada key é um ficheiro em {@code ptdot.media.local.root}. A escrita vai
+ * para um ficheiro temporário na mesma partição, por FileChannel, e termina
+ * num rename atómico: um leitor nunca vê um ficheiro a meio. Os ficheiros são
+ * servidos por {@code LocalMediaController} em {@code /media/**}.
+ */
+@Service
+@ConditionalOnProperty(name = "ptdot.media.storage.backend", havingValue = "local")
+public class LocalMediaStorageService implements MediaStorage {
+
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+    private static final String TMP_DIR = ".tmp";
+
+    private final Path root;
+    private final Path tmp;
+    private final String baseUrl;
+    private final long maxUploadBytes;
+    private final boolean fsync;
+
+    public LocalMediaStorageService(
+            @Value("${ptdot.media.local.root:./data/media}") String root,
+            @Value("${ptdot.media.base-url}") String baseUrl,
+            @Value("${ptdot.media.max-upload-bytes:104857600}") long maxUploadBytes,
+            @Value("${ptdot.media.local.fsync:false}") boolean fsync
+    ) {
+        this.root = Path.of(root).toAbsolutePath().normalize();
+        this.tmp = this.root.resolve(TMP_DIR);
+        this.baseUrl = MediaKeys.stripTrailingSlash(baseUrl);
+        this.maxUploadBytes = maxUploadBytes;
+        this.fsync = fsync;
+
+        try {
+            Files.createDirectories(tmp);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Não foi possível criar a pasta de media: " + tmp, ex);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public UploadResult uploadStream(
+            InputStream in,
+            String originalFilename,
+            String contentType,
+            String entityType,
+            Long entityId,
+            String mediaType
+    ) {
+        if (in == null) {
+            throw Errors.badRequest("MEDIA_FILE_REQUIRED", "Ficheiro em falta.");
+        }
+
+        String normalizedContentType = MediaKeys.normalizeContentType(contentType);
+        String key = MediaKeys.buildStorageKey(entityType, entityId, mediaType, originalFilename, normalizedContentType);
+
+        MessageDigest digest = MediaKeys.sha256();
+        long size = write(key, in, digest, true);
+
+        return new UploadResult(key, baseUrl + "/" + key, normalizedContentType, size, HexFormat.of().formatHex(digest.digest()));
+    }
+
+    @Override
+    public UploadResult uploadBytes(byte[] bytes, String originalFilename, String contentType) {
+        if (bytes == null || bytes.length == 0) {
+            throw Errors.badRequest("MEDIA_FILE_REQUIRED", "Ficheiro em falta.");
+        }
+
+        if (bytes.length > maxUploadBytes) {
+            throw Errors.badRequest("MEDIA_FILE_TOO_LARGE", "Ficheiro demasiado grande.");
+        }
+
+        String normalizedContentType = MediaKeys.normalizeContentType(contentType);
+        String sha256 = MediaKeys.sha256Hex(bytes);
+        String key = MediaKeys.buildContentKey(sha256, originalFilename, normalizedContentType);
+
+        write(key, new ByteArrayInputStream(bytes), null, true);
+
+        return new UploadResult(key, baseUrl + "/" + key, normalizedContentType, bytes.length, sha256);
+    }
+
+    @Override
+    public void putBytes(String storageKey, byte[] bytes, String contentType) {
+        write(storageKey, new ByteArrayInputStream(bytes == null ? new byte[0] : bytes), null, false);
+    }
+
+    @Override
+    public void copyObject(String sourceKey, String targetKey) {
+        try (InputStream in = Files.newInputStream(resolve(sourceKey))) {
+            write(targetKey, in, null, false);
+        } catch (NoSuchFileException ex) {
+            throw Errors.notFound("MEDIA_NOT_FOUND", "Ficheiro não encontrado.");
+        } catch (IOException ex) {
+            throw Errors.internalServerError("MEDIA_STORAGE_FAILED", "Falha ao ler o ficheiro do storage local.");
+        }
+    }
+
+    @Override
+    public byte[] getObjectBytes(String storageKey) {
+        try {
+            return Files.readAllBytes(resolve(storageKey));
+        } catch (NoSuchFileException ex) {
+            throw Errors.notFound("MEDIA_NOT_FOUND", "Ficheiro não encontrado.");
+        } catch (IOException ex) {
+            throw Errors.internalServerError("MEDIA_STORAGE_FAILED", "Falha ao ler o ficheiro do storage local.");
+        }
+    }
+
+    @Override
+    public Optional<ObjectInfo> head(String storageKey) {
+        return find(storageKey).map(file -> new ObjectInfo(file.size(), file.contentType()));
+    }
+
+    @Override
+    public List<String> listRootPrefixes() {
+        try (Stream<Path> children = Files.list(root)) {
+            return children
+                    .filter(Files::isDirectory)
+                    .map(p -> p.getFileName().toString())
+                    .filter(name -> !name.equals(TMP_DIR))
+                    .sorted()
+                    .map(name -> name + "/")
+                    .toList();
+        } catch (IOException ex) {
+            throw Errors.internalServerError("MEDIA_STORAGE_FAILED", "Falha ao listar o storage local.");
+        }
+    }
+
+    /**
+     * Percorre as pastas por ordem de nome, saltando as que ficam inteiras
+     * antes de {@code startAfter}. Só lê as pastas do caminho até à página.
+     */
+    @Override
+    public ListPage list(String prefix, String startAfter, int maxKeys) {
+        String dirKey = prefix == null ? "" : prefix;
+        Path dir = dirKey.isEmpty() ? root : root.resolve(dirKey).normalize();
+        if (!dir.startsWith(root) || !Files.isDirectory(dir)) return new ListPage(List.of(), false);
+
+        List<ListedObject> out = new ArrayList<>();
+        try {
+            boolean truncated = walk(dir, dirKey.isEmpty() || dirKey.endsWith("/") ? dirKey : dirKey + "/",
+                    startAfter, Math.max(1, maxKeys), out);
+            return new ListPage(out, truncated);
+        } catch (IOException ex) {
+            throw Errors.internalServerError("MEDIA_STORAGE_FAILED", "Falha ao listar o storage local.");
+        }
+    }
+
+    /**
+     * @return true se parou por a página estar cheia e ainda haver objetos
+     */
+    private boolean walk(Path dir, String dirKey, String startAfter, int maxKeys, List<ListedObject> out) throws IOException {
+        List<Path> children;
+        try (Stream<Path> stream = Files.list(dir)) {
+            children = stream.sorted(Comparator.comparing(p -> p.getFileName().toString())).toList();
+        }
+
+        for (Path child : children) {
+            String name = child.getFileName().toString();
+            if (dir.equals(root) && name.equals(TMP_DIR)) continue;
+
+            String key = dirKey + name;
+            BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class);
+
+            if (attrs.isDirectory()) {
+                String sub = key + "/";
+                if (startAfter != null && compareBySegment(sub, startAfter) < 0 && !startAfter.startsWith(sub)) continue;
+                if (walk(child, sub, startAfter, maxKeys, out)) return true;
+            } else if (attrs.isRegularFile()) {
+                if (startAfter != null && compareBySegment(key, startAfter) <= 0) continue;
+                if (out.size() >= maxKeys) return true;
+                out.add(new ListedObject(key, attrs.size(), attrs.lastModifiedTime().toInstant()));
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Ordem do {@link #walk}: segmento a segmento; um caminho que é prefixo
+     * de outro vem antes.
+     */
+    private static int compareBySegment(String a, String b) {
+        String[] as = a.split("/");
+        String[] bs = b.split("/");
+
+        for (int i = 0; i < Math.min(as.length, bs.length); i++) {
+            int c = as[i].compareTo(bs[i]);
+            if (c != 0) return c;
+        }
+        return Integer.compare(as.length, bs.length);
+    }
+
+    @Override
+    public Map<String, String> deleteObjects(Collection<String> storageKeys) {
+        if (storageKeys == null || storageKeys.isEmpty()) return Map.of();
+
+        Map<String, String> errors = new HashMap<>();
+
+        for (String key : storageKeys) {
+            if (key == null || key.isBlank()) continue;
+
+            try {
+                Files.deleteIfExists(resolve(key));
+            } catch (Exception ex) {
+                errors.put(key, ex.getClass().getSimpleName() + ": " + ex.getMessage());
+            }
+        }
+
+        return errors;
+    }
+
+    /**
+     * Ficheiro pronto a servir, ou vazio se a key for inválida ou não existir.
+     */
+    public Optional<StoredFile> find(String storageKey) {
+        Path path;
+        try {
+            path = resolve(storageKey);
+        } catch (RuntimeException ex) {
+            return Optional.empty();
+        }
+
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) return Optional.empty();
+
+            // tipo só da allowlist de MediaKeys: um .html/.svg antigo sai como download
+            String contentType = MediaKeys.contentTypeForKey(path.getFileName().toString());
+
+            return Optional.of(new StoredFile(path, attrs.size(), attrs.lastModifiedTime().toMillis(), contentType));
+        } catch (IOException ex) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Copia o stream para um temporário (FileChannel, buffer fixo) e faz o
+     * rename para a key no fim.
+     *
+     * @param digest se não for null, recebe todos os bytes escritos
+     * @param limit  aplica {@code max-upload-bytes} e rejeita conteúdo vazio
+     */
+    private long write(String storageKey, InputStream in, MessageDigest digest, boolean limit) {
+        Path target = resolve(storageKey);
+        Path temp = null;
+        long total = 0;
+
+        try {
+            temp = Files.createTempFile(tmp, "up-", ".part");
+
+            try (ReadableByteChannel src = Channels.newChannel(in);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+                ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_BYTES);
+
+                while (true) {
+                    int n = read(src, buffer);
+                    if (n < 0) break;
+
+                    total += n;
+                    if (limit && total > maxUploadBytes) {
+                        throw Errors.badRequest("MEDIA_FILE_TOO_LARGE", "Ficheiro demasiado grande.");
+                    }
+
+                    buffer.flip();
+                    if (digest != null) {
+                        digest.update(buffer);
+                        buffer.rewind();
+                    }
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    buffer.clear();
+                }
+
+                if (fsync) out.force(true);
+            }
+
+            if (limit && total == 0) {
+                throw Errors.badRequest("MEDIA_FILE_REQUIRED", "Ficheiro em falta.");
+            }
+
+            Files.createDirectories(target.getParent());
+            move(temp, target);
+            temp = null;
+
+            return total;
+        } catch (IOException ex) {
+            throw Errors.internalServerError("MEDIA_STORAGE_FAILED", "Falha ao gravar o ficheiro no storage local.");
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Erros a ler o pedido são do cliente, não do disco.
+     */
+    private static int read(ReadableByteChannel src, ByteBuffer buffer) {
+        try {
+            return src.read(buffer);
+        } catch (IOException ex) {
+            throw Errors.badRequest("MEDIA_READ_FAILED", "Não foi possível ler o ficheiro enviado.");
+        }
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Key -> caminho dentro da raiz. Rejeita keys absolutas, com ".." que
+     * saiam da raiz, ou que apontem para a pasta de temporários.
+     */
+    private Path resolve(String storageKey) {
+        String key = storageKey == null ? "" : storageKey.trim();
+
+        if (key.isEmpty() || key.startsWith("/") || key.indexOf('\\') >= 0 || key.indexOf('\0') >= 0) {
+            throw Errors.badRequest("MEDIA_KEY_INVALID", "Storage key inválida.");
+        }
+
+        Path path = root.resolve(key).normalize();
+        if (!path.startsWith(root) || path.equals(root) || path.startsWith(tmp)) {
+            throw Errors.badRequest("MEDIA_KEY_INVALID", "Storage key inválida.");
+        }
+
+        return path;
+    }
+
+    public record StoredFile(Path path, long size, long lastModified, String contentType) {}
+}
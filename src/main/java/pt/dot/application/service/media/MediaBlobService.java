@@ -0,0 +1,285 @@
+package pt.dot.application.service.media;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Índice de conteúdo do storage (tabela media_blob): SHA-256 -> storage key,
+ * com contagem de referências de media_item.
+ *
+ * - Upload: se o hash já existe, reutiliza o objeto em vez de enviar outro.
+ * - {@link #retain} / {@link #release}: +1 / -1 por linha de media_item.
+ * - Um blob que chega a zero não é apagado logo: fica {@code grace} à espera
+ *   (um upload concorrente pode estar prestes a reutilizá-lo) e só depois o
+ *   {@link #sweep} o põe no outbox de remoção, junto com as derivadas.
+ *
+ * Keys que não estão no índice (legado, URLs externos) passam direto.
+ */
+@Service
+public class MediaBlobService {
+
+    private static final Logger log = LoggerFactory.getLogger(MediaBlobService.class);
+
+    private final JdbcTemplate jdbc;
+    private final MediaStorage mediaStorage;
+    private final MediaDeletionOutboxService mediaDeletionOutboxService;
+    private final MediaUrlService mediaUrlService;
+    private final int[] derivativeWidths;
+    private final long graceSeconds;
+
+    public MediaBlobService(
+            JdbcTemplate jdbc,
+            MediaStorage mediaStorage,
+            MediaDeletionOutboxService mediaDeletionOutboxService,
+            MediaUrlService mediaUrlService,
+            @Value("${ptdot.media.derivatives.widths:160,480,1024}") int[] derivativeWidths,
+            @Value("${ptdot.media.blobs.grace-seconds:3600}") long graceSeconds
+    ) {
+        this.jdbc = jdbc;
+        this.mediaStorage = mediaStorage;
+        this.mediaDeletionOutboxService = mediaDeletionOutboxService;
+        this.mediaUrlService = mediaUrlService;
+        this.derivativeWidths = derivativeWidths;
+        this.graceSeconds = Math.max(60, graceSeconds);
+    }
+
+    /**
+     * Guarda conteúdo em memória, saltando o upload se o hash já existir.
+     */
+    public MediaStorage.UploadResult storeBytes(byte[] bytes, String originalFilename, String contentType) {
+        if (bytes != null && bytes.length > 0) {
+            MediaStorage.UploadResult existing = find(MediaKeys.sha256Hex(bytes));
+            if (existing != null) return existing;
+        }
+
+        return register(mediaStorage.uploadBytes(bytes, originalFilename, contentType));
+    }
+
+    /**
+     * Regista um objeto acabado de enviar. Se o mesmo conteúdo já existir
+     * (upload concorrente, ou stream cujo hash só se conheceu no fim), o novo
+     * objeto vai para o outbox e devolve-se o existente.
+     *
+     * Um upload com key por entidade (stream) é primeiro copiado para a key
+     * de conteúdo: só essas entram no índice, porque são as únicas que várias
+     * linhas de media_item podem partilhar.
+     */
+    public MediaStorage.UploadResult register(MediaStorage.UploadResult uploaded) {
+        if (uploaded == null || uploaded.sha256() == null || uploaded.storageKey() == null) return uploaded;
+
+        if (!MediaKeys.isContentKey(uploaded.storageKey())) {
+            MediaStorage.UploadResult existing = find(uploaded.sha256());
+            if (existing != null) return reuse(uploaded, existing);
+
+            uploaded = toContentKey(uploaded);
+            if (!MediaKeys.isContentKey(uploaded.storageKey())) return uploaded;
+        }
+
+        int inserted = jdbc.update(
+                """
+                insert into media_blob (sha256, storage_key, content_type, size_bytes)
+                values (?, ?, ?, ?)
+                on conflict (sha256) do nothing
+                """,
+                uploaded.sha256(),
+                uploaded.storageKey(),
+                uploaded.contentType(),
+                uploaded.sizeBytes()
+        );
+        if (inserted > 0) return uploaded;
+
+        MediaStorage.UploadResult existing = find(uploaded.sha256());
+        if (existing == null || existing.storageKey().equals(uploaded.storageKey())) return uploaded;
+
+        return reuse(uploaded, existing);
+    }
+
+    /**
+     * +1 referência por key (uma por linha de media_item criada).
+     */
+    public void retain(Collection<String> storageKeys) {
+        Map<String, Integer> counts = count(storageKeys);
+        if (counts.isEmpty()) return;
+
+        jdbc.update(
+                """
+                update media_blob b
+                set ref_count = b.ref_count + v.n,
+                    zero_since = null
+                from unnest(?::text[], ?::int[]) as v(storage_key, n)
+                where b.storage_key = v.storage_key
+                """,
+                ps -> {
+                    ps.setArray(1, ps.getConnection().createArrayOf("text", counts.keySet().toArray()));
+                    ps.setArray(2, ps.getConnection().createArrayOf("integer", counts.values().toArray()));
+                }
+        );
+    }
+
+    /**
+     * -1 referência por key (uma por linha de media_item apagada).
+     *
+     * @return as keys que não são blobs geridos aqui; essas continuam a ser
+     *         apagadas diretamente por quem chamou
+     */
+    public Set<String> release(Collection<String> storageKeys) {
+        Map<String, Integer> counts = count(storageKeys);
+        if (counts.isEmpty()) return Set.of();
+
+        List<String> tracked = jdbc.query(
+                """
+                update media_blob b
+                set ref_count = greatest(0, b.ref_count - v.n),
+                    zero_since = case when b.ref_count - v.n <= 0 then now() else b.zero_since end
+                from unnest(?::text[], ?::int[]) as v(storage_key, n)
+                where b.storage_key = v.storage_key
+                returning b.storage_key
+                """,
+                ps -> {
+                    ps.setArray(1, ps.getConnection().createArrayOf("text", counts.keySet().toArray()));
+                    ps.setArray(2, ps.getConnection().createArrayOf("integer", counts.values().toArray()));
+                },
+                (rs, i) -> rs.getString(1)
+        );
+
+        Set<String> untracked = new HashSet<>(counts.keySet());
+        tracked.forEach(untracked::remove);
+        return untracked;
+    }
+
+    /**
+     * Apaga do índice os blobs sem referências há mais de {@code grace} e
+     * põe-nos (mais as derivadas) no outbox de remoção.
+     */
+    @Scheduled(
+            initialDelayString = "${ptdot.media.blobs.sweep-ms:300000}",
+            fixedDelayString = "${ptdot.media.blobs.sweep-ms:300000}"
+    )
+    @Transactional
+    public void sweep() {
+        try {
+            List<String> released = jdbc.queryForList(
+                    """
+                    delete from media_blob
+                    where ref_count = 0
+                      and zero_since < now() - make_interval(secs => ?)
+                    returning storage_key
+                    """,
+                    String.class,
+                    graceSeconds
+            );
+            if (released.isEmpty()) return;
+
+            List<String> keys = new ArrayList<>(released.size() * (1 + derivativeWidths.length));
+            for (String key : released) {
+                keys.add(key);
+                for (int w : derivativeWidths) {
+                    keys.add(MediaDerivativeService.variantKey(key, w));
+                }
+            }
+
+            mediaDeletionOutboxService.enqueue(keys);
+            log.info("[MediaBlob] {} blobs sem referências enviados para remoção", released.size());
+        } catch (Exception e) {
+            log.warn("[MediaBlob] Falha no sweep: {}", e.getMessage());
+        }
+    }
+
+    public boolean isTracked(String storageKey) {
+        if (storageKey == null || storageKey.isBlank()) return false;
+
+        Boolean exists = jdbc.queryForObject(
+                "select exists (select 1 from media_blob where storage_key = ?)",
+                Boolean.class,
+                storageKey.trim()
+        );
+        return Boolean.TRUE.equals(exists);
+    }
+
+    /**
+     * Troca o objeto novo pelo existente, se este for uma key de conteúdo.
+     * Uma key por entidade indexada antes desta regra pertence a uma só
+     * linha: o upload novo fica com o seu objeto, fora do índice.
+     */
+    private MediaStorage.UploadResult reuse(MediaStorage.UploadResult uploaded, MediaStorage.UploadResult existing) {
+        if (!MediaKeys.isContentKey(existing.storageKey())) return uploaded;
+
+        mediaDeletionOutboxService.enqueue(List.of(uploaded.storageKey()));
+        return existing;
+    }
+
+    /**
+     * Cópia no storage para {@code blobs/...}; a key original vai para o
+     * outbox. Se a cópia falhar, fica a key original, sem deduplicação.
+     */
+    private MediaStorage.UploadResult toContentKey(MediaStorage.UploadResult uploaded) {
+        String contentKey = MediaKeys.buildContentKey(uploaded.sha256(), uploaded.storageKey(), uploaded.contentType());
+
+        try {
+            mediaStorage.copyObject(uploaded.storageKey(), contentKey);
+        } catch (RuntimeException e) {
+            log.warn("[MediaBlob] Falha a copiar {} para a key de conteúdo: {}", uploaded.storageKey(), e.getMessage());
+            return uploaded;
+        }
+
+        mediaDeletionOutboxService.enqueue(List.of(uploaded.storageKey()));
+        return new MediaStorage.UploadResult(
+                contentKey,
+                mediaUrlService.resolve(contentKey),
+                uploaded.contentType(),
+                uploaded.sizeBytes(),
+                uploaded.sha256()
+        );
+    }
+
+    /**
+     * Procura pelo hash e, se o blob estiver sem referências, renova o
+     * zero_since: quem o reutiliza tem uma janela de {@code grace} inteira
+     * para criar o media_item antes de o sweep lhe tocar.
+     */
+    private MediaStorage.UploadResult find(String sha256) {
+        List<MediaStorage.UploadResult> rows = jdbc.query(
+                """
+                update media_blob
+                set zero_since = case when ref_count = 0 then now() else zero_since end
+                where sha256 = ?
+                returning storage_key, content_type, size_bytes
+                """,
+                (rs, i) -> new MediaStorage.UploadResult(
+                        rs.getString(1),
+                        mediaUrlService.resolve(rs.getString(1)),
+                        rs.getString(2),
+                        rs.getLong(3),
+                        sha256
+                ),
+                sha256
+        );
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    private static Map<String, Integer> count(Collection<String> storageKeys) {
+        if (storageKeys == null || storageKeys.isEmpty()) return Map.of();
+
+        Map<String, Integer> out = new LinkedHashMap<>();
+        storageKeys.stream()
+                .filter(Objects::nonNull)
+                .map(String::trim)
+                .filter(k -> !k.isBlank())
+                .forEach(k -> out.merge(k, 1, Integer::sum));
+        return out;
+    }
+}
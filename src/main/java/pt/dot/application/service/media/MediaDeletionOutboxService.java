@@ -0,0 +1,228 @@
+package pt.dot.application.service.media;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remoção assíncrona de objetos no storage ({@link MediaStorage}).
+ *
+ * As escritas de media só registam as storage keys a apagar na tabela
+ * media_deletion_outbox, na mesma transação (se fizer rollback, o registo
+ * desaparece com ela). Um worker agendado reclama lotes com lease
+ * ({@code for update skip locked}, seguro com várias instâncias), apaga-os
+ * com DeleteObjects e volta a agendar as falhas com backoff exponencial.
+ */
+@Service
+public class MediaDeletionOutboxService {
+
+    private static final Logger log = LoggerFactory.getLogger(MediaDeletionOutboxService.class);
+
+    /**
+     * Limite do DeleteObjects do S3/R2.
+     */
+    private static final int MAX_BATCH = 1000;
+
+    private static final Duration LEASE = Duration.ofMinutes(5);
+    private static final Duration BASE_BACKOFF = Duration.ofSeconds(30);
+    private static final Duration MAX_BACKOFF = Duration.ofHours(6);
+
+    private final JdbcTemplate jdbc;
+    private final MediaStorage mediaStorage;
+    private final int batchSize;
+    private final int maxAttempts;
+
+    private final Counter deleted;
+    private final Counter failed;
+    private final Counter exhausted;
+    private final AtomicLong pending = new AtomicLong();
+
+    public MediaDeletionOutboxService(
+            JdbcTemplate jdbc,
+            MediaStorage mediaStorage,
+            MeterRegistry meterRegistry,
+            @Value("${ptdot.media.deletion.batch-size:1000}") int batchSize,
+            @Value("${ptdot.media.deletion.max-attempts:10}") int maxAttempts
+    ) {
+        this.jdbc = jdbc;
+        this.mediaStorage = mediaStorage;
+        this.batchSize = Math.max(1, Math.min(MAX_BATCH, batchSize));
+        this.maxAttempts = Math.max(1, maxAttempts);
+
+        this.deleted = Counter.builder("ptdot.media.deletion.objects")
+                .tag("result", "deleted")
+                .register(meterRegistry);
+        this.failed = Counter.builder("ptdot.media.deletion.objects")
+                .tag("result", "failed")
+                .register(meterRegistry);
+        this.exhausted = Counter.builder("ptdot.media.deletion.objects")
+                .tag("result", "exhausted")
+                .register(meterRegistry);
+        Gauge.builder("ptdot.media.deletion.pending", pending, AtomicLong::get)
+                .description("Objetos por apagar no outbox (última contagem do worker)")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Regista as keys para remoção. Deve correr na transação da escrita.
+     * URLs externos (ex.: Wikimedia) não são objetos nossos e são ignorados.
+     */
+    public void enqueue(Collection<String> storageKeys) {
+        if (storageKeys == null || storageKeys.isEmpty()) return;
+
+        Set<String> keys = new LinkedHashSet<>();
+        for (String raw : storageKeys) {
+            String key = raw == null ? "" : raw.trim();
+            if (key.isBlank() || key.startsWith("http://") || key.startsWith("https://")) continue;
+            keys.add(key);
+        }
+        if (keys.isEmpty()) return;
+
+        jdbc.update(
+                "insert into media_deletion_outbox (storage_key) select unnest(?::text[])",
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("text", keys.toArray()))
+        );
+    }
+
+    @Scheduled(
+            initialDelayString = "${ptdot.media.deletion.interval-ms:10000}",
+            fixedDelayString = "${ptdot.media.deletion.interval-ms:10000}"
+    )
+    public void drain() {
+        // sem storage as linhas ficam como estão, sem gastar tentativas
+        if (!mediaStorage.isEnabled()) return;
+
+        try {
+            List<Claimed> batch;
+            do {
+                batch = claim();
+                if (!batch.isEmpty()) process(batch);
+            } while (batch.size() == batchSize);
+
+            Long count = jdbc.queryForObject(
+                    "select count(*) from media_deletion_outbox where attempts < ?",
+                    Long.class,
+                    maxAttempts
+            );
+            pending.set(count == null ? 0 : count);
+        } catch (Exception e) {
+            log.warn("[MediaDeletion] Falha ao processar outbox: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Reclama um lote numa só instrução (sem transação aberta durante a
+     * chamada ao R2): o lease empurra next_attempt_at para a frente, por isso
+     * um worker que morra a meio não perde as linhas.
+     */
+    private List<Claimed> claim() {
+        return jdbc.query(
+                """
+                update media_deletion_outbox o
+                set next_attempt_at = now() + make_interval(secs => ?)
+                where o.id in (
+                    select id
+                    from media_deletion_outbox
+                    where next_attempt_at <= now()
+                      and attempts < ?
+                    order by id
+                    limit ?
+                    for update skip locked
+                )
+                returning o.id, o.storage_key, o.attempts
+                """,
+                (rs, i) -> new Claimed(rs.getLong(1), rs.getString(2), rs.getInt(3)),
+                LEASE.toSeconds(),
+                maxAttempts,
+                batchSize
+        );
+    }
+
+    private void process(List<Claimed> batch) {
+        Map<String, String> errors;
+
+        try {
+            errors = mediaStorage.deleteObjects(batch.stream().map(Claimed::storageKey).toList());
+        } catch (Exception e) {
+            log.warn("[MediaDeletion] DeleteObjects falhou para {} keys: {}", batch.size(), e.getMessage());
+            reschedule(batch, e.getMessage());
+            return;
+        }
+
+        List<Long> done = new ArrayList<>();
+        List<Claimed> retry = new ArrayList<>();
+
+        for (Claimed c : batch) {
+            if (errors.containsKey(c.storageKey())) retry.add(c);
+            else done.add(c.id());
+        }
+
+        if (!done.isEmpty()) {
+            jdbc.update(
+                    "delete from media_deletion_outbox where id = any(?)",
+                    ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", done.toArray()))
+            );
+            deleted.increment(done.size());
+        }
+
+        if (!retry.isEmpty()) {
+            String sample = errors.get(retry.get(0).storageKey());
+            log.warn("[MediaDeletion] {} keys falharam (ex.: {} -> {})", retry.size(), retry.get(0).storageKey(), sample);
+            reschedule(retry, sample);
+        }
+    }
+
+    private void reschedule(List<Claimed> rows, String error) {
+        List<Object[]> args = new ArrayList<>(rows.size());
+
+        for (Claimed c : rows) {
+            int attempts = c.attempts() + 1;
+            if (attempts >= maxAttempts) {
+                exhausted.increment();
+                log.warn("[MediaDeletion] Desisti de apagar storageKey={} após {} tentativas", c.storageKey(), attempts);
+            }
+
+            args.add(new Object[]{attempts, backoff(attempts).toSeconds(), truncate(error), c.id()});
+        }
+
+        jdbc.batchUpdate(
+                """
+                update media_deletion_outbox
+                set attempts = ?,
+                    next_attempt_at = now() + make_interval(secs => ?),
+                    last_error = ?
+                where id = ?
+                """,
+                args
+        );
+        failed.increment(rows.size());
+    }
+
+    private static Duration backoff(int attempts) {
+        long factor = 1L << Math.min(20, Math.max(0, attempts - 1));
+        Duration d = BASE_BACKOFF.multipliedBy(factor);
+        return d.compareTo(MAX_BACKOFF) > 0 ? MAX_BACKOFF : d;
+    }
+
+    private static String truncate(String v) {
+        if (v == null) return null;
+        return v.length() > 500 ? v.substring(0, 500) : v;
+    }
+
+    private record Claimed(long id, String storageKey, int attempts) {}
+}
@@ -0,0 +1,419 @@
+package pt.dot.application.service.media;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import pt.dot.application.db.entity.MediaItem;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Derivadas de largura fixa (ex.: 160/480/1024) para as imagens que entram
+ * no storage, para listas, popups e galerias não descarregarem o original.
+ *
+ * Depois do commit da criação do MediaItem, a tarefa vai para um pool
+ * limitado: lê o original do storage, gera as larguras menores que o original,
+ * grava cada uma em {@link #variantKey} e regista as larguras em
+ * media_item.variant_widths.
+ *
+ * Na mesma passagem (a imagem já está descodificada) calcula as dimensões do
+ * original, um BlurHash e a cor dominante a partir de uma redução a
+ * {@value #PLACEHOLDER_WIDTH}px, para o cliente mostrar um placeholder sem
+ * pedidos extra. Nada disto corre na thread do pedido.
+ *
+ * Com storage deduplicado ({@link MediaBlobService}) várias linhas podem
+ * partilhar o mesmo objeto; se outra já tem derivadas, copiam-se as larguras
+ * em vez de gerar de novo, e as derivadas de um blob partilhado só saem com
+ * o sweep do blob.
+ *
+ * O formato é JPEG: o ImageIO do JDK não tem encoder WebP e não queremos
+ * dependências nativas só para isto. Transparência fica sobre fundo branco.
+ */
+@Service
+public class MediaDerivativeService {
+
+    private static final Logger log = LoggerFactory.getLogger(MediaDerivativeService.class);
+
+    public static final String VARIANT_CONTENT_TYPE = "image/jpeg";
+
+    private static final int PLACEHOLDER_WIDTH = 32;
+
+    private static final Set<String> SUPPORTED_TYPES = Set.of(
+            "image/jpeg",
+            "image/jpg",
+            "image/png",
+            "image/gif",
+            "image/bmp"
+    );
+
+    private final MediaStorage mediaStorage;
+    private final MediaItemCache mediaItemCache;
+    private final MediaDeletionOutboxService mediaDeletionOutboxService;
+    private final MediaBlobService mediaBlobService;
+    private final JdbcTemplate jdbcTemplate;
+    private final ExecutorService executor;
+
+    private final boolean enabled;
+    private final int[] widths;
+    private final float quality;
+    private final long maxSourceBytes;
+    private final long maxSourcePixels;
+
+    public MediaDerivativeService(
+            MediaStorage mediaStorage,
+            MediaItemCache mediaItemCache,
+            MediaDeletionOutboxService mediaDeletionOutboxService,
+            MediaBlobService mediaBlobService,
+            JdbcTemplate jdbcTemplate,
+            @Qualifier("mediaDerivativeExecutor") ExecutorService executor,
+            @Value("${ptdot.media.derivatives.enabled:true}") boolean enabled,
+            @Value("${ptdot.media.derivatives.widths:160,480,1024}") int[] widths,
+            @Value("${ptdot.media.derivatives.quality:0.8}") float quality,
+            @Value("${ptdot.media.derivatives.max-source-bytes:26214400}") long maxSourceBytes,
+            @Value("${ptdot.media.derivatives.max-source-pixels:50000000}") long maxSourcePixels
+    ) {
+        this.mediaStorage = mediaStorage;
+        this.mediaItemCache = mediaItemCache;
+        this.mediaDeletionOutboxService = mediaDeletionOutboxService;
+        this.mediaBlobService = mediaBlobService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.executor = executor;
+        this.enabled = enabled;
+        this.widths = Arrays.stream(widths).filter(w -> w > 0).distinct().sorted().toArray();
+        this.quality = Math.max(0.1f, Math.min(1f, quality));
+        this.maxSourceBytes = maxSourceBytes;
+        this.maxSourcePixels = Math.max(1, maxSourcePixels);
+    }
+
+    /**
+     * Key da derivada: a storage key original com sufixo de largura e .jpg
+     * ({@code poi/1/images/abc.png} -> {@code poi/1/images/abc_w480.jpg}).
+     */
+    public static String variantKey(String storageKey, int width) {
+        String key = storageKey == null ? "" : storageKey.trim();
+
+        int slash = key.lastIndexOf('/');
+        int dot = key.lastIndexOf('.');
+        String base = dot > slash ? key.substring(0, dot) : key;
+
+        return base + "_w" + width + ".jpg";
+    }
+
+    public static List<String> variantKeys(String storageKey, Integer[] widths) {
+        if (storageKey == null || storageKey.isBlank() || widths == null || widths.length == 0) return List.of();
+
+        List<String> out = new ArrayList<>(widths.length);
+        for (Integer w : widths) {
+            if (w != null && w > 0) out.add(variantKey(storageKey, w));
+        }
+        return out;
+    }
+
+    /**
+     * Agenda as derivadas para depois do commit (a linha tem de existir e o
+     * upload não fica à espera do encode).
+     */
+    public void scheduleAfterCommit(MediaItem item) {
+        if (!enabled || !mediaStorage.isEnabled()) return;
+        if (item == null || item.getId() == null || !isSupported(item.getMimeType())) return;
+
+        afterCommit(List.of(new Job(item.getId(), item.getEntityType(), item.getEntityId(), item.getStorageKey())));
+    }
+
+    /**
+     * Para linhas inseridas por JDBC (sem mime type): é o cabeçalho do objeto
+     * que decide se é imagem. URLs externos não estão no storage e ficam de fora.
+     *
+     * @param storageKeysById storage key de cada linha inserida, por id
+     */
+    public void scheduleAfterCommit(String entityType, Long entityId, Map<Long, String> storageKeysById) {
+        if (!enabled || !mediaStorage.isEnabled()) return;
+        if (storageKeysById == null || storageKeysById.isEmpty()) return;
+
+        List<Job> jobs = new ArrayList<>(storageKeysById.size());
+        for (Map.Entry<Long, String> e : storageKeysById.entrySet()) {
+            String key = e.getValue();
+            if (e.getKey() == null || key == null || key.isBlank() || key.contains("://")) continue;
+            jobs.add(new Job(e.getKey(), entityType, entityId, key));
+        }
+
+        if (!jobs.isEmpty()) afterCommit(jobs);
+    }
+
+    private void afterCommit(List<Job> jobs) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            jobs.forEach(this::submit);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                jobs.forEach(MediaDerivativeService.this::submit);
+            }
+        });
+    }
+
+    private void submit(Job job) {
+        try {
+            executor.execute(() -> generate(job));
+        } catch (RejectedExecutionException ex) {
+            log.warn("[MediaDerivative] Fila cheia, sem derivadas para mediaItemId={} key={}", job.mediaItemId(), job.storageKey());
+        }
+    }
+
+    private void generate(Job job) {
+        long t0 = System.nanoTime();
+        List<String> written = new ArrayList<>();
+
+        try {
+            if (reuseExisting(job)) return;
+
+            // tamanho pelo HEAD, para não descarregar um original grande demais
+            MediaStorage.ObjectInfo head = mediaStorage.head(job.storageKey()).orElse(null);
+            if (head == null || head.sizeBytes() <= 0 || head.sizeBytes() > maxSourceBytes) return;
+
+            byte[] original = mediaStorage.getObjectBytes(job.storageKey());
+            if (original.length == 0 || original.length > maxSourceBytes) return;
+
+            // dimensões pelo cabeçalho: um ficheiro pequeno pode descodificar
+            // para gigapixels (decompression bomb)
+            ImageProbe.Probed probed = ImageProbe.probe(new ByteArrayInputStream(original));
+            if (probed == null || probed.info().pixels() > maxSourcePixels) {
+                log.debug("[MediaDerivative] Original ignorado mediaItemId={} key={} ({})",
+                        job.mediaItemId(), job.storageKey(),
+                        probed == null ? "cabeçalho inválido" : probed.info().width() + "x" + probed.info().height());
+                return;
+            }
+
+            BufferedImage source = decode(probed);
+            original = null;
+            if (source == null) return;
+
+            Placeholder placeholder = placeholder(source);
+
+            List<Integer> done = new ArrayList<>();
+
+            for (int width : widths) {
+                if (width >= source.getWidth()) break;
+
+                byte[] encoded = encodeJpeg(scaleToWidth(source, width), quality);
+                String key = variantKey(job.storageKey(), width);
+
+                mediaStorage.putBytes(key, encoded, VARIANT_CONTENT_TYPE);
+                written.add(key);
+                done.add(width);
+            }
+
+            int updated = jdbcTemplate.update(
+                    """
+                    update media_item
+                    set variant_widths = ?, width = ?, height = ?, blur_hash = ?, dominant_color = ?
+                    where id = ? and storage_key = ?
+                    """,
+                    ps -> {
+                        if (done.isEmpty()) {
+                            ps.setNull(1, Types.ARRAY);
+                        } else {
+                            ps.setArray(1, ps.getConnection().createArrayOf("integer", done.toArray()));
+                        }
+                        ps.setInt(2, placeholder.width());
+                        ps.setInt(3, placeholder.height());
+                        ps.setString(4, placeholder.blurHash());
+                        ps.setString(5, placeholder.dominantColor());
+                        ps.setLong(6, job.mediaItemId());
+                        ps.setString(7, job.storageKey());
+                    }
+            );
+
+            if (updated == 0) {
+                // o item foi apagado/substituído entretanto: as derivadas ficaram órfãs
+                discard(job, written);
+                return;
+            }
+
+            mediaItemCache.invalidate(job.entityType(), job.entityId());
+
+            log.debug("[MediaDerivative] mediaItemId={} {}x{} larguras={} em {}ms",
+                    job.mediaItemId(), placeholder.width(), placeholder.height(), done, (System.nanoTime() - t0) / 1_000_000);
+        } catch (Exception ex) {
+            log.warn("[MediaDerivative] Falha mediaItemId={} key={}: {}", job.mediaItemId(), job.storageKey(), ex.getMessage());
+            if (!written.isEmpty()) {
+                try {
+                    discard(job, written);
+                } catch (Exception ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Outra linha com a mesma storage key (conteúdo deduplicado) já foi
+     * processada: as keys das derivadas são as mesmas, basta copiar as
+     * larguras, as dimensões e o placeholder.
+     */
+    private boolean reuseExisting(Job job) {
+        int updated = jdbcTemplate.update(
+                """
+                update media_item m
+                set variant_widths = s.variant_widths,
+                    width = s.width,
+                    height = s.height,
+                    blur_hash = s.blur_hash,
+                    dominant_color = s.dominant_color
+                from (
+                    select variant_widths, width, height, blur_hash, dominant_color
+                    from media_item
+                    where storage_key = ? and id <> ? and width is not null
+                    limit 1
+                ) s
+                where m.id = ? and m.storage_key = ?
+                """,
+                job.storageKey(),
+                job.mediaItemId(),
+                job.mediaItemId(),
+                job.storageKey()
+        );
+        if (updated == 0) return false;
+
+        mediaItemCache.invalidate(job.entityType(), job.entityId());
+        return true;
+    }
+
+    /**
+     * Derivadas de um blob do índice podem estar em uso por outras linhas;
+     * essas ficam para o sweep do {@link MediaBlobService}.
+     */
+    private void discard(Job job, List<String> written) {
+        if (mediaBlobService.isTracked(job.storageKey())) return;
+        mediaDeletionOutboxService.enqueue(written);
+    }
+
+    /**
+     * O ImageIO ignora o EXIF e o JPEG das derivadas não o leva: a
+     * orientação vai para os pixels antes de reduzir.
+     */
+    static BufferedImage decode(ImageProbe.Probed probed) throws IOException {
+        BufferedImage image = ImageIO.read(probed.stream());
+        if (image == null) return null;
+
+        return MediaImageOptimizer.orient(image, probed.info().orientation(), image.getColorModel().hasAlpha());
+    }
+
+    /**
+     * Dimensões, BlurHash e cor dominante da imagem já orientada, a que o
+     * cliente mostra: com os pixels tal como vêm codificados, um retrato
+     * ficava com largura e altura trocadas e um BlurHash deitado.
+     */
+    static Placeholder placeholder(BufferedImage oriented) {
+        int width = oriented.getWidth();
+        int height = oriented.getHeight();
+
+        BufferedImage tiny = scaleToWidth(oriented, Math.min(PLACEHOLDER_WIDTH, width));
+        boolean landscape = width >= height;
+
+        return new Placeholder(
+                width,
+                height,
+                ImagePlaceholders.blurHash(tiny, landscape ? 4 : 3, landscape ? 3 : 4),
+                ImagePlaceholders.dominantColor(tiny)
+        );
+    }
+
+    static BufferedImage scaleToWidth(BufferedImage source, int width) {
+        return scaleToWidth(source, width, false);
+    }
+
+    /**
+     * Redução em passos de metade (bilinear) até perto do alvo e um passo
+     * final: qualidade próxima de bicúbico com custo bem menor. Sem
+     * {@code keepAlpha} a transparência fica sobre fundo branco (para JPEG).
+     */
+    static BufferedImage scaleToWidth(BufferedImage source, int width, boolean keepAlpha) {
+        int height = Math.max(1, (int) Math.round((double) source.getHeight() * width / source.getWidth()));
+
+        BufferedImage current = source;
+        int w = source.getWidth();
+        int h = source.getHeight();
+
+        while (w / 2 >= width) {
+            w /= 2;
+            h = Math.max(1, h / 2);
+            current = draw(current, w, h, keepAlpha);
+        }
+
+        return draw(current, width, height, keepAlpha);
+    }
+
+    private static BufferedImage draw(BufferedImage src, int width, int height, boolean keepAlpha) {
+        BufferedImage out = new BufferedImage(width, height, keepAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        try {
+            if (!keepAlpha) {
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, width, height);
+            }
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(src, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return out;
+    }
+
+    static byte[] encodeJpeg(BufferedImage image, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static boolean isSupported(String contentType) {
+        if (contentType == null) return false;
+        String ct = contentType.toLowerCase(Locale.ROOT);
+        int semi = ct.indexOf(';');
+        return SUPPORTED_TYPES.contains((semi >= 0 ? ct.substring(0, semi) : ct).trim());
+    }
+
+    private record Job(long mediaItemId, String entityType, Long entityId, String storageKey) {}
+
+    record Placeholder(int width, int height, String blurHash, String dominantColor) {}
+}
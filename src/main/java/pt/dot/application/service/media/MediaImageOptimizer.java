@@ -0,0 +1,318 @@
+package pt.dot.application.service.media;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import pt.dot.application.exception.ApiException;
+import pt.dot.application.exception.Errors;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Otimização opcional das imagens enviadas por {@code /api/media/upload}
+ * com {@code mediaType=image} ({@code ptdot.media.optimize.enabled}).
+ *
+ * Num pool limitado ({@code mediaOptimizeExecutor}):
+ * - identifica o formato e as dimensões pelo cabeçalho ({@link ImageProbe})
+ *   antes de descodificar, para recusar imagens gigantes sem as abrir
+ * - descodifica e aplica a orientação EXIF aos pixels
+ * - reduz para {@code max-edge} no lado maior (nunca aumenta)
+ * - volta a codificar: JPEG com {@code quality}, ou PNG se tiver
+ *   transparência. Os metadados (EXIF, GPS, ICC, ...) não passam para o
+ *   ficheiro novo.
+ *
+ * O original só é guardado com {@code keep-original}, numa key própria
+ * registada em media_item.original_key.
+ *
+ * Quando não há reencode (acima de {@code max-source-bytes}, WebP, GIF, falha
+ * a descodificar) os metadados saem na mesma, sem tocar nos pixels
+ * ({@link ImageMetadata}); o WebP é lido para memória, por isso acima de
+ * {@code max-source-bytes} é recusado, tal como tudo o que o
+ * {@link ImageProbe} não reconhece como imagem.
+ */
+@Service
+public class MediaImageOptimizer {
+
+    private static final Logger log = LoggerFactory.getLogger(MediaImageOptimizer.class);
+
+    private static final Set<String> REENCODE_TYPES = Set.of("image/jpeg", "image/png", "image/bmp");
+
+    private static final String ORIGINAL_MEDIA_TYPE = "original";
+
+    private final MediaStorage mediaStorage;
+    private final ExecutorService executor;
+
+    private final boolean enabled;
+    private final int maxEdge;
+    private final float quality;
+    private final boolean keepOriginal;
+    private final long maxSourceBytes;
+    private final long maxPixels;
+    private final Duration timeout;
+
+    public MediaImageOptimizer(
+            MediaStorage mediaStorage,
+            @Qualifier("mediaOptimizeExecutor") ExecutorService executor,
+            @Value("${ptdot.media.optimize.enabled:false}") boolean enabled,
+            @Value("${ptdot.media.optimize.max-edge:2560}") int maxEdge,
+            @Value("${ptdot.media.optimize.quality:0.82}") float quality,
+            @Value("${ptdot.media.optimize.keep-original:false}") boolean keepOriginal,
+            @Value("${ptdot.media.optimize.max-source-bytes:31457280}") long maxSourceBytes,
+            @Value("${ptdot.media.optimize.max-pixels:50000000}") long maxPixels,
+            @Value("${ptdot.media.optimize.timeout-ms:30000}") long timeoutMs
+    ) {
+        this.mediaStorage = mediaStorage;
+        this.executor = executor;
+        this.enabled = enabled;
+        this.maxEdge = Math.max(64, maxEdge);
+        this.quality = Math.max(0.1f, Math.min(1f, quality));
+        this.keepOriginal = keepOriginal;
+        this.maxSourceBytes = maxSourceBytes;
+        this.maxPixels = Math.max(1, maxPixels);
+        this.timeout = Duration.ofMillis(Math.max(1000, timeoutMs));
+    }
+
+    public boolean appliesTo(String mediaType) {
+        return enabled && mediaType != null && "image".equals(mediaType.trim().toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Upload da versão otimizada (ou do ficheiro tal como veio, se não der
+     * para otimizar) e, se configurado, do original.
+     */
+    public Stored upload(MultipartFile file, String entityType, Long entityId, String mediaType) {
+        if (file == null || file.isEmpty()) {
+            throw Errors.badRequest("MEDIA_FILE_REQUIRED", "Ficheiro em falta.");
+        }
+
+        Encoded encoded = file.getSize() > maxSourceBytes ? null : optimizeOnPool(file);
+        if (encoded == null) {
+            // os pixels são os do original: não há versão à parte para guardar
+            return new Stored(uploadStripped(file, entityType, entityId, mediaType), null);
+        }
+
+        MediaStorage.UploadResult optimized = mediaStorage.uploadStream(
+                new ByteArrayInputStream(encoded.bytes()),
+                null,
+                encoded.contentType(),
+                entityType,
+                entityId,
+                mediaType
+        );
+
+        String originalKey = null;
+        if (keepOriginal) {
+            originalKey = mediaStorage.upload(file, entityType, entityId, ORIGINAL_MEDIA_TYPE).storageKey();
+        }
+
+        log.debug("[MediaOptimize] {} -> {} bytes ({})", file.getSize(), encoded.bytes().length, encoded.contentType());
+        return new Stored(optimized, originalKey);
+    }
+
+    /**
+     * O ficheiro tal como veio, menos os metadados. JPEG e PNG em stream;
+     * WebP em memória (até {@code max-source-bytes}); GIF e BMP não têm EXIF.
+     */
+    private MediaStorage.UploadResult uploadStripped(MultipartFile file, String entityType, Long entityId, String mediaType) {
+        try (InputStream in = file.getInputStream()) {
+            ImageProbe.Probed probed = ImageProbe.probe(in);
+            if (probed == null) {
+                throw Errors.badRequest("MEDIA_IMAGE_UNSUPPORTED", "Formato de imagem não suportado.");
+            }
+
+            ImageProbe.Info info = probed.info();
+            if (info.pixels() > maxPixels) {
+                throw Errors.badRequest("MEDIA_IMAGE_TOO_LARGE", "Imagem com demasiados pixels.");
+            }
+
+            if ("image/webp".equals(info.contentType())) {
+                if (file.getSize() > maxSourceBytes) {
+                    throw Errors.badRequest("MEDIA_IMAGE_TOO_LARGE", "Imagem WebP demasiado grande.");
+                }
+                byte[] stripped = ImageMetadata.stripWebp(probed.stream().readAllBytes());
+                return mediaStorage.uploadStream(
+                        new ByteArrayInputStream(stripped),
+                        file.getOriginalFilename(),
+                        info.contentType(),
+                        entityType,
+                        entityId,
+                        mediaType,
+                        stripped.length
+                );
+            }
+
+            return mediaStorage.uploadStream(
+                    ImageMetadata.strip(probed.stream(), info.contentType(), info.orientation()),
+                    file.getOriginalFilename(),
+                    info.contentType(),
+                    entityType,
+                    entityId,
+                    mediaType
+            );
+        } catch (IOException ex) {
+            throw Errors.badRequest("MEDIA_READ_FAILED", "Não foi possível ler o ficheiro enviado.");
+        }
+    }
+
+    /**
+     * A thread do pedido fica à espera (com prazo); pool cheio ou prazo
+     * excedido respondem 503 para o cliente tentar mais tarde.
+     */
+    private Encoded optimizeOnPool(MultipartFile file) {
+        Future<Encoded> future;
+        try {
+            future = executor.submit(() -> optimize(file));
+        } catch (RejectedExecutionException ex) {
+            throw busy();
+        }
+
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            future.cancel(true);
+            throw busy();
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw busy();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof ApiException api) throw api;
+            log.warn("[MediaOptimize] Falha a otimizar {}: {}", file.getOriginalFilename(),
+                    ex.getCause() == null ? ex.getMessage() : ex.getCause().getMessage());
+            return null;
+        }
+    }
+
+    private Encoded optimize(MultipartFile file) throws IOException {
+        try (InputStream in = file.getInputStream()) {
+            ImageProbe.Probed probed = ImageProbe.probe(in);
+            if (probed == null) return null;
+
+            ImageProbe.Info info = probed.info();
+            if (!REENCODE_TYPES.contains(info.contentType())) return null;
+            if (info.pixels() > maxPixels) {
+                throw Errors.badRequest("MEDIA_IMAGE_TOO_LARGE", "Imagem com demasiados pixels.");
+            }
+
+            BufferedImage image = ImageIO.read(probed.stream());
+            if (image == null) return null;
+
+            boolean alpha = image.getColorModel().hasAlpha() && "image/png".equals(info.contentType());
+            image = orient(image, info.orientation(), alpha);
+
+            int w = image.getWidth();
+            int h = image.getHeight();
+            int targetWidth = Math.max(w, h) <= maxEdge
+                    ? w
+                    : (w >= h ? maxEdge : Math.max(1, (int) Math.round((double) w * maxEdge / h)));
+
+            // mesmo sem redução passa por aqui: normaliza para RGB/ARGB
+            BufferedImage out = MediaDerivativeService.scaleToWidth(image, targetWidth, alpha);
+
+            return alpha
+                    ? new Encoded(encodePng(out), "image/png")
+                    : new Encoded(MediaDerivativeService.encodeJpeg(out, quality), MediaDerivativeService.VARIANT_CONTENT_TYPE);
+        }
+    }
+
+    /**
+     * Aplica aos pixels a orientação EXIF (1-8), já que o EXIF não passa
+     * para o ficheiro novo (nem para as derivadas).
+     */
+    static BufferedImage orient(BufferedImage image, int orientation, boolean alpha) {
+        if (orientation <= 1 || orientation > 8) return image;
+
+        int w = image.getWidth();
+        int h = image.getHeight();
+        boolean swap = orientation >= 5;
+
+        AffineTransform t = new AffineTransform();
+        switch (orientation) {
+            case 2 -> {
+                t.translate(w, 0);
+                t.scale(-1, 1);
+            }
+            case 3 -> {
+                t.translate(w, h);
+                t.rotate(Math.PI);
+            }
+            case 4 -> {
+                t.translate(0, h);
+                t.scale(1, -1);
+            }
+            case 5 -> {
+                t.rotate(-Math.PI / 2);
+                t.scale(-1, 1);
+            }
+            case 6 -> {
+                t.translate(h, 0);
+                t.rotate(Math.PI / 2);
+            }
+            case 7 -> {
+                t.translate(h, w);
+                t.rotate(Math.PI / 2);
+                t.scale(-1, 1);
+            }
+            default -> {
+                t.translate(0, w);
+                t.rotate(-Math.PI / 2);
+            }
+        }
+
+        BufferedImage out = new BufferedImage(
+                swap ? h : w,
+                swap ? w : h,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB
+        );
+        Graphics2D g = out.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            g.drawImage(image, t, null);
+        } finally {
+            g.dispose();
+        }
+        return out;
+    }
+
+    private static byte[] encodePng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, "png", bytes)) {
+            throw new IOException("Sem encoder PNG");
+        }
+        return bytes.toByteArray();
+    }
+
+    private static ApiException busy() {
+        return Errors.serviceUnavailable(
+                "MEDIA_OPTIMIZE_BUSY",
+                "Demasiadas imagens em processamento. Tenta novamente daqui a pouco."
+        );
+    }
+
+    /**
+     * @param originalKey key do original guardado à parte (null se não foi guardado)
+     */
+    public record Stored(MediaStorage.UploadResult upload, String originalKey) {}
+
+    private record Encoded(byte[] bytes, String contentType) {}
+}
@@ -0,0 +1,86 @@
+package pt.dot.application.service.media;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.function.Function;
+
+/**
+ * Cache dos media de cada entidade (POI / distrito), já ordenados e com o
+ * URL resolvido, para que as vistas de detalhe não vão à tabela media_item.
+ *
+ * A chave é só (entityType, entityId): uma leitura carrega todos os tipos de
+ * media da entidade e o filtro por tipo é feito em memória, por isso uma
+ * escrita invalida exatamente uma entrada.
+ */
+@Component
+public class MediaItemCache {
+
+    private final Cache<Key, List<Item>> cache;
+
+    public MediaItemCache(
+            @Value("${ptdot.media.cache.max-entries:20000}") long maxEntries,
+            @Value("${ptdot.media.cache.ttl-seconds:3600}") long ttlSeconds
+    ) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(Math.max(100, maxEntries))
+                .expireAfterWrite(Duration.ofSeconds(Math.max(1, ttlSeconds)))
+                .build();
+    }
+
+    /**
+     * O loader corre dentro do compute do Caffeine: uma invalidação que chegue
+     * a meio espera pelo fim do load e remove o resultado, em vez de o perder.
+     */
+    public List<Item> get(String entityType, Long entityId, Function<Key, List<Item>> loader) {
+        return cache.get(new Key(entityType, entityId), loader);
+    }
+
+    public List<Item> getIfPresent(String entityType, Long entityId) {
+        return cache.getIfPresent(new Key(entityType, entityId));
+    }
+
+    public void invalidate(String entityType, Long entityId) {
+        cache.invalidate(new Key(entityType, entityId));
+    }
+
+    /**
+     * Invalida já (leituras na própria transação não veem a versão antiga) e
+     * outra vez no fim da transação: depois do commit para apanhar leituras
+     * concorrentes feitas antes dele, e também em rollback, porque uma leitura
+     * na própria transação pode ter posto na cache dados que nunca existiram.
+     */
+    public void invalidateAfterCommit(String entityType, Long entityId) {
+        invalidate(entityType, entityId);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) return;
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                invalidate(entityType, entityId);
+            }
+        });
+    }
+
+    public record Key(String entityType, Long entityId) {}
+
+    /**
+     * @param variants URLs resolvidos das derivadas, por largura (pode ser vazio)
+     * @param meta     dimensões e placeholder (null se ainda não calculados)
+     */
+    public record Item(
+            String mediaType,
+            String storageKey,
+            String resolvedUrl,
+            SortedMap<Integer, String> variants,
+            ImageMeta meta
+    ) {}
+}
@@ -1,15 +1,29 @@
 package pt.dot.application.service.media;
 
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import pt.dot.application.db.entity.MediaItem;
+import pt.dot.application.db.repo.MediaItemKeyView;
 import pt.dot.application.db.repo.MediaItemRepository;
 import pt.dot.application.exception.Errors;
 
+import java.sql.Array;
+import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 @Service
 @Transactional
@@ -27,39 +41,133 @@ public class MediaItemService {
     public static final String PROVIDER_WIKIMEDIA = "wikimedia";
     public static final String PROVIDER_CSV = "csv-import";
 
+    private static final int BULK_IN_CHUNK = 1000;
+
     private final MediaItemRepository mediaItemRepository;
     private final MediaUrlService mediaUrlService;
-    private final R2MediaStorageService r2MediaStorageService;
+    private final MediaDeletionOutboxService mediaDeletionOutboxService;
+    private final MediaBlobService mediaBlobService;
+    private final MediaItemCache mediaItemCache;
+    private final MediaDerivativeService mediaDerivativeService;
+    private final JdbcTemplate jdbcTemplate;
 
     public MediaItemService(
             MediaItemRepository mediaItemRepository,
             MediaUrlService mediaUrlService,
-            R2MediaStorageService r2MediaStorageService
+            MediaDeletionOutboxService mediaDeletionOutboxService,
+            MediaBlobService mediaBlobService,
+            MediaItemCache mediaItemCache,
+            MediaDerivativeService mediaDerivativeService,
+            JdbcTemplate jdbcTemplate
     ) {
         this.mediaItemRepository = mediaItemRepository;
         this.mediaUrlService = mediaUrlService;
-        this.r2MediaStorageService = r2MediaStorageService;
+        this.mediaDeletionOutboxService = mediaDeletionOutboxService;
+        this.mediaBlobService = mediaBlobService;
+        this.mediaItemCache = mediaItemCache;
+        this.mediaDerivativeService = mediaDerivativeService;
+        this.jdbcTemplate = jdbcTemplate;
     }
 
     @Transactional(readOnly = true)
     public List<String> getResolvedUrls(String entityType, Long entityId, String mediaType, int limit) {
+        return getResolvedImages(entityType, entityId, mediaType, limit).stream()
+                .map(ResolvedImage::url)
+                .toList();
+    }
+
+    /**
+     * Como {@link #getResolvedUrls(String, Long, String, int)}, com as
+     * derivadas de cada imagem (srcset).
+     */
+    @Transactional(readOnly = true)
+    public List<ResolvedImage> getResolvedImages(String entityType, Long entityId, String mediaType, int limit) {
         if (entityId == null) return List.of();
 
         String normalizedEntityType = normalizeUpper(entityType, null);
         String normalizedMediaType = normalizeUpper(mediaType, null);
         if (normalizedEntityType == null) return List.of();
 
-        int max = limit <= 0 ? Integer.MAX_VALUE : limit;
-        List<String> out = new ArrayList<>();
+        return collect(cachedItems(normalizedEntityType, entityId), normalizedMediaType, limit);
+    }
+
+    /**
+     * Versão em lote para listas (favoritos, cards): uma única query com
+     * limite por entidade, em vez de uma query por entidade.
+     * Entidades sem media não aparecem no mapa.
+     */
+    @Transactional(readOnly = true)
+    public Map<Long, List<String>> getResolvedUrls(
+            String entityType,
+            Collection<Long> entityIds,
+            String mediaType,
+            int limitPerEntity
+    ) {
+        Map<Long, List<String>> out = new HashMap<>();
 
-        for (MediaItem item : mediaItemRepository.findByEntityTypeAndEntityIdOrderByPositionAscIdAsc(normalizedEntityType, entityId)) {
-            if (normalizedMediaType != null && !normalizedMediaType.equalsIgnoreCase(item.getMediaType())) continue;
+        getResolvedImages(entityType, entityIds, mediaType, limitPerEntity).forEach((id, images) ->
+                out.put(id, images.stream().map(ResolvedImage::url).toList()));
 
-            String resolved = mediaUrlService.resolve(item.getStorageKey());
-            if (resolved == null || resolved.isBlank()) continue;
+        return out;
+    }
 
-            if (!out.contains(resolved)) out.add(resolved);
-            if (out.size() >= max) break;
+    @Transactional(readOnly = true)
+    public Map<Long, List<ResolvedImage>> getResolvedImages(
+            String entityType,
+            Collection<Long> entityIds,
+            String mediaType,
+            int limitPerEntity
+    ) {
+        if (entityIds == null || entityIds.isEmpty()) return Map.of();
+
+        String normalizedEntityType = normalizeUpper(entityType, null);
+        String normalizedMediaType = normalizeUpper(mediaType, null);
+        if (normalizedEntityType == null) return Map.of();
+
+        List<Long> ids = entityIds.stream()
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        if (ids.isEmpty()) return Map.of();
+
+        int max = limitPerEntity <= 0 ? Integer.MAX_VALUE : limitPerEntity;
+        Map<Long, List<ResolvedImage>> out = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+
+        for (Long id : ids) {
+            List<MediaItemCache.Item> cached = mediaItemCache.getIfPresent(normalizedEntityType, id);
+            if (cached == null) {
+                missing.add(id);
+                continue;
+            }
+
+            List<ResolvedImage> images = collect(cached, normalizedMediaType, max);
+            if (!images.isEmpty()) out.put(id, images);
+        }
+
+        for (int from = 0; from < missing.size(); from += BULK_IN_CHUNK) {
+            List<Long> chunk = missing.subList(from, Math.min(missing.size(), from + BULK_IN_CHUNK));
+
+            Map<Long, List<MediaItemCache.Item>> rows = new HashMap<>();
+            for (MediaItemKeyView row : mediaItemRepository.findTopKeysPerEntity(
+                    normalizedEntityType,
+                    chunk,
+                    normalizedMediaType,
+                    max
+            )) {
+                rows.computeIfAbsent(row.getEntityId(), ignored -> new ArrayList<>())
+                        .add(toCacheItem(
+                                normalizedMediaType,
+                                row.getStorageKey(),
+                                parseWidths(row.getVariantWidths()),
+                                ImageMeta.of(row.getWidth(), row.getHeight(), row.getBlurHash(), row.getDominantColor())
+                        ));
+            }
+
+            rows.forEach((id, items) -> {
+                List<ResolvedImage> images = collect(items, null, max);
+                if (!images.isEmpty()) out.put(id, images);
+            });
         }
 
         return out;
@@ -76,10 +184,10 @@ public class MediaItemService {
         int max = limit <= 0 ? Integer.MAX_VALUE : limit;
         List<String> out = new ArrayList<>();
 
-        for (MediaItem item : mediaItemRepository.findByEntityTypeAndEntityIdOrderByPositionAscIdAsc(normalizedEntityType, entityId)) {
-            if (normalizedMediaType != null && !normalizedMediaType.equalsIgnoreCase(item.getMediaType())) continue;
+        for (MediaItemCache.Item item : cachedItems(normalizedEntityType, entityId)) {
+            if (normalizedMediaType != null && !normalizedMediaType.equalsIgnoreCase(item.mediaType())) continue;
 
-            String key = item.getStorageKey();
+            String key = item.storageKey();
             if (key == null || key.isBlank()) continue;
 
             if (!out.contains(key)) out.add(key);
@@ -97,18 +205,15 @@ public class MediaItemService {
         String normalizedMediaType = normalizeUpper(mediaType, null);
         if (normalizedEntityType == null || normalizedMediaType == null) return false;
 
-        return mediaItemRepository.existsByEntityTypeAndEntityIdAndMediaType(
-                normalizedEntityType,
-                entityId,
-                normalizedMediaType
-        );
+        return cachedItems(normalizedEntityType, entityId).stream()
+                .anyMatch(item -> normalizedMediaType.equalsIgnoreCase(item.mediaType()));
     }
 
     public MediaItem createWikimediaMedia(
             String entityType,
             Long entityId,
             String mediaType,
-            R2MediaStorageService.UploadResult upload,
+            MediaStorage.UploadResult upload,
             String sourceUrl,
             String title
     ) {
@@ -130,14 +235,32 @@ public class MediaItemService {
         item.setMimeType(upload.contentType());
         item.setPosition(nextPosition(normalizedEntityType, entityId));
 
-        return mediaItemRepository.save(item);
+        MediaItem saved = mediaItemRepository.save(item);
+        mediaBlobService.retain(List.of(saved.getStorageKey()));
+        mediaItemCache.invalidateAfterCommit(normalizedEntityType, entityId);
+        mediaDerivativeService.scheduleAfterCommit(saved);
+        return saved;
     }
 
     public MediaItem createCloudMedia(
             String entityType,
             Long entityId,
             String mediaType,
-            R2MediaStorageService.UploadResult upload
+            MediaStorage.UploadResult upload
+    ) {
+        return createCloudMedia(entityType, entityId, mediaType, upload, null);
+    }
+
+    /**
+     * @param originalKey original guardado ao lado de uma versão otimizada
+     *                    (null se não houver); sai com a linha
+     */
+    public MediaItem createCloudMedia(
+            String entityType,
+            Long entityId,
+            String mediaType,
+            MediaStorage.UploadResult upload,
+            String originalKey
     ) {
         if (entityId == null) {
             throw Errors.badRequest("MEDIA_ENTITY_ID_REQUIRED", "entityId é obrigatório para associar o ficheiro à entidade.");
@@ -155,18 +278,29 @@ public class MediaItemService {
         item.setMediaType(normalizedMediaType);
         item.setProvider(PROVIDER_CLOUD);
         item.setStorageKey(upload.storageKey().trim());
+        item.setOriginalKey(originalKey == null || originalKey.isBlank() ? null : originalKey.trim());
         item.setMimeType(upload.contentType());
         item.setPosition(nextPosition(normalizedEntityType, entityId));
 
-        return mediaItemRepository.save(item);
+        MediaItem saved = mediaItemRepository.save(item);
+        mediaBlobService.retain(List.of(saved.getStorageKey()));
+        mediaItemCache.invalidateAfterCommit(normalizedEntityType, entityId);
+        mediaDerivativeService.scheduleAfterCommit(saved);
+        return saved;
     }
 
     /**
-     * Diff-based replace:
-     * - mantém itens que continuam na lista
-     * - apaga da BD + R2 apenas os itens removidos
-     * - adiciona apenas os novos
-     * - atualiza posições conforme ordem recebida do FE
+     * Diff-based replace, por conjuntos:
+     * - lê o estado atual numa query (id, storage_key, position)
+     * - diff por hash da storage key normalizada
+     * - apaga da BD (um DELETE) apenas os itens removidos; cada linha apagada
+     *   larga uma referência no {@link MediaBlobService} e só os objetos fora
+     *   desse índice vão direto para o outbox ({@link MediaDeletionOutboxService})
+     * - insere os novos num único INSERT ... SELECT FROM unnest(...) RETURNING id,
+     *   para agendar as derivadas depois do commit (como nos create*)
+     * - atualiza só as posições que mudaram num único UPDATE ... FROM unnest(...)
+     *
+     * Vai por JDBC porque o id IDENTITY impede o Hibernate de agrupar inserts.
      */
     public void replaceMedia(
             String entityType,
@@ -182,39 +316,127 @@ public class MediaItemService {
         String normalizedProvider = normalizeLower(provider);
 
         List<String> nextKeys = normalizeKeys(storageKeys);
+        mediaItemCache.invalidateAfterCommit(normalizedEntityType, entityId);
+
+        List<ExistingRow> existing = jdbcTemplate.query(
+                """
+                select id, storage_key, position, variant_widths, original_key
+                from media_item
+                where entity_type = ? and entity_id = ? and lower(media_type) = lower(?)
+                order by position, id
+                """,
+                (rs, i) -> new ExistingRow(
+                        rs.getLong(1),
+                        rs.getString(2),
+                        (Integer) rs.getObject(3),
+                        widths(rs.getArray(4)),
+                        rs.getString(5)
+                ),
+                normalizedEntityType,
+                entityId,
+                normalizedMediaType
+        );
 
-        List<MediaItem> existing = mediaItemRepository
-                .findByEntityTypeAndEntityIdOrderByPositionAscIdAsc(normalizedEntityType, entityId)
-                .stream()
-                .filter(item -> normalizedMediaType.equalsIgnoreCase(item.getMediaType()))
-                .toList();
-
-        List<MediaItem> toDelete = existing.stream()
-                .filter(item -> !nextKeys.contains(normalizeStorageKey(item.getStorageKey())))
-                .toList();
+        Map<String, ExistingRow> kept = new HashMap<>();
+        List<Long> deleteIds = new ArrayList<>();
+        List<String> releasedKeys = new ArrayList<>();
+        List<String> removedOriginals = new ArrayList<>();
+        Map<String, Integer[]> removedWidths = new HashMap<>();
+
+        Set<String> next = new HashSet<>(nextKeys);
+
+        for (ExistingRow row : existing) {
+            String key = normalizeStorageKey(row.storageKey());
+
+            if (!next.contains(key)) {
+                deleteIds.add(row.id());
+                releasedKeys.add(safe(row.storageKey()));
+                removedWidths.merge(safe(row.storageKey()), row.variantWidths(), (x, y) -> x != null ? x : y);
+                if (row.originalKey() != null) removedOriginals.add(row.originalKey());
+            } else if (kept.putIfAbsent(key, row) != null) {
+                // linha duplicada da mesma chave: sai da BD, o objeto fica (continua em uso)
+                deleteIds.add(row.id());
+                releasedKeys.add(safe(row.storageKey()));
+                if (row.originalKey() != null) removedOriginals.add(row.originalKey());
+            }
+        }
 
-        deleteItemsAndStorage(toDelete);
+        List<Long> updateIds = new ArrayList<>();
+        List<Integer> updatePositions = new ArrayList<>();
+        List<String> insertKeys = new ArrayList<>();
+        List<Integer> insertPositions = new ArrayList<>();
+
+        for (int pos = 0; pos < nextKeys.size(); pos++) {
+            String key = nextKeys.get(pos);
+            ExistingRow row = kept.get(key);
+
+            if (row == null) {
+                insertKeys.add(key);
+                insertPositions.add(pos);
+            } else if (row.position() == null || row.position() != pos) {
+                updateIds.add(row.id());
+                updatePositions.add(pos);
+            }
+        }
 
-        int pos = 0;
+        if (!deleteIds.isEmpty()) {
+            jdbcTemplate.update(
+                    "delete from media_item where id = any(?)",
+                    ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", deleteIds.toArray()))
+            );
 
-        for (String key : nextKeys) {
-            MediaItem existingItem = findByStorageKey(existing, key);
+            Set<String> untracked = mediaBlobService.release(releasedKeys);
+            // o original de cada linha só a ela pertence
+            List<String> deleteStorageKeys = new ArrayList<>(removedOriginals);
 
-            if (existingItem != null) {
-                existingItem.setPosition(pos++);
-                mediaItemRepository.save(existingItem);
-                continue;
+            for (Map.Entry<String, Integer[]> removed : removedWidths.entrySet()) {
+                if (!untracked.contains(removed.getKey())) continue;
+                deleteStorageKeys.add(removed.getKey());
+                deleteStorageKeys.addAll(MediaDerivativeService.variantKeys(removed.getKey(), removed.getValue()));
             }
 
-            MediaItem item = new MediaItem();
-            item.setEntityType(normalizedEntityType);
-            item.setEntityId(entityId);
-            item.setMediaType(normalizedMediaType);
-            item.setProvider(normalizedProvider);
-            item.setStorageKey(key);
-            item.setPosition(pos++);
+            mediaDeletionOutboxService.enqueue(deleteStorageKeys);
+        }
+
+        if (!updateIds.isEmpty()) {
+            jdbcTemplate.update(
+                    """
+                    update media_item m
+                    set position = v.position
+                    from unnest(?::bigint[], ?::int[]) as v(id, position)
+                    where m.id = v.id
+                    """,
+                    ps -> {
+                        ps.setArray(1, ps.getConnection().createArrayOf("bigint", updateIds.toArray()));
+                        ps.setArray(2, ps.getConnection().createArrayOf("integer", updatePositions.toArray()));
+                    }
+            );
+        }
 
-            mediaItemRepository.save(item);
+        if (!insertKeys.isEmpty()) {
+            Map<Long, String> inserted = new LinkedHashMap<>();
+
+            jdbcTemplate.query(
+                    """
+                    insert into media_item (entity_type, entity_id, media_type, provider, storage_key, position, created_at)
+                    select ?, ?, ?, ?, v.storage_key, v.position, now()
+                    from unnest(?::text[], ?::int[]) as v(storage_key, position)
+                    returning id, storage_key
+                    """,
+                    ps -> {
+                        ps.setString(1, normalizedEntityType);
+                        ps.setLong(2, entityId);
+                        ps.setString(3, normalizedMediaType);
+                        ps.setString(4, normalizedProvider);
+                        ps.setArray(5, ps.getConnection().createArrayOf("text", insertKeys.toArray()));
+                        ps.setArray(6, ps.getConnection().createArrayOf("integer", insertPositions.toArray()));
+                    },
+                    rs -> {
+                        inserted.put(rs.getLong(1), rs.getString(2));
+                    }
+            );
+            mediaBlobService.retain(insertKeys);
+            mediaDerivativeService.scheduleAfterCommit(normalizedEntityType, entityId, inserted);
         }
     }
 
@@ -224,50 +446,85 @@ public class MediaItemService {
         String normalizedEntityType = normalizeUpper(entityType, null);
         if (normalizedEntityType == null) return;
 
-        List<MediaItem> items = mediaItemRepository.findByEntityTypeAndEntityIdOrderByPositionAscIdAsc(
+        List<String> releasedKeys = new ArrayList<>();
+        List<String> storageKeys = new ArrayList<>();
+        Map<String, Integer[]> removedWidths = new HashMap<>();
+
+        jdbcTemplate.query(
+                "delete from media_item where entity_type = ? and entity_id = ? returning storage_key, variant_widths, original_key",
+                rs -> {
+                    String key = safe(rs.getString(1));
+                    releasedKeys.add(key);
+                    removedWidths.merge(key, widths(rs.getArray(2)), (x, y) -> x != null ? x : y);
+                    if (rs.getString(3) != null) storageKeys.add(rs.getString(3));
+                },
                 normalizedEntityType,
                 entityId
         );
 
-        deleteItemsAndStorage(items);
-    }
-
-    private void deleteItemsAndStorage(List<MediaItem> items) {
-        if (items == null || items.isEmpty()) return;
-
-        for (MediaItem item : items) {
-            deleteStorageObjectIfPresent(item);
+        // blobs do índice ficam para o sweep; o resto sai já, com as derivadas
+        for (String key : mediaBlobService.release(releasedKeys)) {
+            storageKeys.add(key);
+            storageKeys.addAll(MediaDerivativeService.variantKeys(key, removedWidths.get(key)));
         }
 
-        mediaItemRepository.deleteAll(items);
+        mediaDeletionOutboxService.enqueue(storageKeys);
+        mediaItemCache.invalidateAfterCommit(normalizedEntityType, entityId);
     }
 
-    private void deleteStorageObjectIfPresent(MediaItem item) {
-        if (item == null) return;
+    private List<MediaItemCache.Item> cachedItems(String entityType, Long entityId) {
+        return mediaItemCache.get(entityType, entityId, key ->
+                mediaItemRepository.findByEntityTypeAndEntityIdOrderByPositionAscIdAsc(key.entityType(), key.entityId())
+                        .stream()
+                        .map(item -> toCacheItem(
+                                item.getMediaType(),
+                                item.getStorageKey(),
+                                item.getVariantWidths(),
+                                ImageMeta.of(item.getWidth(), item.getHeight(), item.getBlurHash(), item.getDominantColor())
+                        ))
+                        .toList()
+        );
+    }
 
-        String storageKey = safe(item.getStorageKey());
-        if (storageKey.isBlank()) return;
+    private MediaItemCache.Item toCacheItem(String mediaType, String storageKey, Integer[] variantWidths, ImageMeta meta) {
+        SortedMap<Integer, String> variants = new TreeMap<>();
 
-        try {
-            r2MediaStorageService.deleteObject(storageKey);
-        } catch (Exception ex) {
-            System.out.println("[MEDIA] failed deleting R2 object storageKey=" +
-                    storageKey + " -> " + ex.getMessage());
+        if (variantWidths != null) {
+            for (Integer width : variantWidths) {
+                if (width == null || width <= 0) continue;
+                variants.put(width, mediaUrlService.resolve(MediaDerivativeService.variantKey(storageKey, width)));
+            }
         }
+
+        return new MediaItemCache.Item(mediaType, storageKey, mediaUrlService.resolve(storageKey), variants, meta);
     }
 
-    private MediaItem findByStorageKey(List<MediaItem> items, String storageKey) {
-        if (items == null || items.isEmpty()) return null;
+    private static List<ResolvedImage> collect(List<MediaItemCache.Item> items, String mediaType, int limit) {
+        int max = limit <= 0 ? Integer.MAX_VALUE : limit;
+        List<ResolvedImage> out = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
 
-        String normalized = normalizeStorageKey(storageKey);
+        for (MediaItemCache.Item item : items) {
+            if (mediaType != null && !mediaType.equalsIgnoreCase(item.mediaType())) continue;
 
-        for (MediaItem item : items) {
-            if (normalized.equals(normalizeStorageKey(item.getStorageKey()))) {
-                return item;
-            }
+            String resolved = item.resolvedUrl();
+            if (resolved == null || resolved.isBlank()) continue;
+
+            if (seen.add(resolved)) out.add(new ResolvedImage(resolved, item.variants(), item.meta()));
+            if (out.size() >= max) break;
         }
 
-        return null;
+        return out;
+    }
+
+    private static Integer[] parseWidths(String csv) {
+        if (csv == null || csv.isBlank()) return null;
+
+        return Arrays.stream(csv.split(","))
+                .map(String::trim)
+                .filter(v -> !v.isEmpty())
+                .map(Integer::valueOf)
+                .toArray(Integer[]::new);
     }
 
     private int nextPosition(String entityType, Long entityId) {
@@ -282,18 +539,14 @@ public class MediaItemService {
     private static List<String> normalizeKeys(List<String> input) {
         if (input == null || input.isEmpty()) return List.of();
 
-        List<String> out = new ArrayList<>();
+        Set<String> out = new LinkedHashSet<>();
 
         for (String value : input) {
             String key = normalizeStorageKey(value);
-            if (key.isBlank()) continue;
-
-            if (!out.contains(key)) {
-                out.add(key);
-            }
+            if (!key.isBlank()) out.add(key);
         }
 
-        return out;
+        return new ArrayList<>(out);
     }
 
     private static String normalizeUpper(String value, String fallback) {
@@ -329,4 +582,17 @@ public class MediaItemService {
 
         return v.trim();
     }
-}
\ No newline at end of file
+
+    private static Integer[] widths(Array array) throws SQLException {
+        if (array == null) return null;
+
+        Object value = array.getArray();
+        if (value instanceof Integer[] widths) return widths;
+        if (value instanceof Object[] values) {
+            return Arrays.stream(values).map(v -> ((Number) v).intValue()).toArray(Integer[]::new);
+        }
+        return null;
+    }
+
+    private record ExistingRow(long id, String storageKey, Integer position, Integer[] variantWidths, String originalKey) {}
+}
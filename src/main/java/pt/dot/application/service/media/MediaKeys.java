@@ -0,0 +1,179 @@
+package pt.dot.application.service.media;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Geração de storage keys e utilitários partilhados pelos backends de
+ * {@link MediaStorage}.
+ *
+ * Só imagens raster, vídeo e PDF mantêm o content type e a extensão: o
+ * storage serve o ficheiro com esse tipo (o local pela extensão, o R2 pelo
+ * tipo gravado), e um .html ou .svg enviado por um utilizador seria
+ * executado no nosso domínio. Tudo o resto fica
+ * {@code application/octet-stream} sem extensão.
+ */
+final class MediaKeys {
+
+    static final String OCTET_STREAM = "application/octet-stream";
+
+    private static final String CONTENT_PREFIX = "blobs/";
+
+    private static final Map<String, String> EXTENSION_TYPES = Map.ofEntries(
+            Map.entry(".jpg", "image/jpeg"),
+            Map.entry(".jpeg", "image/jpeg"),
+            Map.entry(".png", "image/png"),
+            Map.entry(".webp", "image/webp"),
+            Map.entry(".gif", "image/gif"),
+            Map.entry(".bmp", "image/bmp"),
+            Map.entry(".avif", "image/avif"),
+            Map.entry(".mp4", "video/mp4"),
+            Map.entry(".webm", "video/webm"),
+            Map.entry(".mov", "video/quicktime"),
+            Map.entry(".pdf", "application/pdf")
+    );
+
+    private static final Map<String, String> TYPE_EXTENSIONS = Map.ofEntries(
+            Map.entry("image/jpeg", ".jpg"),
+            Map.entry("image/jpg", ".jpg"),
+            Map.entry("image/png", ".png"),
+            Map.entry("image/webp", ".webp"),
+            Map.entry("image/gif", ".gif"),
+            Map.entry("image/bmp", ".bmp"),
+            Map.entry("image/avif", ".avif"),
+            Map.entry("video/mp4", ".mp4"),
+            Map.entry("video/webm", ".webm"),
+            Map.entry("video/quicktime", ".mov"),
+            Map.entry("application/pdf", ".pdf")
+    );
+
+    private MediaKeys() {
+    }
+
+    /**
+     * Key por entidade: {@code <entity>/<id>/<type>s/<uuid>.ext}.
+     */
+    static String buildStorageKey(
+            String entityType,
+            Long entityId,
+            String mediaType,
+            String originalFilename,
+            String contentType
+    ) {
+        String entity = safeSegment(entityType, "misc").toLowerCase(Locale.ROOT);
+        String type = safeSegment(mediaType, mediaTypeFromContentType(contentType)).toLowerCase(Locale.ROOT);
+        String idPart = entityId == null ? "pending" : String.valueOf(entityId);
+        String ext = extensionFrom(originalFilename, contentType);
+
+        return entity + "/" + idPart + "/" + type + "s/" + UUID.randomUUID() + ext;
+    }
+
+    /**
+     * Key de conteúdo: {@code blobs/ab/<sha256>-<nonce>.ext}. O nonce faz com
+     * que um conteúdo reenviado depois de apagado nunca reutilize a key de um
+     * objeto que ainda possa estar na fila de remoção.
+     */
+    static String buildContentKey(String sha256, String originalFilename, String contentType) {
+        String ext = extensionFrom(originalFilename, contentType);
+        String nonce = UUID.randomUUID().toString().substring(0, 8);
+
+        return CONTENT_PREFIX + sha256.substring(0, 2) + "/" + sha256 + "-" + nonce + ext;
+    }
+
+    /**
+     * Só as keys de conteúdo podem ser partilhadas por várias linhas de
+     * media_item (o índice único de V21 deixa-as de fora).
+     */
+    static boolean isContentKey(String storageKey) {
+        return storageKey != null && storageKey.startsWith(CONTENT_PREFIX);
+    }
+
+    static String sha256Hex(byte[] bytes) {
+        return HexFormat.of().formatHex(sha256().digest(bytes));
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 indisponível", ex);
+        }
+    }
+
+    /**
+     * Content type em minúsculas e sem parâmetros se estiver na allowlist;
+     * senão {@value #OCTET_STREAM}.
+     */
+    static String normalizeContentType(String contentType) {
+        if (contentType == null || contentType.isBlank()) return OCTET_STREAM;
+
+        String ct = contentType.toLowerCase(Locale.ROOT);
+        int semi = ct.indexOf(';');
+        ct = (semi >= 0 ? ct.substring(0, semi) : ct).trim();
+
+        if (ct.equals("image/jpg")) return "image/jpeg";
+        return TYPE_EXTENSIONS.containsKey(ct) ? ct : OCTET_STREAM;
+    }
+
+    /**
+     * Content type a servir para uma key, pela extensão; fora da allowlist
+     * é {@value #OCTET_STREAM}.
+     */
+    static String contentTypeForKey(String storageKey) {
+        if (storageKey == null) return OCTET_STREAM;
+
+        int slash = storageKey.lastIndexOf('/');
+        int dot = storageKey.lastIndexOf('.');
+        if (dot <= slash) return OCTET_STREAM;
+
+        return EXTENSION_TYPES.getOrDefault(storageKey.substring(dot).toLowerCase(Locale.ROOT), OCTET_STREAM);
+    }
+
+    static String stripTrailingSlash(String value) {
+        if (value == null || value.isBlank()) return "";
+        return value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+    }
+
+    private static String mediaTypeFromContentType(String contentType) {
+        if (contentType == null) return "file";
+        if (contentType.startsWith("image/")) return "image";
+        if (contentType.startsWith("video/")) return "video";
+        if (contentType.equals("application/pdf")) return "file";
+        return "file";
+    }
+
+    private static String safeSegment(String value, String fallback) {
+        String v = value == null || value.isBlank() ? fallback : value;
+        v = Normalizer.normalize(v, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+        v = v.replaceAll("[^a-zA-Z0-9_-]", "-");
+        v = v.replaceAll("-+", "-");
+        v = v.replaceAll("^-|-$", "");
+        return v.isBlank() ? fallback : v;
+    }
+
+    /**
+     * Extensão pelo content type (já normalizado) e, se este for
+     * {@value #OCTET_STREAM}, pelo nome do ficheiro; só extensões da
+     * allowlist, senão nenhuma.
+     */
+    static String extensionFrom(String filename, String contentType) {
+        String fromType = contentType == null ? null : TYPE_EXTENSIONS.get(contentType.toLowerCase(Locale.ROOT));
+        if (fromType != null) return fromType;
+
+        if (filename != null) {
+            String clean = filename.trim();
+            int idx = clean.lastIndexOf('.');
+            if (idx >= 0 && idx < clean.length() - 1) {
+                String ext = clean.substring(idx).toLowerCase(Locale.ROOT);
+                if (EXTENSION_TYPES.containsKey(ext)) return ext;
+            }
+        }
+
+        return "";
+    }
+}
@@ -0,0 +1,605 @@
+package pt.dot.application.service.media;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Limpeza de objetos órfãos no storage: objetos que nenhuma linha referencia
+ * (transações que falharam depois do upload, uploads diretos nunca
+ * completados, remoções antigas que falharam).
+ *
+ * Cada execução divide o bucket em fatias (prefixo de topo x intervalo de
+ * keys pelo carácter seguinte) guardadas em media_gc_shard. Os workers
+ * reclamam fatias com lease ({@code for update skip locked}) e percorrem-nas
+ * página a página; depois de cada página grava-se a última key vista, por
+ * isso um restart (ou outra instância) retoma onde parou.
+ *
+ * Memória limitada a uma página por worker: as keys da página são comparadas
+ * com media_item / media_blob / app_user.avatar_url / district_files /
+ * media_deletion_outbox numa única query (anti-join por índice), em vez de
+ * carregar as referências todas.
+ *
+ * O agendamento só arranca os workers e volta: a execução corre no pool
+ * {@code mediaGcExecutor} e não ocupa a thread do scheduler, partilhada
+ * pelos outros {@code @Scheduled}.
+ *
+ * Um objeto só é apagado se não tiver referências, não estiver já no outbox
+ * e for mais antigo que o período de graça. As derivadas ({@code _wNNN.jpg})
+ * seguem o original que as precede na listagem.
+ */
+@Service
+public class MediaOrphanGcService {
+
+    private static final Logger log = LoggerFactory.getLogger(MediaOrphanGcService.class);
+
+    /**
+     * Fronteiras das fatias dentro de cada prefixo (keys são UUID/hash em hex
+     * ou ids numéricos, por isso distribuem-se bem por estes caracteres).
+     */
+    private static final String SPLIT_CHARS = "0123456789abcdefghijklmnopqrstuvwxyz";
+
+    private static final Pattern VARIANT = Pattern.compile("^(.*)_w\\d+\\.jpg$");
+
+    private static final Duration LEASE = Duration.ofMinutes(10);
+
+    /**
+     * Limite do DeleteObjects do S3/R2.
+     */
+    private static final int MAX_PAGE = 1000;
+
+    private final JdbcTemplate jdbc;
+    private final MediaStorage mediaStorage;
+    private final MediaDeletionOutboxService mediaDeletionOutboxService;
+    private final ExecutorService executor;
+
+    private final boolean enabled;
+    private final boolean dryRun;
+    private final int threads;
+    private final int pageSize;
+    private final Duration grace;
+    private final Duration period;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final Counter scanned;
+    private final Counter orphans;
+    private final Counter reclaimedBytes;
+
+    public MediaOrphanGcService(
+            JdbcTemplate jdbc,
+            MediaStorage mediaStorage,
+            MediaDeletionOutboxService mediaDeletionOutboxService,
+            @Qualifier("mediaGcExecutor") ExecutorService executor,
+            MeterRegistry meterRegistry,
+            @Value("${ptdot.media.gc.enabled:false}") boolean enabled,
+            @Value("${ptdot.media.gc.dry-run:true}") boolean dryRun,
+            @Value("${ptdot.media.gc.threads:4}") int threads,
+            @Value("${ptdot.media.gc.page-size:1000}") int pageSize,
+            @Value("${ptdot.media.gc.grace-hours:24}") long graceHours,
+            @Value("${ptdot.media.gc.period-hours:24}") long periodHours
+    ) {
+        this.jdbc = jdbc;
+        this.mediaStorage = mediaStorage;
+        this.mediaDeletionOutboxService = mediaDeletionOutboxService;
+        this.executor = executor;
+        this.enabled = enabled;
+        this.dryRun = dryRun;
+        this.threads = Math.max(1, threads);
+        this.pageSize = Math.max(1, Math.min(MAX_PAGE, pageSize));
+        this.grace = Duration.ofHours(Math.max(1, graceHours));
+        this.period = Duration.ofHours(Math.max(1, periodHours));
+
+        this.scanned = Counter.builder("ptdot.media.gc.objects")
+                .tag("result", "scanned")
+                .register(meterRegistry);
+        this.orphans = Counter.builder("ptdot.media.gc.objects")
+                .tag("result", "orphan")
+                .register(meterRegistry);
+        this.reclaimedBytes = Counter.builder("ptdot.media.gc.reclaimed.bytes")
+                .description("Bytes apagados (ou que seriam apagados, em dry-run) pelo GC de órfãos")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Retoma a execução em curso ou, se a última terminou há mais de
+     * {@code period-hours}, começa uma nova. Não espera pelos workers; os
+     * ticks seguintes não fazem nada enquanto eles correm.
+     */
+    @Scheduled(
+            initialDelayString = "${ptdot.media.gc.check-interval-ms:600000}",
+            fixedDelayString = "${ptdot.media.gc.check-interval-ms:600000}"
+    )
+    public void tick() {
+        if (!enabled || !mediaStorage.isEnabled()) return;
+        if (!running.compareAndSet(false, true)) return;
+
+        boolean started = false;
+        try {
+            Run run = findRunning();
+            if (run == null) {
+                if (!isDue()) return;
+                run = startRun();
+                if (run == null) return;
+            }
+
+            process(run);
+            started = true;
+        } catch (Exception e) {
+            log.warn("[MediaGc] Falha: {}", e.getMessage());
+        } finally {
+            if (!started) running.set(false);
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Execução
+    // ---------------------------------------------------------------------
+
+    private Run findRunning() {
+        List<Run> runs = jdbc.query(
+                "select id, dry_run from media_gc_run where status = 'RUNNING' order by id limit 1",
+                (rs, i) -> new Run(rs.getLong("id"), rs.getBoolean("dry_run"))
+        );
+        return runs.isEmpty() ? null : runs.get(0);
+    }
+
+    private boolean isDue() {
+        Boolean due = jdbc.queryForObject(
+                """
+                select not exists (
+                    select 1 from media_gc_run
+                    where status = 'FINISHED'
+                      and started_at > now() - make_interval(secs => ?)
+                )
+                """,
+                Boolean.class,
+                period.toSeconds()
+        );
+        return Boolean.TRUE.equals(due);
+    }
+
+    /**
+     * Cria a execução e as fatias num só statement. O índice único parcial
+     * garante uma execução em curso no máximo: se outra instância ganhou,
+     * não é criada nenhuma e devolve null.
+     */
+    private Run startRun() {
+        List<String> prefixes = mediaStorage.listRootPrefixes();
+        if (prefixes.isEmpty()) return null;
+
+        List<String> shardPrefixes = new ArrayList<>();
+        List<String> rangeStarts = new ArrayList<>();
+        List<String> rangeEnds = new ArrayList<>();
+
+        for (String prefix : prefixes) {
+            String previous = null;
+            for (char c : SPLIT_CHARS.toCharArray()) {
+                String boundary = prefix + c;
+                shardPrefixes.add(prefix);
+                rangeStarts.add(previous);
+                rangeEnds.add(boundary);
+                previous = boundary;
+            }
+            shardPrefixes.add(prefix);
+            rangeStarts.add(previous);
+            rangeEnds.add(null);
+        }
+
+        Long id = jdbc.query(
+                """
+                with r as (
+                    insert into media_gc_run (dry_run) values (?)
+                    on conflict do nothing
+                    returning id
+                ),
+                s as (
+                    insert into media_gc_shard (run_id, prefix, range_start, range_end)
+                    select r.id, v.prefix, v.range_start, v.range_end
+                    from r, unnest(?::text[], ?::text[], ?::text[]) as v(prefix, range_start, range_end)
+                )
+                select id from r
+                """,
+                ps -> {
+                    ps.setBoolean(1, dryRun);
+                    ps.setArray(2, ps.getConnection().createArrayOf("text", shardPrefixes.toArray()));
+                    ps.setArray(3, ps.getConnection().createArrayOf("text", rangeStarts.toArray()));
+                    ps.setArray(4, ps.getConnection().createArrayOf("text", rangeEnds.toArray()));
+                },
+                rs -> rs.next() ? rs.getLong(1) : null
+        );
+        if (id == null) return null;
+
+        log.info("[MediaGc] Execução {} iniciada: {} prefixos, {} fatias{}",
+                id, prefixes.size(), shardPrefixes.size(), dryRun ? " (dry-run)" : "");
+        return new Run(id, dryRun);
+    }
+
+    /**
+     * Arranca os workers; o último a acabar fecha a execução e liberta o
+     * próximo tick.
+     */
+    private void process(Run run) {
+        CompletableFuture<?>[] workers = new CompletableFuture<?>[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = CompletableFuture.runAsync(() -> work(run), executor);
+        }
+
+        CompletableFuture.allOf(workers).whenComplete((ignored, ex) -> {
+            try {
+                if (ex != null) {
+                    log.warn("[MediaGc] Worker falhou: {}", ex.getCause() == null ? ex.getMessage() : ex.getCause().getMessage());
+                }
+                finish(run.id());
+            } catch (Exception e) {
+                log.warn("[MediaGc] Falha a fechar a execução {}: {}", run.id(), e.getMessage());
+            } finally {
+                running.set(false);
+            }
+        });
+    }
+
+    private void work(Run run) {
+        UUID owner = UUID.randomUUID();
+
+        Shard shard;
+        while (!Thread.currentThread().isInterrupted() && (shard = claim(run.id(), owner)) != null) {
+            try {
+                processShard(run, shard, owner);
+            } catch (Exception e) {
+                // a lease expira e a fatia é retomada a partir do último checkpoint
+                log.warn("[MediaGc] Falha na fatia {} ({}): {}", shard.id(), shard.prefix(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Fecha a execução quando já não há fatias por acabar, com os totais das
+     * fatias, e regista o relatório.
+     */
+    private void finish(long runId) {
+        List<Report> reports = jdbc.query(
+                """
+                update media_gc_run r
+                set status = 'FINISHED',
+                    finished_at = now(),
+                    scanned_objects = s.scanned_objects,
+                    scanned_bytes = s.scanned_bytes,
+                    orphan_objects = s.orphan_objects,
+                    reclaimed_bytes = s.reclaimed_bytes
+                from (
+                    select coalesce(sum(scanned_objects), 0) as scanned_objects,
+                           coalesce(sum(scanned_bytes), 0)   as scanned_bytes,
+                           coalesce(sum(orphan_objects), 0)  as orphan_objects,
+                           coalesce(sum(reclaimed_bytes), 0) as reclaimed_bytes
+                    from media_gc_shard
+                    where run_id = ?
+                ) s
+                where r.id = ?
+                  and r.status = 'RUNNING'
+                  and not exists (select 1 from media_gc_shard where run_id = ? and not done)
+                returning r.scanned_objects, r.scanned_bytes, r.orphan_objects, r.reclaimed_bytes,
+                          r.dry_run, r.started_at, r.finished_at
+                """,
+                (rs, i) -> new Report(
+                        rs.getLong("scanned_objects"),
+                        rs.getLong("scanned_bytes"),
+                        rs.getLong("orphan_objects"),
+                        rs.getLong("reclaimed_bytes"),
+                        rs.getBoolean("dry_run"),
+                        Duration.between(
+                                rs.getTimestamp("started_at").toInstant(),
+                                rs.getTimestamp("finished_at").toInstant()
+                        )
+                ),
+                runId, runId, runId
+        );
+        if (reports.isEmpty()) return;
+
+        Report r = reports.get(0);
+        log.info("[MediaGc] Execução {} terminada em {}s{}: {} objetos ({} bytes) analisados, {} órfãos, {} bytes {}",
+                runId,
+                r.duration().toSeconds(),
+                r.dryRun() ? " (dry-run)" : "",
+                r.scannedObjects(),
+                r.scannedBytes(),
+                r.orphanObjects(),
+                r.reclaimedBytes(),
+                r.dryRun() ? "a recuperar" : "recuperados");
+    }
+
+    // ---------------------------------------------------------------------
+    // Fatias
+    // ---------------------------------------------------------------------
+
+    private Shard claim(long runId, UUID owner) {
+        List<Shard> shards = jdbc.query(
+                """
+                update media_gc_shard
+                set lease_owner = ?,
+                    lease_until = now() + make_interval(secs => ?),
+                    updated_at = now()
+                where id = (
+                    select id from media_gc_shard
+                    where run_id = ?
+                      and not done
+                      and (lease_until is null or lease_until < now())
+                    order by id
+                    limit 1
+                    for update skip locked
+                )
+                returning id, prefix, range_start, range_end, last_key, parent_base, parent_live
+                """,
+                (rs, i) -> new Shard(
+                        rs.getLong("id"),
+                        rs.getString("prefix"),
+                        rs.getString("range_start"),
+                        rs.getString("range_end"),
+                        rs.getString("last_key"),
+                        rs.getString("parent_base"),
+                        rs.getBoolean("parent_live")
+                ),
+                owner,
+                LEASE.toSeconds(),
+                runId
+        );
+        return shards.isEmpty() ? null : shards.get(0);
+    }
+
+    private void processShard(Run run, Shard shard, UUID owner) {
+        String after = shard.lastKey() != null ? shard.lastKey() : shard.rangeStart();
+        Parent parent = new Parent(shard.parentBase(), shard.parentLive());
+
+        while (true) {
+            MediaStorage.ListPage page = mediaStorage.list(shard.prefix(), after, pageSize);
+
+            List<MediaStorage.ListedObject> objects = new ArrayList<>(page.objects().size());
+            boolean reachedEnd = !page.truncated();
+            for (MediaStorage.ListedObject o : page.objects()) {
+                if (shard.rangeEnd() != null && o.key().compareTo(shard.rangeEnd()) > 0) {
+                    reachedEnd = true;
+                    break;
+                }
+                objects.add(o);
+            }
+            if (objects.isEmpty()) reachedEnd = true;
+
+            PageResult result = objects.isEmpty()
+                    ? new PageResult(0, 0, 0, 0)
+                    : sweepPage(run, objects, parent);
+            String last = objects.isEmpty() ? after : objects.get(objects.size() - 1).key();
+
+            if (!checkpoint(shard.id(), owner, last, parent, reachedEnd, result)) {
+                log.warn("[MediaGc] Lease da fatia {} perdida; outro worker continua", shard.id());
+                return;
+            }
+            if (reachedEnd) return;
+
+            after = last;
+        }
+    }
+
+    private PageResult sweepPage(Run run, List<MediaStorage.ListedObject> objects, Parent parent) {
+        List<MediaStorage.ListedObject> candidates = orphans(objects, lookup(objects), Instant.now().minus(grace), parent);
+
+        long scannedBytes = 0;
+        for (MediaStorage.ListedObject o : objects) {
+            scannedBytes += o.sizeBytes();
+        }
+
+        scanned.increment(objects.size());
+        if (candidates.isEmpty()) {
+            return new PageResult(objects.size(), scannedBytes, 0, 0);
+        }
+
+        long reclaimed = 0;
+        if (run.dryRun()) {
+            for (MediaStorage.ListedObject o : candidates) {
+                reclaimed += o.sizeBytes();
+            }
+        } else {
+            List<String> keys = new ArrayList<>(candidates.size());
+            for (MediaStorage.ListedObject o : candidates) {
+                keys.add(o.key());
+            }
+
+            Map<String, String> errors = mediaStorage.deleteObjects(keys);
+            for (MediaStorage.ListedObject o : candidates) {
+                if (!errors.containsKey(o.key())) reclaimed += o.sizeBytes();
+            }
+
+            if (!errors.isEmpty()) {
+                // ficam para o outbox, com retry e backoff
+                mediaDeletionOutboxService.enqueue(errors.keySet());
+                log.warn("[MediaGc] {} órfãos não apagados, enviados para o outbox", errors.size());
+            }
+        }
+
+        orphans.increment(candidates.size());
+        reclaimedBytes.increment(reclaimed);
+
+        return new PageResult(objects.size(), scannedBytes, candidates.size(), reclaimed);
+    }
+
+    /**
+     * Os objetos da página (pela ordem da listagem) que se podem apagar. Fica
+     * o que tem referências, já está no outbox ou é mais recente que
+     * {@code cutoff}; uma derivada fica também se o original que a precede
+     * ficar. {@code parent} passa de página para página.
+     */
+    static List<MediaStorage.ListedObject> orphans(
+            List<MediaStorage.ListedObject> objects,
+            Map<String, KeyState> states,
+            Instant cutoff,
+            Parent parent
+    ) {
+        List<MediaStorage.ListedObject> out = new ArrayList<>();
+
+        for (MediaStorage.ListedObject o : objects) {
+            KeyState state = states.getOrDefault(o.key(), KeyState.NONE);
+            boolean recent = o.lastModified() == null || o.lastModified().isAfter(cutoff);
+            boolean keep = state.referenced() || state.queued() || recent;
+
+            Matcher variant = VARIANT.matcher(o.key());
+            if (variant.matches() && variant.group(1).equals(parent.base)) {
+                keep = keep || parent.live;
+            } else {
+                String base = baseOf(o.key());
+                // dois originais com a mesma base (abc.jpg, abc.png) partilham as derivadas
+                parent.live = base.equals(parent.base) ? parent.live || keep : keep;
+                parent.base = base;
+            }
+
+            if (!keep) out.add(o);
+        }
+
+        return out;
+    }
+
+    /**
+     * Estado de cada key da página numa só query. As linhas antigas de
+     * media_item, os avatares e os district_files guardam o URL completo,
+     * daí a comparação pelo path (índices *_path).
+     */
+    private Map<String, KeyState> lookup(List<MediaStorage.ListedObject> objects) {
+        String[] keys = new String[objects.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = objects.get(i).key();
+        }
+
+        Map<String, KeyState> out = new HashMap<>(keys.length * 2);
+        jdbc.query(
+                """
+                select v.k,
+                       exists (select 1 from media_item m where m.storage_key = v.k)
+                       or exists (
+                           select 1 from media_item m
+                           where regexp_replace(m.storage_key, '^https?://[^/]+/|#.*$', '', 'g') = v.k
+                       )
+                       or exists (select 1 from media_item m where m.original_key = v.k)
+                       or exists (select 1 from media_blob b where b.storage_key = v.k)
+                       or exists (
+                           select 1 from app_user u
+                           where regexp_replace(u.avatar_url, '^https?://[^/]+/|#.*$', '', 'g') = v.k
+                       )
+                       or exists (
+                           select 1 from district_files f
+                           where regexp_replace(f.file_url, '^https?://[^/]+/|#.*$', '', 'g') = v.k
+                       ) as referenced,
+                       exists (select 1 from media_deletion_outbox o where o.storage_key = v.k) as queued
+                from unnest(?::text[]) as v(k)
+                """,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("text", keys)),
+                rs -> {
+                    out.put(rs.getString("k"), new KeyState(rs.getBoolean("referenced"), rs.getBoolean("queued")));
+                }
+        );
+        return out;
+    }
+
+    /**
+     * Grava o progresso da página; só conta se a lease ainda for deste worker.
+     */
+    private boolean checkpoint(long shardId, UUID owner, String lastKey, Parent parent, boolean done, PageResult result) {
+        int updated = jdbc.update(
+                """
+                update media_gc_shard
+                set last_key = ?,
+                    parent_base = ?,
+                    parent_live = ?,
+                    done = ?,
+                    scanned_objects = scanned_objects + ?,
+                    scanned_bytes = scanned_bytes + ?,
+                    orphan_objects = orphan_objects + ?,
+                    reclaimed_bytes = reclaimed_bytes + ?,
+                    lease_owner = case when ? then null else lease_owner end,
+                    lease_until = case when ? then null else now() + make_interval(secs => ?) end,
+                    updated_at = now()
+                where id = ? and lease_owner = ?
+                """,
+                lastKey,
+                parent.base,
+                parent.live,
+                done,
+                result.scannedObjects(),
+                result.scannedBytes(),
+                result.orphanObjects(),
+                result.reclaimedBytes(),
+                done,
+                done,
+                LEASE.toSeconds(),
+                shardId,
+                owner
+        );
+        return updated == 1;
+    }
+
+    /**
+     * Base usada pelas derivadas ({@link MediaDerivativeService#variantKey}):
+     * a key sem extensão.
+     */
+    private static String baseOf(String key) {
+        int slash = key.lastIndexOf('/');
+        int dot = key.lastIndexOf('.');
+        return dot > slash ? key.substring(0, dot) : key;
+    }
+
+    private record Run(long id, boolean dryRun) {}
+
+    private record Shard(
+            long id,
+            String prefix,
+            String rangeStart,
+            String rangeEnd,
+            String lastKey,
+            String parentBase,
+            boolean parentLive
+    ) {}
+
+    record KeyState(boolean referenced, boolean queued) {
+        static final KeyState NONE = new KeyState(false, false);
+    }
+
+    private record PageResult(long scannedObjects, long scannedBytes, long orphanObjects, long reclaimedBytes) {}
+
+    private record Report(
+            long scannedObjects,
+            long scannedBytes,
+            long orphanObjects,
+            long reclaimedBytes,
+            boolean dryRun,
+            Duration duration
+    ) {}
+
+    /**
+     * Último original visto na fatia; as derivadas a seguir herdam o estado.
+     */
+    static final class Parent {
+        String base;
+        boolean live;
+
+        Parent(String base, boolean live) {
+            this.base = base;
+            this.live = live;
+        }
+    }
+}
@@ -0,0 +1,582 @@
+package pt.dot.application.service.media;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.client.RestClientException;
+import pt.dot.application.exception.ApiException;
+import pt.dot.application.exception.Errors;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cache em disco, LRU e limitada em bytes, das imagens externas servidas
+ * por {@code /api/media/proxy} (ex.: upload.wikimedia.org quando a cópia para
+ * o storage falha).
+ *
+ * - Um ficheiro por entrada ({@code <root>/ab/<sha256 do URL>}), escrito num
+ *   temporário e movido de forma atómica: quem lê nunca vê meio ficheiro.
+ * - Índice num ficheiro de slots fixos mapeado em memória
+ *   ({@code index.bin}): tamanho, content type e último acesso de cada
+ *   entrada. Um hit só escreve 8 bytes no mapa; num restart a ordem LRU é
+ *   reconstruída a partir dele, sem percorrer os ficheiros.
+ * - Só hosts de {@code allowed-hosts}, só https, sem seguir redirects, e só
+ *   imagens reconhecidas pelos magic bytes ({@link ImageProbe}).
+ * - Query string e fragmento são descartados (na key e no download): um
+ *   {@code ?x=N} diferente em cada pedido não esvazia a cache.
+ * - Ficheiros despejados só são apagados {@code evict-grace-seconds} depois:
+ *   um pedido que já tem o caminho (o sendfile do Tomcat abre-o depois do
+ *   controller) não fica sem ficheiro. Até lá ocupam disco fora de
+ *   {@code max-bytes}.
+ * - Pedidos concorrentes ao mesmo URL em falta fazem um único download.
+ */
+@Service
+public class MediaProxyCache {
+
+    private static final Logger log = LoggerFactory.getLogger(MediaProxyCache.class);
+
+    private static final String INDEX_FILE = "index.bin";
+    private static final String TMP_DIR = ".tmp";
+
+    /**
+     * "PXC1"
+     */
+    private static final int INDEX_MAGIC = 0x50584331;
+    private static final int HEADER_BYTES = 64;
+    private static final int SLOT_BYTES = 128;
+
+    // layout de cada slot
+    private static final int OFF_STATE = 0;
+    private static final int OFF_HASH = 1;
+    private static final int OFF_SIZE = 40;
+    private static final int OFF_LAST_ACCESS = 48;
+    private static final int OFF_STORED_AT = 56;
+    private static final int OFF_CT_LEN = 64;
+    private static final int OFF_CT = 66;
+    private static final int MAX_CT_BYTES = SLOT_BYTES - OFF_CT;
+
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+
+    private final boolean enabled;
+    private final Path root;
+    private final Path tmp;
+    private final long maxBytes;
+    private final int maxEntries;
+    private final long maxObjectBytes;
+    private final Set<String> allowedHosts;
+    private final String publicBaseUrl;
+    private final long evictGraceMs;
+    private final RestClient restClient;
+
+    private final Object lock = new Object();
+    private final LinkedHashMap<String, Entry> lru = new LinkedHashMap<>(16, 0.75f, true);
+    private final BitSet usedSlots = new BitSet();
+    private final ArrayDeque<Evicted> evicted = new ArrayDeque<>();
+    private final ConcurrentHashMap<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private long totalBytes;
+
+    public MediaProxyCache(
+            @Value("${ptdot.media.proxy.enabled:false}") boolean enabled,
+            @Value("${ptdot.media.proxy.root:./data/proxy-cache}") String root,
+            @Value("${ptdot.media.proxy.max-bytes:1073741824}") long maxBytes,
+            @Value("${ptdot.media.proxy.max-entries:65536}") int maxEntries,
+            @Value("${ptdot.media.proxy.max-object-bytes:26214400}") long maxObjectBytes,
+            @Value("${ptdot.media.proxy.allowed-hosts:upload.wikimedia.org,commons.wikimedia.org}") String[] allowedHosts,
+            @Value("${ptdot.media.proxy.public-base-url:}") String publicBaseUrl,
+            @Value("${ptdot.media.proxy.evict-grace-seconds:60}") long evictGraceSeconds
+    ) {
+        this.enabled = enabled;
+        this.root = Path.of(root).toAbsolutePath().normalize();
+        this.tmp = this.root.resolve(TMP_DIR);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.maxEntries = Math.max(16, maxEntries);
+        this.maxObjectBytes = Math.max(1, Math.min(maxObjectBytes, this.maxBytes));
+        this.allowedHosts = Arrays.stream(allowedHosts)
+                .map(h -> h.trim().toLowerCase(Locale.ROOT))
+                .filter(h -> !h.isEmpty())
+                .collect(Collectors.toUnmodifiableSet());
+        this.publicBaseUrl = publicBaseUrl == null ? "" : publicBaseUrl.trim().replaceAll("/+$", "");
+        this.evictGraceMs = Math.max(0, evictGraceSeconds) * 1000;
+
+        SimpleClientHttpRequestFactory rf = new SimpleClientHttpRequestFactory() {
+            @Override
+            protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws IOException {
+                super.prepareConnection(connection, httpMethod);
+                // um redirect podia levar para fora da allowlist
+                connection.setInstanceFollowRedirects(false);
+            }
+        };
+        rf.setConnectTimeout(5000);
+        rf.setReadTimeout(15000);
+
+        this.restClient = RestClient.builder()
+                .requestFactory(rf)
+                .defaultHeader(HttpHeaders.USER_AGENT, LazyWikimediaMediaService.USER_AGENT)
+                .defaultHeader("Api-User-Agent", LazyWikimediaMediaService.USER_AGENT)
+                .defaultHeader(HttpHeaders.ACCEPT, LazyWikimediaMediaService.ACCEPT_IMAGES)
+                .build();
+
+        if (enabled) {
+            try {
+                open();
+            } catch (IOException ex) {
+                throw new IllegalStateException("Não foi possível abrir a cache do proxy de media: " + this.root, ex);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * URL a dar ao cliente para uma imagem externa: via proxy se estiver
+     * ativo, com {@code public-base-url} e o host na allowlist; senão o
+     * próprio URL.
+     */
+    public String proxiedUrl(String url) {
+        if (!enabled || publicBaseUrl.isEmpty() || url == null) return url;
+
+        URI uri;
+        try {
+            uri = validate(url);
+        } catch (ApiException ex) {
+            return url;
+        }
+        return publicBaseUrl + "/api/media/proxy?url=" + URLEncoder.encode(uri.toString(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Ficheiro em cache para {@code url}, descarregando-o se ainda não
+     * estiver.
+     */
+    public Cached get(String url) {
+        URI uri = validate(url);
+        String hash = MediaKeys.sha256Hex(uri.toString().getBytes(StandardCharsets.UTF_8));
+
+        Entry hit = lookup(hash);
+        if (hit != null) return toCached(hit);
+
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> running = inFlight.putIfAbsent(hash, mine);
+        if (running != null) return toCached(await(running));
+
+        try {
+            Entry fetched = fetch(uri, hash);
+            mine.complete(fetched);
+            return toCached(fetched);
+        } catch (RuntimeException ex) {
+            mine.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(hash, mine);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        synchronized (lock) {
+            if (index == null) return;
+            try {
+                index.force();
+                indexChannel.close();
+            } catch (IOException ex) {
+                log.warn("[MediaProxy] Falha a fechar o índice: {}", ex.getMessage());
+            }
+            index = null;
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // URLs
+    // ---------------------------------------------------------------------
+
+    /**
+     * URL canónico: https, host em minúsculas, só o caminho (sem query nem
+     * fragmento).
+     */
+    private URI validate(String url) {
+        if (!enabled) {
+            throw Errors.notFound("MEDIA_PROXY_DISABLED", "Proxy de media desativado.");
+        }
+        if (url == null || url.isBlank()) {
+            throw Errors.badRequest("MEDIA_PROXY_URL_REQUIRED", "url em falta.");
+        }
+
+        URI uri;
+        try {
+            uri = new URI(url.trim()).normalize();
+        } catch (URISyntaxException ex) {
+            throw Errors.badRequest("MEDIA_PROXY_URL_INVALID", "URL inválido.");
+        }
+
+        boolean valid = "https".equalsIgnoreCase(uri.getScheme())
+                && uri.getHost() != null
+                && uri.getRawUserInfo() == null
+                && (uri.getPort() == -1 || uri.getPort() == 443);
+        if (!valid) {
+            throw Errors.badRequest("MEDIA_PROXY_URL_INVALID", "URL inválido.");
+        }
+
+        String host = uri.getHost().toLowerCase(Locale.ROOT);
+        if (!allowedHosts.contains(host)) {
+            throw Errors.badRequest("MEDIA_PROXY_HOST_NOT_ALLOWED", "Host não permitido no proxy de media.");
+        }
+
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        try {
+            return new URI("https://" + host + path);
+        } catch (URISyntaxException ex) {
+            throw Errors.badRequest("MEDIA_PROXY_URL_INVALID", "URL inválido.");
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Cache
+    // ---------------------------------------------------------------------
+
+    private Entry lookup(String hash) {
+        Entry entry;
+        synchronized (lock) {
+            entry = lru.get(hash);
+            if (entry == null) return null;
+            index.putLong(slotOffset(entry.slot()) + OFF_LAST_ACCESS, System.currentTimeMillis());
+        }
+
+        // apagado à mão ou por outra via: conta como miss
+        if (!Files.isRegularFile(entryPath(hash))) {
+            synchronized (lock) {
+                if (lru.get(hash) == entry) remove(entry);
+            }
+            return null;
+        }
+        return entry;
+    }
+
+    private Entry fetch(URI uri, String hash) {
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(tmp, "px-", ".part");
+            Path target = temp;
+
+            String contentType = restClient.get()
+                    .uri(uri)
+                    .exchange((request, response) -> {
+                        if (response.getStatusCode().value() == 404) {
+                            throw Errors.notFound("MEDIA_PROXY_NOT_FOUND", "Imagem não encontrada na origem.");
+                        }
+                        if (!response.getStatusCode().is2xxSuccessful()) {
+                            throw upstreamFailed();
+                        }
+                        if (response.getHeaders().getContentLength() > maxObjectBytes) {
+                            throw Errors.badRequest("MEDIA_FILE_TOO_LARGE", "Ficheiro demasiado grande.");
+                        }
+
+                        ImageProbe.Probed probed = ImageProbe.probe(response.getBody());
+                        if (probed == null) {
+                            throw Errors.badRequest("MEDIA_PROXY_NOT_IMAGE", "O URL não aponta para uma imagem suportada.");
+                        }
+
+                        try (InputStream in = ImageProbe.limit(probed.stream(), maxObjectBytes)) {
+                            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+                        }
+                        return probed.info().contentType();
+                    });
+
+            long size = Files.size(temp);
+            Path path = entryPath(hash);
+            Files.createDirectories(path.getParent());
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            temp = null;
+
+            return insert(hash, size, contentType);
+        } catch (IOException | RestClientException ex) {
+            log.warn("[MediaProxy] Falha a descarregar {}: {}", uri, ex.getMessage());
+            throw upstreamFailed();
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private Entry insert(String hash, long size, String contentType) {
+        synchronized (lock) {
+            Entry previous = lru.remove(hash);
+            int slot;
+            if (previous != null) {
+                totalBytes -= previous.size();
+                slot = previous.slot();
+            } else {
+                slot = usedSlots.nextClearBit(0);
+                if (slot >= maxEntries) {
+                    evictEldest(null);
+                    slot = usedSlots.nextClearBit(0);
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            String ct = contentType.length() > MAX_CT_BYTES ? contentType.substring(0, MAX_CT_BYTES) : contentType;
+            writeSlot(slot, hash, size, now, now, ct);
+            usedSlots.set(slot);
+
+            Entry entry = new Entry(hash, slot, size, ct, now);
+            lru.put(hash, entry);
+            // o ficheiro despejado antes foi substituído por este
+            evicted.removeIf(e -> e.hash().equals(hash));
+            totalBytes += size;
+
+            while (totalBytes > maxBytes && lru.size() > 1) {
+                evictEldest(hash);
+            }
+            purgeEvicted(now);
+            return entry;
+        }
+    }
+
+    /**
+     * Só com o lock.
+     */
+    private void evictEldest(String keep) {
+        Iterator<Entry> it = lru.values().iterator();
+        while (it.hasNext()) {
+            Entry eldest = it.next();
+            if (eldest.hash().equals(keep)) continue;
+
+            it.remove();
+            release(eldest);
+            return;
+        }
+    }
+
+    /**
+     * Só com o lock.
+     */
+    private void remove(Entry entry) {
+        lru.remove(entry.hash());
+        release(entry);
+    }
+
+    /**
+     * Só com o lock. O ficheiro fica para {@link #purgeEvicted}.
+     */
+    private void release(Entry entry) {
+        totalBytes -= entry.size();
+        index.put(slotOffset(entry.slot()) + OFF_STATE, EMPTY);
+        usedSlots.clear(entry.slot());
+
+        evicted.addLast(new Evicted(entry.hash(), System.currentTimeMillis()));
+    }
+
+    /**
+     * Só com o lock. Apaga os ficheiros despejados há mais de
+     * {@code evict-grace-seconds}.
+     */
+    private void purgeEvicted(long now) {
+        while (!evicted.isEmpty() && now - evicted.peekFirst().at() >= evictGraceMs) {
+            String hash = evicted.pollFirst().hash();
+            try {
+                Files.deleteIfExists(entryPath(hash));
+            } catch (IOException ex) {
+                log.warn("[MediaProxy] Falha a apagar {}: {}", hash, ex.getMessage());
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------
+    // Índice
+    // ---------------------------------------------------------------------
+
+    /**
+     * Abre (ou recria, se o número de slots mudou) o índice e reconstrói a
+     * LRU pela data do último acesso. Ficheiros sem entrada no índice (ex.:
+     * crash entre o move e a escrita do slot) e temporários são apagados.
+     */
+    private void open() throws IOException {
+        Files.createDirectories(tmp);
+
+        long indexBytes = HEADER_BYTES + (long) maxEntries * SLOT_BYTES;
+        indexChannel = FileChannel.open(
+                root.resolve(INDEX_FILE),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+        );
+        boolean sameLayout = indexChannel.size() == indexBytes;
+        if (indexChannel.size() > indexBytes) indexChannel.truncate(indexBytes);
+
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexBytes);
+
+        List<Entry> loaded = new ArrayList<>();
+        List<Long> lastAccess = new ArrayList<>();
+
+        if (sameLayout && index.getInt(0) == INDEX_MAGIC && index.getInt(4) == maxEntries) {
+            for (int slot = 0; slot < maxEntries; slot++) {
+                int off = slotOffset(slot);
+                if (index.get(off + OFF_STATE) != USED) continue;
+
+                Entry entry = readSlot(slot);
+                Path path = entryPath(entry.hash());
+                if (!Files.isRegularFile(path) || Files.size(path) != entry.size()) {
+                    index.put(off + OFF_STATE, EMPTY);
+                    continue;
+                }
+
+                loaded.add(entry);
+                lastAccess.add(index.getLong(off + OFF_LAST_ACCESS));
+            }
+        } else {
+            for (int off = 0; off < indexBytes; off += 8) {
+                index.putLong(off, 0L);
+            }
+            index.putInt(0, INDEX_MAGIC);
+            index.putInt(4, maxEntries);
+        }
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < loaded.size(); i++) order.add(i);
+        order.sort(Comparator.comparingLong(lastAccess::get));
+
+        for (int i : order) {
+            Entry entry = loaded.get(i);
+            lru.put(entry.hash(), entry);
+            usedSlots.set(entry.slot());
+            totalBytes += entry.size();
+        }
+
+        removeStrayFiles();
+
+        synchronized (lock) {
+            while (totalBytes > maxBytes && !lru.isEmpty()) {
+                evictEldest(null);
+            }
+            // no arranque ninguém está a servir ficheiros
+            purgeEvicted(Long.MAX_VALUE);
+        }
+
+        log.info("[MediaProxy] Cache em {}: {} entradas, {} bytes", root, lru.size(), totalBytes);
+    }
+
+    private void removeStrayFiles() throws IOException {
+        try (Stream<Path> files = Files.walk(root, 2)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                if (!Files.isRegularFile(path) || path.getParent().equals(root)) continue;
+
+                String name = path.getFileName().toString();
+                if (path.getParent().equals(tmp) || !lru.containsKey(name)) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private void writeSlot(int slot, String hash, long size, long lastAccess, long storedAt, String contentType) {
+        int off = slotOffset(slot);
+        byte[] hashBytes = HexFormat.of().parseHex(hash);
+        byte[] ct = contentType.getBytes(StandardCharsets.US_ASCII);
+
+        // o estado vai por último: um crash a meio deixa o slot vazio
+        index.put(off + OFF_STATE, EMPTY);
+        index.put(off + OFF_HASH, hashBytes);
+        index.putLong(off + OFF_SIZE, size);
+        index.putLong(off + OFF_LAST_ACCESS, lastAccess);
+        index.putLong(off + OFF_STORED_AT, storedAt);
+        index.putShort(off + OFF_CT_LEN, (short) ct.length);
+        index.put(off + OFF_CT, ct);
+        index.put(off + OFF_STATE, USED);
+    }
+
+    private Entry readSlot(int slot) {
+        int off = slotOffset(slot);
+
+        byte[] hashBytes = new byte[32];
+        index.get(off + OFF_HASH, hashBytes);
+
+        int ctLength = Math.max(0, Math.min(MAX_CT_BYTES, index.getShort(off + OFF_CT_LEN)));
+        byte[] ct = new byte[ctLength];
+        index.get(off + OFF_CT, ct);
+
+        return new Entry(
+                HexFormat.of().formatHex(hashBytes),
+                slot,
+                index.getLong(off + OFF_SIZE),
+                new String(ct, StandardCharsets.US_ASCII),
+                index.getLong(off + OFF_STORED_AT)
+        );
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    private Path entryPath(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private Cached toCached(Entry entry) {
+        String etag = "\"" + entry.hash().substring(0, 16) + "-" + Long.toHexString(entry.storedAt()) + "\"";
+        return new Cached(entryPath(entry.hash()), entry.size(), entry.storedAt(), entry.contentType(), etag);
+    }
+
+    private static Entry await(CompletableFuture<Entry> running) {
+        try {
+            return running.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof ApiException api) throw api;
+            throw upstreamFailed();
+        }
+    }
+
+    private static ApiException upstreamFailed() {
+        return Errors.serviceUnavailable("MEDIA_PROXY_UPSTREAM_FAILED", "Não foi possível obter a imagem da origem.");
+    }
+
+    private record Entry(String hash, int slot, long size, String contentType, long storedAt) {}
+
+    private record Evicted(String hash, long at) {}
+
+    /**
+     * @param etag ETag forte, já entre aspas
+     */
+    public record Cached(Path path, long size, long lastModified, String contentType, String etag) {}
+}
@@ -0,0 +1,153 @@
+package pt.dot.application.service.media;
+
+import org.springframework.web.multipart.MultipartFile;
+import pt.dot.application.exception.Errors;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Backend onde ficam os objetos de media (originais e derivadas).
+ *
+ * A implementação é escolhida por {@code ptdot.media.storage.backend}:
+ * - {@code r2} (default): {@link R2MediaStorageService}
+ * - {@code local}: {@link LocalMediaStorageService}, ficheiros em disco
+ *   servidos pelo próprio serviço em {@code /media/**}
+ *
+ * As keys são sempre geradas por {@link MediaKeys}, por isso são iguais em
+ * qualquer backend e o URL público resolve-se com {@code ptdot.media.base-url}.
+ */
+public interface MediaStorage {
+
+    boolean isEnabled();
+
+    /**
+     * Upload a partir de um stream de tamanho desconhecido, com key por
+     * entidade; o SHA-256 é calculado enquanto se lê e o
+     * {@link MediaBlobService#register} passa-o depois para a key de conteúdo.
+     */
+    UploadResult uploadStream(
+            InputStream in,
+            String originalFilename,
+            String contentType,
+            String entityType,
+            Long entityId,
+            String mediaType
+    );
+
+    /**
+     * Como o anterior, com o tamanho anunciado (Content-Length,
+     * {@link MultipartFile#getSize()}), ou -1 se desconhecido: o backend pode
+     * escolher o caminho sem ler o stream primeiro.
+     */
+    default UploadResult uploadStream(
+            InputStream in,
+            String originalFilename,
+            String contentType,
+            String entityType,
+            Long entityId,
+            String mediaType,
+            long sizeHint
+    ) {
+        return uploadStream(in, originalFilename, contentType, entityType, entityId, mediaType);
+    }
+
+    /**
+     * Upload de conteúdo já em memória, guardado numa key derivada do SHA-256
+     * ({@link MediaKeys#buildContentKey}). A deduplicação fica a cargo do
+     * {@link MediaBlobService}.
+     */
+    UploadResult uploadBytes(byte[] bytes, String originalFilename, String contentType);
+
+    /**
+     * Grava numa key já conhecida (ex.: derivadas de uma imagem).
+     */
+    void putBytes(String storageKey, byte[] bytes, String contentType);
+
+    /**
+     * Cópia feita pelo próprio storage, sem os bytes passarem por aqui (ex.:
+     * passar um upload em stream para a key de conteúdo quando o hash só se
+     * conhece no fim).
+     */
+    void copyObject(String sourceKey, String targetKey);
+
+    byte[] getObjectBytes(String storageKey);
+
+    /**
+     * Metadados do objeto (tamanho e content type), ou vazio se não existir.
+     */
+    Optional<ObjectInfo> head(String storageKey);
+
+    /**
+     * URL assinado para o cliente fazer PUT direto ao storage, sem o corpo
+     * passar por este serviço. Tamanho e content type ficam assinados: um PUT
+     * com valores diferentes é rejeitado pelo storage.
+     */
+    default PresignedUpload presignUpload(String storageKey, String contentType, long sizeBytes, Duration ttl) {
+        throw Errors.conflict(
+                "MEDIA_PRESIGN_UNSUPPORTED",
+                "Este storage não suporta uploads diretos. Usa /api/media/upload."
+        );
+    }
+
+    /**
+     * Prefixos de primeiro nível (ex.: {@code poi/}, {@code blobs/}).
+     */
+    List<String> listRootPrefixes();
+
+    /**
+     * Uma página de objetos em {@code prefix}, por ordem das keys, a começar
+     * na primeira key maior que {@code startAfter} (null = do início).
+     *
+     * No R2 a ordem é a de bytes do S3; em disco é nome a nome, pasta a
+     * pasta. Nas duas, keys com o mesmo prefixo ficam seguidas e um ficheiro
+     * vem antes das derivadas ({@code abc.png} < {@code abc_w160.jpg}).
+     */
+    ListPage list(String prefix, String startAfter, int maxKeys);
+
+    /**
+     * Apaga até 1000 objetos. Devolve as keys que falharam (key -> mensagem);
+     * as restantes foram apagadas (ou já não existiam). Se o storage não
+     * puder apagar nada (ex.: R2 desativado), lança exceção em vez de
+     * devolver um mapa vazio.
+     */
+    Map<String, String> deleteObjects(Collection<String> storageKeys);
+
+    default UploadResult upload(MultipartFile file, String entityType, Long entityId, String mediaType) {
+        if (file == null || file.isEmpty()) {
+            throw Errors.badRequest("MEDIA_FILE_REQUIRED", "Ficheiro em falta.");
+        }
+
+        try (InputStream in = file.getInputStream()) {
+            return uploadStream(in, file.getOriginalFilename(), file.getContentType(), entityType, entityId, mediaType, file.getSize());
+        } catch (IOException ex) {
+            throw Errors.badRequest("MEDIA_READ_FAILED", "Não foi possível ler o ficheiro enviado.");
+        }
+    }
+
+    /**
+     * @param sha256 hash do conteúdo em hex (null se desconhecido)
+     */
+    record UploadResult(String storageKey, String url, String contentType, long sizeBytes, String sha256) {}
+
+    record ObjectInfo(long sizeBytes, String contentType) {}
+
+    record ListedObject(String key, long sizeBytes, Instant lastModified) {}
+
+    /**
+     * @param truncated há mais objetos depois do último desta página
+     */
+    record ListPage(List<ListedObject> objects, boolean truncated) {}
+
+    /**
+     * @param headers headers assinados que o cliente tem de enviar no PUT
+     */
+    record PresignedUpload(URL url, Map<String, String> headers, Instant expiresAt) {}
+}
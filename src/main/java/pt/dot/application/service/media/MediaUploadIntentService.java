@@ -0,0 +1,211 @@
+package pt.dot.application.service.media;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import pt.dot.application.db.entity.MediaItem;
+import pt.dot.application.db.repo.MediaItemRepository;
+import pt.dot.application.exception.ApiException;
+import pt.dot.application.exception.Errors;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Upload direto para o storage em dois passos, sem os bytes passarem pela JVM:
+ *
+ * 1. {@link #createIntent}: gera a storage key (mesma lógica do upload normal),
+ *    um PUT assinado e um token que amarra key, entidade, tipo, tamanho e
+ *    utilizador.
+ * 2. {@link #complete}: valida o token, faz HEAD ao objeto (tamanho e content
+ *    type têm de bater certo) e cria o MediaItem. Dois completes em paralelo
+ *    passam ambos o existsByStorageKey; o índice único
+ *    {@code uq_media_item_storage_key} só deixa entrar um.
+ *
+ * O token é um JWT assinado com uma chave derivada de {@code ptdot.jwt.secret}
+ * (nunca serve como token de sessão, nem o contrário). Objetos enviados e
+ * nunca completados ficam para a limpeza de órfãos.
+ */
+@Service
+public class MediaUploadIntentService {
+
+    private static final String AUDIENCE = "ptdot-media-upload";
+
+    /**
+     * Tempo extra, depois de o URL expirar, para o cliente chamar o complete
+     * (um upload grande pode começar perto do fim da validade do URL).
+     */
+    private static final Duration COMPLETE_GRACE = Duration.ofHours(1);
+
+    /**
+     * Índice único de V21 sobre media_item.storage_key.
+     */
+    private static final String STORAGE_KEY_INDEX = "uq_media_item_storage_key";
+
+    private final MediaStorage mediaStorage;
+    private final MediaItemService mediaItemService;
+    private final MediaItemRepository mediaItemRepository;
+    private final MediaUrlService mediaUrlService;
+    private final SecretKey tokenKey;
+    private final long maxUploadBytes;
+    private final Duration ttl;
+
+    public MediaUploadIntentService(
+            MediaStorage mediaStorage,
+            MediaItemService mediaItemService,
+            MediaItemRepository mediaItemRepository,
+            MediaUrlService mediaUrlService,
+            @Value("${ptdot.jwt.secret:please-change-me-please-change-me-please-change-me-please}") String secret,
+            @Value("${ptdot.media.max-upload-bytes:104857600}") long maxUploadBytes,
+            @Value("${ptdot.media.presign.ttl-seconds:900}") long ttlSeconds
+    ) {
+        this.mediaStorage = mediaStorage;
+        this.mediaItemService = mediaItemService;
+        this.mediaItemRepository = mediaItemRepository;
+        this.mediaUrlService = mediaUrlService;
+        this.tokenKey = Keys.hmacShaKeyFor(
+                MediaKeys.sha256().digest(("media-upload:" + secret).getBytes(StandardCharsets.UTF_8))
+        );
+        this.maxUploadBytes = maxUploadBytes;
+        this.ttl = Duration.ofSeconds(Math.max(60, ttlSeconds));
+    }
+
+    public Intent createIntent(
+            UUID userId,
+            String entityType,
+            Long entityId,
+            String mediaType,
+            String filename,
+            String contentType,
+            Long sizeBytes
+    ) {
+        if (entityId == null) {
+            throw Errors.badRequest("MEDIA_ENTITY_ID_REQUIRED", "entityId é obrigatório para associar o ficheiro à entidade.");
+        }
+        if (sizeBytes == null || sizeBytes <= 0) {
+            throw Errors.badRequest("MEDIA_FILE_REQUIRED", "Ficheiro em falta.");
+        }
+        if (sizeBytes > maxUploadBytes) {
+            throw Errors.badRequest("MEDIA_FILE_TOO_LARGE", "Ficheiro demasiado grande.");
+        }
+
+        String normalizedContentType = MediaKeys.normalizeContentType(contentType);
+        String storageKey = MediaKeys.buildStorageKey(entityType, entityId, mediaType, filename, normalizedContentType);
+
+        MediaStorage.PresignedUpload presigned =
+                mediaStorage.presignUpload(storageKey, normalizedContentType, sizeBytes, ttl);
+
+        Instant now = Instant.now();
+        String token = Jwts.builder()
+                .subject(storageKey)
+                .audience().add(AUDIENCE).and()
+                .claim("uid", userId.toString())
+                .claim("entityType", entityType)
+                .claim("entityId", String.valueOf(entityId))
+                .claim("mediaType", mediaType)
+                .claim("contentType", normalizedContentType)
+                .claim("size", String.valueOf(sizeBytes))
+                .issuedAt(Date.from(now))
+                .expiration(Date.from(presigned.expiresAt().plus(COMPLETE_GRACE)))
+                .signWith(tokenKey)
+                .compact();
+
+        return new Intent(storageKey, presigned, token);
+    }
+
+    public Completed complete(UUID userId, String uploadToken) {
+        Claims claims = parse(uploadToken);
+
+        if (!userId.toString().equals(claims.get("uid", String.class))) {
+            throw Errors.forbidden("MEDIA_UPLOAD_FORBIDDEN", "Este upload pertence a outro utilizador.");
+        }
+
+        String storageKey = claims.getSubject();
+        String contentType = claims.get("contentType", String.class);
+        long size = Long.parseLong(claims.get("size", String.class));
+
+        MediaStorage.ObjectInfo info = mediaStorage.head(storageKey)
+                .orElseThrow(() -> Errors.conflict(
+                        "MEDIA_UPLOAD_MISSING",
+                        "O ficheiro ainda não foi enviado para o storage."
+                ));
+
+        if (info.sizeBytes() != size || !normalize(contentType).equals(normalize(info.contentType()))) {
+            throw Errors.badRequest(
+                    "MEDIA_UPLOAD_MISMATCH",
+                    "O ficheiro enviado não corresponde ao pedido (tamanho ou tipo diferente)."
+            );
+        }
+
+        if (mediaItemRepository.existsByStorageKey(storageKey)) {
+            throw alreadyCompleted();
+        }
+
+        MediaStorage.UploadResult result = new MediaStorage.UploadResult(
+                storageKey,
+                mediaUrlService.resolve(storageKey),
+                contentType,
+                size,
+                null
+        );
+
+        MediaItem item;
+        try {
+            item = mediaItemService.createCloudMedia(
+                    claims.get("entityType", String.class),
+                    Long.valueOf(claims.get("entityId", String.class)),
+                    claims.get("mediaType", String.class),
+                    result
+            );
+        } catch (DataIntegrityViolationException ex) {
+            if (!isStorageKeyConflict(ex)) throw ex;
+            throw alreadyCompleted();
+        }
+
+        return new Completed(item, result);
+    }
+
+    private static boolean isStorageKeyConflict(DataIntegrityViolationException ex) {
+        String message = ex.getMostSpecificCause().getMessage();
+        return message != null && message.contains(STORAGE_KEY_INDEX);
+    }
+
+    private static ApiException alreadyCompleted() {
+        return Errors.conflict("MEDIA_UPLOAD_ALREADY_COMPLETED", "Este upload já foi concluído.");
+    }
+
+    private Claims parse(String uploadToken) {
+        if (uploadToken == null || uploadToken.isBlank()) {
+            throw Errors.badRequest("MEDIA_UPLOAD_TOKEN_REQUIRED", "uploadToken em falta.");
+        }
+
+        try {
+            return Jwts.parser()
+                    .verifyWith(tokenKey)
+                    .requireAudience(AUDIENCE)
+                    .build()
+                    .parseSignedClaims(uploadToken)
+                    .getPayload();
+        } catch (Exception ex) {
+            throw Errors.badRequest("MEDIA_UPLOAD_TOKEN_INVALID", "uploadToken inválido ou expirado.");
+        }
+    }
+
+    private static String normalize(String contentType) {
+        String ct = MediaKeys.normalizeContentType(contentType);
+        int semi = ct.indexOf(';');
+        return (semi >= 0 ? ct.substring(0, semi) : ct).trim().toLowerCase(Locale.ROOT);
+    }
+
+    public record Intent(String storageKey, MediaStorage.PresignedUpload upload, String uploadToken) {}
+
+    public record Completed(MediaItem item, MediaStorage.UploadResult upload) {}
+}
@@ -1,31 +1,82 @@
 package pt.dot.application.service.media;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 import pt.dot.application.exception.Errors;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Error;
 import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.text.Normalizer;
-import java.util.Locale;
-import java.util.UUID;
-
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link MediaStorage} sobre Cloudflare R2 (API S3).
+ */
 @Service
-public class R2MediaStorageService {
+@ConditionalOnProperty(name = "ptdot.media.storage.backend", havingValue = "r2", matchIfMissing = true)
+public class R2MediaStorageService implements MediaStorage {
+
+    private static final Logger log = LoggerFactory.getLogger(R2MediaStorageService.class);
+
+    /**
+     * Mínimo do S3/R2 para todas as partes menos a última.
+     */
+    private static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+
+    private static final long BUFFER_WAIT_SECONDS = 30;
 
     private final long maxUploadBytes;
     private final boolean enabled;
     private final String bucket;
     private final String baseUrl;
     private final S3Client s3Client;
+    private final S3Presigner s3Presigner;
+
+    private final ExecutorService uploadExecutor;
+    private final int partSize;
+    private final int maxParallelParts;
+    private final PartBuffers partBuffers;
 
     public R2MediaStorageService(
             @Value("${ptdot.media.r2.enabled:false}") boolean enabled,
@@ -35,100 +86,513 @@ public class R2MediaStorageService {
             @Value("${ptdot.media.r2.bucket:}") String bucket,
             @Value("${ptdot.media.r2.region:auto}") String region,
             @Value("${ptdot.media.base-url}") String baseUrl,
-            @Value("${ptdot.media.max-upload-bytes:104857600}") long maxUploadBytes
+            @Value("${ptdot.media.max-upload-bytes:104857600}") long maxUploadBytes,
+            @Qualifier("mediaUploadExecutor") ExecutorService uploadExecutor,
+            @Value("${ptdot.media.r2.multipart.part-size-bytes:8388608}") int partSize,
+            @Value("${ptdot.media.r2.multipart.max-parallel-parts:4}") int maxParallelParts,
+            @Value("${ptdot.media.r2.multipart.memory-budget-bytes:67108864}") long memoryBudgetBytes
     ) {
         this.enabled = enabled;
         this.bucket = bucket;
-        this.baseUrl = stripTrailingSlash(baseUrl);
+        this.baseUrl = MediaKeys.stripTrailingSlash(baseUrl);
         this.maxUploadBytes = maxUploadBytes;
 
+        this.uploadExecutor = uploadExecutor;
+        this.partSize = Math.max(MIN_PART_SIZE, partSize);
+        this.maxParallelParts = Math.max(1, maxParallelParts);
+        this.partBuffers = new PartBuffers(this.partSize, (int) Math.max(1, memoryBudgetBytes / this.partSize));
+
         if (enabled) {
             require(endpoint, "ptdot.media.r2.endpoint");
             require(accessKeyId, "ptdot.media.r2.access-key-id");
             require(secretAccessKey, "ptdot.media.r2.secret-access-key");
             require(bucket, "ptdot.media.r2.bucket");
 
+            StaticCredentialsProvider credentials = StaticCredentialsProvider.create(
+                    AwsBasicCredentials.create(accessKeyId, secretAccessKey)
+            );
+            Region r2Region = Region.of(region == null || region.isBlank() ? "auto" : region);
+
             this.s3Client = S3Client.builder()
                     .endpointOverride(URI.create(endpoint))
-                    .credentialsProvider(StaticCredentialsProvider.create(
-                            AwsBasicCredentials.create(accessKeyId, secretAccessKey)
-                    ))
-                    .region(Region.of(region == null || region.isBlank() ? "auto" : region))
+                    .credentialsProvider(credentials)
+                    .region(r2Region)
+                    .build();
+
+            this.s3Presigner = S3Presigner.builder()
+                    .endpointOverride(URI.create(endpoint))
+                    .credentialsProvider(credentials)
+                    .region(r2Region)
                     .build();
         } else {
             this.s3Client = null;
+            this.s3Presigner = null;
         }
     }
 
-    public UploadResult upload(MultipartFile file, String entityType, Long entityId, String mediaType) {
+    @Override
+    public UploadResult uploadBytes(
+            byte[] bytes,
+            String originalFilename,
+            String contentType
+    ) {
         if (!enabled) {
             throw Errors.conflict("R2_DISABLED", "Upload para R2 está desativado neste ambiente.");
         }
 
-        if (file == null || file.isEmpty()) {
+        if (bytes == null || bytes.length == 0) {
             throw Errors.badRequest("MEDIA_FILE_REQUIRED", "Ficheiro em falta.");
         }
 
-        if (file.getSize() > maxUploadBytes) {
+        if (bytes.length > maxUploadBytes) {
             throw Errors.badRequest("MEDIA_FILE_TOO_LARGE", "Ficheiro demasiado grande.");
         }
 
-        String contentType = normalizeContentType(file.getContentType());
-        String key = buildStorageKey(entityType, entityId, mediaType, file.getOriginalFilename(), contentType);
+        String normalizedContentType = MediaKeys.normalizeContentType(contentType);
+        String sha256 = MediaKeys.sha256Hex(bytes);
+        String key = MediaKeys.buildContentKey(sha256, originalFilename, normalizedContentType);
 
         try {
             PutObjectRequest request = PutObjectRequest.builder()
                     .bucket(bucket)
                     .key(key)
-                    .contentType(contentType)
+                    .contentType(normalizedContentType)
                     .build();
 
-            s3Client.putObject(request, RequestBody.fromInputStream(file.getInputStream(), file.getSize()));
-        } catch (IOException ex) {
-            throw Errors.badRequest("MEDIA_READ_FAILED", "Não foi possível ler o ficheiro enviado.");
+            s3Client.putObject(request, RequestBody.fromBytes(bytes));
         } catch (S3Exception ex) {
             throw mapS3Exception(ex);
         }
 
-        return new UploadResult(key, baseUrl + "/" + key, contentType, file.getSize());
+        return new UploadResult(key, baseUrl + "/" + key, normalizedContentType, bytes.length, sha256);
     }
 
-    public UploadResult uploadBytes(
-            byte[] bytes,
+    @Override
+    public void putBytes(String storageKey, byte[] bytes, String contentType) {
+        if (!enabled) {
+            throw Errors.conflict("R2_DISABLED", "Upload para R2 está desativado neste ambiente.");
+        }
+
+        try {
+            s3Client.putObject(
+                    PutObjectRequest.builder()
+                            .bucket(bucket)
+                            .key(storageKey)
+                            .contentType(MediaKeys.normalizeContentType(contentType))
+                            .build(),
+                    RequestBody.fromBytes(bytes)
+            );
+        } catch (S3Exception ex) {
+            throw mapS3Exception(ex);
+        }
+    }
+
+    @Override
+    public void copyObject(String sourceKey, String targetKey) {
+        if (!enabled) {
+            throw Errors.conflict("R2_DISABLED", "Upload para R2 está desativado neste ambiente.");
+        }
+
+        try {
+            s3Client.copyObject(
+                    CopyObjectRequest.builder()
+                            .sourceBucket(bucket)
+                            .sourceKey(sourceKey)
+                            .destinationBucket(bucket)
+                            .destinationKey(targetKey)
+                            .build()
+            );
+        } catch (S3Exception ex) {
+            throw mapS3Exception(ex);
+        }
+    }
+
+    @Override
+    public byte[] getObjectBytes(String storageKey) {
+        if (!enabled) {
+            throw Errors.conflict("R2_DISABLED", "Upload para R2 está desativado neste ambiente.");
+        }
+
+        return s3Client.getObjectAsBytes(builder -> builder
+                .bucket(bucket)
+                .key(storageKey)
+        ).asByteArray();
+    }
+
+    @Override
+    public Optional<ObjectInfo> head(String storageKey) {
+        if (!enabled) {
+            throw Errors.conflict("R2_DISABLED", "Upload para R2 está desativado neste ambiente.");
+        }
+
+        try {
+            HeadObjectResponse head = s3Client.headObject(builder -> builder
+                    .bucket(bucket)
+                    .key(storageKey)
+            );
+            return Optional.of(new ObjectInfo(head.contentLength(), head.contentType()));
+        } catch (S3Exception ex) {
+            if (ex.statusCode() == 404) return Optional.empty();
+            throw mapS3Exception(ex);
+        }
+    }
+
+    /**
+     * PUT assinado com Content-Type e Content-Length: o R2 rejeita o upload
+     * se o cliente enviar outro tipo ou outro tamanho.
+     */
+    @Override
+    public PresignedUpload presignUpload(String storageKey, String contentType, long sizeBytes, Duration ttl) {
+        if (!enabled) {
+            throw Errors.conflict("R2_DISABLED", "Upload para R2 está desativado neste ambiente.");
+        }
+
+        PresignedPutObjectRequest presigned = s3Presigner.presignPutObject(PutObjectPresignRequest.builder()
+                .signatureDuration(ttl)
+                .putObjectRequest(builder -> builder
+                        .bucket(bucket)
+                        .key(storageKey)
+                        .contentType(contentType)
+                        .contentLength(sizeBytes)
+                )
+                .build());
+
+        // host e content-length são postos pelo próprio cliente HTTP
+        Map<String, String> headers = new LinkedHashMap<>();
+        presigned.signedHeaders().forEach((name, values) -> {
+            if (!"host".equalsIgnoreCase(name) && !"content-length".equalsIgnoreCase(name)) {
+                headers.put(name, String.join(",", values));
+            }
+        });
+
+        return new PresignedUpload(presigned.url(), headers, presigned.expiration());
+    }
+
+    @Override
+    public List<String> listRootPrefixes() {
+        if (!enabled) {
+            throw Errors.conflict("R2_DISABLED", "Upload para R2 está desativado neste ambiente.");
+        }
+
+        List<String> prefixes = new ArrayList<>();
+        s3Client.listObjectsV2Paginator(builder -> builder
+                        .bucket(bucket)
+                        .delimiter("/")
+                )
+                .commonPrefixes()
+                .forEach(p -> prefixes.add(p.prefix()));
+        return prefixes;
+    }
+
+    @Override
+    public ListPage list(String prefix, String startAfter, int maxKeys) {
+        if (!enabled) {
+            throw Errors.conflict("R2_DISABLED", "Upload para R2 está desativado neste ambiente.");
+        }
+
+        ListObjectsV2Response response = s3Client.listObjectsV2(builder -> {
+            builder.bucket(bucket).prefix(prefix).maxKeys(Math.max(1, Math.min(1000, maxKeys)));
+            if (startAfter != null && !startAfter.isEmpty()) builder.startAfter(startAfter);
+        });
+
+        List<ListedObject> objects = response.contents().stream()
+                .map(o -> new ListedObject(o.key(), o.size() == null ? 0 : o.size(), o.lastModified()))
+                .toList();
+
+        return new ListPage(objects, Boolean.TRUE.equals(response.isTruncated()));
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Upload a partir de um stream de tamanho desconhecido (ex.: corpo do
+     * pedido), sem passar pelo buffer de multipart do Tomcat.
+     *
+     * Lê uma parte de cada vez para buffers de um pool com orçamento fixo de
+     * memória; cada parte é enviada em paralelo (no máximo
+     * {@code max-parallel-parts} por upload) e a leitura do stream pára
+     * enquanto não houver buffer livre. Se couber numa só parte, vai por
+     * putObject normal. Em qualquer falha o multipart upload é abortado.
+     */
+    @Override
+    public UploadResult uploadStream(
+            InputStream in,
             String originalFilename,
             String contentType,
             String entityType,
             Long entityId,
             String mediaType
+    ) {
+        return uploadStream(in, originalFilename, contentType, entityType, entityId, mediaType, -1);
+    }
+
+    /**
+     * Com tamanho anunciado abaixo de uma parte, um putObject com um buffer
+     * do tamanho exato, fora do pool: um avatar não ocupa um slot de
+     * {@code part-size-bytes} do orçamento dos uploads grandes.
+     */
+    @Override
+    public UploadResult uploadStream(
+            InputStream in,
+            String originalFilename,
+            String contentType,
+            String entityType,
+            Long entityId,
+            String mediaType,
+            long sizeHint
     ) {
         if (!enabled) {
             throw Errors.conflict("R2_DISABLED", "Upload para R2 está desativado neste ambiente.");
         }
 
-        if (bytes == null || bytes.length == 0) {
+        if (in == null) {
             throw Errors.badRequest("MEDIA_FILE_REQUIRED", "Ficheiro em falta.");
         }
 
-        if (bytes.length > maxUploadBytes) {
+        String normalizedContentType = MediaKeys.normalizeContentType(contentType);
+        String key = MediaKeys.buildStorageKey(entityType, entityId, mediaType, originalFilename, normalizedContentType);
+
+        // o hash é calculado na thread que lê, pela ordem do stream
+        MessageDigest digest = MediaKeys.sha256();
+        InputStream hashed = new DigestInputStream(in, digest);
+
+        if (sizeHint > 0 && sizeHint < partSize) {
+            return putSmall(hashed, digest, key, normalizedContentType, (int) sizeHint);
+        }
+
+        byte[] first = partBuffers.acquire();
+        boolean firstHandedOff = false;
+
+        try {
+            int n = readPart(hashed, first);
+            if (n == 0) {
+                throw Errors.badRequest("MEDIA_FILE_REQUIRED", "Ficheiro em falta.");
+            }
+
+            if (n < first.length) {
+                if (n > maxUploadBytes) {
+                    throw Errors.badRequest("MEDIA_FILE_TOO_LARGE", "Ficheiro demasiado grande.");
+                }
+
+                s3Client.putObject(
+                        PutObjectRequest.builder()
+                                .bucket(bucket)
+                                .key(key)
+                                .contentType(normalizedContentType)
+                                .build(),
+                        partBody(first, n, normalizedContentType)
+                );
+                return new UploadResult(key, baseUrl + "/" + key, normalizedContentType, n, HexFormat.of().formatHex(digest.digest()));
+            }
+
+            firstHandedOff = true;
+            long total = multipartUpload(hashed, key, normalizedContentType, first, n);
+            return new UploadResult(key, baseUrl + "/" + key, normalizedContentType, total, HexFormat.of().formatHex(digest.digest()));
+        } catch (IOException ex) {
+            throw Errors.badRequest("MEDIA_READ_FAILED", "Não foi possível ler o ficheiro enviado.");
+        } catch (S3Exception ex) {
+            throw mapS3Exception(ex);
+        } finally {
+            if (!firstHandedOff) partBuffers.release(first);
+        }
+    }
+
+    private UploadResult putSmall(InputStream hashed, MessageDigest digest, String key, String contentType, int size) {
+        if (size > maxUploadBytes) {
             throw Errors.badRequest("MEDIA_FILE_TOO_LARGE", "Ficheiro demasiado grande.");
         }
 
-        String normalizedContentType = normalizeContentType(contentType);
-        String key = buildStorageKey(entityType, entityId, mediaType, originalFilename, normalizedContentType);
+        try {
+            byte[] bytes = new byte[size];
+            int n = readPart(hashed, bytes);
+            if (n == 0) {
+                throw Errors.badRequest("MEDIA_FILE_REQUIRED", "Ficheiro em falta.");
+            }
+            if (hashed.read() >= 0) {
+                throw Errors.badRequest("MEDIA_SIZE_MISMATCH", "O ficheiro é maior do que o tamanho anunciado.");
+            }
 
+            s3Client.putObject(
+                    PutObjectRequest.builder()
+                            .bucket(bucket)
+                            .key(key)
+                            .contentType(contentType)
+                            .build(),
+                    partBody(bytes, n, contentType)
+            );
+            return new UploadResult(key, baseUrl + "/" + key, contentType, n, HexFormat.of().formatHex(digest.digest()));
+        } catch (IOException ex) {
+            throw Errors.badRequest("MEDIA_READ_FAILED", "Não foi possível ler o ficheiro enviado.");
+        } catch (S3Exception ex) {
+            throw mapS3Exception(ex);
+        }
+    }
+
+    /**
+     * Fica com o primeiro buffer: devolve-o ao pool em qualquer caminho.
+     */
+    private long multipartUpload(
+            InputStream in,
+            String key,
+            String contentType,
+            byte[] firstBuffer,
+            int firstLength
+    ) throws IOException {
+        String uploadId;
         try {
-            PutObjectRequest request = PutObjectRequest.builder()
+            uploadId = s3Client.createMultipartUpload(builder -> builder
                     .bucket(bucket)
                     .key(key)
-                    .contentType(normalizedContentType)
-                    .build();
+                    .contentType(contentType)
+            ).uploadId();
+        } catch (RuntimeException ex) {
+            partBuffers.release(firstBuffer);
+            throw ex;
+        }
 
-            s3Client.putObject(request, RequestBody.fromBytes(bytes));
-        } catch (S3Exception ex) {
-            throw mapS3Exception(ex);
+        Semaphore inFlight = new Semaphore(maxParallelParts);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+
+        byte[] buffer = firstBuffer;
+        int length = firstLength;
+        long total = 0;
+        int partNumber = 0;
+
+        try {
+            while (true) {
+                total += length;
+                if (total > maxUploadBytes) {
+                    throw Errors.badRequest("MEDIA_FILE_TOO_LARGE", "Ficheiro demasiado grande.");
+                }
+
+                acquire(inFlight);
+                byte[] part = buffer;
+                buffer = null;
+                parts.add(submitPart(key, uploadId, ++partNumber, part, length, contentType, inFlight, failure));
+
+                if (failure.get() != null || length < partSize) break;
+
+                buffer = partBuffers.acquire();
+                length = readPart(in, buffer);
+                if (length == 0) break;
+            }
+
+            if (buffer != null) {
+                partBuffers.release(buffer);
+                buffer = null;
+            }
+
+            CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new)).join();
+
+            List<CompletedPart> completed = parts.stream()
+                    .map(CompletableFuture::join)
+                    .sorted(Comparator.comparingInt(CompletedPart::partNumber))
+                    .toList();
+
+            s3Client.completeMultipartUpload(builder -> builder
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(mp -> mp.parts(completed))
+            );
+
+            return total;
+        } catch (RuntimeException | IOException ex) {
+            if (buffer != null) partBuffers.release(buffer);
+
+            // as partes em fila veem a falha e saltam o envio; esperar por todas
+            // antes do abort, para não ficarem partes órfãs no bucket
+            failure.compareAndSet(null, ex);
+            CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new))
+                    .exceptionally(ignored -> null)
+                    .join();
+            abortQuietly(key, uploadId);
+
+            Throwable first = failure.get();
+            Throwable cause = first instanceof CompletionException && first.getCause() != null ? first.getCause() : first;
+            if (cause instanceof S3Exception s3) throw s3;
+            if (cause instanceof SdkException) {
+                throw Errors.internalServerError(
+                        "R2_UPLOAD_FAILED",
+                        "Falha temporária ao enviar o ficheiro para o storage. Tenta novamente."
+                );
+            }
+            if (cause instanceof RuntimeException re) throw re;
+            throw ex;
+        }
+    }
+
+    private CompletableFuture<CompletedPart> submitPart(
+            String key,
+            String uploadId,
+            int partNumber,
+            byte[] buffer,
+            int length,
+            String contentType,
+            Semaphore inFlight,
+            AtomicReference<Throwable> failure
+    ) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                if (failure.get() != null) {
+                    throw new IllegalStateException("Multipart upload abortado", failure.get());
+                }
+
+                String eTag = s3Client.uploadPart(
+                        builder -> builder
+                                .bucket(bucket)
+                                .key(key)
+                                .uploadId(uploadId)
+                                .partNumber(partNumber)
+                                .contentLength((long) length),
+                        partBody(buffer, length, contentType)
+                ).eTag();
+
+                return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+            } catch (RuntimeException ex) {
+                failure.compareAndSet(null, ex);
+                throw ex;
+            } finally {
+                partBuffers.release(buffer);
+                inFlight.release();
+            }
+        }, uploadExecutor);
+    }
+
+    private void abortQuietly(String key, String uploadId) {
+        try {
+            s3Client.abortMultipartUpload(builder -> builder
+                    .bucket(bucket)
+                    .key(key)
+                    .uploadId(uploadId)
+            );
+        } catch (Exception ex) {
+            log.warn("[R2] Falha ao abortar multipart upload key={} uploadId={}: {}", key, uploadId, ex.getMessage());
         }
+    }
+
+    /**
+     * Sem cópia: o SDK pede um stream novo sobre o mesmo buffer em cada retry.
+     */
+    private static RequestBody partBody(byte[] buffer, int length, String contentType) {
+        return RequestBody.fromContentProvider(() -> new ByteArrayInputStream(buffer, 0, length), length, contentType);
+    }
+
+    private static int readPart(InputStream in, byte[] buffer) throws IOException {
+        return in.readNBytes(buffer, 0, buffer.length);
+    }
 
-        return new UploadResult(key, baseUrl + "/" + key, normalizedContentType, bytes.length);
+    private static void acquire(Semaphore semaphore) {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw Errors.internalServerError("R2_UPLOAD_INTERRUPTED", "Upload interrompido.");
+        }
     }
 
     public void deleteObject(String storageKey) {
@@ -141,6 +605,39 @@ public class R2MediaStorageService {
         );
     }
 
+    /**
+     * Um só pedido DeleteObjects. Com o R2 desativado falha em vez de
+     * devolver "sem erros", que o outbox leria como keys apagadas.
+     */
+    @Override
+    public Map<String, String> deleteObjects(Collection<String> storageKeys) {
+        if (!enabled) {
+            throw Errors.conflict("R2_DISABLED", "Remoção no R2 está desativada neste ambiente.");
+        }
+        if (storageKeys == null || storageKeys.isEmpty()) return Map.of();
+
+        List<ObjectIdentifier> objects = storageKeys.stream()
+                .filter(k -> k != null && !k.isBlank())
+                .map(k -> ObjectIdentifier.builder().key(k.trim()).build())
+                .toList();
+        if (objects.isEmpty()) return Map.of();
+
+        if (objects.size() > 1000) {
+            throw new IllegalArgumentException("DeleteObjects aceita no máximo 1000 keys: " + objects.size());
+        }
+
+        DeleteObjectsResponse response = s3Client.deleteObjects(builder -> builder
+                .bucket(bucket)
+                .delete(d -> d.objects(objects).quiet(true))
+        );
+
+        Map<String, String> errors = new HashMap<>();
+        for (S3Error error : response.errors()) {
+            errors.put(error.key(), error.code() + ": " + error.message());
+        }
+        return errors;
+    }
+
     private static RuntimeException mapS3Exception(S3Exception ex) {
         int status = ex.statusCode();
 
@@ -171,76 +668,49 @@ public class R2MediaStorageService {
         );
     }
 
-    private static String buildStorageKey(
-            String entityType,
-            Long entityId,
-            String mediaType,
-            String originalFilename,
-            String contentType
-    ) {
-        String entity = safeSegment(entityType, "misc").toLowerCase(Locale.ROOT);
-        String type = safeSegment(mediaType, mediaTypeFromContentType(contentType)).toLowerCase(Locale.ROOT);
-        String idPart = entityId == null ? "pending" : String.valueOf(entityId);
-        String ext = extensionFrom(originalFilename, contentType);
-
-        return entity + "/" + idPart + "/" + type + "s/" + UUID.randomUUID() + ext;
-    }
-
-    private static String mediaTypeFromContentType(String contentType) {
-        if (contentType == null) return "file";
-        if (contentType.startsWith("image/")) return "image";
-        if (contentType.startsWith("video/")) return "video";
-        if (contentType.equals("application/pdf")) return "file";
-        return "file";
-    }
-
-    private static String safeSegment(String value, String fallback) {
-        String v = value == null || value.isBlank() ? fallback : value;
-        v = Normalizer.normalize(v, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
-        v = v.replaceAll("[^a-zA-Z0-9_-]", "-");
-        v = v.replaceAll("-+", "-");
-        v = v.replaceAll("^-|-$", "");
-        return v.isBlank() ? fallback : v;
-    }
-
-    private static String extensionFrom(String filename, String contentType) {
-        if (filename != null) {
-            String clean = filename.trim();
-            int idx = clean.lastIndexOf('.');
-            if (idx >= 0 && idx < clean.length() - 1) {
-                String ext = clean.substring(idx).toLowerCase(Locale.ROOT).replaceAll("[^.a-z0-9]", "");
-                if (ext.length() >= 2 && ext.length() <= 12) return ext;
-            }
+    private static void require(String value, String property) {
+        if (value == null || value.isBlank()) {
+            throw new IllegalStateException("Missing required property: " + property);
         }
-
-        return switch (contentType) {
-            case "image/jpeg" -> ".jpg";
-            case "image/png" -> ".png";
-            case "image/webp" -> ".webp";
-            case "image/gif" -> ".gif";
-            case "video/mp4" -> ".mp4";
-            case "video/webm" -> ".webm";
-            case "application/pdf" -> ".pdf";
-            default -> "";
-        };
     }
 
-    private static String normalizeContentType(String contentType) {
-        return contentType == null || contentType.isBlank()
-                ? "application/octet-stream"
-                : contentType.toLowerCase(Locale.ROOT);
-    }
+    /**
+     * Pool de buffers de parte com orçamento fixo: no máximo {@code maxBuffers}
+     * buffers de {@code partSize} bytes existem ao mesmo tempo, somando todos os
+     * uploads em curso. Criados sob pedido e reutilizados.
+     */
+    private static final class PartBuffers {
 
-    private static String stripTrailingSlash(String value) {
-        if (value == null || value.isBlank()) return "";
-        return value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
-    }
+        private final int partSize;
+        private final Semaphore budget;
+        private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
 
-    private static void require(String value, String property) {
-        if (value == null || value.isBlank()) {
-            throw new IllegalStateException("Missing required property: " + property);
+        PartBuffers(int partSize, int maxBuffers) {
+            this.partSize = partSize;
+            this.budget = new Semaphore(maxBuffers);
         }
-    }
 
-    public record UploadResult(String storageKey, String url, String contentType, long sizeBytes) {}
+        byte[] acquire() {
+            try {
+                if (!budget.tryAcquire(BUFFER_WAIT_SECONDS, TimeUnit.SECONDS)) {
+                    throw Errors.serviceUnavailable(
+                            "MEDIA_UPLOAD_BUSY",
+                            "Há demasiados uploads em curso. Tenta novamente dentro de momentos."
+                    );
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw Errors.internalServerError("R2_UPLOAD_INTERRUPTED", "Upload interrompido.");
+            }
+
+            byte[] buffer = free.poll();
+            return buffer != null ? buffer : new byte[partSize];
+        }
+
+        void release(byte[] buffer) {
+            if (buffer == null) return;
+            free.offer(buffer);
+            budget.release();
+        }
+    }
 }
@@ -0,0 +1,56 @@
+package pt.dot.application.service.media;
+
+import pt.dot.application.api.dto.common.MediaImageDto;
+
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+
+/**
+ * URL do original + URLs das derivadas por largura, com dimensões e
+ * placeholder quando já calculados ({@code meta} pode ser null).
+ */
+public record ResolvedImage(String url, SortedMap<Integer, String> variants, ImageMeta meta) {
+
+    public ResolvedImage {
+        variants = variants == null || variants.isEmpty()
+                ? Collections.emptySortedMap()
+                : Collections.unmodifiableSortedMap(new TreeMap<>(variants));
+    }
+
+    public static ResolvedImage of(String url) {
+        return new ResolvedImage(url, null, null);
+    }
+
+    /**
+     * Valor pronto para {@code <img srcset>} ("url 160w, url 480w"); null se
+     * não houver derivadas.
+     */
+    public String srcset() {
+        if (variants.isEmpty()) return null;
+
+        StringJoiner out = new StringJoiner(", ");
+        variants.forEach((width, variantUrl) -> out.add(variantUrl + " " + width + "w"));
+        return out.toString();
+    }
+
+    /**
+     * A derivada mais pequena (miniaturas), ou o original se não houver.
+     */
+    public String smallestUrl() {
+        return variants.isEmpty() ? url : variants.get(variants.firstKey());
+    }
+
+    public MediaImageDto toDto() {
+        return new MediaImageDto(
+                url,
+                srcset(),
+                variants,
+                meta == null ? null : meta.width(),
+                meta == null ? null : meta.height(),
+                meta == null ? null : meta.blurHash(),
+                meta == null ? null : meta.dominantColor()
+        );
+    }
+}
@@ -0,0 +1,367 @@
+package pt.dot.application.service.media;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import pt.dot.application.api.dto.common.WikimediaPrefetchStatusDto;
+import pt.dot.application.db.repo.DistrictRepository;
+import pt.dot.application.db.repo.PoiRepository;
+import pt.dot.application.exception.Errors;
+import pt.dot.application.service.wikimedia.WikimediaRateLimiter;
+import pt.dot.application.service.wikimedia.WikimediaThrottledException;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prefetch em background das imagens Wikimedia para os distritos e POIs que
+ * ainda não têm media_item, para que o request path quase nunca tenha de
+ * fazer a hidratação lazy (e {@code lazy-wikimedia.enabled} possa ficar
+ * desligado em produção).
+ *
+ * - Corre por agendamento ({@code prefetch.enabled}) ou a pedido de um admin.
+ * - Distritos primeiro, depois POIs; em cada um, os mais populares primeiro
+ *   (número de favoritos, do POI ou dos POIs do distrito).
+ * - Cada entidade é reclamada em wikimedia_prefetch_state antes de ser
+ *   processada. Essa linha é o checkpoint: uma execução interrompida
+ *   retoma onde ficou, outra instância não repete o trabalho, e entidades
+ *   sem resultados só voltam a ser tentadas passadas {@code retry-hours}.
+ *   As que falharam (incluindo o rate limit) voltam passados
+ *   {@code failure-retry-minutes}.
+ * - Os pedidos à Wikimedia vão pelo {@link WikimediaRateLimiter} global com
+ *   prioridade de background, sem tocar na reserva do request path. Se o
+ *   limiter recusar, a execução para e retoma no próximo agendamento.
+ */
+@Service
+public class WikimediaPrefetchService {
+
+    private static final Logger log = LoggerFactory.getLogger(WikimediaPrefetchService.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PoiRepository poiRepository;
+    private final DistrictRepository districtRepository;
+    private final LazyWikimediaMediaService lazyWikimediaMediaService;
+    private final WikimediaRateLimiter rateLimiter;
+    private final ExecutorService executor;
+
+    private final boolean enabled;
+    private final int batchSize;
+    private final Duration retryAfter;
+    private final Duration failureRetryAfter;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicBoolean stopRequested = new AtomicBoolean();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong hydrated = new AtomicLong();
+    private final AtomicLong empty = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile String trigger;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+
+    private final Counter hydratedCounter;
+    private final Counter emptyCounter;
+    private final Counter failedCounter;
+
+    public WikimediaPrefetchService(
+            JdbcTemplate jdbcTemplate,
+            PoiRepository poiRepository,
+            DistrictRepository districtRepository,
+            LazyWikimediaMediaService lazyWikimediaMediaService,
+            WikimediaRateLimiter rateLimiter,
+            @Qualifier("wikimediaPrefetchExecutor") ExecutorService executor,
+            MeterRegistry meterRegistry,
+            @Value("${ptdot.wikimedia.prefetch.enabled:false}") boolean enabled,
+            @Value("${ptdot.wikimedia.prefetch.batch-size:50}") int batchSize,
+            @Value("${ptdot.wikimedia.prefetch.retry-hours:168}") long retryHours,
+            @Value("${ptdot.wikimedia.prefetch.failure-retry-minutes:30}") long failureRetryMinutes
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.poiRepository = poiRepository;
+        this.districtRepository = districtRepository;
+        this.lazyWikimediaMediaService = lazyWikimediaMediaService;
+        this.rateLimiter = rateLimiter;
+        this.executor = executor;
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, Math.min(1000, batchSize));
+        this.retryAfter = Duration.ofHours(Math.max(1, retryHours));
+        this.failureRetryAfter = Duration.ofMinutes(Math.max(1, failureRetryMinutes));
+
+        this.hydratedCounter = entities(meterRegistry, "hydrated");
+        this.emptyCounter = entities(meterRegistry, "empty");
+        this.failedCounter = entities(meterRegistry, "failed");
+    }
+
+    @Scheduled(
+            fixedDelayString = "${ptdot.wikimedia.prefetch.interval-ms:3600000}",
+            initialDelayString = "${ptdot.wikimedia.prefetch.initial-delay-ms:300000}"
+    )
+    public void tick() {
+        if (!enabled || running.get()) return;
+
+        try {
+            start("schedule");
+        } catch (RuntimeException ex) {
+            log.warn("[WikimediaPrefetch] Não foi possível arrancar: {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * Arranca uma execução em background; se já houver uma a correr devolve
+     * o estado dessa.
+     */
+    public WikimediaPrefetchStatusDto start(String trigger) {
+        if (!running.compareAndSet(false, true)) return status();
+
+        this.trigger = trigger;
+        this.startedAt = Instant.now();
+        this.finishedAt = null;
+        stopRequested.set(false);
+        processed.set(0);
+        hydrated.set(0);
+        empty.set(0);
+        failed.set(0);
+
+        try {
+            executor.execute(this::run);
+        } catch (RejectedExecutionException ex) {
+            running.set(false);
+            throw Errors.serviceUnavailable("WIKIMEDIA_PREFETCH_BUSY", "O prefetch já está a correr.");
+        }
+        return status();
+    }
+
+    /**
+     * Pede à execução em curso que pare depois da entidade atual; o
+     * checkpoint fica na BD e a próxima execução continua daí.
+     */
+    public WikimediaPrefetchStatusDto stop() {
+        if (running.get()) stopRequested.set(true);
+        return status();
+    }
+
+    public WikimediaPrefetchStatusDto status() {
+        return new WikimediaPrefetchStatusDto(
+                running.get(),
+                trigger,
+                startedAt,
+                finishedAt,
+                processed.get(),
+                hydrated.get(),
+                empty.get(),
+                failed.get()
+        );
+    }
+
+    private void run() {
+        log.info("[WikimediaPrefetch] Início ({})", trigger);
+        try {
+            drain(MediaItemService.ENTITY_DISTRICT);
+            drain(MediaItemService.ENTITY_POI);
+        } catch (RuntimeException ex) {
+            log.warn("[WikimediaPrefetch] Execução interrompida: {}", ex.getMessage());
+        } finally {
+            finishedAt = Instant.now();
+            running.set(false);
+            log.info(
+                    "[WikimediaPrefetch] Fim: {} processados, {} com imagens, {} sem resultados, {} falhas{}",
+                    processed.get(), hydrated.get(), empty.get(), failed.get(),
+                    stopRequested.get() ? " (parado)" : ""
+            );
+        }
+    }
+
+    private void drain(String entityType) {
+        while (!stopRequested.get() && !Thread.currentThread().isInterrupted()) {
+            List<Long> ids = candidates(entityType);
+            if (ids.isEmpty()) return;
+
+            for (Long id : ids) {
+                if (stopRequested.get() || Thread.currentThread().isInterrupted()) return;
+                if (!claim(entityType, id)) continue;
+
+                processed.incrementAndGet();
+                try {
+                    int count = hydrate(entityType, id);
+                    finish(entityType, id, count, null);
+
+                    if (count > 0) {
+                        hydrated.incrementAndGet();
+                        hydratedCounter.increment();
+                    } else {
+                        empty.incrementAndGet();
+                        emptyCounter.increment();
+                    }
+                } catch (WikimediaThrottledException ex) {
+                    failed.incrementAndGet();
+                    failedCounter.increment();
+                    finish(entityType, id, null, ex.getMessage());
+                    log.info("[WikimediaPrefetch] Rate limit em {} {}, a parar até ao próximo agendamento", entityType, id);
+                    stopRequested.set(true);
+                    return;
+                } catch (RuntimeException ex) {
+                    failed.incrementAndGet();
+                    failedCounter.increment();
+                    log.warn("[WikimediaPrefetch] Falha em {} {}: {}", entityType, id, ex.getMessage());
+                    finish(entityType, id, null, ex.getMessage());
+                }
+            }
+        }
+    }
+
+    private int hydrate(String entityType, Long id) {
+        return rateLimiter.background(() -> {
+            if (MediaItemService.ENTITY_DISTRICT.equals(entityType)) {
+                return districtRepository.findById(id)
+                        .map(d -> lazyWikimediaMediaService.hydrateDistrict(d).size())
+                        .orElse(0);
+            }
+            return poiRepository.findById(id)
+                    .map(p -> lazyWikimediaMediaService.hydratePoi(p).size())
+                    .orElse(0);
+        });
+    }
+
+    /**
+     * Próximo lote por popularidade. As entidades já reclamadas dentro de
+     * {@code retry-hours} (ou {@code failure-retry-minutes}, se a última
+     * tentativa falhou) ficam de fora, por isso cada lote avança.
+     */
+    private List<Long> candidates(String entityType) {
+        Timestamp cutoff = cutoff(retryAfter);
+        Timestamp failureCutoff = cutoff(failureRetryAfter);
+
+        if (MediaItemService.ENTITY_DISTRICT.equals(entityType)) {
+            return jdbcTemplate.queryForList(
+                    """
+                    select d.id
+                    from district d
+                    left join (
+                        select p.district_id, count(*) as favorites
+                        from favorite f
+                        join poi p on p.id = f.poi_id
+                        group by p.district_id
+                    ) fav on fav.district_id = d.id
+                    where not exists (
+                            select 1 from media_item m
+                            where m.entity_type = 'DISTRICT'
+                              and m.entity_id = d.id
+                              and upper(m.media_type) = 'IMAGE'
+                          )
+                      and not exists (
+                            select 1 from wikimedia_prefetch_state s
+                            where s.entity_type = 'DISTRICT'
+                              and s.entity_id = d.id
+                              and s.attempted_at >= case when s.last_error is null then ? else ? end
+                          )
+                    order by coalesce(fav.favorites, 0) desc, d.id
+                    limit ?
+                    """,
+                    Long.class,
+                    cutoff,
+                    failureCutoff,
+                    batchSize
+            );
+        }
+
+        return jdbcTemplate.queryForList(
+                """
+                select p.id
+                from poi p
+                left join (
+                    select poi_id, count(*) as favorites
+                    from favorite
+                    group by poi_id
+                ) fav on fav.poi_id = p.id
+                where p.owner_id is null
+                  and coalesce(lower(p.source), '') <> 'business'
+                  and not exists (
+                        select 1 from media_item m
+                        where m.entity_type = 'POI'
+                          and m.entity_id = p.id
+                          and upper(m.media_type) = 'IMAGE'
+                      )
+                  and not exists (
+                        select 1 from wikimedia_prefetch_state s
+                        where s.entity_type = 'POI'
+                          and s.entity_id = p.id
+                          and s.attempted_at >= case when s.last_error is null then ? else ? end
+                      )
+                order by coalesce(fav.favorites, 0) desc, p.id
+                limit ?
+                """,
+                Long.class,
+                cutoff,
+                failureCutoff,
+                batchSize
+        );
+    }
+
+    /**
+     * Marca a tentativa antes de a fazer. False se outra instância a
+     * reclamou entretanto.
+     */
+    private boolean claim(String entityType, Long id) {
+        Timestamp cutoff = cutoff(retryAfter);
+        Timestamp failureCutoff = cutoff(failureRetryAfter);
+
+        List<Long> claimed = jdbcTemplate.queryForList(
+                """
+                insert into wikimedia_prefetch_state (entity_type, entity_id, attempted_at, attempts)
+                values (?, ?, now(), 1)
+                on conflict (entity_type, entity_id) do update
+                   set attempted_at = now(),
+                       attempts = wikimedia_prefetch_state.attempts + 1,
+                       image_count = null,
+                       last_error = null
+                 where wikimedia_prefetch_state.attempted_at <
+                       case when wikimedia_prefetch_state.last_error is null then ? else ? end
+                returning entity_id
+                """,
+                Long.class,
+                entityType,
+                id,
+                cutoff,
+                failureCutoff
+        );
+        return !claimed.isEmpty();
+    }
+
+    private void finish(String entityType, Long id, Integer imageCount, String error) {
+        jdbcTemplate.update(
+                """
+                update wikimedia_prefetch_state
+                   set image_count = ?,
+                       last_error = ?
+                 where entity_type = ?
+                   and entity_id = ?
+                """,
+                imageCount,
+                error,
+                entityType,
+                id
+        );
+    }
+
+    private static Timestamp cutoff(Duration age) {
+        return new Timestamp(System.currentTimeMillis() - age.toMillis());
+    }
+
+    private static Counter entities(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("ptdot.wikimedia.prefetch.entities")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
@@ -12,6 +12,7 @@ import org.springframework.transaction.annotation.Transactional;
 import pt.dot.application.db.entity.Poi;
 import pt.dot.application.db.repo.PoiRepository;
 import pt.dot.application.service.media.MediaItemService;
+import pt.dot.application.service.search.SearchCache;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
@@ -32,13 +33,16 @@ public class PoiCsvSyncService {
 
     private final PoiRepository poiRepository;
     private final MediaItemService mediaItemService;
+    private final SearchCache searchCache;
 
     public PoiCsvSyncService(
             PoiRepository poiRepository,
-            MediaItemService mediaItemService
+            MediaItemService mediaItemService,
+            SearchCache searchCache
     ) {
         this.poiRepository = poiRepository;
         this.mediaItemService = mediaItemService;
+        this.searchCache = searchCache;
     }
 
     @Transactional
@@ -51,6 +55,7 @@ public class PoiCsvSyncService {
 
         Map<Integer, Poi> poiByCsvId = importPois(poisCsv);
         importImages(imagesCsv, poiByCsvId);
+        searchCache.invalidateAfterCommit();
 
         log.info("[PoiCsvSync] Fim | total POIs na BD={}", poiRepository.count());
     }
@@ -13,6 +13,8 @@ import pt.dot.application.db.repo.PoiRepository;
 import pt.dot.application.security.SecurityUtil;
 import pt.dot.application.service.media.LazyWikimediaMediaService;
 import pt.dot.application.service.media.MediaItemService;
+import pt.dot.application.service.media.ResolvedImage;
+import pt.dot.application.service.search.SearchCache;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -35,17 +37,20 @@ public class PoiService {
     private final AppUserRepository userRepository;
     private final MediaItemService mediaItemService;
     private final LazyWikimediaMediaService lazyWikimediaMediaService;
+    private final SearchCache searchCache;
 
     public PoiService(
             PoiRepository poiRepository,
             AppUserRepository userRepository,
             MediaItemService mediaItemService,
-            LazyWikimediaMediaService lazyWikimediaMediaService
+            LazyWikimediaMediaService lazyWikimediaMediaService,
+            SearchCache searchCache
     ) {
         this.poiRepository = poiRepository;
         this.userRepository = userRepository;
         this.mediaItemService = mediaItemService;
         this.lazyWikimediaMediaService = lazyWikimediaMediaService;
+        this.searchCache = searchCache;
     }
 
     @Transactional(readOnly = true)
@@ -102,6 +107,7 @@ public class PoiService {
         p.setLon(req.getLon());
 
         Poi saved = poiRepository.saveAndFlush(p);
+        searchCache.invalidateAfterCommit();
 
         mediaItemService.replaceMedia(
                 MediaItemService.ENTITY_POI,
@@ -122,6 +128,7 @@ public class PoiService {
             applyPatch(poi, dto);
 
             Poi saved = poiRepository.saveAndFlush(poi);
+            searchCache.invalidateAfterCommit();
             return toDtoDetail(saved);
         });
     }
@@ -140,6 +147,7 @@ public class PoiService {
         );
 
         poiRepository.delete(poi);
+        searchCache.invalidateAfterCommit();
     }
 
     private void applyPatch(Poi poi, PoiDto dto) {
@@ -208,20 +216,21 @@ public class PoiService {
 
         List<String> lazyUrls = lazyWikimediaMediaService.ensurePoiImages(p);
 
-        List<String> finalGallery = mediaItemService.getResolvedUrls(
+        List<ResolvedImage> gallery = mediaItemService.getResolvedImages(
                 MediaItemService.ENTITY_POI,
                 p.getId(),
                 MediaItemService.MEDIA_IMAGE,
                 MAX_IMAGES
         );
 
-        if (finalGallery.isEmpty() && !lazyUrls.isEmpty()) {
-            finalGallery = lazyUrls.stream().limit(MAX_IMAGES).toList();
+        if (gallery.isEmpty() && !lazyUrls.isEmpty()) {
+            gallery = lazyUrls.stream().limit(MAX_IMAGES).map(ResolvedImage::of).toList();
         }
 
+        List<String> finalGallery = gallery.stream().map(ResolvedImage::url).toList();
         String primary = finalGallery.isEmpty() ? null : finalGallery.get(0);
 
-        return new PoiDto(
+        PoiDto dto = new PoiDto(
                 p.getId(),
                 ids.districtId(),
                 ids.ownerId(),
@@ -239,6 +248,8 @@ public class PoiService {
                 primary,
                 finalGallery
         );
+        dto.setMedia(gallery.stream().map(ResolvedImage::toDto).toList());
+        return dto;
     }
 
     private void requireDeletePermission(Poi poi) {
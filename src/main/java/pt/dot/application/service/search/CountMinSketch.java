@@ -0,0 +1,68 @@
+package pt.dot.application.service.search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-min sketch de tamanho fixo (depth x width contadores).
+ * Incrementos lock-free via {@link AtomicLongArray}; a estimativa nunca
+ * subestima e sobrestima no máximo ~ e/width * total com prob. 1 - e^-depth.
+ */
+public final class CountMinSketch {
+
+    private final int depth;
+    private final int width;
+    private final AtomicLongArray counters;
+
+    public CountMinSketch(int depth, int width) {
+        this.depth = Math.max(1, depth);
+        this.width = Math.max(16, Integer.highestOneBit(width - 1) << 1);
+        this.counters = new AtomicLongArray(this.depth * this.width);
+    }
+
+    /**
+     * Incrementa e devolve a nova estimativa para a chave.
+     */
+    public long add(String key) {
+        long h = hash64(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int col = (h1 + row * h2) & (width - 1);
+            long v = counters.incrementAndGet(row * width + col);
+            if (v < min) min = v;
+        }
+        return min;
+    }
+
+    public long estimate(String key) {
+        long h = hash64(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int col = (h1 + row * h2) & (width - 1);
+            long v = counters.get(row * width + col);
+            if (v < min) min = v;
+        }
+        return min;
+    }
+
+    // FNV-1a 64 bits + finalizer do MurmurHash3 (double hashing a partir de um só hash)
+    private static long hash64(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,77 @@
+package pt.dot.application.service.search;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Top-K aproximado de tamanho fixo, alimentado pelas estimativas de um
+ * {@link CountMinSketch}. Cada key aparece no máximo uma vez, com a maior
+ * estimativa vista; quando está cheio, uma key nova só entra se a estimativa
+ * passar a menor do top, que sai.
+ *
+ * Sem locks no caminho do pedido: as keys vivem num ConcurrentHashMap (o
+ * merge com max garante um só slot por key) e a saída da menor é um
+ * {@code remove(key, count)}, que falha se entretanto a contagem mudou. Com
+ * o top cheio, uma key nova abaixo de {@code floor} (a última contagem
+ * expulsa) é recusada com uma leitura; só quem passa desse limiar percorre
+ * os K slots. Em corrida o mapa pode ter K+1 entradas por instantes, ou
+ * perder uma a mais (aceitável para estatística).
+ */
+public final class HeavyHitters {
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, Long> counts;
+
+    private volatile long floor;
+
+    public HeavyHitters(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.counts = new ConcurrentHashMap<>(this.capacity * 2);
+    }
+
+    public void offer(String key, long estimate) {
+        Long current = counts.get(key);
+        if (current != null) {
+            if (estimate > current) counts.merge(key, estimate, Math::max);
+            return;
+        }
+
+        if (estimate <= floor && counts.size() >= capacity) return;
+
+        counts.merge(key, estimate, Math::max);
+        while (counts.size() > capacity && evictMin()) {
+            // repete se outra thread entrou entretanto
+        }
+    }
+
+    public List<Entry> snapshot() {
+        List<Entry> out = new ArrayList<>(capacity + 1);
+        counts.forEach((k, v) -> out.add(new Entry(k, v)));
+        out.sort(Comparator.comparingLong(Entry::count).reversed());
+        return out.size() > capacity ? List.copyOf(out.subList(0, capacity)) : out;
+    }
+
+    /**
+     * Tira a menor contagem, se não mudou desde a leitura. False se o mapa
+     * ficou vazio.
+     */
+    private boolean evictMin() {
+        String minKey = null;
+        long minCount = Long.MAX_VALUE;
+        for (Map.Entry<String, Long> e : counts.entrySet()) {
+            if (e.getValue() < minCount) {
+                minCount = e.getValue();
+                minKey = e.getKey();
+            }
+        }
+
+        if (minKey == null) return false;
+        if (counts.remove(minKey, minCount) && minCount > floor) floor = minCount;
+        return true;
+    }
+
+    public record Entry(String key, long count) {}
+}
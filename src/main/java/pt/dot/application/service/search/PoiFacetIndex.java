@@ -0,0 +1,278 @@
+package pt.dot.application.service.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import pt.dot.application.db.entity.District;
+import pt.dot.application.db.repo.DistrictRepository;
+import pt.dot.application.db.repo.PoiFacetView;
+import pt.dot.application.db.repo.PoiRepository;
+import pt.dot.application.util.TextNorm;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Índice em memória de POIs para pesquisa facetada.
+ *
+ * Cada POI recebe um ordinal denso (0..n-1) e cada valor de faceta
+ * (categoria, distrito, source, tem imagens) é um bitmap sobre esses
+ * ordinais. Os filtros são ANDs/ORs de bitmaps antes do match de texto e as
+ * contagens de facetas são cardinalidades de interseções — sem SQL extra por
+ * dimensão.
+ *
+ * O snapshot é imutável; escritas marcam-no como sujo (via {@link SearchCache})
+ * e o próximo pedido reconstrói-o. Há também uma idade máxima, porque a
+ * presença de imagens muda fora dos serviços de POI (hidratação Wikimedia).
+ */
+@Component
+public class PoiFacetIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(PoiFacetIndex.class);
+
+    public static final String FACET_CATEGORY = "category";
+    public static final String FACET_DISTRICT = "district";
+    public static final String FACET_SOURCE = "source";
+    public static final String FACET_HAS_IMAGES = "hasImages";
+
+    private static final int MAX_FACET_VALUES = 20;
+
+    private final PoiRepository poiRepository;
+    private final DistrictRepository districtRepository;
+    private final long maxAgeNanos;
+
+    private volatile Snapshot snapshot;
+    private volatile boolean dirty = true;
+
+    public PoiFacetIndex(
+            PoiRepository poiRepository,
+            DistrictRepository districtRepository,
+            @Value("${ptdot.search.facets.max-age-seconds:300}") long maxAgeSeconds
+    ) {
+        this.poiRepository = poiRepository;
+        this.districtRepository = districtRepository;
+        this.maxAgeNanos = TimeUnit.SECONDS.toNanos(Math.max(1, maxAgeSeconds));
+    }
+
+    public void invalidate() {
+        dirty = true;
+    }
+
+    /**
+     * Filtra por bitmaps, depois aplica o match de texto (se houver query) e
+     * calcula facetas disjuntivas: as contagens de cada dimensão ignoram o
+     * filtro dessa mesma dimensão, para a UI poder mostrar alternativas.
+     */
+    public Result search(String normQuery, SearchFilters filters) {
+        Snapshot s = current();
+
+        BitSet text = s.all();
+        if (normQuery != null && !normQuery.isBlank()) {
+            text = new BitSet(s.size());
+            for (int i = 0; i < s.size(); i++) {
+                if (s.candidates()[i].matches(normQuery)) text.set(i);
+            }
+        }
+
+        BitSet category = s.anyOf(s.byCategory(), filters.categories());
+        BitSet district = s.anyOf(s.byDistrict(), s.districtKeys(filters.districts()));
+        BitSet source = s.anyOf(s.bySource(), filters.sources());
+        BitSet images = filters.hasImages() == null
+                ? null
+                : (filters.hasImages() ? s.withImages() : s.withoutImages());
+
+        BitSet matched = and(text, category, district, source, images);
+
+        List<SearchCandidate> candidates = new ArrayList<>(matched.cardinality());
+        for (int i = matched.nextSetBit(0); i >= 0; i = matched.nextSetBit(i + 1)) {
+            candidates.add(s.candidates()[i]);
+        }
+
+        Map<String, Map<String, Long>> facets = new LinkedHashMap<>();
+        facets.put(FACET_CATEGORY, counts(s.byCategory(), and(text, district, source, images)));
+        facets.put(FACET_DISTRICT, counts(s.byDistrict(), and(text, category, source, images)));
+        facets.put(FACET_SOURCE, counts(s.bySource(), and(text, category, district, images)));
+
+        BitSet imagesBase = and(text, category, district, source);
+        Map<String, Long> imageCounts = new LinkedHashMap<>();
+        imageCounts.put("true", (long) intersectionCount(imagesBase, s.withImages()));
+        imageCounts.put("false", (long) intersectionCount(imagesBase, s.withoutImages()));
+        facets.put(FACET_HAS_IMAGES, imageCounts);
+
+        return new Result(candidates, facets);
+    }
+
+    private Snapshot current() {
+        Snapshot s = snapshot;
+        if (s != null && !dirty && System.nanoTime() - s.builtAt() < maxAgeNanos) return s;
+
+        synchronized (this) {
+            s = snapshot;
+            if (s != null && !dirty && System.nanoTime() - s.builtAt() < maxAgeNanos) return s;
+
+            dirty = false;
+            try {
+                snapshot = build();
+            } catch (RuntimeException e) {
+                dirty = true;
+                if (s == null) throw e;
+                log.warn("[PoiFacetIndex] Rebuild falhou, a usar snapshot anterior: {}", e.getMessage());
+            }
+            return snapshot;
+        }
+    }
+
+    private Snapshot build() {
+        long t0 = System.nanoTime();
+
+        List<PoiFacetView> rows = poiRepository.findAllFacetRows();
+        int n = rows.size();
+
+        SearchCandidate[] candidates = new SearchCandidate[n];
+        Map<String, BitSet> byCategory = new HashMap<>();
+        Map<String, BitSet> byDistrict = new HashMap<>();
+        Map<String, BitSet> bySource = new HashMap<>();
+        BitSet withImages = new BitSet(n);
+
+        for (int i = 0; i < n; i++) {
+            PoiFacetView r = rows.get(i);
+
+            String name = (r.getNamePt() != null && !r.getNamePt().isBlank()) ? r.getNamePt() : r.getName();
+            candidates[i] = new SearchCandidate(
+                    SearchRanking.KIND_POI,
+                    r.getId(),
+                    name,
+                    r.getDistrictId(),
+                    TextNorm.normalize(name),
+                    TextNorm.normalize(r.getName())
+            );
+
+            set(byCategory, lower(r.getCategory()), i, n);
+            set(byDistrict, r.getDistrictId() == null ? null : String.valueOf(r.getDistrictId()), i, n);
+            set(bySource, lower(r.getSource()), i, n);
+            if (Boolean.TRUE.equals(r.getHasImages())) withImages.set(i);
+        }
+
+        BitSet all = new BitSet(n);
+        all.set(0, n);
+
+        BitSet withoutImages = (BitSet) all.clone();
+        withoutImages.andNot(withImages);
+
+        Map<String, String> districtIdByName = new HashMap<>();
+        for (District d : districtRepository.findAll()) {
+            if (d.getId() == null) continue;
+            String id = String.valueOf(d.getId());
+            districtIdByName.put(id, id);
+            if (d.getNamePt() != null) districtIdByName.put(TextNorm.normalize(d.getNamePt()), id);
+            if (d.getName() != null) districtIdByName.put(TextNorm.normalize(d.getName()), id);
+        }
+
+        log.info("[PoiFacetIndex] Rebuild: {} POIs, {} categorias, {} distritos, {} sources em {}ms",
+                n, byCategory.size(), byDistrict.size(), bySource.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0));
+
+        return new Snapshot(
+                n,
+                candidates,
+                all,
+                Map.copyOf(byCategory),
+                Map.copyOf(byDistrict),
+                Map.copyOf(bySource),
+                withImages,
+                withoutImages,
+                Map.copyOf(districtIdByName),
+                System.nanoTime()
+        );
+    }
+
+    private static void set(Map<String, BitSet> index, String key, int ordinal, int size) {
+        if (key == null || key.isBlank()) return;
+        index.computeIfAbsent(key, ignored -> new BitSet(size)).set(ordinal);
+    }
+
+    /**
+     * AND de bitmaps; null significa "sem filtro nesta dimensão".
+     */
+    private static BitSet and(BitSet base, BitSet... others) {
+        BitSet out = (BitSet) base.clone();
+        for (BitSet o : others) {
+            if (o != null) out.and(o);
+        }
+        return out;
+    }
+
+    private static int intersectionCount(BitSet a, BitSet b) {
+        BitSet tmp = (BitSet) a.clone();
+        tmp.and(b);
+        return tmp.cardinality();
+    }
+
+    private static Map<String, Long> counts(Map<String, BitSet> index, BitSet base) {
+        Map<String, Long> out = new LinkedHashMap<>();
+
+        index.entrySet().stream()
+                .map(e -> Map.entry(e.getKey(), (long) intersectionCount(base, e.getValue())))
+                .filter(e -> e.getValue() > 0)
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(MAX_FACET_VALUES)
+                .forEach(e -> out.put(e.getKey(), e.getValue()));
+
+        return out;
+    }
+
+    private static String lower(String v) {
+        return v == null ? null : v.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public record Result(List<SearchCandidate> candidates, Map<String, Map<String, Long>> facets) {}
+
+    private record Snapshot(
+            int size,
+            SearchCandidate[] candidates,
+            BitSet all,
+            Map<String, BitSet> byCategory,
+            Map<String, BitSet> byDistrict,
+            Map<String, BitSet> bySource,
+            BitSet withImages,
+            BitSet withoutImages,
+            Map<String, String> districtIdByName,
+            long builtAt
+    ) {
+
+        /**
+         * OR dos bitmaps dos valores pedidos; null se a dimensão não filtra.
+         * Valores desconhecidos dão um bitmap vazio (zero resultados).
+         */
+        BitSet anyOf(Map<String, BitSet> index, Collection<String> values) {
+            if (values == null || values.isEmpty()) return null;
+
+            BitSet out = new BitSet(size);
+            for (String v : values) {
+                BitSet b = index.get(v);
+                if (b != null) out.or(b);
+            }
+            return out;
+        }
+
+        List<String> districtKeys(Set<String> districts) {
+            if (districts == null || districts.isEmpty()) return List.of();
+
+            List<String> out = new ArrayList<>(districts.size());
+            for (String d : districts) {
+                // valor desconhecido mantém-se, para dar bitmap vazio em vez de ignorar o filtro
+                out.add(districtIdByName.getOrDefault(d, d));
+            }
+            return out;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package pt.dot.application.service.search;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import pt.dot.application.api.dto.search.SearchQueryStatDto;
+import pt.dot.application.util.TextNorm;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Estatística das pesquisas feitas em /api/search.
+ *
+ * Cada janela tem memória fixa: um count-min sketch + top-K para todas as
+ * queries e outro par só para queries sem resultados. O flush agendado troca
+ * a janela, espera que os registos que ainda apanharam a antiga terminem e
+ * grava apenas o top-K na tabela search_query_stats (acumulado por dia).
+ */
+@Service
+public class SearchAnalyticsService {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchAnalyticsService.class);
+
+    private static final int MAX_QUERY_LENGTH = 120;
+    private static final int MAX_DAYS = 90;
+    private static final int MAX_RESULTS = 100;
+
+    private final JdbcTemplate jdbc;
+    private final int sketchDepth;
+    private final int sketchWidth;
+    private final int topK;
+    private final AtomicReference<Window> current;
+
+    public SearchAnalyticsService(
+            JdbcTemplate jdbc,
+            @Value("${ptdot.search.analytics.sketch-depth:4}") int sketchDepth,
+            @Value("${ptdot.search.analytics.sketch-width:4096}") int sketchWidth,
+            @Value("${ptdot.search.analytics.top-k:200}") int topK
+    ) {
+        this.jdbc = jdbc;
+        this.sketchDepth = sketchDepth;
+        this.sketchWidth = sketchWidth;
+        this.topK = Math.max(10, topK);
+        this.current = new AtomicReference<>(newWindow());
+    }
+
+    public void record(String rawQuery, int resultCount) {
+        String key = keyOf(rawQuery);
+        if (key == null) return;
+
+        Window w = enter();
+        try {
+            w.top().offer(key, w.queries().add(key));
+
+            if (resultCount == 0) {
+                w.zeroTop().offer(key, w.zero().add(key));
+            }
+        } finally {
+            w.writers().decrementAndGet();
+        }
+    }
+
+    /**
+     * Janela atual com o contador de escritores já incrementado. Se o flush
+     * a trocou entre o get e o incremento, tenta na nova: o flush só espera
+     * por quem entrou antes da troca.
+     */
+    private Window enter() {
+        while (true) {
+            Window w = current.get();
+            w.writers().incrementAndGet();
+            if (current.get() == w) return w;
+            w.writers().decrementAndGet();
+        }
+    }
+
+    @Scheduled(
+            initialDelayString = "${ptdot.search.analytics.flush-ms:60000}",
+            fixedDelayString = "${ptdot.search.analytics.flush-ms:60000}"
+    )
+    public void flush() {
+        Window old = current.getAndSet(newWindow());
+
+        // registos em curso na janela antiga (um offer é curto)
+        while (old.writers().get() > 0) {
+            Thread.onSpinWait();
+        }
+
+        Set<String> keys = new LinkedHashSet<>();
+        old.top().snapshot().forEach(e -> keys.add(e.key()));
+        old.zeroTop().snapshot().forEach(e -> keys.add(e.key()));
+        if (keys.isEmpty()) return;
+
+        List<Object[]> rows = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            long hits = old.queries().estimate(key);
+            long zeroHits = Math.min(hits, old.zero().estimate(key));
+            rows.add(new Object[]{key, hits, zeroHits});
+        }
+
+        try {
+            jdbc.batchUpdate(
+                    """
+                    insert into search_query_stats(query, day, hits, zero_hits, updated_at)
+                    values (?, current_date, ?, ?, now())
+                    on conflict (query, day)
+                    do update set hits = search_query_stats.hits + excluded.hits,
+                                  zero_hits = search_query_stats.zero_hits + excluded.zero_hits,
+                                  updated_at = excluded.updated_at
+                    """,
+                    rows
+            );
+        } catch (Exception e) {
+            log.warn("[SearchAnalytics] Falha ao gravar {} queries: {}", rows.size(), e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    /**
+     * Queries mais pesquisadas (com resultados), BD + janela atual.
+     */
+    public List<SearchQueryStatDto> popular(int days, int limit) {
+        int safeLimit = clamp(limit, 1, MAX_RESULTS);
+
+        List<SearchQueryStatDto> persisted = jdbc.query(
+                """
+                select query, sum(hits) as hits, sum(zero_hits) as zero_hits
+                from search_query_stats
+                where day >= current_date - ?
+                group by query
+                having sum(hits) > sum(zero_hits)
+                order by sum(hits) - sum(zero_hits) desc
+                limit ?
+                """,
+                (rs, i) -> new SearchQueryStatDto(rs.getString(1), rs.getLong(2), rs.getLong(3)),
+                clamp(days, 1, MAX_DAYS),
+                safeLimit
+        );
+
+        Window w = current.get();
+        List<SearchQueryStatDto> live = w.top().snapshot().stream()
+                .map(e -> new SearchQueryStatDto(e.key(), e.count(), Math.min(e.count(), w.zero().estimate(e.key()))))
+                .toList();
+
+        return merge(persisted, live).stream()
+                .filter(s -> s.hits() > s.zeroHits())
+                .sorted(Comparator.comparingLong((SearchQueryStatDto s) -> s.hits() - s.zeroHits()).reversed())
+                .limit(safeLimit)
+                .toList();
+    }
+
+    /**
+     * Queries que mais vezes voltaram sem resultados (vista de admin).
+     */
+    public List<SearchQueryStatDto> zeroResults(int days, int limit) {
+        int safeLimit = clamp(limit, 1, MAX_RESULTS);
+
+        List<SearchQueryStatDto> persisted = jdbc.query(
+                """
+                select query, sum(hits) as hits, sum(zero_hits) as zero_hits
+                from search_query_stats
+                where day >= current_date - ?
+                group by query
+                having sum(zero_hits) > 0
+                order by sum(zero_hits) desc
+                limit ?
+                """,
+                (rs, i) -> new SearchQueryStatDto(rs.getString(1), rs.getLong(2), rs.getLong(3)),
+                clamp(days, 1, MAX_DAYS),
+                safeLimit
+        );
+
+        Window w = current.get();
+        List<SearchQueryStatDto> live = w.zeroTop().snapshot().stream()
+                .map(e -> new SearchQueryStatDto(e.key(), Math.max(e.count(), w.queries().estimate(e.key())), e.count()))
+                .toList();
+
+        return merge(persisted, live).stream()
+                .filter(s -> s.zeroHits() > 0)
+                .sorted(Comparator.comparingLong(SearchQueryStatDto::zeroHits).reversed())
+                .limit(safeLimit)
+                .toList();
+    }
+
+    private Window newWindow() {
+        return new Window(
+                new CountMinSketch(sketchDepth, sketchWidth),
+                new HeavyHitters(topK),
+                new CountMinSketch(sketchDepth, sketchWidth),
+                new HeavyHitters(topK),
+                new AtomicInteger()
+        );
+    }
+
+    private static List<SearchQueryStatDto> merge(List<SearchQueryStatDto> a, List<SearchQueryStatDto> b) {
+        Map<String, SearchQueryStatDto> out = new LinkedHashMap<>();
+
+        for (SearchQueryStatDto s : a) out.put(s.query(), s);
+        for (SearchQueryStatDto s : b) {
+            out.merge(s.query(), s, (x, y) -> new SearchQueryStatDto(
+                    x.query(),
+                    x.hits() + y.hits(),
+                    x.zeroHits() + y.zeroHits()
+            ));
+        }
+
+        return new ArrayList<>(out.values());
+    }
+
+    private static String keyOf(String rawQuery) {
+        String n = TextNorm.normalize(rawQuery);
+        if (n.length() < 2) return null;
+        return n.length() > MAX_QUERY_LENGTH ? n.substring(0, MAX_QUERY_LENGTH) : n;
+    }
+
+    private static int clamp(int v, int min, int max) {
+        return Math.max(min, Math.min(v, max));
+    }
+
+    private record Window(
+            CountMinSketch queries,
+            HeavyHitters top,
+            CountMinSketch zero,
+            HeavyHitters zeroTop,
+            AtomicInteger writers
+    ) {}
+}
@@ -0,0 +1,129 @@
+package pt.dot.application.service.search;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache de candidatos da pesquisa por query normalizada.
+ *
+ * Um resultado "completo" (todas as fontes responderam e nenhuma atingiu o
+ * limite de candidatos) contém todos os matches possíveis; qualquer query que
+ * estenda esse prefixo ("se" -> "se d" -> "se de") é resolvida em memória,
+ * filtrando os candidatos em cache.
+ *
+ * Cada invalidação avança uma geração: uma pesquisa que começou antes da
+ * escrita traz a geração em que leu e o {@link #put} descarta-a, para não
+ * repor resultados anteriores à escrita.
+ */
+@Component
+public class SearchCache {
+
+    private static final int MIN_PREFIX = 2;
+
+    private final Cache<String, Entry> cache;
+    private final PoiFacetIndex poiFacetIndex;
+    private final AtomicLong generation = new AtomicLong();
+
+    public SearchCache(
+            PoiFacetIndex poiFacetIndex,
+            @Value("${ptdot.search.cache.max-entries:10000}") long maxEntries,
+            @Value("${ptdot.search.cache.ttl-seconds:600}") long ttlSeconds
+    ) {
+        this.poiFacetIndex = poiFacetIndex;
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(Math.max(100, maxEntries))
+                .expireAfterWrite(Duration.ofSeconds(Math.max(1, ttlSeconds)))
+                .build();
+    }
+
+    /**
+     * Devolve os candidatos para a query, seja por hit direto seja por
+     * refinamento de um prefixo completo. Null se for preciso ir à BD.
+     */
+    public List<SearchCandidate> lookup(String normQuery) {
+        if (normQuery == null || normQuery.length() < MIN_PREFIX) return null;
+
+        long gen = generation.get();
+
+        Entry exact = cache.getIfPresent(normQuery);
+        if (exact != null) return exact.candidates();
+
+        for (int len = normQuery.length() - 1; len >= MIN_PREFIX; len--) {
+            String prefix = normQuery.substring(0, len).trim();
+            if (prefix.length() < MIN_PREFIX) break;
+
+            Entry entry = cache.getIfPresent(prefix);
+            if (entry == null || !entry.complete()) continue;
+
+            List<SearchCandidate> refined = entry.candidates().stream()
+                    .filter(c -> c.matches(normQuery))
+                    .toList();
+
+            // subconjunto de um resultado completo continua completo
+            store(normQuery, new Entry(refined, true), gen);
+            return refined;
+        }
+
+        return null;
+    }
+
+    /**
+     * Geração atual, a ler antes de ir à BD e a passar ao {@link #put}.
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * @param generation o {@link #generation()} lido antes da pesquisa; se
+     *                   entretanto houve uma invalidação, não guarda
+     */
+    public void put(String normQuery, List<SearchCandidate> candidates, boolean complete, long generation) {
+        if (normQuery == null || normQuery.length() < MIN_PREFIX || candidates == null) return;
+        store(normQuery, new Entry(List.copyOf(candidates), complete), generation);
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+        poiFacetIndex.invalidate();
+    }
+
+    /**
+     * Invalida só depois do commit, para que uma pesquisa concorrente não
+     * volte a popular a cache com dados anteriores à escrita.
+     */
+    public void invalidateAfterCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidateAll();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidateAll();
+            }
+        });
+    }
+
+    /**
+     * Volta a ler a geração depois do put: uma invalidação que correu entre
+     * a verificação e o put não deixa a entrada para trás.
+     */
+    private void store(String normQuery, Entry entry, long gen) {
+        if (generation.get() != gen) return;
+        cache.put(normQuery, entry);
+        if (generation.get() != gen) cache.invalidate(normQuery);
+    }
+
+    private record Entry(List<SearchCandidate> candidates, boolean complete) {}
+}
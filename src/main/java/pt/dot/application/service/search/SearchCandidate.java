@@ -0,0 +1,32 @@
+package pt.dot.application.service.search;
+
+import pt.dot.application.api.dto.search.SearchItemDto;
+
+/**
+ * Resultado intermédio da pesquisa, antes do ranking final.
+ * Guarda os nomes já normalizados para permitir re-score e refinamento
+ * em memória (cache de prefixos) sem voltar à BD.
+ */
+public record SearchCandidate(
+        String kind,
+        Long id,
+        String name,
+        Long districtId,
+        String normName,
+        String normAltName
+) {
+
+    /**
+     * Mesmo critério da query SQL (substring sobre name_pt/name sem acentos),
+     * aplicado à query já normalizada.
+     */
+    public boolean matches(String normQuery) {
+        if (normQuery == null || normQuery.isBlank()) return false;
+        return (normName != null && normName.contains(normQuery))
+                || (normAltName != null && normAltName.contains(normQuery));
+    }
+
+    public SearchItemDto toDto() {
+        return new SearchItemDto(kind, id, name, districtId);
+    }
+}
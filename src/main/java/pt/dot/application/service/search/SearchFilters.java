@@ -0,0 +1,58 @@
+package pt.dot.application.service.search;
+
+import pt.dot.application.util.TextNorm;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Filtros facetados da pesquisa. Dentro de cada dimensão os valores são OR,
+ * entre dimensões são AND. Dimensões vazias/null não filtram.
+ */
+public record SearchFilters(
+        Set<String> categories,
+        Set<String> districts,
+        Set<String> sources,
+        Boolean hasImages
+) {
+
+    public static final SearchFilters NONE = new SearchFilters(Set.of(), Set.of(), Set.of(), null);
+
+    public static SearchFilters parse(String category, String district, String source, Boolean hasImages) {
+        return new SearchFilters(
+                csvLower(category),
+                csvNormalized(district),
+                csvLower(source),
+                hasImages
+        );
+    }
+
+    public boolean isEmpty() {
+        return categories.isEmpty() && districts.isEmpty() && sources.isEmpty() && hasImages == null;
+    }
+
+    private static Set<String> csvLower(String raw) {
+        if (raw == null || raw.isBlank()) return Set.of();
+
+        Set<String> out = new LinkedHashSet<>();
+        Arrays.stream(raw.split(","))
+                .map(v -> v.trim().toLowerCase(Locale.ROOT))
+                .filter(v -> !v.isBlank())
+                .forEach(out::add);
+        return Set.copyOf(out);
+    }
+
+    // district aceita ids ou nomes (com ou sem acentos)
+    private static Set<String> csvNormalized(String raw) {
+        if (raw == null || raw.isBlank()) return Set.of();
+
+        Set<String> out = new LinkedHashSet<>();
+        Arrays.stream(raw.split(","))
+                .map(TextNorm::normalize)
+                .filter(v -> !v.isBlank())
+                .forEach(out::add);
+        return Set.copyOf(out);
+    }
+}
@@ -0,0 +1,59 @@
+package pt.dot.application.service.search;
+
+import pt.dot.application.util.TextNorm;
+
+import java.util.List;
+
+/**
+ * Score único de relevância para todas as fontes da pesquisa (distritos e POIs),
+ * para que o merge seja feito por relevância e não por quota fixa de cada fonte.
+ */
+public final class SearchRanking {
+
+    public static final String KIND_DISTRICT = "district";
+    public static final String KIND_POI = "poi";
+
+    private static final double DISTRICT_BONUS = 5.0;
+
+    private SearchRanking() {}
+
+    /**
+     * @param normName   nome do candidato já normalizado ({@link TextNorm#normalize})
+     * @param normQuery  query já normalizada
+     */
+    public static double score(String kind, String normName, String normQuery) {
+        if (normName == null || normName.isBlank() || normQuery == null || normQuery.isBlank()) return 0;
+
+        double score;
+
+        if (normName.equals(normQuery)) {
+            score = 100;
+        } else if (normName.startsWith(normQuery)) {
+            score = 80;
+        } else if (normName.contains(" " + normQuery)) {
+            score = 60;
+        } else if (normName.contains(normQuery)) {
+            score = 40;
+        } else {
+            score = 30 * tokenCoverage(normName, normQuery);
+        }
+
+        // nomes mais curtos ficam à frente (ex.: "Porto" antes de "Porto de Mós")
+        int extra = Math.max(0, normName.length() - normQuery.length());
+        score -= Math.min(10.0, extra / 5.0);
+
+        if (KIND_DISTRICT.equals(kind)) {
+            score += DISTRICT_BONUS;
+        }
+
+        return score;
+    }
+
+    private static double tokenCoverage(String normName, String normQuery) {
+        List<String> tokens = List.of(normQuery.split(" "));
+        if (tokens.isEmpty()) return 0;
+
+        long hits = tokens.stream().filter(t -> !t.isBlank() && normName.contains(t)).count();
+        return (double) hits / tokens.size();
+    }
+}
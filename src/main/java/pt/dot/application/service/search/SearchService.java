@@ -1,62 +1,273 @@
 package pt.dot.application.service.search;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import pt.dot.application.api.dto.search.SearchFacetedResponseDto;
 import pt.dot.application.api.dto.search.SearchItemDto;
 import pt.dot.application.db.entity.District;
-import pt.dot.application.db.entity.Poi;
 import pt.dot.application.db.repo.DistrictRepository;
 import pt.dot.application.db.repo.PoiRepository;
+import pt.dot.application.db.repo.PoiSearchView;
+import pt.dot.application.util.TextNorm;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
+/**
+ * Pesquisa de distritos e POIs.
+ * - as duas fontes correm em paralelo no searchExecutor, com um deadline comum
+ * - se uma fonte não responder a tempo (ou o pool estiver cheio), devolve-se o
+ *   que houver (resultado parcial)
+ * - cada query leva statement_timeout até ao deadline: o Postgres cancela-a e
+ *   a ligação volta ao Hikari, mesmo que já ninguém espere pelo resultado
+ * - o merge é feito por um único score de relevância ({@link SearchRanking})
+ * - os candidatos ficam em cache por query normalizada ({@link SearchCache});
+ *   queries que estendem um prefixo completo não chegam ao Postgres
+ * - com filtros (categoria, distrito, source, imagens) a pesquisa corre só
+ *   sobre o índice de bitmaps em memória ({@link PoiFacetIndex})
+ *
+ * Sem @Transactional ao nível da classe: cada query corre na sua própria
+ * transação read-only, na thread do executor.
+ */
 @Service
-@Transactional(readOnly = true)
 public class SearchService {
 
+    private static final Logger log = LoggerFactory.getLogger(SearchService.class);
+
+    private static final int MAX_LIMIT = 20;
+
     private final DistrictRepository districtRepository;
     private final PoiRepository poiRepository;
+    private final SearchCache searchCache;
+    private final PoiFacetIndex poiFacetIndex;
+    private final ExecutorService searchExecutor;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTx;
+    private final long deadlineMs;
+    private final int candidateLimit;
 
     public SearchService(DistrictRepository districtRepository,
-                         PoiRepository poiRepository) {
+                         PoiRepository poiRepository,
+                         SearchCache searchCache,
+                         PoiFacetIndex poiFacetIndex,
+                         @Qualifier("searchExecutor") ExecutorService searchExecutor,
+                         JdbcTemplate jdbcTemplate,
+                         PlatformTransactionManager transactionManager,
+                         @Value("${ptdot.search.deadline-ms:800}") long deadlineMs,
+                         @Value("${ptdot.search.candidate-limit:200}") int candidateLimit) {
         this.districtRepository = districtRepository;
         this.poiRepository = poiRepository;
+        this.searchCache = searchCache;
+        this.poiFacetIndex = poiFacetIndex;
+        this.searchExecutor = searchExecutor;
+        this.jdbcTemplate = jdbcTemplate;
+        this.readOnlyTx = new TransactionTemplate(transactionManager);
+        this.readOnlyTx.setReadOnly(true);
+        this.deadlineMs = Math.max(50, deadlineMs);
+        this.candidateLimit = Math.max(MAX_LIMIT, candidateLimit);
     }
 
     public List<SearchItemDto> search(String qRaw, int limit) {
+        return search(qRaw, limit, SearchFilters.NONE);
+    }
+
+    public List<SearchItemDto> search(String qRaw, int limit, SearchFilters filters) {
+        if (filters != null && !filters.isEmpty()) {
+            return searchFaceted(qRaw, limit, filters).items();
+        }
+
         String q = (qRaw == null ? "" : qRaw.trim());
         if (q.length() < 2) return List.of();
 
-        int safeLimit = Math.max(1, Math.min(limit, 20)); // hard cap
+        int safeLimit = Math.max(1, Math.min(limit, MAX_LIMIT)); // hard cap
+        String normQuery = TextNorm.normalize(q);
+
+        if (normQuery.length() < 2) return List.of();
+
+        List<SearchCandidate> cached = searchCache.lookup(normQuery);
+        if (cached != null) {
+            return rank(cached, normQuery, safeLimit);
+        }
+
+        // uma escrita durante a pesquisa invalida a cache: este resultado já não entra
+        long generation = searchCache.generation();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
 
-        // split simples: metade distritos, metade POIs
-        int limDistricts = Math.max(1, safeLimit / 2);
-        int limPois = safeLimit - limDistricts;
+        // cada fonte pede o pool de candidatos completo: o corte é feito depois do ranking;
+        // o SQL recebe a query normalizada, o mesmo critério de SearchCandidate.matches
+        Future<List<SearchCandidate>> districts =
+                submit(() -> withDeadline(deadline, () -> fetchDistricts(normQuery, candidateLimit)), "districts", q);
+        Future<List<SearchCandidate>> pois =
+                submit(() -> withDeadline(deadline, () -> fetchPois(normQuery, candidateLimit)), "pois", q);
 
-        List<District> ds = districtRepository.searchByName(q, limDistricts);
-        List<Poi> ps = poiRepository.searchByName(q, limPois);
+        List<SearchCandidate> ds = await(districts, deadline, "districts", q);
+        List<SearchCandidate> ps = await(pois, deadline, "pois", q);
 
-        List<SearchItemDto> out = new ArrayList<>(safeLimit);
+        List<SearchCandidate> candidates = new ArrayList<>();
+        if (ds != null) candidates.addAll(ds);
+        if (ps != null) candidates.addAll(ps);
+
+        // resultados parciais não vão para a cache
+        if (ds != null && ps != null) {
+            boolean complete = ds.size() < candidateLimit && ps.size() < candidateLimit;
+            searchCache.put(normQuery, candidates, complete, generation);
+        }
+
+        return rank(candidates, normQuery, safeLimit);
+    }
+
+    /**
+     * Pesquisa sobre POIs com filtros e contagens de facetas. Com filtros a
+     * query de texto é opcional (lista tudo o que passa nos filtros).
+     */
+    public SearchFacetedResponseDto searchFaceted(String qRaw, int limit, SearchFilters filters) {
+        String q = (qRaw == null ? "" : qRaw.trim());
+        SearchFilters f = filters == null ? SearchFilters.NONE : filters;
+
+        if (q.length() < 2 && f.isEmpty()) {
+            return new SearchFacetedResponseDto(List.of(), 0, Map.of());
+        }
+
+        int safeLimit = Math.max(1, Math.min(limit, MAX_LIMIT));
+        String normQuery = q.length() < 2 ? "" : TextNorm.normalize(q);
+
+        PoiFacetIndex.Result result = poiFacetIndex.search(normQuery, f);
+
+        return new SearchFacetedResponseDto(
+                rank(result.candidates(), normQuery, safeLimit),
+                result.candidates().size(),
+                result.facets()
+        );
+    }
+
+    static List<SearchItemDto> rank(List<SearchCandidate> candidates, String normQuery, int limit) {
+        record Scored(SearchCandidate candidate, double score) {}
+
+        return candidates.stream()
+                .map(c -> new Scored(c, SearchRanking.score(c.kind(), c.normName(), normQuery)))
+                .sorted(Comparator.comparingDouble(Scored::score).reversed()
+                        .thenComparing(s -> s.candidate().normName()))
+                .limit(limit)
+                .map(s -> s.candidate().toDto())
+                .toList();
+    }
+
+    private List<SearchCandidate> fetchDistricts(String normQuery, int limit) {
+        List<District> ds = districtRepository.searchByName(normQuery, limit);
+        List<SearchCandidate> out = new ArrayList<>(ds.size());
 
         for (District d : ds) {
             String name = (d.getNamePt() != null && !d.getNamePt().isBlank())
                     ? d.getNamePt()
                     : d.getName();
 
-            out.add(new SearchItemDto("district", d.getId(), name, null));
+            out.add(new SearchCandidate(
+                    SearchRanking.KIND_DISTRICT,
+                    d.getId(),
+                    name,
+                    null,
+                    TextNorm.normalize(name),
+                    TextNorm.normalize(d.getName())
+            ));
         }
 
-        for (Poi p : ps) {
+        return out;
+    }
+
+    private List<SearchCandidate> fetchPois(String normQuery, int limit) {
+        List<PoiSearchView> ps = poiRepository.searchLiteByName(normQuery, limit);
+        List<SearchCandidate> out = new ArrayList<>(ps.size());
+
+        for (PoiSearchView p : ps) {
             String name = (p.getNamePt() != null && !p.getNamePt().isBlank())
                     ? p.getNamePt()
                     : p.getName();
 
-            Long districtId = (p.getDistrict() != null) ? p.getDistrict().getId() : null;
-
-            out.add(new SearchItemDto("poi", p.getId(), name, districtId));
+            out.add(new SearchCandidate(
+                    SearchRanking.KIND_POI,
+                    p.getId(),
+                    name,
+                    p.getDistrictId(),
+                    TextNorm.normalize(name),
+                    TextNorm.normalize(p.getName())
+            ));
         }
 
         return out;
     }
-}
\ No newline at end of file
+
+    /**
+     * Um Future do próprio executor: o cancel(true) interrompe a thread (ou
+     * tira a tarefa da fila), o que um CompletableFuture não faz.
+     *
+     * @return null se o pool estiver cheio; a fonte conta como falhada
+     */
+    private Future<List<SearchCandidate>> submit(Callable<List<SearchCandidate>> task, String source, String q) {
+        try {
+            return searchExecutor.submit(task);
+        } catch (RejectedExecutionException e) {
+            log.warn("[Search] Pool cheio, {} ignorado (q='{}'). Resultado parcial.", source, q);
+            return null;
+        }
+    }
+
+    /**
+     * Transação read-only com statement_timeout igual ao tempo que falta
+     * até ao deadline (em ms; o setQueryTimeout do JDBC só tem segundos).
+     */
+    private List<SearchCandidate> withDeadline(long deadlineNanos, Supplier<List<SearchCandidate>> fetch) {
+        long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        if (remainingMs <= 0) return null;
+
+        return readOnlyTx.execute(status -> {
+            jdbcTemplate.execute("set local statement_timeout = " + remainingMs);
+            return fetch.get();
+        });
+    }
+
+    /**
+     * @return candidatos da fonte, ou null se a fonte falhou / excedeu o deadline
+     */
+    private List<SearchCandidate> await(
+            Future<List<SearchCandidate>> future,
+            long deadlineNanos,
+            String source,
+            String q
+    ) {
+        if (future == null) return null;
+
+        long remaining = deadlineNanos - System.nanoTime();
+
+        try {
+            return future.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            log.warn("[Search] {} excedeu o deadline de {}ms (q='{}'). Resultado parcial.", source, deadlineMs, q);
+            return null;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            log.warn("[Search] {} falhou (q='{}'): {}", source, q, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+            return null;
+        }
+    }
+}
@@ -1,25 +1,55 @@
 package pt.dot.application.service.wikimedia;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestClient;
 import pt.dot.application.api.dto.common.CommonsMediaDto;
+import pt.dot.application.util.KeywordMatcher;
 import pt.dot.application.util.TextNorm;
 
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Component
 public class WikimediaCommonsClient {
 
+    private static final Logger log = LoggerFactory.getLogger(WikimediaCommonsClient.class);
+
     private static final String COMMONS_API = "https://commons.wikimedia.org/w/api.php";
 
-    private static final Set<String> BAD_KEYWORDS = Set.of(
+    private static final String CATEGORY_PREFIX = "Category:";
+
+    /**
+     * Limite de titles por pedido da API para clientes sem apihighlimits.
+     */
+    private static final int MAX_TITLES_PER_REQUEST = 50;
+
+    static final String[] BAD_KEYWORDS = {
             ".svg",
             "logo",
             "openstreetmap",
@@ -45,16 +75,66 @@ public class WikimediaCommonsClient {
             "floorplan",
             "drawing",
             "sketch"
-    );
+    };
 
-    private final RestClient restClient;
+    private static final KeywordMatcher BAD_IMAGE = KeywordMatcher.builder()
+            .add(1L, BAD_KEYWORDS)
+            .build();
+
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 8000;
 
-    public WikimediaCommonsClient() {
-        SimpleClientHttpRequestFactory rf = new SimpleClientHttpRequestFactory();
-        rf.setConnectTimeout(5000);
-        rf.setReadTimeout(8000);
+    /**
+     * Prazo (System.nanoTime) de quem está à espera do pedido, posto por
+     * {@link #withDeadline}.
+     */
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
 
-        this.restClient = RestClient.builder()
+    private final RestClient restClient;
+    private final RestClient batchClient;
+    private final WikimediaRateLimiter rateLimiter;
+
+    private final long batchWindowMs;
+    private final long batchTimeoutMs;
+    private final long batchHttpTimeoutNanos;
+    private final ScheduledExecutorService batchScheduler;
+    private final DistributionSummary batchTitles;
+
+    private final Object batchLock = new Object();
+    private List<PendingTitle> pending = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    public WikimediaCommonsClient(
+            WikimediaRateLimiter rateLimiter,
+            MeterRegistry meterRegistry,
+            @Value("${ptdot.wikimedia.batch.window-ms:25}") long batchWindowMs,
+            @Value("${ptdot.wikimedia.batch.timeout-ms:5000}") long batchTimeoutMs
+    ) {
+        this.rateLimiter = rateLimiter;
+        this.batchWindowMs = Math.max(0, batchWindowMs);
+        this.batchTimeoutMs = Math.max(100, batchTimeoutMs);
+        this.batchScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "wikimedia-batch");
+            t.setDaemon(true);
+            return t;
+        });
+        this.batchTitles = DistributionSummary.builder("ptdot.wikimedia.batch.titles")
+                .description("Titles por pedido agrupado à API do Commons")
+                .register(meterRegistry);
+
+        this.restClient = client(new DeadlineRequestFactory());
+
+        // o pedido do batch (ligação + leitura) acaba antes do prazo de quem espera
+        int batchHttpMs = (int) Math.min(READ_TIMEOUT_MS, this.batchTimeoutMs * 3 / 4);
+        SimpleClientHttpRequestFactory batchRf = new SimpleClientHttpRequestFactory();
+        batchRf.setConnectTimeout(batchHttpMs / 3);
+        batchRf.setReadTimeout(batchHttpMs - batchHttpMs / 3);
+        this.batchClient = client(batchRf);
+        this.batchHttpTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(batchHttpMs);
+    }
+
+    private static RestClient client(SimpleClientHttpRequestFactory rf) {
+        return RestClient.builder()
                 .requestFactory(rf)
                 .baseUrl(COMMONS_API)
                 .defaultHeader("User-Agent", "pt-dot-dev/1.0 (local development; contact: andre.mendonca@example.com)")
@@ -62,6 +142,90 @@ public class WikimediaCommonsClient {
                 .build();
     }
 
+    @PreDestroy
+    public void close() {
+        batchScheduler.shutdownNow();
+    }
+
+    /**
+     * A tarefa corre com um prazo: os pedidos HTTP que fizer têm os timeouts
+     * cortados ao tempo que falta, e um pedido que falhe depois do prazo
+     * sai com {@link CancellationException} em vez de um "sem resultados"
+     * que a cache guardaria. Cancelar a tarefa não interrompe uma leitura
+     * bloqueada no socket; é este prazo que a faz acabar.
+     */
+    public <T> Callable<T> withDeadline(long deadlineNanos, Callable<T> task) {
+        return () -> {
+            Long previous = DEADLINE.get();
+            DEADLINE.set(deadlineNanos);
+            try {
+                return task.call();
+            } finally {
+                if (previous == null) {
+                    DEADLINE.remove();
+                } else {
+                    DEADLINE.set(previous);
+                }
+            }
+        };
+    }
+
+    /**
+     * "Category:<name>" se a categoria existir no Commons com ficheiros,
+     * senão null. Evita as pesquisas quando o nome já é o da categoria.
+     *
+     * Os pedidos que chegam dentro de {@code batch.window-ms} (variantes do
+     * mesmo POI, hidratações concorrentes, prefetch) seguem juntos num só
+     * {@code prop=categoryinfo&titles=A|B|...} de até 50 titles, e a
+     * resposta é distribuída por quem pediu. O batch vai com prioridade de
+     * request se algum dos pedidos a tiver.
+     *
+     * A thread do batch não dorme no rate limiter: sem token, o batch é
+     * adiado até haver um, e quem já não chegaria a tempo recebe logo o
+     * throttle. Quem desiste por timeout sai da fila.
+     *
+     * @throws WikimediaThrottledException se o rate limiter recusou o batch
+     */
+    public String findCategoryTitle(String name) {
+        if (!hasText(name)) return null;
+
+        String title = CATEGORY_PREFIX + name.trim();
+        if (!isValidTitle(title)) return null;
+
+        CompletableFuture<String> result = new CompletableFuture<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchTimeoutMs);
+        Long callerDeadline = DEADLINE.get();
+        if (callerDeadline != null && callerDeadline - deadline < 0) deadline = callerDeadline;
+        PendingTitle p = new PendingTitle(title, result, rateLimiter.currentPriority(), deadline);
+        enqueue(p);
+
+        try {
+            return result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abandon(p);
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof WikimediaThrottledException throttled) throw throttled;
+            return null;
+        } catch (TimeoutException e) {
+            abandon(p);
+            failIfPastDeadline();
+            return null;
+        }
+    }
+
+    /**
+     * Tira da fila (se ainda lá estiver) e marca como feito, para o batch
+     * não pedir um title que já ninguém espera.
+     */
+    private void abandon(PendingTitle p) {
+        p.result().cancel(false);
+        synchronized (batchLock) {
+            pending.remove(p);
+        }
+    }
+
     public String searchTopCategoryTitleExact(String query) {
         if (!hasText(query)) return null;
 
@@ -84,9 +248,14 @@ public class WikimediaCommonsClient {
         return title;
     }
 
+    /**
+     * @throws WikimediaThrottledException se o rate limiter recusou o pedido
+     */
     public List<CommonsMediaDto> fetchImagesFromCommonsPageTitle(String pageTitle, int limit) {
         if (!hasText(pageTitle)) return List.of();
 
+        rateLimiter.acquire();
+
         try {
             JsonNode json = restClient.get()
                     .uri(uriBuilder -> uriBuilder
@@ -105,12 +274,149 @@ public class WikimediaCommonsClient {
 
             return extractAndFilterMedia(json, Math.max(30, limit * 6));
         } catch (Exception e) {
+            failIfPastDeadline();
             System.out.println("[COMMONS] fetchImagesFromCommonsPageTitle exception for title=" + pageTitle + " -> " + e.getMessage());
             return List.of();
         }
     }
 
+    private void enqueue(PendingTitle title) {
+        synchronized (batchLock) {
+            pending.add(title);
+
+            if (pending.size() >= MAX_TITLES_PER_REQUEST) {
+                batchScheduler.execute(this::flush);
+            } else if (scheduledFlush == null) {
+                scheduledFlush = batchScheduler.schedule(this::flush, batchWindowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void flush() {
+        List<PendingTitle> batch;
+        synchronized (batchLock) {
+            batch = pending;
+            pending = new ArrayList<>();
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+        }
+
+        batch.removeIf(p -> p.result().isDone());
+
+        for (int from = 0; from < batch.size(); from += MAX_TITLES_PER_REQUEST) {
+            List<PendingTitle> chunk = batch.subList(from, Math.min(batch.size(), from + MAX_TITLES_PER_REQUEST));
+
+            boolean request = chunk.stream().anyMatch(p -> p.priority() == WikimediaRateLimiter.Priority.REQUEST);
+            WikimediaRateLimiter.Priority priority = request
+                    ? WikimediaRateLimiter.Priority.REQUEST
+                    : WikimediaRateLimiter.Priority.BACKGROUND;
+
+            long waitNanos = rateLimiter.tryAcquire(priority);
+            if (waitNanos > 0) {
+                defer(batch.subList(from, batch.size()), priority, waitNanos);
+                return;
+            }
+
+            try {
+                resolveCategories(chunk);
+            } catch (Exception e) {
+                log.warn("[COMMONS] Falha no batch de categoryinfo: {}", e.getMessage());
+            } finally {
+                // quem não teve resposta fica sem categoria
+                chunk.forEach(p -> p.result().complete(null));
+            }
+        }
+    }
+
+    /**
+     * Sem token: volta à frente da fila e o flush corre quando houver. Quem
+     * não teria resposta antes do seu prazo (espera + pedido) falha já com
+     * throttle, em vez de acabar em timeout como se não houvesse categoria.
+     */
+    private void defer(List<PendingTitle> rest, WikimediaRateLimiter.Priority priority, long waitNanos) {
+        long answerBy = System.nanoTime() + waitNanos + batchHttpTimeoutNanos;
+        WikimediaThrottledException throttled = null;
+        List<PendingTitle> keep = new ArrayList<>(rest.size());
+
+        for (PendingTitle p : rest) {
+            if (p.result().isDone()) continue;
+            if (p.deadline() - answerBy >= 0) {
+                keep.add(p);
+                continue;
+            }
+            if (throttled == null) {
+                throttled = new WikimediaThrottledException("Rate limit da Wikimedia esgotado");
+                rateLimiter.countRejected(priority);
+            }
+            p.result().completeExceptionally(throttled);
+        }
+
+        synchronized (batchLock) {
+            pending.addAll(0, keep);
+            if (pending.isEmpty()) return;
+
+            if (scheduledFlush != null) scheduledFlush.cancel(false);
+            scheduledFlush = batchScheduler.schedule(this::flush, waitNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void resolveCategories(List<PendingTitle> chunk) {
+        Map<String, List<CompletableFuture<String>>> byTitle = new LinkedHashMap<>();
+        for (PendingTitle p : chunk) {
+            byTitle.computeIfAbsent(p.title(), t -> new ArrayList<>()).add(p.result());
+        }
+
+        batchTitles.record(byTitle.size());
+
+        JsonNode json = batchClient.get()
+                .uri(uriBuilder -> uriBuilder
+                        .queryParam("action", "query")
+                        .queryParam("format", "json")
+                        .queryParam("formatversion", "2")
+                        .queryParam("prop", "categoryinfo")
+                        .queryParam("titles", "{titles}")
+                        .build(String.join("|", byTitle.keySet())))
+                .retrieve()
+                .body(JsonNode.class);
+        if (json == null) return;
+
+        Map<String, String> normalized = new HashMap<>();
+        for (JsonNode n : json.path("query").path("normalized")) {
+            normalized.put(n.path("from").asText(""), n.path("to").asText(""));
+        }
+
+        // categorias sem página própria ("missing") também têm categoryinfo
+        Map<String, Integer> files = new HashMap<>();
+        for (JsonNode page : json.path("query").path("pages")) {
+            String title = page.path("title").asText(null);
+            if (title == null) continue;
+            files.put(title, page.path("categoryinfo").path("files").asInt(0));
+        }
+
+        byTitle.forEach((title, waiters) -> {
+            String resolved = normalized.getOrDefault(title, title);
+            String found = files.getOrDefault(resolved, 0) > 0 ? resolved : null;
+            waiters.forEach(w -> w.complete(found));
+        });
+    }
+
+    /**
+     * Caracteres que a MediaWiki não aceita em títulos ('|' separaria o
+     * título em dois dentro do batch).
+     */
+    private boolean isValidTitle(String title) {
+        if (title.length() > 255) return false;
+        for (char c : title.toCharArray()) {
+            if ("|#<>[]{}".indexOf(c) >= 0 || Character.isISOControl(c)) return false;
+        }
+        return true;
+    }
+
     private String tryCategorySearch(String srsearch) {
+        rateLimiter.acquire();
+
         try {
             JsonNode json = restClient.get()
                     .uri(uriBuilder -> uriBuilder
@@ -159,6 +465,7 @@ public class WikimediaCommonsClient {
 
             return bestTitle;
         } catch (Exception e) {
+            failIfPastDeadline();
             System.out.println("[COMMONS] exception for srsearch=" + srsearch + " -> " + e.getMessage());
             return null;
         }
@@ -200,13 +507,7 @@ public class WikimediaCommonsClient {
     }
 
     private boolean isBadImage(String title, String url) {
-        String hay = (safe(title) + " " + safe(url)).toLowerCase(Locale.ROOT);
-
-        for (String bad : BAD_KEYWORDS) {
-            if (hay.contains(bad)) return true;
-        }
-
-        return false;
+        return BAD_IMAGE.match(title, url) != 0;
     }
 
     private int titleMatchScore(String titleOrUrl, String query) {
@@ -223,6 +524,49 @@ public class WikimediaCommonsClient {
         return -3;
     }
 
+    /**
+     * @param deadline System.nanoTime() a partir do qual quem pediu já não espera
+     */
+    private static void failIfPastDeadline() {
+        Long deadline = DEADLINE.get();
+        if (deadline != null && deadline - System.nanoTime() <= 0) {
+            throw new CancellationException("Prazo do pedido ao Commons esgotado");
+        }
+    }
+
+    /**
+     * Timeouts fixos, cortados ao prazo da thread ({@link #withDeadline})
+     * quando há um. O read timeout conta por leitura, mas as respostas da
+     * API são pequenas.
+     */
+    private static final class DeadlineRequestFactory extends SimpleClientHttpRequestFactory {
+
+        DeadlineRequestFactory() {
+            setConnectTimeout(CONNECT_TIMEOUT_MS);
+            setReadTimeout(READ_TIMEOUT_MS);
+        }
+
+        @Override
+        protected void prepareConnection(HttpURLConnection connection, String httpMethod) throws IOException {
+            super.prepareConnection(connection, httpMethod);
+
+            Long deadline = DEADLINE.get();
+            if (deadline == null) return;
+
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMs <= 0) throw new SocketTimeoutException("Prazo do pedido ao Commons esgotado");
+            connection.setConnectTimeout((int) Math.min(CONNECT_TIMEOUT_MS, remainingMs));
+            connection.setReadTimeout((int) Math.min(READ_TIMEOUT_MS, remainingMs));
+        }
+    }
+
+    private record PendingTitle(
+            String title,
+            CompletableFuture<String> result,
+            WikimediaRateLimiter.Priority priority,
+            long deadline
+    ) {}
+
     private boolean hasText(String s) {
         return s != null && !s.trim().isBlank();
     }
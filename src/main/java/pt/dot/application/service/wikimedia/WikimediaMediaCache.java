@@ -1,60 +1,488 @@
 package pt.dot.application.service.wikimedia;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import pt.dot.application.api.dto.common.CommonsMediaDto;
 
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Cache das pesquisas ao Commons em dois níveis:
+ *
+ * - L1: Caffeine limitado em entradas, por isso o heap não cresce com o
+ *   número de POIs pesquisados.
+ * - L2: tabela wikimedia_media_cache (cache_key -> urls e, na mesma
+ *   ordem, títulos e dimensões, fetched_at), que sobrevive aos deploys; um
+ *   miss no L1 lê daqui antes de ir ao Commons. As dimensões seguem para o
+ *   ranking; linhas antigas, sem elas, carregam só o URL.
+ *
+ * Um hit com mais de {@code refresh-ahead} do TTL dispara um refresh em
+ * background e devolve logo o valor em cache. Depois do TTL a entrada deixa
+ * de servir, exceto se o Commons falhar: aí vale mais a lista antiga do que
+ * nenhuma. Listas vazias só valem {@code empty-ttl-minutes}, para que um
+ * "sem imagens" não apague a galeria durante um dia inteiro. O L2 guarda as
+ * linhas até {@code retention-days}.
+ *
+ * Os pedidos ao Commons correm no pool limitado {@code wikimediaFetchExecutor},
+ * um por key (singleflight: quem chega durante um fetch espera pelo mesmo
+ * resultado). Cada fetch tem um prazo ({@code fetch.timeout-ms}); ao fim
+ * dele a tarefa é cancelada e os pedidos em espera recebem a entrada
+ * expirada, se houver, ou uma lista vazia (que não fica em cache).
+ * Um fetch recusado pelo rate limiter ({@link WikimediaThrottledException})
+ * nunca é gravado: sem entrada expirada, o pedido falha com essa exceção em
+ * vez de receber uma lista vazia que parecia "o Commons não tem imagens".
+ * {@link #getOrFetchAsync} devolve um future que o chamador pode cancelar;
+ * o fetch só é cancelado quando já ninguém espera por ele.
+ */
 @Component
 public class WikimediaMediaCache {
 
-    private static final long TTL_MS = Duration.ofHours(24).toMillis();
+    private static final Logger log = LoggerFactory.getLogger(WikimediaMediaCache.class);
 
-    private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
-    private final Map<String, CompletableFuture<List<String>>> inflight = new ConcurrentHashMap<>();
+    private final JdbcTemplate jdbcTemplate;
+    private final ThreadPoolExecutor fetchExecutor;
+    private final Cache<String, CacheEntry> l1;
+    private final long ttlMs;
+    private final long emptyTtlMs;
+    private final double refreshAhead;
+    private final Duration retention;
+    private final long fetchTimeoutMs;
 
-    public List<String> getFresh(String key) {
-        CacheEntry entry = cache.get(key);
-        if (entry == null) return null;
+    private final ConcurrentHashMap<String, Flight> inflight = new ConcurrentHashMap<>();
 
-        if (System.currentTimeMillis() - entry.updatedAt() > TTL_MS) {
-            cache.remove(key);
-            return null;
+    private final Counter l1Hits;
+    private final Counter l2Hits;
+    private final Counter misses;
+    private final Counter staleServed;
+    private final Counter joined;
+    private final Counter timeouts;
+    private final Counter rejected;
+    private final Counter abandoned;
+    private final Timer queueWait;
+    private final Timer fetchDuration;
+    private final Timer callerWait;
+
+    public WikimediaMediaCache(
+            JdbcTemplate jdbcTemplate,
+            @Qualifier("wikimediaFetchExecutor") ThreadPoolExecutor fetchExecutor,
+            MeterRegistry meterRegistry,
+            @Value("${ptdot.wikimedia.cache.max-entries:20000}") long maxEntries,
+            @Value("${ptdot.wikimedia.cache.ttl-hours:24}") long ttlHours,
+            @Value("${ptdot.wikimedia.cache.empty-ttl-minutes:60}") long emptyTtlMinutes,
+            @Value("${ptdot.wikimedia.cache.refresh-ahead:0.8}") double refreshAhead,
+            @Value("${ptdot.wikimedia.cache.retention-days:30}") long retentionDays,
+            @Value("${ptdot.wikimedia.fetch.timeout-ms:8000}") long fetchTimeoutMs
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.fetchExecutor = fetchExecutor;
+        this.fetchTimeoutMs = Math.max(100, fetchTimeoutMs);
+        this.ttlMs = Duration.ofHours(Math.max(1, ttlHours)).toMillis();
+        this.emptyTtlMs = Math.min(ttlMs, Duration.ofMinutes(Math.max(1, emptyTtlMinutes)).toMillis());
+        this.refreshAhead = Math.max(0.1, Math.min(1.0, refreshAhead));
+        this.retention = Duration.ofDays(Math.max(1, retentionDays));
+
+        this.l1 = Caffeine.newBuilder()
+                .maximumSize(Math.max(100, maxEntries))
+                .expireAfterWrite(Duration.ofMillis(ttlMs))
+                .build();
+
+        this.l1Hits = lookups(meterRegistry, "l1");
+        this.l2Hits = lookups(meterRegistry, "l2");
+        this.misses = lookups(meterRegistry, "miss");
+        this.staleServed = lookups(meterRegistry, "stale");
+
+        this.joined = Counter.builder("ptdot.wikimedia.fetch.joined")
+                .description("Pedidos que esperaram por um fetch já em curso para a mesma key")
+                .register(meterRegistry);
+        this.timeouts = Counter.builder("ptdot.wikimedia.fetch.timeouts")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("ptdot.wikimedia.fetch.rejected")
+                .description("Fetches recusados com o pool cheio")
+                .register(meterRegistry);
+        this.abandoned = Counter.builder("ptdot.wikimedia.fetch.abandoned")
+                .description("Fetches cancelados porque todos os pedidos à espera desistiram")
+                .register(meterRegistry);
+        this.queueWait = Timer.builder("ptdot.wikimedia.fetch.queue.wait")
+                .description("Tempo na fila do pool até o fetch começar")
+                .register(meterRegistry);
+        this.fetchDuration = Timer.builder("ptdot.wikimedia.fetch.duration")
+                .register(meterRegistry);
+        this.callerWait = Timer.builder("ptdot.wikimedia.fetch.caller.wait")
+                .description("Tempo que o pedido esteve bloqueado à espera do Commons")
+                .register(meterRegistry);
+
+        Gauge.builder("ptdot.wikimedia.fetch.queue.depth", fetchExecutor, e -> e.getQueue().size())
+                .register(meterRegistry);
+        Gauge.builder("ptdot.wikimedia.fetch.active", fetchExecutor, ThreadPoolExecutor::getActiveCount)
+                .register(meterRegistry);
+        Gauge.builder("ptdot.wikimedia.fetch.inflight", inflight, ConcurrentHashMap::size)
+                .register(meterRegistry);
+    }
+
+    public List<CommonsMediaDto> getFresh(String key) {
+        CacheEntry entry = lookup(key);
+        return entry == null || isExpired(entry) ? null : entry.media();
+    }
+
+    /**
+     * @throws WikimediaThrottledException se o rate limiter recusou o fetch
+     *         e não havia entrada expirada para servir
+     */
+    public List<CommonsMediaDto> getOrFetch(String key, Callable<List<CommonsMediaDto>> fetcher) {
+        CompletableFuture<List<CommonsMediaDto>> result = getOrFetchAsync(key, fetcher);
+        if (result.isDone() && !result.isCompletedExceptionally()) return result.join();
+
+        long started = System.nanoTime();
+        try {
+            return result.get();
+        } catch (InterruptedException ex) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            return List.of();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof WikimediaThrottledException throttled) throw throttled;
+            return List.of();
+        } finally {
+            callerWait.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Como {@link #getOrFetch}, sem bloquear: um hit vem já completo, um miss
+     * completa quando o fetch acabar (ou com o fallback). Só completa com
+     * exceção com uma {@link WikimediaThrottledException} e sem entrada
+     * expirada. Cancelar o future liberta este pedido do fetch partilhado.
+     */
+    public CompletableFuture<List<CommonsMediaDto>> getOrFetchAsync(String key, Callable<List<CommonsMediaDto>> fetcher) {
+        CacheEntry entry = lookup(key);
+        if (entry != null && !isExpired(entry)) {
+            if (age(entry) > ttl(entry) * refreshAhead) {
+                refreshAsync(key, fetcher);
+            }
+            return CompletableFuture.completedFuture(entry.media());
+        }
+
+        misses.increment();
+
+        Flight flight;
+        try {
+            flight = flight(key, fetcher);
+        } catch (RejectedExecutionException ex) {
+            rejected.increment();
+            return CompletableFuture.completedFuture(fallback(key, entry, "pool cheio"));
         }
 
-        return entry.urls();
+        Waiter waiter = new Waiter(flight);
+        flight.result.whenComplete((media, ex) -> {
+            if (ex == null) {
+                waiter.complete(media);
+                return;
+            }
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof WikimediaThrottledException && entry == null) {
+                waiter.completeExceptionally(cause);
+                return;
+            }
+            String reason = cause instanceof WikimediaThrottledException
+                    ? "rate limit"
+                    : cause instanceof TimeoutException
+                    ? "timeout"
+                    : cause instanceof CancellationException ? "cancelado" : String.valueOf(cause.getMessage());
+            waiter.complete(fallback(key, entry, reason));
+        });
+        return waiter;
     }
 
-    public List<String> getOrFetch(String key, Callable<List<String>> fetcher) {
-        List<String> cached = getFresh(key);
-        if (cached != null) return cached;
+    /**
+     * Apaga do L2 as linhas que nem o refresh nem um miss voltaram a
+     * escrever dentro de {@code retention-days}.
+     */
+    @Scheduled(
+            fixedDelayString = "${ptdot.wikimedia.cache.prune-interval-ms:21600000}",
+            initialDelayString = "${ptdot.wikimedia.cache.prune-interval-ms:21600000}"
+    )
+    public void prune() {
+        try {
+            int deleted = jdbcTemplate.update(
+                    "delete from wikimedia_media_cache where fetched_at < ?",
+                    new Timestamp(System.currentTimeMillis() - retention.toMillis())
+            );
+            if (deleted > 0) {
+                log.info("[WikimediaCache] {} entradas antigas removidas do L2", deleted);
+            }
+        } catch (DataAccessException ex) {
+            log.warn("[WikimediaCache] Falha a limpar o L2: {}", ex.getMessage());
+        }
+    }
+
+    /**
+     * L1 e depois L2. Pode devolver uma entrada expirada (vinda do L2), que
+     * só serve de fallback se o fetch falhar.
+     */
+    private CacheEntry lookup(String key) {
+        CacheEntry entry = l1.getIfPresent(key);
+        if (entry != null) {
+            l1Hits.increment();
+            return entry;
+        }
 
-        CompletableFuture<List<String>> existing = inflight.get(key);
-        if (existing != null) return existing.join();
+        entry = load(key);
+        if (entry != null && !isExpired(entry)) {
+            l2Hits.increment();
+            l1.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Fetch em curso para a key, ou um novo, já com este pedido contado como
+     * à espera. O computeIfAbsent garante um só fetch por key; se o pool
+     * recusar a tarefa, a exceção sai do computeIfAbsent e nada fica
+     * registado.
+     */
+    private Flight flight(String key, Callable<List<CommonsMediaDto>> fetcher) {
+        boolean[] created = new boolean[1];
+        Flight flight = inflight.computeIfAbsent(key, k -> {
+            created[0] = true;
+            return start(k, fetcher);
+        });
+        flight.waiters.incrementAndGet();
+
+        if (created[0]) {
+            // fora do computeIfAbsent: o remove não pode correr dentro do mapping
+            flight.result.whenComplete((media, ex) -> inflight.remove(key, flight));
+        } else {
+            joined.increment();
+        }
+        return flight;
+    }
+
+    private Flight start(String key, Callable<List<CommonsMediaDto>> fetcher) {
+        Flight flight = new Flight();
+        CompletableFuture<List<CommonsMediaDto>> result = flight.result;
+        long enqueued = System.nanoTime();
+
+        flight.task = fetchExecutor.submit(() -> {
+            long started = System.nanoTime();
+            queueWait.record(started - enqueued, TimeUnit.NANOSECONDS);
+            if (result.isDone()) return;
 
-        CompletableFuture<List<String>> future = CompletableFuture.supplyAsync(() -> {
             try {
-                List<String> urls = fetcher.call();
-                cache.put(key, new CacheEntry(urls, System.currentTimeMillis()));
-                return urls;
-            } catch (Exception e) {
-                throw new CompletionException(e);
+                List<CommonsMediaDto> media = fetcher.call();
+                if (!result.isDone()) {
+                    store(key, media);
+                    result.complete(media);
+                }
+            } catch (Exception ex) {
+                result.completeExceptionally(ex);
+            } finally {
+                fetchDuration.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            }
+        });
+
+        // o prazo conta desde a entrada na fila
+        result.orTimeout(fetchTimeoutMs, TimeUnit.MILLISECONDS).whenComplete((media, ex) -> {
+            if (ex instanceof TimeoutException) {
+                timeouts.increment();
+                flight.task.cancel(true);
             }
         });
+        return flight;
+    }
 
-        inflight.put(key, future);
+    /**
+     * Refresh-ahead pelo mesmo singleflight. Só com folga na fila, para não
+     * atrasar os misses, que têm um pedido à espera. O refresh conta como
+     * um pedido à espera que nunca desiste.
+     */
+    private void refreshAsync(String key, Callable<List<CommonsMediaDto>> fetcher) {
+        if (inflight.containsKey(key)) return;
+        if (fetchExecutor.getQueue().remainingCapacity() <= fetchExecutor.getQueue().size()) return;
 
         try {
-            return future.join();
-        } finally {
-            inflight.remove(key);
+            flight(key, fetcher);
+        } catch (RejectedExecutionException ex) {
+            rejected.increment();
+        }
+    }
+
+    /**
+     * Só com o último pedido à espera a desistir é que o fetch é cancelado;
+     * se entretanto chegar outro, esse recebe o fallback.
+     */
+    private void release(Flight flight) {
+        if (flight.waiters.decrementAndGet() > 0 || flight.result.isDone()) return;
+
+        if (flight.result.cancel(false)) {
+            abandoned.increment();
+            flight.task.cancel(true);
+        }
+    }
+
+    /**
+     * Sem resposta do Commons: a entrada expirada, se houver, ou uma lista
+     * vazia que não fica em cache.
+     */
+    private List<CommonsMediaDto> fallback(String key, CacheEntry stale, String reason) {
+        log.warn("[WikimediaCache] Fetch falhou para {} ({}){}", key, reason,
+                stale == null ? "" : ", a servir entrada expirada");
+
+        if (stale == null) return List.of();
+        staleServed.increment();
+        return stale.media();
+    }
+
+    private void store(String key, List<CommonsMediaDto> media) {
+        List<CommonsMediaDto> copy = media == null ? List.of() : List.copyOf(media);
+        CacheEntry entry = new CacheEntry(copy, System.currentTimeMillis());
+        l1.put(key, entry);
+
+        try {
+            jdbcTemplate.update(
+                    """
+                    insert into wikimedia_media_cache (cache_key, urls, titles, widths, heights, fetched_at)
+                    values (?, ?, ?, ?, ?, ?)
+                    on conflict (cache_key) do update
+                       set urls = excluded.urls,
+                           titles = excluded.titles,
+                           widths = excluded.widths,
+                           heights = excluded.heights,
+                           fetched_at = excluded.fetched_at
+                    """,
+                    ps -> {
+                        Connection connection = ps.getConnection();
+                        ps.setString(1, key);
+                        ps.setArray(2, connection.createArrayOf("text", copy.stream().map(CommonsMediaDto::url).toArray()));
+                        ps.setArray(3, connection.createArrayOf("text", copy.stream().map(CommonsMediaDto::title).toArray()));
+                        ps.setArray(4, connection.createArrayOf("integer", copy.stream().map(CommonsMediaDto::width).toArray()));
+                        ps.setArray(5, connection.createArrayOf("integer", copy.stream().map(CommonsMediaDto::height).toArray()));
+                        ps.setTimestamp(6, new Timestamp(entry.updatedAt()));
+                    }
+            );
+        } catch (DataAccessException ex) {
+            // o L1 continua válido; só se perde a persistência desta entrada
+            log.warn("[WikimediaCache] Falha a gravar {} no L2: {}", key, ex.getMessage());
+        }
+    }
+
+    private CacheEntry load(String key) {
+        try {
+            List<CacheEntry> rows = jdbcTemplate.query(
+                    "select urls, titles, widths, heights, fetched_at from wikimedia_media_cache where cache_key = ?",
+                    (rs, rowNum) -> new CacheEntry(
+                            media(rs.getArray(1), rs.getArray(2), rs.getArray(3), rs.getArray(4)),
+                            rs.getTimestamp(5).getTime()
+                    ),
+                    key
+            );
+            return rows.isEmpty() ? null : rows.get(0);
+        } catch (DataAccessException ex) {
+            log.warn("[WikimediaCache] Falha a ler {} do L2: {}", key, ex.getMessage());
+            return null;
+        }
+    }
+
+    private boolean isExpired(CacheEntry entry) {
+        return age(entry) > ttl(entry);
+    }
+
+    private long ttl(CacheEntry entry) {
+        return entry.media().isEmpty() ? emptyTtlMs : ttlMs;
+    }
+
+    private static long age(CacheEntry entry) {
+        return System.currentTimeMillis() - entry.updatedAt();
+    }
+
+    /**
+     * Junta os arrays pela posição. Títulos e dimensões podem faltar (linhas
+     * gravadas antes de existirem essas colunas).
+     */
+    private static List<CommonsMediaDto> media(Array urls, Array titles, Array widths, Array heights) throws SQLException {
+        Object[] u = values(urls);
+        Object[] t = values(titles);
+        Object[] w = values(widths);
+        Object[] h = values(heights);
+
+        List<CommonsMediaDto> out = new ArrayList<>(u.length);
+        for (int i = 0; i < u.length; i++) {
+            if (u[i] == null) continue;
+            out.add(new CommonsMediaDto(
+                    String.valueOf(u[i]),
+                    i < t.length && t[i] != null ? String.valueOf(t[i]) : null,
+                    i < w.length && w[i] instanceof Number n ? n.intValue() : null,
+                    i < h.length && h[i] instanceof Number n ? n.intValue() : null
+            ));
         }
+        return List.copyOf(out);
     }
 
-    private record CacheEntry(List<String> urls, long updatedAt) {}
-}
\ No newline at end of file
+    private static Object[] values(Array array) throws SQLException {
+        if (array == null) return new Object[0];
+        return array.getArray() instanceof Object[] values ? values : new Object[0];
+    }
+
+    private static Counter lookups(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("ptdot.wikimedia.cache.lookups")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private record CacheEntry(List<CommonsMediaDto> media, long updatedAt) {}
+
+    private static final class Flight {
+        final CompletableFuture<List<CommonsMediaDto>> result = new CompletableFuture<>();
+        final AtomicInteger waiters = new AtomicInteger();
+        volatile Future<?> task;
+    }
+
+    /**
+     * Future entregue a cada chamador; cancelá-lo liberta o chamador do
+     * {@link Flight}.
+     */
+    private final class Waiter extends CompletableFuture<List<CommonsMediaDto>> {
+
+        private final Flight flight;
+
+        Waiter(Flight flight) {
+            this.flight = flight;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) release(flight);
+            return cancelled;
+        }
+    }
+}
@@ -1,21 +1,47 @@
 package pt.dot.application.service.wikimedia;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import pt.dot.application.api.dto.common.CommonsMediaDto;
+import pt.dot.application.util.KeywordMatcher;
 import pt.dot.application.util.TextNorm;
 
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.ToDoubleBiFunction;
 
 @Service
 public class WikimediaMediaService {
 
+    private static final Logger log = LoggerFactory.getLogger(WikimediaMediaService.class);
+
     private static final int MAX_IMAGES = 5;
 
+    /**
+     * Score a partir do qual uma imagem conta como boa o suficiente para
+     * parar o fan-out (corresponde a um título que cobre ~60% dos tokens).
+     */
+    private static final double GOOD_SCORE = 10.0;
+
     private static final String[] DISTRICT_REJECT_TITLE_KEYWORDS = {
             "surname",
             "esquerda.net",
@@ -55,48 +81,93 @@ public class WikimediaMediaService {
             "concelho"
     };
 
-    private static final String[] GENERIC_ARCHITECTURE_HINTS = {
+    static final String[] GENERIC_ARCHITECTURE_HINTS = {
             "castle", "castelo", "church", "igreja", "palace", "mosteiro", "convento"
     };
 
-    private static final String[] HERO_VIEW_HINTS = {
+    static final String[] HERO_VIEW_HINTS = {
             "panoramic", "panorama", "overview", "vista", "facade", "fachada",
             "exterior", "cityscape", "skyline"
     };
 
-    private static final String[] HERO_DISTRICT_HINTS = {
+    static final String[] HERO_DISTRICT_HINTS = {
             "panorama", "panoramic", "skyline", "cityscape", "overview",
             "vista", "view", "aerial", "seen from", "from ", "riverfront",
             "historic centre", "centro historico", "centro histórico"
     };
 
-    private static final String[] DETAIL_PENALTY_HINTS = {
+    static final String[] DETAIL_PENALTY_HINTS = {
             "interior", "inside", "detail", "detalhe", "closeup", "close-up", "window", "door"
     };
 
-    private static final String[] LOW_LIGHT_PENALTY_HINTS = {
+    static final String[] LOW_LIGHT_PENALTY_HINTS = {
             "night", "noite", "dark", "shadow"
     };
 
-    private static final String[] POLITICAL_PENALTY_HINTS = {
+    static final String[] POLITICAL_PENALTY_HINTS = {
             "poster", "campaign", "election", "flyer", "banner", "manifesto"
     };
 
-    private static final String[] DISTRICT_SPECIFIC_POI_PENALTY_HINTS = {
+    static final String[] DISTRICT_SPECIFIC_POI_PENALTY_HINTS = {
             "casino", "hotel", "shopping", "mall", "stadium", "church", "igreja",
             "castle", "castelo", "museum", "museu", "monument", "tower", "torre",
             "statue", "airport", "station", "teatro", "theatre", "palace", "palacio", "palácio"
     };
 
+    static final String[] DISTRICT_WORD_HINTS = {
+            "district", "distrito", "city", "cidade"
+    };
+
+    private static final long ARCHITECTURE = 1L;
+    private static final long HERO_VIEW = 1L << 1;
+    private static final long HERO_DISTRICT = 1L << 2;
+    private static final long DETAIL = 1L << 3;
+    private static final long LOW_LIGHT = 1L << 4;
+    private static final long POLITICAL = 1L << 5;
+    private static final long DISTRICT_SPECIFIC_POI = 1L << 6;
+    private static final long DISTRICT_WORDS = 1L << 7;
+
+    /**
+     * Todas as famílias de hints do ranking num só autómato: cada candidato
+     * é percorrido uma vez (título + URL) e os ifs do score testam bits.
+     */
+    private static final KeywordMatcher MEDIA_HINTS = KeywordMatcher.builder()
+            .add(ARCHITECTURE, GENERIC_ARCHITECTURE_HINTS)
+            .add(HERO_VIEW, HERO_VIEW_HINTS)
+            .add(HERO_DISTRICT, HERO_DISTRICT_HINTS)
+            .add(DETAIL, DETAIL_PENALTY_HINTS)
+            .add(LOW_LIGHT, LOW_LIGHT_PENALTY_HINTS)
+            .add(POLITICAL, POLITICAL_PENALTY_HINTS)
+            .add(DISTRICT_SPECIFIC_POI, DISTRICT_SPECIFIC_POI_PENALTY_HINTS)
+            .add(DISTRICT_WORDS, DISTRICT_WORD_HINTS)
+            .build();
+
+    private static final long TITLE_REJECT = 1L;
+    private static final long TITLE_ACCEPT = 1L << 1;
+
+    private static final KeywordMatcher DISTRICT_TITLE_HINTS = KeywordMatcher.builder()
+            .add(TITLE_REJECT, DISTRICT_REJECT_TITLE_KEYWORDS)
+            .add(TITLE_ACCEPT, DISTRICT_ACCEPT_TITLE_HINTS)
+            .build();
+
     private final WikimediaCommonsClient commonsClient;
     private final WikimediaMediaCache cache;
+    private final WikimediaRateLimiter rateLimiter;
+    private final int maxParallel;
+    private final long deadlineMs;
 
     public WikimediaMediaService(
             WikimediaCommonsClient commonsClient,
-            WikimediaMediaCache cache
+            WikimediaMediaCache cache,
+            WikimediaRateLimiter rateLimiter,
+            @Value("${ptdot.wikimedia.fanout.max-parallel:4}") int maxParallel,
+            @Value("${ptdot.wikimedia.fanout.deadline-ms:6000}") long deadlineMs
     ) {
         this.commonsClient = commonsClient;
         this.cache = cache;
+        this.rateLimiter = rateLimiter;
+        this.maxParallel = Math.max(1, maxParallel);
+        this.deadlineMs = Math.max(100, deadlineMs);
     }
 
     public List<String> getPoiMedia5(
@@ -111,20 +182,18 @@ public class WikimediaMediaService {
         List<String> queries = buildPoiQueries(namePt, name, source);
         if (queries.isEmpty()) return base;
 
-        List<String> merged = new ArrayList<>(base);
-
-        for (String query : queries) {
-            if (merged.size() >= MAX_IMAGES) break;
-
-            List<String> fetched = cache.getOrFetch(
-                    cacheKey("commons-poi", query, MAX_IMAGES),
-                    () -> fetchPoiImagesForQuery(query, source)
-            );
-
-            merged = new ArrayList<>(mergeToLimit(merged, fetched, MAX_IMAGES));
-        }
+        String locality = extractLocality(source);
+        List<String> fetched = fanOut(
+                queries,
+                (query, deadline) -> cache.getOrFetchAsync(
+                        cacheKey("commons-poi", query, MAX_IMAGES),
+                        commonsClient.withDeadline(deadline, rateLimiter.withCurrentPriority(() -> fetchPoiImagesForQuery(query, source)))
+                ),
+                (media, query) -> poiScore(media, query, locality),
+                MAX_IMAGES - base.size()
+        );
 
-        return merged.stream().limit(MAX_IMAGES).toList();
+        return mergeToLimit(base, fetched, MAX_IMAGES);
     }
 
     public List<String> getDistrictMedia5(String districtName, List<String> baseUrls) {
@@ -138,23 +207,145 @@ public class WikimediaMediaService {
         if (district.isBlank()) return base;
 
         List<String> queries = buildDistrictQueries(district);
-        List<String> merged = new ArrayList<>(base);
 
-        for (String query : queries) {
-            if (merged.size() >= MAX_IMAGES) break;
+        List<String> fetched = fanOut(
+                queries,
+                (query, deadline) -> cache.getOrFetchAsync(
+                        cacheKey("commons-district", query, MAX_IMAGES),
+                        commonsClient.withDeadline(deadline, rateLimiter.withCurrentPriority(() -> fetchDistrictImagesForQuery(query, district)))
+                ),
+                (media, query) -> districtScore(media, query, district),
+                MAX_IMAGES
+        );
+
+        return mergeToLimit(base, fetched, MAX_IMAGES);
+    }
+
+    /**
+     * Corre as variantes da query em paralelo (no máximo {@code max-parallel}
+     * de cada vez, pela ordem de prioridade) com um prazo comum a todas.
+     *
+     * Os resultados de cada variante juntam-se num só conjunto de candidatos,
+     * ordenado uma vez no fim pelo scorer. Assim que houver {@code limit}
+     * candidatos com score >= {@link #GOOD_SCORE}, ou o prazo acabar, as
+     * variantes por arrancar ficam de fora e as que estão em curso são
+     * canceladas (o fetch partilhado só para se mais ninguém esperar por ele).
+     * O cancel não interrompe um pedido HTTP já bloqueado, por isso o prazo
+     * segue com o fetch ({@link WikimediaCommonsClient#withDeadline}) e
+     * corta os timeouts desses pedidos.
+     *
+     * @throws WikimediaThrottledException se não houver candidatos e alguma
+     *         variante foi recusada pelo rate limiter: o resultado vazio não
+     *         quer dizer que o Commons não tenha imagens
+     */
+    private List<String> fanOut(
+            List<String> queries,
+            BiFunction<String, Long, CompletableFuture<List<CommonsMediaDto>>> lookup,
+            ToDoubleBiFunction<CommonsMediaDto, String> scorer,
+            int limit
+    ) {
+        if (queries.isEmpty() || limit <= 0) return List.of();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+
+        Map<Integer, CompletableFuture<List<CommonsMediaDto>>> pending = new HashMap<>();
+        BlockingQueue<Integer> done = new LinkedBlockingQueue<>();
+        Map<String, Candidate> candidates = new LinkedHashMap<>();
+        int next = 0;
+        int good = 0;
+        WikimediaThrottledException throttled = null;
+
+        try {
+            while (good < limit && (next < queries.size() || !pending.isEmpty())) {
+                while (next < queries.size() && pending.size() < maxParallel) {
+                    int index = next++;
+                    CompletableFuture<List<CommonsMediaDto>> future = lookup.apply(queries.get(index), deadline);
+                    pending.put(index, future);
+                    future.whenComplete((urls, ex) -> done.add(index));
+                }
+
+                long remaining = deadline - System.nanoTime();
+                Integer index = remaining > 0 ? done.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                if (index == null) {
+                    log.warn("[COMMONS] Prazo do fan-out esgotado, {} variantes por terminar", pending.size());
+                    break;
+                }
+
+                CompletableFuture<List<CommonsMediaDto>> future = pending.remove(index);
+                if (future == null) continue;
+                if (future.isCompletedExceptionally()) {
+                    throttled = throttledCause(future);
+                    continue;
+                }
 
-            List<String> fetched = cache.getOrFetch(
-                    cacheKey("commons-district", query, MAX_IMAGES),
-                    () -> fetchDistrictImagesForQuery(query, district)
-            );
+                String query = queries.get(index);
+                for (CommonsMediaDto item : future.join()) {
+                    if (item == null || !hasText(item.url())) continue;
 
-            merged = new ArrayList<>(mergeToLimit(merged, fetched, MAX_IMAGES));
+                    CommonsMediaDto media = candidateMedia(item);
+                    Candidate previous = candidates.get(media.url());
+                    double score = scorer.applyAsDouble(media, query);
+                    if (previous != null && previous.score() >= score) continue;
+
+                    candidates.put(media.url(), new Candidate(media, score, previous == null ? index : previous.order()));
+                    if (score >= GOOD_SCORE && (previous == null || previous.score() < GOOD_SCORE)) good++;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pending.values().forEach(f -> f.cancel(true));
         }
 
-        return merged.stream().limit(MAX_IMAGES).toList();
+        if (candidates.isEmpty() && throttled != null) throw throttled;
+
+        List<CommonsMediaDto> ranked = candidates.values().stream()
+                .sorted(Comparator.comparingInt(Candidate::order))
+                .map(Candidate::media)
+                .toList();
+        Map<String, Double> scores = new HashMap<>();
+        candidates.values().forEach(c -> scores.put(c.media().url(), c.score()));
+
+        return rankAndPick(ranked, limit, m -> scores.getOrDefault(m.url(), 0.0)).stream()
+                .map(CommonsMediaDto::url)
+                .toList();
+    }
+
+    /**
+     * A cache só falha com {@link WikimediaThrottledException}.
+     */
+    private WikimediaThrottledException throttledCause(CompletableFuture<List<CommonsMediaDto>> future) {
+        try {
+            future.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof WikimediaThrottledException throttled) return throttled;
+        } catch (CancellationException ignored) {
+        }
+        return new WikimediaThrottledException("Variante sem resposta do Commons");
     }
 
-    private List<String> fetchPoiImagesForQuery(String query, String source) {
+    /**
+     * As dimensões vêm da cache; entradas antigas do L2 não têm título, que
+     * então sai do nome do ficheiro no URL.
+     */
+    private CommonsMediaDto candidateMedia(CommonsMediaDto media) {
+        if (hasText(media.title())) return media;
+
+        String url = media.url();
+        String title = url;
+        try {
+            String path = URI.create(url).getPath();
+            if (path != null) {
+                title = URLDecoder.decode(path.substring(path.lastIndexOf('/') + 1), StandardCharsets.UTF_8)
+                        .replaceFirst("^\\d+px-", "")
+                        .replace('_', ' ');
+            }
+        } catch (IllegalArgumentException ignored) {
+        }
+        return new CommonsMediaDto(url, title, media.width(), media.height());
+    }
+
+    private List<CommonsMediaDto> fetchPoiImagesForQuery(String query, String source) {
         System.out.println("[COMMONS][POI] trying query=" + query);
 
         String pageTitle = findBestCategoryTitle(query);
@@ -166,13 +357,13 @@ public class WikimediaMediaService {
         System.out.println("[COMMONS][POI] category found=" + pageTitle);
 
         List<CommonsMediaDto> media = commonsClient.fetchImagesFromCommonsPageTitle(pageTitle, MAX_IMAGES);
-        List<String> best = rankAndPickPoi(media, query, extractLocality(source), MAX_IMAGES);
+        List<CommonsMediaDto> best = rankAndPickPoi(media, query, extractLocality(source), MAX_IMAGES);
 
         System.out.println("[COMMONS][POI] images fetched=" + best.size() + " for category=" + pageTitle);
         return best;
     }
 
-    private List<String> fetchDistrictImagesForQuery(String query, String districtName) {
+    private List<CommonsMediaDto> fetchDistrictImagesForQuery(String query, String districtName) {
         System.out.println("[COMMONS][DISTRICT] trying query=" + query);
 
         String pageTitle = findBestCategoryTitle(query);
@@ -189,14 +380,17 @@ public class WikimediaMediaService {
         System.out.println("[COMMONS][DISTRICT] category found=" + pageTitle);
 
         List<CommonsMediaDto> media = commonsClient.fetchImagesFromCommonsPageTitle(pageTitle, MAX_IMAGES);
-        List<String> best = rankAndPickDistrict(media, query, districtName, MAX_IMAGES);
+        List<CommonsMediaDto> best = rankAndPickDistrict(media, query, districtName, MAX_IMAGES);
 
         System.out.println("[COMMONS][DISTRICT] images fetched=" + best.size() + " for category=" + pageTitle);
         return best;
     }
 
     private String findBestCategoryTitle(String query) {
-        String pageTitle = commonsClient.searchTopCategoryTitleExact(query);
+        String pageTitle = commonsClient.findCategoryTitle(query);
+        if (pageTitle == null) {
+            pageTitle = commonsClient.searchTopCategoryTitleExact(query);
+        }
         if (pageTitle == null) {
             pageTitle = commonsClient.searchTopCategoryTitleLoose(query);
         }
@@ -213,12 +407,14 @@ public class WikimediaMediaService {
         String normDistrict = TextNorm.normalize(district);
 
         if (!normTitle.contains(normDistrict)) return false;
-        if (containsAny(title, DISTRICT_REJECT_TITLE_KEYWORDS)) return false;
 
-        return containsAny(title, DISTRICT_ACCEPT_TITLE_HINTS) || title.contains(district);
+        long hits = DISTRICT_TITLE_HINTS.match(title);
+        if ((hits & TITLE_REJECT) != 0) return false;
+
+        return (hits & TITLE_ACCEPT) != 0 || title.contains(district);
     }
 
-    private List<String> rankAndPickPoi(
+    private List<CommonsMediaDto> rankAndPickPoi(
             List<CommonsMediaDto> media,
             String label,
             String locality,
@@ -231,7 +427,7 @@ public class WikimediaMediaService {
         );
     }
 
-    private List<String> rankAndPickDistrict(
+    private List<CommonsMediaDto> rankAndPickDistrict(
             List<CommonsMediaDto> media,
             String label,
             String locality,
@@ -244,7 +440,7 @@ public class WikimediaMediaService {
         );
     }
 
-    private List<String> rankAndPick(
+    private List<CommonsMediaDto> rankAndPick(
             List<CommonsMediaDto> media,
             int limit,
             java.util.function.ToDoubleFunction<CommonsMediaDto> scorer
@@ -255,7 +451,7 @@ public class WikimediaMediaService {
                 .sorted(Comparator.comparingDouble(scorer).reversed())
                 .toList();
 
-        List<String> out = new ArrayList<>();
+        List<CommonsMediaDto> out = new ArrayList<>();
         Set<String> families = new LinkedHashSet<>();
 
         for (CommonsMediaDto item : sorted) {
@@ -266,7 +462,7 @@ public class WikimediaMediaService {
                 continue;
             }
 
-            out.add(item.url());
+            out.add(item);
             if (!family.isBlank()) families.add(family);
 
             if (out.size() >= limit) break;
@@ -277,6 +473,7 @@ public class WikimediaMediaService {
 
     private double poiScore(CommonsMediaDto media, String label, String locality) {
         String hay = mediaHaystack(media);
+        long hints = MEDIA_HINTS.match(media.title(), media.url());
 
         double score = baseImageScore(media);
         score += titleMatchScore(hay, label) * 2.5;
@@ -285,23 +482,23 @@ public class WikimediaMediaService {
             score += titleMatchScore(hay, locality) * 1.5;
         }
 
-        if (containsAny(hay, GENERIC_ARCHITECTURE_HINTS)) {
+        if ((hints & ARCHITECTURE) != 0) {
             score += 1.0;
         }
 
-        if (containsAny(hay, HERO_VIEW_HINTS)) {
+        if ((hints & HERO_VIEW) != 0) {
             score += 2.5;
         }
 
-        if (containsAny(hay, DETAIL_PENALTY_HINTS)) {
+        if ((hints & DETAIL) != 0) {
             score -= 2.5;
         }
 
-        if (containsAny(hay, LOW_LIGHT_PENALTY_HINTS)) {
+        if ((hints & LOW_LIGHT) != 0) {
             score -= 1.0;
         }
 
-        if (containsAny(hay, POLITICAL_PENALTY_HINTS)) {
+        if ((hints & POLITICAL) != 0) {
             score -= 8.0;
         }
 
@@ -314,6 +511,7 @@ public class WikimediaMediaService {
 
     private double districtScore(CommonsMediaDto media, String label, String locality) {
         String hay = mediaHaystack(media);
+        long hints = MEDIA_HINTS.match(media.title(), media.url());
 
         double score = baseImageScore(media);
         score += titleMatchScore(hay, label) * 2.0;
@@ -322,23 +520,23 @@ public class WikimediaMediaService {
             score += titleMatchScore(hay, locality) * 1.2;
         }
 
-        if (containsAny(hay, HERO_DISTRICT_HINTS)) {
+        if ((hints & HERO_DISTRICT) != 0) {
             score += 5.0;
         }
 
-        if (containsAny(hay, "district", "distrito", "city", "cidade")) {
+        if ((hints & DISTRICT_WORDS) != 0) {
             score += 1.0;
         }
 
-        if (containsAny(hay, DISTRICT_SPECIFIC_POI_PENALTY_HINTS)) {
+        if ((hints & DISTRICT_SPECIFIC_POI) != 0) {
             score -= 6.0;
         }
 
-        if (containsAny(hay, POLITICAL_PENALTY_HINTS)) {
+        if ((hints & POLITICAL) != 0) {
             score -= 10.0;
         }
 
-        if (containsAny(hay, DETAIL_PENALTY_HINTS)) {
+        if ((hints & DETAIL) != 0) {
             score -= 3.0;
         }
 
@@ -363,9 +561,12 @@ public class WikimediaMediaService {
         return score;
     }
 
+    /**
+     * Título + URL já normalizados, uma vez por candidato, para os
+     * {@link #titleMatchScore} do label e da localidade.
+     */
     private String mediaHaystack(CommonsMediaDto media) {
-        return safe(media.title()).toLowerCase(Locale.ROOT) + " " +
-                safe(media.url()).toLowerCase(Locale.ROOT);
+        return TextNorm.normalize(safe(media.title()) + " " + safe(media.url()));
     }
 
     private boolean looksLikeBurstSeries(String title) {
@@ -377,18 +578,13 @@ public class WikimediaMediaService {
         return digits >= 8;
     }
 
-    private boolean containsAny(String hay, String... needles) {
-        for (String n : needles) {
-            if (hay.contains(n)) return true;
-        }
-        return false;
-    }
-
-    private int titleMatchScore(String titleOrUrl, String query) {
+    /**
+     * {@code hay} tem de vir de {@link TextNorm#normalize}.
+     */
+    private int titleMatchScore(String hay, String query) {
         var tokens = TextNorm.tokensOf(query);
         if (tokens.isEmpty()) return 0;
 
-        String hay = TextNorm.normalize(titleOrUrl);
         long hits = tokens.stream().filter(hay::contains).count();
         double ratio = (double) hits / tokens.size();
 
@@ -538,6 +734,8 @@ public class WikimediaMediaService {
         return merged.stream().limit(limit).toList();
     }
 
+    private record Candidate(CommonsMediaDto media, double score, int order) {}
+
     private List<String> uniq(List<String> arr) {
         if (arr == null || arr.isEmpty()) return List.of();
         return arr.stream()
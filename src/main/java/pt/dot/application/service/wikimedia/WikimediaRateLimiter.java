@@ -0,0 +1,226 @@
+package pt.dot.application.service.wikimedia;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Token bucket global para os pedidos à Wikimedia (API do Commons e
+ * downloads de upload.wikimedia.org), partilhado pelo request path, pela
+ * cache e pelo prefetch.
+ *
+ * A etiqueta da Wikimedia pede clientes sem rajadas e em série: até
+ * {@code burst} pedidos seguidos e depois {@code per-second}. Quem não tem
+ * token reserva o próximo e dorme até lá; se a espera passar de
+ * {@code max-wait-ms}, desiste sem reservar e o pedido falha com
+ * {@link WikimediaThrottledException}.
+ *
+ * O prefetch corre com {@link Priority#BACKGROUND}: só usa tokens acima de
+ * {@code reserved-for-requests} e nunca reserva tokens futuros, por isso o
+ * request path tem sempre essa folga e passa à frente quando o bucket está
+ * em dívida. A prioridade é a da thread ({@link #background}) e
+ * {@link #withCurrentPriority} leva-a para tarefas que correm noutro pool.
+ *
+ * {@link #tryAcquire} é a versão sem espera, para threads partilhadas (o
+ * batch do Commons) que não podem dormir à espera de um token.
+ */
+@Component
+public class WikimediaRateLimiter {
+
+    public enum Priority {
+        REQUEST,
+        BACKGROUND
+    }
+
+    private static final ThreadLocal<Priority> PRIORITY = ThreadLocal.withInitial(() -> Priority.REQUEST);
+
+    private final double permitsPerSecond;
+    private final double burst;
+    private final double reserved;
+    private final long maxWaitNanos;
+
+    private final Timer waits;
+    private final Counter requestRejected;
+    private final Counter backgroundRejected;
+
+    private double tokens;
+    private long refilledAt;
+
+    public WikimediaRateLimiter(
+            MeterRegistry meterRegistry,
+            @Value("${ptdot.wikimedia.rate-limit.per-second:5}") double permitsPerSecond,
+            @Value("${ptdot.wikimedia.rate-limit.burst:10}") int burst,
+            @Value("${ptdot.wikimedia.rate-limit.reserved-for-requests:5}") int reserved,
+            @Value("${ptdot.wikimedia.rate-limit.max-wait-ms:5000}") long maxWaitMs
+    ) {
+        this.permitsPerSecond = Math.max(0.1, permitsPerSecond);
+        this.burst = Math.max(1, burst);
+        this.reserved = Math.max(0, Math.min(this.burst - 1, reserved));
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMs));
+        this.tokens = this.burst;
+        this.refilledAt = System.nanoTime();
+
+        this.waits = Timer.builder("ptdot.wikimedia.ratelimit.wait")
+                .description("Espera por um token antes de um pedido à Wikimedia")
+                .register(meterRegistry);
+        this.requestRejected = rejected(meterRegistry, "request");
+        this.backgroundRejected = rejected(meterRegistry, "background");
+    }
+
+    public Priority currentPriority() {
+        return PRIORITY.get();
+    }
+
+    /**
+     * Corre {@code work} com prioridade {@link Priority#BACKGROUND}.
+     */
+    public <T> T background(Supplier<T> work) {
+        Priority previous = PRIORITY.get();
+        PRIORITY.set(Priority.BACKGROUND);
+        try {
+            return work.get();
+        } finally {
+            PRIORITY.set(previous);
+        }
+    }
+
+    /**
+     * A tarefa corre com a prioridade de quem a criou, seja qual for a
+     * thread do pool.
+     */
+    public <T> Callable<T> withCurrentPriority(Callable<T> task) {
+        Priority captured = PRIORITY.get();
+        return () -> {
+            Priority previous = PRIORITY.get();
+            PRIORITY.set(captured);
+            try {
+                return task.call();
+            } finally {
+                PRIORITY.set(previous);
+            }
+        };
+    }
+
+    /**
+     * Bloqueia até haver token, com a prioridade da thread.
+     *
+     * @throws WikimediaThrottledException se a espera passaria de
+     *         {@code max-wait-ms} ou se a thread for interrompida: o pedido
+     *         não deve ser feito
+     */
+    public void acquire() {
+        acquire(PRIORITY.get());
+    }
+
+    public void acquire(Priority priority) {
+        if (priority == Priority.BACKGROUND) {
+            acquireBackground();
+            return;
+        }
+
+        long waitNanos;
+
+        synchronized (this) {
+            refill();
+
+            tokens -= 1;
+            if (tokens >= 0) return;
+
+            waitNanos = (long) (-tokens / permitsPerSecond * 1e9);
+            if (waitNanos > maxWaitNanos) {
+                tokens += 1;
+                requestRejected.increment();
+                throw new WikimediaThrottledException("Rate limit da Wikimedia esgotado");
+            }
+        }
+
+        waits.record(waitNanos, TimeUnit.NANOSECONDS);
+        sleep(waitNanos, requestRejected);
+    }
+
+    /**
+     * Sem bloquear e sem reservar tokens futuros.
+     *
+     * @return 0 se levou o token; senão, quantos nanos faltam para haver um
+     *         para esta prioridade (pode já não haver, se outro o levar)
+     */
+    public long tryAcquire(Priority priority) {
+        double floor = priority == Priority.BACKGROUND ? reserved : 0;
+
+        synchronized (this) {
+            refill();
+
+            if (tokens >= floor + 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return Math.max(1, (long) ((floor + 1 - tokens) / permitsPerSecond * 1e9));
+        }
+    }
+
+    /**
+     * Conta uma desistência de quem usa {@link #tryAcquire} e não pôde
+     * esperar pelo token.
+     */
+    public void countRejected(Priority priority) {
+        (priority == Priority.BACKGROUND ? backgroundRejected : requestRejected).increment();
+    }
+
+    /**
+     * Sem reservas: espera até o bucket ter mais do que a reserva do
+     * request path e volta a verificar, porque entretanto um pedido pode ter
+     * levado os tokens.
+     */
+    private void acquireBackground() {
+        long started = System.nanoTime();
+
+        while (true) {
+            long waitNanos;
+
+            synchronized (this) {
+                refill();
+
+                if (tokens >= reserved + 1) {
+                    tokens -= 1;
+                    waits.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                    return;
+                }
+                waitNanos = Math.max(1, (long) ((reserved + 1 - tokens) / permitsPerSecond * 1e9));
+            }
+
+            if (System.nanoTime() - started + waitNanos > maxWaitNanos) {
+                backgroundRejected.increment();
+                throw new WikimediaThrottledException("Rate limit da Wikimedia reservado para pedidos");
+            }
+            sleep(waitNanos, backgroundRejected);
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) / 1e9 * permitsPerSecond);
+        refilledAt = now;
+    }
+
+    private static void sleep(long nanos, Counter rejected) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            rejected.increment();
+            throw new WikimediaThrottledException("Interrompido à espera do rate limit da Wikimedia");
+        }
+    }
+
+    private static Counter rejected(MeterRegistry meterRegistry, String priority) {
+        return Counter.builder("ptdot.wikimedia.ratelimit.rejected")
+                .tag("priority", priority)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,13 @@
+package pt.dot.application.service.wikimedia;
+
+/**
+ * O {@link WikimediaRateLimiter} recusou o pedido: não houve resposta do
+ * Commons, por isso o resultado não pode ser tratado como "sem imagens"
+ * nem ficar em cache.
+ */
+public class WikimediaThrottledException extends RuntimeException {
+
+    public WikimediaThrottledException(String message) {
+        super(message);
+    }
+}
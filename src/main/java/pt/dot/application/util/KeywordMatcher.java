@@ -0,0 +1,222 @@
+package pt.dot.application.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Procura de várias famílias de keywords numa só passagem (Aho–Corasick).
+ *
+ * Cada família tem um bit; {@link #match} devolve o OR dos bits das famílias
+ * com pelo menos uma keyword contida no texto, o mesmo que uma série de
+ * {@code text.toLowerCase().contains(k)} mas sem copiar o texto nem voltar
+ * atrás. As keywords são compiladas num autómato determinístico (tabela
+ * estado x classe de carácter), por isso cada carácter custa um acesso a
+ * array. Imutável e thread-safe depois do {@link Builder#build()}.
+ *
+ * A comparação ignora maiúsculas como {@code toLowerCase(Locale.ROOT)}, carácter
+ * a carácter; acentos contam (a keyword "palácio" não apanha "palacio").
+ */
+public final class KeywordMatcher {
+
+    /**
+     * Classes para os caracteres Latin-1; tudo o resto é a classe 0, que não
+     * aparece em nenhuma keyword.
+     */
+    private static final int DIRECT_CHARS = 256;
+
+    private final int[] charClass;
+    private final int classes;
+    private final int[] next;
+    private final long[] output;
+
+    private KeywordMatcher(int[] charClass, int classes, int[] next, long[] output) {
+        this.charClass = charClass;
+        this.classes = classes;
+        this.next = next;
+        this.output = output;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Bits das famílias encontradas em {@code text}.
+     */
+    public long match(String text) {
+        if (text == null) return 0L;
+
+        int state = 0;
+        long hits = 0L;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            state = step(state, text.charAt(i));
+            hits |= output[state];
+        }
+        return hits;
+    }
+
+    /**
+     * Como {@code match(first + " " + second)}, sem criar a string.
+     */
+    public long match(String first, String second) {
+        int state = 0;
+        long hits = 0L;
+
+        if (first != null) {
+            for (int i = 0, n = first.length(); i < n; i++) {
+                state = step(state, first.charAt(i));
+                hits |= output[state];
+            }
+        }
+
+        state = step(state, ' ');
+        hits |= output[state];
+
+        if (second != null) {
+            for (int i = 0, n = second.length(); i < n; i++) {
+                state = step(state, second.charAt(i));
+                hits |= output[state];
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * True se o texto tiver alguma keyword das famílias em {@code mask}; pára
+     * no primeiro hit.
+     */
+    public boolean matchesAny(String text, long mask) {
+        if (text == null) return false;
+
+        int state = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            state = step(state, text.charAt(i));
+            if ((output[state] & mask) != 0) return true;
+        }
+        return false;
+    }
+
+    private int step(int state, char c) {
+        return next[state * classes + classOf(c)];
+    }
+
+    private int classOf(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            c = (char) (c + ('a' - 'A'));
+        } else if (c >= 0x80) {
+            c = Character.toLowerCase(c);
+        }
+        return c < DIRECT_CHARS ? charClass[c] : 0;
+    }
+
+    public static final class Builder {
+
+        private final List<String> keywords = new ArrayList<>();
+        private final List<Long> masks = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Junta as keywords à família {@code bit} (um só bit, ex.
+         * {@code 1L << 3}). Keywords vazias são ignoradas.
+         */
+        public Builder add(long bit, String... words) {
+            if (Long.bitCount(bit) != 1) {
+                throw new IllegalArgumentException("Cada família tem de ter exatamente um bit: " + bit);
+            }
+            for (String w : words) {
+                if (w == null || w.isEmpty()) continue;
+
+                String lower = w.toLowerCase(Locale.ROOT);
+                for (int i = 0; i < lower.length(); i++) {
+                    if (lower.charAt(i) >= DIRECT_CHARS) {
+                        throw new IllegalArgumentException("Keyword fora de Latin-1: " + w);
+                    }
+                }
+                keywords.add(lower);
+                masks.add(bit);
+            }
+            return this;
+        }
+
+        public KeywordMatcher build() {
+            int[] charClass = new int[DIRECT_CHARS];
+            int classes = 1;
+            for (String k : keywords) {
+                for (int i = 0; i < k.length(); i++) {
+                    char c = k.charAt(i);
+                    if (charClass[c] == 0) charClass[c] = classes++;
+                }
+            }
+
+            // trie
+            List<int[]> trie = new ArrayList<>();
+            List<Long> out = new ArrayList<>();
+            trie.add(newNode(classes));
+            out.add(0L);
+
+            for (int k = 0; k < keywords.size(); k++) {
+                String word = keywords.get(k);
+                int node = 0;
+                for (int i = 0; i < word.length(); i++) {
+                    int cls = charClass[word.charAt(i)];
+                    if (trie.get(node)[cls] < 0) {
+                        trie.get(node)[cls] = trie.size();
+                        trie.add(newNode(classes));
+                        out.add(0L);
+                    }
+                    node = trie.get(node)[cls];
+                }
+                out.set(node, out.get(node) | masks.get(k));
+            }
+
+            // links de falha em largura, já resolvidos para transições (DFA)
+            int states = trie.size();
+            int[] next = new int[states * classes];
+            long[] output = new long[states];
+            int[] fail = new int[states];
+            for (int s = 0; s < states; s++) output[s] = out.get(s);
+
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int cls = 0; cls < classes; cls++) {
+                int child = trie.get(0)[cls];
+                if (child < 0) {
+                    next[cls] = 0;
+                } else {
+                    next[cls] = child;
+                    fail[child] = 0;
+                    queue.add(child);
+                }
+            }
+
+            while (!queue.isEmpty()) {
+                int node = queue.poll();
+                output[node] |= output[fail[node]];
+
+                for (int cls = 0; cls < classes; cls++) {
+                    int child = trie.get(node)[cls];
+                    int viaFail = next[fail[node] * classes + cls];
+                    if (child < 0) {
+                        next[node * classes + cls] = viaFail;
+                    } else {
+                        next[node * classes + cls] = child;
+                        fail[child] = viaFail;
+                        queue.add(child);
+                    }
+                }
+            }
+
+            return new KeywordMatcher(charClass, classes, next, output);
+        }
+
+        private static int[] newNode(int classes) {
+            int[] node = new int[classes];
+            Arrays.fill(node, -1);
+            return node;
+        }
+    }
+}
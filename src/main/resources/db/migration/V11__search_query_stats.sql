@@ -0,0 +1,12 @@
+create table if not exists search_query_stats (
+    query      varchar(120) not null,
+    day        date         not null,
+    hits       bigint       not null default 0,
+    zero_hits  bigint       not null default 0,
+    updated_at timestamptz  not null default now(),
+
+    constraint pk_search_query_stats primary key (query, day)
+);
+
+create index if not exists idx_search_query_stats_day
+    on search_query_stats(day);
@@ -0,0 +1,11 @@
+create table if not exists media_deletion_outbox (
+    id              bigserial    primary key,
+    storage_key     text         not null,
+    attempts        integer      not null default 0,
+    next_attempt_at timestamptz  not null default now(),
+    last_error      text,
+    created_at      timestamptz  not null default now()
+);
+
+create index if not exists idx_media_deletion_outbox_next_attempt
+    on media_deletion_outbox(next_attempt_at);
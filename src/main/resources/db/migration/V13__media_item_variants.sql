@@ -0,0 +1,2 @@
+alter table media_item
+    add column if not exists variant_widths integer[];
@@ -0,0 +1,13 @@
+create table if not exists media_blob (
+    sha256       char(64)     primary key,
+    storage_key  text         not null unique,
+    content_type varchar(100),
+    size_bytes   bigint       not null default 0,
+    ref_count    integer      not null default 0,
+    zero_since   timestamptz           default now(),
+    created_at   timestamptz  not null default now()
+);
+
+create index if not exists idx_media_blob_zero_since
+    on media_blob(zero_since)
+    where ref_count = 0;
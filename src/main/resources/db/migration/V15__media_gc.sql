@@ -0,0 +1,50 @@
+-- lookups por storage key (GC de órfãos, dedup, complete de uploads diretos)
+create index if not exists idx_media_item_storage_key
+    on media_item(storage_key);
+
+-- linhas antigas guardam o URL completo em storage_key; o GC compara pela key
+create index if not exists idx_media_item_storage_key_path
+    on media_item(regexp_replace(storage_key, '^https?://[^/]+/|#.*$', '', 'g'));
+
+create index if not exists idx_media_deletion_outbox_storage_key
+    on media_deletion_outbox(storage_key);
+
+create table if not exists media_gc_run (
+    id              bigserial    primary key,
+    status          varchar(20)  not null default 'RUNNING',
+    dry_run         boolean      not null default false,
+    started_at      timestamptz  not null default now(),
+    finished_at     timestamptz,
+    scanned_objects bigint       not null default 0,
+    scanned_bytes   bigint       not null default 0,
+    orphan_objects  bigint       not null default 0,
+    reclaimed_bytes bigint       not null default 0
+);
+
+-- no máximo uma execução em curso
+create unique index if not exists uq_media_gc_run_running
+    on media_gc_run((true))
+    where status = 'RUNNING';
+
+create table if not exists media_gc_shard (
+    id              bigserial    primary key,
+    run_id          bigint       not null references media_gc_run(id) on delete cascade,
+    prefix          text         not null,
+    range_start     text,
+    range_end       text,
+    last_key        text,
+    parent_base     text,
+    parent_live     boolean,
+    done            boolean      not null default false,
+    lease_owner     uuid,
+    lease_until     timestamptz,
+    scanned_objects bigint       not null default 0,
+    scanned_bytes   bigint       not null default 0,
+    orphan_objects  bigint       not null default 0,
+    reclaimed_bytes bigint       not null default 0,
+    updated_at      timestamptz  not null default now()
+);
+
+create index if not exists idx_media_gc_shard_pending
+    on media_gc_shard(run_id)
+    where not done;
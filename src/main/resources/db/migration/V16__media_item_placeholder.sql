@@ -0,0 +1,5 @@
+alter table media_item
+    add column if not exists width          integer,
+    add column if not exists height         integer,
+    add column if not exists blur_hash      varchar(64),
+    add column if not exists dominant_color varchar(7);
@@ -0,0 +1,7 @@
+-- original guardado ao lado da versão otimizada (ptdot.media.optimize.keep-original)
+alter table media_item
+    add column if not exists original_key text;
+
+create index if not exists idx_media_item_original_key
+    on media_item(original_key)
+    where original_key is not null;
@@ -0,0 +1,8 @@
+create table if not exists wikimedia_media_cache (
+    cache_key  text        primary key,
+    urls       text[]      not null,
+    fetched_at timestamptz not null default now()
+);
+
+create index if not exists idx_wikimedia_media_cache_fetched_at
+    on wikimedia_media_cache(fetched_at);
@@ -0,0 +1,10 @@
+create table if not exists wikimedia_prefetch_state (
+    entity_type  varchar(50) not null,
+    entity_id    bigint      not null,
+    attempted_at timestamptz not null default now(),
+    attempts     integer     not null default 1,
+    image_count  integer,
+    last_error   text,
+
+    constraint pk_wikimedia_prefetch_state primary key (entity_type, entity_id)
+);
@@ -0,0 +1,8 @@
+-- o GC também conta como referência os avatares e os district_files, que
+-- guardam o URL completo; compara pelo path como em media_item
+create index if not exists idx_app_user_avatar_url_path
+    on app_user(regexp_replace(avatar_url, '^https?://[^/]+/|#.*$', '', 'g'))
+    where avatar_url is not null;
+
+create index if not exists idx_district_files_file_url_path
+    on district_files(regexp_replace(file_url, '^https?://[^/]+/|#.*$', '', 'g'));
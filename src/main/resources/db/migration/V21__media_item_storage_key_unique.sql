@@ -0,0 +1,16 @@
+-- keys por entidade (upload normal e direto) têm UUID: uma linha por key.
+-- blobs/ é partilhado por várias linhas (dedup), por isso fica de fora.
+-- remove duplicados de um complete repetido antes de criar o índice
+delete from media_item m
+using media_item o
+where m.provider = 'cloud'
+  and o.provider = 'cloud'
+  and m.storage_key = o.storage_key
+  and m.entity_type = o.entity_type
+  and m.entity_id = o.entity_id
+  and m.storage_key not like 'blobs/%'
+  and m.id > o.id;
+
+create unique index if not exists uq_media_item_storage_key
+    on media_item(storage_key)
+    where provider = 'cloud' and storage_key not like 'blobs/%';
@@ -0,0 +1,4 @@
+-- títulos e dimensões na mesma ordem de urls, para o ranking do fan-out
+alter table wikimedia_media_cache add column if not exists titles text[];
+alter table wikimedia_media_cache add column if not exists widths integer[];
+alter table wikimedia_media_cache add column if not exists heights integer[];
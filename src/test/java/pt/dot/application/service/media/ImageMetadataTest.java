@@ -0,0 +1,193 @@
+package pt.dot.application.service.media;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ImageMetadataTest {
+
+    @Test
+    void jpegLosesExifIptcAndCommentsButKeepsThePixels() throws IOException {
+        byte[] clean = encode("jpg");
+        byte[] tagged = afterSoi(clean,
+                segment(0xE1, "Exif\0\0GPS 38.7223,-9.1393"),
+                segment(0xED, "Photoshop 3.0\0IPTC"),
+                segment(0xFE, "comentario"));
+
+        byte[] stripped = strip(tagged, "image/jpeg", 1);
+
+        assertThat(stripped).isEqualTo(clean);
+        assertThat(ImageIO.read(new ByteArrayInputStream(stripped))).isNotNull();
+    }
+
+    @Test
+    void jpegKeepsOnlyTheOrientationTag() throws IOException {
+        byte[] clean = encode("jpg");
+        byte[] tagged = afterSoi(clean, segment(0xE1, "Exif\0\0camera, GPS, orientacao 6"));
+
+        byte[] stripped = strip(tagged, "image/jpeg", 6);
+
+        assertThat(stripped).isEqualTo(afterSoi(clean, ImageMetadata.orientationApp1(6)));
+        assertThat(ImageProbe.probe(new ByteArrayInputStream(stripped)).info().orientation()).isEqualTo(6);
+    }
+
+    @Test
+    void pngLosesTextExifAndTimeChunks() throws IOException {
+        byte[] clean = encode("png");
+        byte[] tagged = afterIhdr(clean,
+                chunk("tEXt", "Author\0alguem"),
+                chunk("iTXt", "Description\0\0\0\0\0texto"),
+                chunk("eXIf", "MM\0*GPS"),
+                chunk("tIME", "\u0007ê\u0001\u0001\0\0\0"));
+
+        byte[] stripped = strip(tagged, "image/png", 1);
+
+        assertThat(stripped).isEqualTo(clean);
+    }
+
+    @Test
+    void pngKeepsOtherChunks() throws IOException {
+        byte[] clean = encode("png");
+        byte[] withPhys = afterIhdr(clean, chunk("pHYs", "\0\0\u000b\u0013\0\0\u000b\u0013\u0001"));
+
+        assertThat(strip(withPhys, "image/png", 1)).isEqualTo(withPhys);
+    }
+
+    @Test
+    void webpLosesExifAndXmpChunksAndFlags() throws IOException {
+        byte[] vp8x = riffChunk("VP8X", new byte[]{0x0C | 0x10, 0, 0, 0, 9, 0, 0, 9, 0, 0});
+        byte[] image = riffChunk("VP8L", new byte[]{1, 2, 3, 4, 5});
+        byte[] webp = riff(vp8x, image, riffChunk("EXIF", "MM\0*GPS".getBytes(StandardCharsets.US_ASCII)),
+                riffChunk("XMP ", "<x:xmpmeta/>".getBytes(StandardCharsets.US_ASCII)));
+
+        byte[] stripped = ImageMetadata.stripWebp(webp);
+
+        byte[] cleared = vp8x.clone();
+        cleared[8] = 0x10;
+        assertThat(stripped).isEqualTo(riff(cleared, image));
+    }
+
+    @Test
+    void truncatedWebpIsRejected() throws IOException {
+        byte[] webp = riff(riffChunk("VP8L", new byte[]{1, 2, 3, 4, 5, 6}));
+
+        assertThatThrownBy(() -> ImageMetadata.stripWebp(Arrays.copyOf(webp, webp.length - 3)))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void otherFormatsPassThrough() throws IOException {
+        byte[] gif = encode("gif");
+
+        assertThat(strip(gif, "image/gif", 6)).isEqualTo(gif);
+    }
+
+    private static byte[] strip(byte[] image, String contentType, int orientation) throws IOException {
+        try (InputStream in = ImageMetadata.strip(new ByteArrayInputStream(image), contentType, orientation)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] encode(String format) throws IOException {
+        BufferedImage image = new BufferedImage(16, 12, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(3, 4, 0xC0FFEE);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(ImageIO.write(image, format, out)).isTrue();
+        return out.toByteArray();
+    }
+
+    private static byte[] segment(int marker, String payload) {
+        byte[] data = payload.getBytes(StandardCharsets.ISO_8859_1);
+        int length = data.length + 2;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(marker);
+        out.write(length >>> 8);
+        out.write(length);
+        out.writeBytes(data);
+        return out.toByteArray();
+    }
+
+    private static byte[] chunk(String type, String payload) {
+        byte[] data = payload.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeU32be(out, data.length);
+        out.writeBytes(typeBytes);
+        out.writeBytes(data);
+        writeU32be(out, crc.getValue());
+        return out.toByteArray();
+    }
+
+    private static byte[] afterSoi(byte[] jpeg, byte[]... segments) {
+        return insertAt(jpeg, 2, segments);
+    }
+
+    /**
+     * Assinatura (8) + IHDR (4 + 4 + 13 + 4).
+     */
+    private static byte[] afterIhdr(byte[] png, byte[]... chunks) {
+        return insertAt(png, 8 + 25, chunks);
+    }
+
+    private static byte[] insertAt(byte[] bytes, int at, byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(bytes, 0, at);
+        for (byte[] p : parts) out.writeBytes(p);
+        out.write(bytes, at, bytes.length - at);
+        return out.toByteArray();
+    }
+
+    private static byte[] riffChunk(String fourcc, byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(fourcc.getBytes(StandardCharsets.US_ASCII));
+        writeU32le(out, data.length);
+        out.writeBytes(data);
+        if ((data.length & 1) == 1) out.write(0);
+        return out.toByteArray();
+    }
+
+    private static byte[] riff(byte[]... chunks) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes("WEBP".getBytes(StandardCharsets.US_ASCII));
+        for (byte[] c : chunks) body.writeBytes(c);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes("RIFF".getBytes(StandardCharsets.US_ASCII));
+        writeU32le(out, body.size());
+        out.writeBytes(body.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static void writeU32be(ByteArrayOutputStream out, long v) {
+        out.write((int) (v >>> 24));
+        out.write((int) (v >>> 16));
+        out.write((int) (v >>> 8));
+        out.write((int) v);
+    }
+
+    private static void writeU32le(ByteArrayOutputStream out, long v) {
+        out.write((int) v);
+        out.write((int) (v >>> 8));
+        out.write((int) (v >>> 16));
+        out.write((int) (v >>> 24));
+    }
+}
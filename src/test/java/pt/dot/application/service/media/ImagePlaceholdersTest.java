@@ -0,0 +1,84 @@
+package pt.dot.application.service.media;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImagePlaceholdersTest {
+
+    @Test
+    void dcComponentIsTheAverageColor() {
+        // 4x3 -> 'L'; vermelho puro: DC = ff0000 -> "TI:j" em base 83
+        String hash = ImagePlaceholders.blurHash(solid(32, 24, Color.RED), 4, 3);
+
+        assertThat(hash.substring(0, 1)).isEqualTo("L");
+        assertThat(hash.substring(2, 6)).isEqualTo("TI:j");
+    }
+
+    @Test
+    void firstCharacterEncodesTheComponentCounts() {
+        BufferedImage image = gradient(32, 24);
+
+        String landscape = ImagePlaceholders.blurHash(image, 4, 3);
+        String portrait = ImagePlaceholders.blurHash(image, 3, 4);
+
+        assertThat(landscape).startsWith("L").hasSize(4 + 2 * 12);
+        assertThat(portrait).startsWith("T").hasSize(4 + 2 * 12);
+        assertThat(landscape).isNotEqualTo(portrait);
+    }
+
+    @Test
+    void componentCountsAreClampedToOneToNine() {
+        String hash = ImagePlaceholders.blurHash(gradient(16, 16), 0, 12);
+
+        // 1x9: (1 - 1) + (9 - 1) * 9 = 72 -> '='
+        assertThat(hash).startsWith("=").hasSize(4 + 2 * 9);
+    }
+
+    @Test
+    void gradientHasAcEnergy() {
+        String hash = ImagePlaceholders.blurHash(gradient(32, 24), 4, 3);
+
+        assertThat(hash.charAt(1)).isNotEqualTo('0');
+    }
+
+    @Test
+    void dominantColorIsTheMostFrequentBucket() {
+        BufferedImage image = solid(20, 10, Color.BLUE);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.RED);
+            g.fillRect(0, 0, 5, 10);
+        } finally {
+            g.dispose();
+        }
+
+        assertThat(ImagePlaceholders.dominantColor(image)).isEqualTo("#0000ff");
+    }
+
+    private static BufferedImage solid(int width, int height, Color color) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(color);
+            g.fillRect(0, 0, width, height);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    private static BufferedImage gradient(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8);
+            }
+        }
+        return image;
+    }
+}
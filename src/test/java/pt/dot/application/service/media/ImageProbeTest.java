@@ -0,0 +1,129 @@
+package pt.dot.application.service.media;
+
+import org.junit.jupiter.api.Test;
+import pt.dot.application.exception.ApiException;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ImageProbeTest {
+
+    @Test
+    void readsTypeAndSizeFromTheHeader() throws IOException {
+        assertProbe(encode("png", 40, 30), "image/png", 40, 30);
+        assertProbe(encode("jpg", 64, 48), "image/jpeg", 64, 48);
+        assertProbe(encode("gif", 17, 9), "image/gif", 17, 9);
+        assertProbe(encode("bmp", 12, 7), "image/bmp", 12, 7);
+        assertProbe(webpVp8x(800, 600), "image/webp", 800, 600);
+    }
+
+    @Test
+    void streamReplaysTheWholeFile() throws IOException {
+        byte[] png = encode("png", 40, 30);
+
+        ImageProbe.Probed probed = ImageProbe.probe(new ByteArrayInputStream(png));
+
+        assertThat(probed).isNotNull();
+        try (InputStream in = probed.stream()) {
+            assertThat(in.readAllBytes()).isEqualTo(png);
+        }
+    }
+
+    @Test
+    void readsTheExifOrientationOfAJpeg() throws IOException {
+        byte[] jpeg = encode("jpg", 64, 48);
+        byte[] rotated;
+        try (InputStream in = ImageMetadata.strip(new ByteArrayInputStream(jpeg), "image/jpeg", 6)) {
+            rotated = in.readAllBytes();
+        }
+
+        ImageProbe.Probed probed = ImageProbe.probe(new ByteArrayInputStream(rotated));
+
+        assertThat(probed).isNotNull();
+        assertThat(probed.info().orientation()).isEqualTo(6);
+        assertThat(probed.info().width()).isEqualTo(64);
+    }
+
+    @Test
+    void rejectsWhatIsNotASupportedImage() throws IOException {
+        byte[] svg = "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"10\" height=\"10\"/>"
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] truncatedPng = Arrays.copyOf(encode("png", 40, 30), 20);
+
+        assertThat(ImageProbe.probe(new ByteArrayInputStream(svg))).isNull();
+        assertThat(ImageProbe.probe(new ByteArrayInputStream(truncatedPng))).isNull();
+        assertThat(ImageProbe.probe(new ByteArrayInputStream(new byte[0]))).isNull();
+    }
+
+    @Test
+    void givesUpWhenTheJpegHeaderIsTooLong() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xD8});
+        byte[] app2 = new byte[65_533];
+        for (int i = 0; i * 65_535 <= ImageProbe.MAX_HEADER_BYTES; i++) {
+            out.write(new byte[]{(byte) 0xFF, (byte) 0xE2, (byte) 0xFF, (byte) 0xFF});
+            out.write(app2);
+        }
+        byte[] jpeg = encode("jpg", 8, 8);
+        out.write(jpeg, 2, jpeg.length - 2);
+
+        assertThat(ImageProbe.probe(new ByteArrayInputStream(out.toByteArray()))).isNull();
+    }
+
+    @Test
+    void limitFailsPastTheMaximum() throws IOException {
+        InputStream limited = ImageProbe.limit(new ByteArrayInputStream(new byte[100]), 64);
+
+        assertThat(limited.readNBytes(64)).hasSize(64);
+        assertThatThrownBy(limited::read)
+                .isInstanceOfSatisfying(ApiException.class,
+                        ex -> assertThat(ex.getCode()).isEqualTo("MEDIA_FILE_TOO_LARGE"));
+    }
+
+    private static void assertProbe(byte[] image, String contentType, int width, int height) throws IOException {
+        ImageProbe.Probed probed = ImageProbe.probe(new ByteArrayInputStream(image));
+
+        assertThat(probed).as(contentType).isNotNull();
+        assertThat(probed.info().contentType()).isEqualTo(contentType);
+        assertThat(probed.info().width()).isEqualTo(width);
+        assertThat(probed.info().height()).isEqualTo(height);
+    }
+
+    private static byte[] encode(String format, int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(width / 2, height / 2, 0xC0FFEE);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(ImageIO.write(image, format, out)).as(format).isTrue();
+        return out.toByteArray();
+    }
+
+    /**
+     * Só o cabeçalho RIFF + VP8X (o ImageIO não escreve WebP).
+     */
+    private static byte[] webpVp8x(int width, int height) {
+        byte[] b = new byte[30];
+        System.arraycopy("RIFF".getBytes(StandardCharsets.US_ASCII), 0, b, 0, 4);
+        b[4] = 22;
+        System.arraycopy("WEBPVP8X".getBytes(StandardCharsets.US_ASCII), 0, b, 8, 8);
+        b[16] = 10;
+        u24le(b, 24, width - 1);
+        u24le(b, 27, height - 1);
+        return b;
+    }
+
+    private static void u24le(byte[] b, int i, int value) {
+        b[i] = (byte) value;
+        b[i + 1] = (byte) (value >>> 8);
+        b[i + 2] = (byte) (value >>> 16);
+    }
+}
@@ -0,0 +1,111 @@
+package pt.dot.application.service.media;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class MediaBlobServiceTest {
+
+    private static final String BASE_URL = "https://media.example";
+
+    @TempDir
+    Path root;
+
+    /** media_blob em memória: sha256 -> linha */
+    private final Map<String, MediaStorage.UploadResult> blobs = new HashMap<>();
+    private final List<String> enqueued = new ArrayList<>();
+
+    private LocalMediaStorageService storage;
+    private MediaBlobService service;
+
+    @BeforeEach
+    void setUp() {
+        JdbcTemplate jdbc = mock(JdbcTemplate.class);
+        MediaDeletionOutboxService outbox = mock(MediaDeletionOutboxService.class);
+        storage = new LocalMediaStorageService(root.toString(), BASE_URL, 1_000_000L, false);
+        service = new MediaBlobService(jdbc, storage, outbox, new MediaUrlService(BASE_URL), new int[]{160}, 3600);
+
+        // insert ... on conflict (sha256) do nothing
+        doAnswer(inv -> {
+            String sha256 = inv.getArgument(1);
+            if (blobs.containsKey(sha256)) return 0;
+            String key = inv.getArgument(2);
+            blobs.put(sha256, new MediaStorage.UploadResult(
+                    key, BASE_URL + "/" + key, inv.getArgument(3), inv.getArgument(4), sha256));
+            return 1;
+        }).when(jdbc).update(contains("insert into media_blob"), any(Object[].class));
+
+        doAnswer(inv -> {
+            MediaStorage.UploadResult row = blobs.get((String) inv.getArgument(2));
+            return row == null ? List.of() : List.of(row);
+        }).when(jdbc).query(contains("where sha256 = ?"), any(RowMapper.class), any(Object[].class));
+
+        doAnswer(inv -> {
+            Collection<String> keys = inv.getArgument(0);
+            enqueued.addAll(keys);
+            return null;
+        }).when(outbox).enqueue(any());
+    }
+
+    @Test
+    void sameBytesUploadedTwiceShareOneContentKey() {
+        byte[] bytes = "o mesmo ficheiro".getBytes(StandardCharsets.UTF_8);
+        MediaStorage.UploadResult firstUpload = upload(bytes, 7L);
+        MediaStorage.UploadResult secondUpload = upload(bytes, 8L);
+
+        MediaStorage.UploadResult first = service.register(firstUpload);
+        MediaStorage.UploadResult second = service.register(secondUpload);
+
+        assertThat(MediaKeys.isContentKey(first.storageKey())).isTrue();
+        assertThat(second.storageKey()).isEqualTo(first.storageKey());
+        assertThat(second.url()).isEqualTo(BASE_URL + "/" + first.storageKey());
+        assertThat(storage.getObjectBytes(first.storageKey())).isEqualTo(bytes);
+        assertThat(blobs).hasSize(1);
+        // os objetos por entidade já não são precisos
+        assertThat(enqueued).containsExactly(firstUpload.storageKey(), secondUpload.storageKey());
+    }
+
+    @Test
+    void differentBytesGetTheirOwnContentKeys() {
+        MediaStorage.UploadResult a = service.register(upload("a".getBytes(StandardCharsets.UTF_8), 7L));
+        MediaStorage.UploadResult b = service.register(upload("b".getBytes(StandardCharsets.UTF_8), 7L));
+
+        assertThat(MediaKeys.isContentKey(a.storageKey())).isTrue();
+        assertThat(MediaKeys.isContentKey(b.storageKey())).isTrue();
+        assertThat(a.storageKey()).isNotEqualTo(b.storageKey());
+        assertThat(blobs).hasSize(2);
+    }
+
+    @Test
+    void perEntityKeyAlreadyIndexedIsNeverShared() {
+        byte[] bytes = "legado".getBytes(StandardCharsets.UTF_8);
+        MediaStorage.UploadResult legacy = upload(bytes, 7L);
+        blobs.put(legacy.sha256(), legacy);
+
+        MediaStorage.UploadResult second = upload(bytes, 8L);
+
+        assertThat(service.register(second)).isEqualTo(second);
+        assertThat(enqueued).isEmpty();
+    }
+
+    private MediaStorage.UploadResult upload(byte[] bytes, long entityId) {
+        return storage.uploadStream(new ByteArrayInputStream(bytes), "foto.jpg", "image/jpeg", "poi", entityId, "image");
+    }
+}
@@ -0,0 +1,95 @@
+package pt.dot.application.service.media;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MediaDerivativeServiceTest {
+
+    @Test
+    void decodeAppliesTheExifOrientation() throws IOException {
+        // 64x48 com um canto vermelho em cima à esquerda; 6 = rodar 90° à direita
+        BufferedImage decoded = MediaDerivativeService.decode(probe(jpeg(64, 48), 6));
+
+        assertThat(decoded.getWidth()).isEqualTo(48);
+        assertThat(decoded.getHeight()).isEqualTo(64);
+        assertThat(isRed(decoded.getRGB(43, 4))).isTrue();
+        assertThat(isRed(decoded.getRGB(4, 4))).isFalse();
+    }
+
+    @Test
+    void decodeKeepsImagesWithoutOrientation() throws IOException {
+        BufferedImage decoded = MediaDerivativeService.decode(probe(jpeg(64, 48), 1));
+
+        assertThat(decoded.getWidth()).isEqualTo(64);
+        assertThat(decoded.getHeight()).isEqualTo(48);
+        assertThat(isRed(decoded.getRGB(4, 4))).isTrue();
+    }
+
+    @Test
+    void placeholderOfARotatedPhotoFollowsTheDisplayedOrientation() throws IOException {
+        // codificada 64x48 (deitada), mostrada 48x64 (retrato)
+        MediaDerivativeService.Placeholder rotated =
+                MediaDerivativeService.placeholder(MediaDerivativeService.decode(probe(jpeg(64, 48), 6)));
+        MediaDerivativeService.Placeholder upright =
+                MediaDerivativeService.placeholder(MediaDerivativeService.decode(probe(jpeg(64, 48), 1)));
+
+        assertThat(rotated.width()).isEqualTo(48);
+        assertThat(rotated.height()).isEqualTo(64);
+        // 3x4 componentes -> 'T'; 4x3 -> 'L'
+        assertThat(rotated.blurHash()).startsWith("T");
+        assertThat(upright.width()).isEqualTo(64);
+        assertThat(upright.blurHash()).startsWith("L");
+        assertThat(rotated.dominantColor()).isEqualTo(upright.dominantColor());
+    }
+
+    @Test
+    void variantKeyReplacesTheExtension() {
+        assertThat(MediaDerivativeService.variantKey("poi/1/images/abc.png", 480)).isEqualTo("poi/1/images/abc_w480.jpg");
+        assertThat(MediaDerivativeService.variantKey("blobs/ab/abc-1234", 160)).isEqualTo("blobs/ab/abc-1234_w160.jpg");
+    }
+
+    private static ImageProbe.Probed probe(byte[] jpeg, int orientation) throws IOException {
+        byte[] tagged;
+        try (InputStream in = ImageMetadata.strip(new ByteArrayInputStream(jpeg), "image/jpeg", orientation)) {
+            tagged = in.readAllBytes();
+        }
+
+        ImageProbe.Probed probed = ImageProbe.probe(new ByteArrayInputStream(tagged));
+        assertThat(probed).isNotNull();
+        return probed;
+    }
+
+    private static byte[] jpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+            g.setColor(Color.RED);
+            g.fillRect(0, 0, 16, 16);
+        } finally {
+            g.dispose();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThat(ImageIO.write(image, "jpg", out)).isTrue();
+        return out.toByteArray();
+    }
+
+    private static boolean isRed(int rgb) {
+        int r = (rgb >> 16) & 0xff;
+        int g = (rgb >> 8) & 0xff;
+        int b = rgb & 0xff;
+        return r > 200 && g < 80 && b < 80;
+    }
+}
@@ -0,0 +1,45 @@
+package pt.dot.application.service.media;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MediaKeysTest {
+
+    @Test
+    void extensionComesFromTheContentTypeFirst() {
+        assertThat(MediaKeys.extensionFrom("foto.png", "image/jpeg")).isEqualTo(".jpg");
+        assertThat(MediaKeys.extensionFrom("foto.jpeg", "image/jpg")).isEqualTo(".jpg");
+        assertThat(MediaKeys.extensionFrom(null, "application/pdf")).isEqualTo(".pdf");
+        assertThat(MediaKeys.extensionFrom("clip", "VIDEO/QUICKTIME")).isEqualTo(".mov");
+    }
+
+    @Test
+    void octetStreamFallsBackToAnAllowlistedFilenameExtension() {
+        assertThat(MediaKeys.extensionFrom("Foto.JPEG", MediaKeys.OCTET_STREAM)).isEqualTo(".jpeg");
+        assertThat(MediaKeys.extensionFrom(" video.webm ", null)).isEqualTo(".webm");
+        assertThat(MediaKeys.extensionFrom("arquivo.tar.gz.pdf", MediaKeys.OCTET_STREAM)).isEqualTo(".pdf");
+    }
+
+    @Test
+    void extensionsOutsideTheAllowlistAreDropped() {
+        assertThat(MediaKeys.extensionFrom("pagina.html", MediaKeys.OCTET_STREAM)).isEmpty();
+        assertThat(MediaKeys.extensionFrom("logo.svg", "image/svg+xml")).isEmpty();
+        assertThat(MediaKeys.extensionFrom("script.php.", MediaKeys.OCTET_STREAM)).isEmpty();
+        assertThat(MediaKeys.extensionFrom("sem-extensao", null)).isEmpty();
+        assertThat(MediaKeys.extensionFrom(null, null)).isEmpty();
+    }
+
+    @Test
+    void storageKeysOnlyCarryAllowlistedExtensions() {
+        String svg = MediaKeys.buildStorageKey("poi", 7L, "image", "logo.svg",
+                MediaKeys.normalizeContentType("image/svg+xml"));
+        String jpeg = MediaKeys.buildStorageKey("poi", 7L, "image", "foto",
+                MediaKeys.normalizeContentType("image/jpeg; charset=binary"));
+
+        assertThat(svg).startsWith("poi/7/images/").doesNotContain(".svg");
+        assertThat(MediaKeys.contentTypeForKey(svg)).isEqualTo(MediaKeys.OCTET_STREAM);
+        assertThat(jpeg).startsWith("poi/7/images/");
+        assertThat(MediaKeys.contentTypeForKey(jpeg)).isEqualTo("image/jpeg");
+    }
+}
@@ -0,0 +1,125 @@
+package pt.dot.application.service.media;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MediaOrphanGcServiceTest {
+
+    private static final Instant NOW = Instant.parse("2026-01-10T12:00:00Z");
+    private static final Instant CUTOFF = NOW.minus(Duration.ofHours(24));
+    private static final Instant OLD = NOW.minus(Duration.ofDays(3));
+
+    private static final MediaOrphanGcService.KeyState REFERENCED = new MediaOrphanGcService.KeyState(true, false);
+    private static final MediaOrphanGcService.KeyState QUEUED = new MediaOrphanGcService.KeyState(false, true);
+
+    @Test
+    void unreferencedOriginalGoesWithItsDerivatives() {
+        List<String> orphans = orphans(
+                List.of(old("poi/1/images/abc.jpg"), old("poi/1/images/abc_w160.jpg"), old("poi/1/images/abc_w480.jpg")),
+                Map.of()
+        );
+
+        assertThat(orphans).containsExactly("poi/1/images/abc.jpg", "poi/1/images/abc_w160.jpg", "poi/1/images/abc_w480.jpg");
+    }
+
+    @Test
+    void referencedOriginalKeepsItsDerivatives() {
+        List<String> orphans = orphans(
+                List.of(old("poi/1/images/abc.jpg"), old("poi/1/images/abc_w160.jpg"), old("poi/1/images/abc_w480.jpg")),
+                Map.of("poi/1/images/abc.jpg", REFERENCED)
+        );
+
+        assertThat(orphans).isEmpty();
+    }
+
+    @Test
+    void originalWithinTheGracePeriodKeepsItsDerivatives() {
+        List<String> orphans = orphans(
+                List.of(
+                        object("poi/1/images/abc.jpg", NOW.minus(Duration.ofHours(1))),
+                        old("poi/1/images/abc_w160.jpg")
+                ),
+                Map.of()
+        );
+
+        assertThat(orphans).isEmpty();
+    }
+
+    @Test
+    void objectAlreadyInTheOutboxIsNotDeletedAgain() {
+        List<String> orphans = orphans(
+                List.of(old("poi/1/images/abc.jpg"), old("poi/1/images/def.jpg")),
+                Map.of("poi/1/images/abc.jpg", QUEUED)
+        );
+
+        assertThat(orphans).containsExactly("poi/1/images/def.jpg");
+    }
+
+    @Test
+    void derivativeWithoutItsOriginalIsJudgedOnItsOwn() {
+        // o original (abc.jpg) já não existe: a derivada não segue a anterior (aaa.jpg)
+        List<String> orphans = orphans(
+                List.of(old("poi/1/images/aaa.jpg"), old("poi/1/images/abc_w160.jpg"), old("poi/1/images/abc_w480.jpg")),
+                Map.of("poi/1/images/aaa.jpg", REFERENCED)
+        );
+
+        assertThat(orphans).containsExactly("poi/1/images/abc_w160.jpg", "poi/1/images/abc_w480.jpg");
+    }
+
+    @Test
+    void originalsWithTheSameBaseShareTheDerivatives() {
+        // abc.jpg < abc.png < abc_w160.jpg na ordem das keys
+        List<String> orphans = orphans(
+                List.of(old("poi/1/images/abc.jpg"), old("poi/1/images/abc.png"), old("poi/1/images/abc_w160.jpg")),
+                Map.of("poi/1/images/abc.jpg", REFERENCED)
+        );
+
+        assertThat(orphans).containsExactly("poi/1/images/abc.png");
+    }
+
+    @Test
+    void parentCarriesOverToTheNextPage() {
+        MediaOrphanGcService.Parent parent = new MediaOrphanGcService.Parent(null, false);
+
+        List<MediaStorage.ListedObject> first = MediaOrphanGcService.orphans(
+                List.of(old("poi/1/images/abc.jpg")), Map.of("poi/1/images/abc.jpg", REFERENCED), CUTOFF, parent);
+        List<MediaStorage.ListedObject> second = MediaOrphanGcService.orphans(
+                List.of(old("poi/1/images/abc_w160.jpg"), old("poi/1/images/abd.jpg")), Map.of(), CUTOFF, parent);
+
+        assertThat(first).isEmpty();
+        assertThat(second).extracting(MediaStorage.ListedObject::key).containsExactly("poi/1/images/abd.jpg");
+        assertThat(parent.base).isEqualTo("poi/1/images/abd");
+        assertThat(parent.live).isFalse();
+    }
+
+    @Test
+    void objectWithoutModificationDateIsKept() {
+        List<String> orphans = orphans(List.of(object("poi/1/images/abc.jpg", null)), Map.of());
+
+        assertThat(orphans).isEmpty();
+    }
+
+    private static List<String> orphans(
+            List<MediaStorage.ListedObject> objects,
+            Map<String, MediaOrphanGcService.KeyState> states
+    ) {
+        return MediaOrphanGcService.orphans(objects, states, CUTOFF, new MediaOrphanGcService.Parent(null, false))
+                .stream()
+                .map(MediaStorage.ListedObject::key)
+                .toList();
+    }
+
+    private static MediaStorage.ListedObject old(String key) {
+        return object(key, OLD);
+    }
+
+    private static MediaStorage.ListedObject object(String key, Instant lastModified) {
+        return new MediaStorage.ListedObject(key, 100, lastModified);
+    }
+}
@@ -0,0 +1,151 @@
+package pt.dot.application.service.media;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pt.dot.application.db.entity.MediaItem;
+import pt.dot.application.db.repo.MediaItemRepository;
+import pt.dot.application.exception.ApiException;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MediaUploadIntentServiceTest {
+
+    private static final String SECRET = "test-secret-test-secret-test-secret-test-secret";
+    private static final UUID USER = UUID.randomUUID();
+
+    private MediaStorage mediaStorage;
+    private MediaItemService mediaItemService;
+    private MediaItemRepository mediaItemRepository;
+    private MediaUploadIntentService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        mediaStorage = mock(MediaStorage.class);
+        mediaItemService = mock(MediaItemService.class);
+        mediaItemRepository = mock(MediaItemRepository.class);
+        service = service(SECRET);
+
+        presignExpiringAt(Instant.now().plusSeconds(900));
+    }
+
+    @Test
+    void validTokenCreatesTheMediaItem() {
+        MediaUploadIntentService.Intent intent = intent();
+        MediaItem item = mock(MediaItem.class);
+        when(mediaStorage.head(intent.storageKey()))
+                .thenReturn(Optional.of(new MediaStorage.ObjectInfo(1234, "image/jpeg")));
+        when(mediaItemService.createCloudMedia(any(), any(), any(), any(MediaStorage.UploadResult.class)))
+                .thenReturn(item);
+
+        MediaUploadIntentService.Completed completed = service.complete(USER, intent.uploadToken());
+
+        assertThat(completed.item()).isEqualTo(item);
+        assertThat(completed.upload().storageKey()).isEqualTo(intent.storageKey());
+        verify(mediaItemService).createCloudMedia(eq("poi"), eq(7L), eq("image"), any(MediaStorage.UploadResult.class));
+    }
+
+    @Test
+    void tokenOfAnotherUserIsForbidden() {
+        MediaUploadIntentService.Intent intent = intent();
+
+        assertThatThrownBy(() -> service.complete(UUID.randomUUID(), intent.uploadToken()))
+                .isInstanceOfSatisfying(ApiException.class, code("MEDIA_UPLOAD_FORBIDDEN"));
+    }
+
+    @Test
+    void tamperedTokenIsRejected() {
+        String mine = intent().uploadToken();
+        String other = service.createIntent(USER, "poi", 8L, "image", "b.jpg", "image/jpeg", 99L).uploadToken();
+
+        // payload de outro intent com a assinatura deste
+        String[] parts = mine.split("\\.");
+        String tampered = parts[0] + "." + other.split("\\.")[1] + "." + parts[2];
+
+        assertThatThrownBy(() -> service.complete(USER, tampered))
+                .isInstanceOfSatisfying(ApiException.class, code("MEDIA_UPLOAD_TOKEN_INVALID"));
+        verify(mediaStorage, never()).head(anyString());
+    }
+
+    @Test
+    void tokenSignedWithAnotherSecretIsRejected() {
+        String foreign = service("another-secret-another-secret-another-secret").createIntent(
+                USER, "poi", 7L, "image", "a.jpg", "image/jpeg", 1234L
+        ).uploadToken();
+
+        assertThatThrownBy(() -> service.complete(USER, foreign))
+                .isInstanceOfSatisfying(ApiException.class, code("MEDIA_UPLOAD_TOKEN_INVALID"));
+    }
+
+    @Test
+    void expiredTokenIsRejected() throws Exception {
+        presignExpiringAt(Instant.now().minus(Duration.ofHours(2)));
+        String expired = intent().uploadToken();
+
+        assertThatThrownBy(() -> service.complete(USER, expired))
+                .isInstanceOfSatisfying(ApiException.class, code("MEDIA_UPLOAD_TOKEN_INVALID"));
+    }
+
+    @Test
+    void missingTokenIsABadRequest() {
+        assertThatThrownBy(() -> service.complete(USER, " "))
+                .isInstanceOfSatisfying(ApiException.class, code("MEDIA_UPLOAD_TOKEN_REQUIRED"));
+    }
+
+    @Test
+    void objectThatDoesNotMatchTheTokenIsRejected() {
+        MediaUploadIntentService.Intent intent = intent();
+        when(mediaStorage.head(intent.storageKey()))
+                .thenReturn(Optional.of(new MediaStorage.ObjectInfo(4321, "image/jpeg")));
+
+        assertThatThrownBy(() -> service.complete(USER, intent.uploadToken()))
+                .isInstanceOfSatisfying(ApiException.class, code("MEDIA_UPLOAD_MISMATCH"));
+        verify(mediaItemService, never()).createCloudMedia(any(), any(), any(), any(MediaStorage.UploadResult.class));
+    }
+
+    private MediaUploadIntentService.Intent intent() {
+        return service.createIntent(USER, "poi", 7L, "image", "a.jpg", "image/jpeg", 1234L);
+    }
+
+    private MediaUploadIntentService service(String secret) {
+        return new MediaUploadIntentService(
+                mediaStorage,
+                mediaItemService,
+                mediaItemRepository,
+                mock(MediaUrlService.class),
+                secret,
+                10_000_000L,
+                900
+        );
+    }
+
+    private void presignExpiringAt(Instant expiresAt) throws Exception {
+        MediaStorage.PresignedUpload presigned = new MediaStorage.PresignedUpload(
+                URI.create("https://storage.example/put").toURL(),
+                Map.of(),
+                expiresAt
+        );
+        when(mediaStorage.presignUpload(anyString(), anyString(), anyLong(), any(Duration.class)))
+                .thenReturn(presigned);
+    }
+
+    private static Consumer<ApiException> code(String expected) {
+        return ex -> assertThat(ex.getCode()).isEqualTo(expected);
+    }
+}
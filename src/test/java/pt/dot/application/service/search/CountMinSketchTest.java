@@ -0,0 +1,75 @@
+package pt.dot.application.service.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CountMinSketchTest {
+
+    @Test
+    void addReturnsTheNewEstimate() {
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+
+        assertThat(sketch.add("porto")).isEqualTo(1);
+        assertThat(sketch.add("porto")).isEqualTo(2);
+        assertThat(sketch.estimate("porto")).isEqualTo(2);
+        assertThat(sketch.estimate("lisboa")).isZero();
+    }
+
+    @Test
+    void neverUnderestimatesAndStaysWithinTheErrorBound() {
+        CountMinSketch sketch = new CountMinSketch(4, 256);
+        Map<String, Long> exact = new HashMap<>();
+        Random random = new Random(7);
+
+        int total = 20_000;
+        for (int i = 0; i < total; i++) {
+            // distribuição enviesada: poucas queries muito frequentes
+            String key = "q" + (int) Math.abs(random.nextGaussian() * 200);
+            sketch.add(key);
+            exact.merge(key, 1L, Long::sum);
+        }
+
+        // e/width * total, com folga para a probabilidade 1 - e^-depth
+        long bound = (long) Math.ceil(Math.E / 256 * total);
+        exact.forEach((key, count) -> {
+            long estimate = sketch.estimate(key);
+            assertThat(estimate).as(key).isGreaterThanOrEqualTo(count);
+            assertThat(estimate - count).as(key).isLessThanOrEqualTo(bound);
+        });
+    }
+
+    @Test
+    void concurrentAddsAreNotLost() throws Exception {
+        CountMinSketch sketch = new CountMinSketch(4, 1024);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 10_000; i++) sketch.add("braga");
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : futures) f.get();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(sketch.estimate("braga")).isEqualTo(80_000);
+    }
+}
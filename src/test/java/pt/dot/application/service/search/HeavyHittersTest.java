@@ -0,0 +1,117 @@
+package pt.dot.application.service.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HeavyHittersTest {
+
+    @Test
+    void keepsTheHighestEstimatePerKey() {
+        HeavyHitters top = new HeavyHitters(3);
+
+        top.offer("porto", 5);
+        top.offer("porto", 9);
+        top.offer("porto", 7);
+
+        assertThat(top.snapshot()).containsExactly(new HeavyHitters.Entry("porto", 9));
+    }
+
+    @Test
+    void replacesTheMinimumWhenFull() {
+        HeavyHitters top = new HeavyHitters(2);
+
+        top.offer("sintra", 4);
+        top.offer("evora", 2);
+        top.offer("braga", 1);
+        top.offer("aveiro", 3);
+
+        assertThat(top.snapshot()).containsExactly(
+                new HeavyHitters.Entry("sintra", 4),
+                new HeavyHitters.Entry("aveiro", 3)
+        );
+    }
+
+    @Test
+    void snapshotIsSortedByCountDescending() {
+        HeavyHitters top = new HeavyHitters(10);
+        for (int i = 1; i <= 5; i++) {
+            top.offer("q" + i, i * 10L);
+        }
+
+        assertThat(top.snapshot())
+                .extracting(HeavyHitters.Entry::count)
+                .containsExactly(50L, 40L, 30L, 20L, 10L);
+    }
+
+    @Test
+    void concurrentOffersOfTheSameKeyTakeOneSlot() throws Exception {
+        HeavyHitters top = new HeavyHitters(4);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (long i = 1; i <= 10_000; i++) {
+                        top.offer("lisboa", i);
+                        top.offer("porto", i / 2);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : futures) f.get();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(top.snapshot()).containsExactly(
+                new HeavyHitters.Entry("lisboa", 10_000),
+                new HeavyHitters.Entry("porto", 5_000)
+        );
+    }
+
+    @Test
+    void concurrentDistinctKeysStayWithinCapacityAndKeepTheHeaviest() throws Exception {
+        HeavyHitters top = new HeavyHitters(5);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 5_000; i++) {
+                        top.offer("t" + thread + "-" + i, 1 + i % 50);
+                        top.offer("hot" + (i % 3), 1_000 + i);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> f : futures) f.get();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<HeavyHitters.Entry> snapshot = top.snapshot();
+        assertThat(snapshot.size()).isLessThanOrEqualTo(5);
+        assertThat(new HashSet<>(snapshot.stream().map(HeavyHitters.Entry::key).toList())).hasSize(snapshot.size());
+        assertThat(snapshot.subList(0, 3))
+                .extracting(HeavyHitters.Entry::key)
+                .containsExactlyInAnyOrder("hot0", "hot1", "hot2");
+    }
+}
@@ -0,0 +1,147 @@
+package pt.dot.application.service.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import pt.dot.application.db.entity.District;
+import pt.dot.application.db.repo.DistrictRepository;
+import pt.dot.application.db.repo.PoiFacetView;
+import pt.dot.application.db.repo.PoiRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PoiFacetIndexTest {
+
+    private static final long LISBOA = 11L;
+    private static final long PORTO = 13L;
+
+    private PoiFacetIndex index;
+
+    @BeforeEach
+    void setUp() {
+        PoiRepository poiRepository = mock(PoiRepository.class);
+        DistrictRepository districtRepository = mock(DistrictRepository.class);
+
+        when(poiRepository.findAllFacetRows()).thenReturn(List.of(
+                new Row(1L, "Torre de Belém", "monument", LISBOA, "sipa", true),
+                new Row(2L, "Mosteiro dos Jerónimos", "monument", LISBOA, "sipa", false),
+                new Row(3L, "Museu do Azulejo", "museum", LISBOA, "culture", true),
+                new Row(4L, "Torre dos Clérigos", "monument", PORTO, "sipa", true),
+                new Row(5L, "Museu de Serralves", "museum", PORTO, "culture", false),
+                new Row(6L, "Igreja do Carmo", "church", PORTO, "sipa", true)
+        ));
+        when(districtRepository.findAll()).thenReturn(List.of(district(LISBOA, "Lisboa"), district(PORTO, "Porto")));
+
+        index = new PoiFacetIndex(poiRepository, districtRepository, 300);
+    }
+
+    @Test
+    void eachDimensionIgnoresItsOwnFilter() {
+        PoiFacetIndex.Result result = index.search("", SearchFilters.parse("monument", null, null, null));
+
+        assertThat(ids(result)).containsExactly(1L, 2L, 4L);
+        // categorias contadas sem o filtro de categoria: mostram as alternativas
+        assertThat(result.facets().get(PoiFacetIndex.FACET_CATEGORY))
+                .isEqualTo(Map.of("monument", 3L, "museum", 2L, "church", 1L));
+        assertThat(result.facets().get(PoiFacetIndex.FACET_DISTRICT))
+                .isEqualTo(Map.of("11", 2L, "13", 1L));
+        assertThat(result.facets().get(PoiFacetIndex.FACET_SOURCE))
+                .isEqualTo(Map.of("sipa", 3L));
+        assertThat(result.facets().get(PoiFacetIndex.FACET_HAS_IMAGES))
+                .isEqualTo(Map.of("true", 2L, "false", 1L));
+    }
+
+    @Test
+    void otherDimensionsStillNarrowTheCounts() {
+        PoiFacetIndex.Result result = index.search("", SearchFilters.parse("monument", "porto", null, null));
+
+        assertThat(ids(result)).containsExactly(4L);
+        // só o distrito filtra as categorias; só a categoria filtra os distritos
+        assertThat(result.facets().get(PoiFacetIndex.FACET_CATEGORY))
+                .isEqualTo(Map.of("church", 1L, "monument", 1L, "museum", 1L));
+        assertThat(result.facets().get(PoiFacetIndex.FACET_DISTRICT))
+                .isEqualTo(Map.of("11", 2L, "13", 1L));
+        assertThat(result.facets().get(PoiFacetIndex.FACET_HAS_IMAGES))
+                .isEqualTo(Map.of("true", 1L, "false", 0L));
+    }
+
+    @Test
+    void valuesOfOneDimensionAreOred() {
+        PoiFacetIndex.Result result = index.search("", SearchFilters.parse("museum,church", null, null, null));
+
+        assertThat(ids(result)).containsExactly(3L, 5L, 6L);
+    }
+
+    @Test
+    void hasImagesFacetIgnoresTheHasImagesFilter() {
+        PoiFacetIndex.Result result = index.search("", SearchFilters.parse(null, "Lisboa", null, false));
+
+        assertThat(ids(result)).containsExactly(2L);
+        assertThat(result.facets().get(PoiFacetIndex.FACET_HAS_IMAGES))
+                .isEqualTo(Map.of("true", 2L, "false", 1L));
+        assertThat(result.facets().get(PoiFacetIndex.FACET_CATEGORY))
+                .isEqualTo(Map.of("monument", 1L));
+    }
+
+    @Test
+    void textQueryAppliesToEveryCount() {
+        PoiFacetIndex.Result result = index.search("torre", SearchFilters.parse(null, null, "sipa", null));
+
+        assertThat(ids(result)).containsExactly(1L, 4L);
+        assertThat(result.facets().get(PoiFacetIndex.FACET_DISTRICT))
+                .isEqualTo(Map.of("11", 1L, "13", 1L));
+        assertThat(result.facets().get(PoiFacetIndex.FACET_SOURCE))
+                .isEqualTo(Map.of("sipa", 2L));
+    }
+
+    @Test
+    void facetValuesAreSortedByCount() {
+        PoiFacetIndex.Result result = index.search("", SearchFilters.parse(null, null, "sipa", null));
+
+        assertThat(new ArrayList<>(result.facets().get(PoiFacetIndex.FACET_CATEGORY).keySet()))
+                .containsExactly("monument", "church");
+    }
+
+    @Test
+    void unknownValueMatchesNothing() {
+        PoiFacetIndex.Result result = index.search("", SearchFilters.parse("castle", null, null, null));
+
+        assertThat(result.candidates()).isEmpty();
+        assertThat(result.facets().get(PoiFacetIndex.FACET_DISTRICT)).isEmpty();
+    }
+
+    private static List<Long> ids(PoiFacetIndex.Result result) {
+        return result.candidates().stream().map(SearchCandidate::id).toList();
+    }
+
+    private static District district(long id, String name) {
+        District d = new District();
+        d.setId(id);
+        d.setName(name);
+        d.setNamePt(name);
+        return d;
+    }
+
+    private record Row(
+            Long id,
+            String name,
+            String category,
+            Long districtId,
+            String source,
+            Boolean hasImages
+    ) implements PoiFacetView {
+
+        @Override public Long getId() { return id; }
+        @Override public String getName() { return name; }
+        @Override public String getNamePt() { return name; }
+        @Override public String getCategory() { return category; }
+        @Override public String getSource() { return source; }
+        @Override public Long getDistrictId() { return districtId; }
+        @Override public Boolean getHasImages() { return hasImages; }
+    }
+}
@@ -0,0 +1,95 @@
+package pt.dot.application.service.search;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class SearchCacheTest {
+
+    private static final SearchCandidate SE = poi(1L, "se de lisboa");
+    private static final SearchCandidate SESIMBRA = poi(2L, "sesimbra");
+    private static final SearchCandidate SEIA = poi(3L, "seia");
+
+    private PoiFacetIndex poiFacetIndex;
+    private SearchCache cache;
+
+    @BeforeEach
+    void setUp() {
+        poiFacetIndex = mock(PoiFacetIndex.class);
+        cache = new SearchCache(poiFacetIndex, 1_000, 600);
+    }
+
+    @Test
+    void exactHitReturnsTheStoredCandidates() {
+        cache.put("sesimbra", List.of(SESIMBRA), false, cache.generation());
+
+        assertThat(cache.lookup("sesimbra")).containsExactly(SESIMBRA);
+    }
+
+    @Test
+    void completePrefixIsRefinedInMemory() {
+        cache.put("se", List.of(SE, SESIMBRA, SEIA), true, cache.generation());
+
+        assertThat(cache.lookup("se d")).containsExactly(SE);
+        assertThat(cache.lookup("ses")).containsExactly(SESIMBRA);
+        assertThat(cache.lookup("sei")).containsExactly(SEIA);
+    }
+
+    @Test
+    void refinedResultIsCachedAndRefinesFurther() {
+        cache.put("se", List.of(SE, SESIMBRA, SEIA), true, cache.generation());
+        assertThat(cache.lookup("ses")).containsExactly(SESIMBRA);
+
+        // o prefixo completo sai; "ses" ficou guardado como completo
+        cache.put("se", List.of(), false, cache.generation());
+
+        assertThat(cache.lookup("sesim")).containsExactly(SESIMBRA);
+    }
+
+    @Test
+    void incompletePrefixGoesToTheDatabase() {
+        // a fonte atingiu o limite: pode haver matches de "ses" fora desta lista
+        cache.put("se", List.of(SE, SEIA), false, cache.generation());
+
+        assertThat(cache.lookup("ses")).isNull();
+    }
+
+    @Test
+    void queriesBelowTheMinimumPrefixAreIgnored() {
+        cache.put("s", List.of(SE), true, cache.generation());
+
+        assertThat(cache.lookup("s")).isNull();
+        assertThat(cache.lookup("se")).isNull();
+    }
+
+    @Test
+    void putFromBeforeAnInvalidationIsDropped() {
+        long generation = cache.generation();
+
+        cache.invalidateAll();
+        cache.put("se", List.of(SE, SESIMBRA, SEIA), true, generation);
+
+        assertThat(cache.lookup("se")).isNull();
+        assertThat(cache.lookup("ses")).isNull();
+    }
+
+    @Test
+    void invalidationClearsEntriesAndTheFacetIndex() {
+        cache.put("se", List.of(SE), true, cache.generation());
+
+        cache.invalidateAfterCommit();
+
+        assertThat(cache.lookup("se")).isNull();
+        assertThat(cache.generation()).isEqualTo(1L);
+        verify(poiFacetIndex).invalidate();
+    }
+
+    private static SearchCandidate poi(Long id, String normName) {
+        return new SearchCandidate(SearchRanking.KIND_POI, id, normName, null, normName, normName);
+    }
+}
@@ -0,0 +1,128 @@
+package pt.dot.application.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class KeywordMatcherTest {
+
+    /**
+     * Famílias com keywords sobrepostas (prefixos, sufixos, uma dentro da
+     * outra) e com acentos, como as do ranking Wikimedia.
+     */
+    private static final String[][] FAMILIES = {
+            {"panorama", "panoramic", "vista", "view"},
+            {"seen from", "from ", "rom"},
+            {"castle", "castelo", "tel", "hotel"},
+            {"palácio", "palacio", "centro histórico"},
+            {"igreja", "église"},
+            {"ça", "ção"}
+    };
+
+    private static final KeywordMatcher MATCHER = build(FAMILIES);
+
+    @Test
+    void overlappingKeywordsMatchLikeContains() {
+        assertSameAsContains("Panoramic view of the castle");
+        assertSameAsContains("Porto seen from Gaia");
+        assertSameAsContains("Castelo hotel");
+        assertSameAsContains("panoramvista");
+        assertSameAsContains("from");
+        assertSameAsContains("");
+    }
+
+    @Test
+    void accentedKeywordsIgnoreCaseButNotAccents() {
+        assertThat(MATCHER.match("PALÁCIO da Pena")).isEqualTo(1L << 3);
+        assertThat(MATCHER.match("Centro Histórico de Évora")).isEqualTo(1L << 3);
+        assertThat(MATCHER.match("Centro Historico de Evora")).isZero();
+        assertThat(MATCHER.match("ÉGLISE")).isEqualTo(1L << 4);
+        assertThat(MATCHER.match("Estação")).isEqualTo(1L << 5);
+
+        assertSameAsContains("Palácio Nacional de Sintra");
+        assertSameAsContains("Igreja e Convento de São Francisco (Évora)");
+    }
+
+    @Test
+    void randomTextsMatchLikeContains() {
+        String[] pieces = {"pano", "rama", "ic", "cast", "le", "lo", "ho", "tel", "pal", "á", "a", "cio",
+                "from", " ", "seen", "r", "o", "m", "Ç", "ã", "o", "é", "glise", "X", "view"};
+        Random random = new Random(42);
+
+        for (int i = 0; i < 5_000; i++) {
+            StringBuilder text = new StringBuilder();
+            int n = random.nextInt(12);
+            for (int k = 0; k < n; k++) {
+                String piece = pieces[random.nextInt(pieces.length)];
+                text.append(random.nextBoolean() ? piece : piece.toUpperCase(Locale.ROOT));
+            }
+            assertSameAsContains(text.toString());
+        }
+    }
+
+    @Test
+    void twoPartMatchIsTheSameAsJoiningWithASpace() {
+        String[][] cases = {
+                {"Porto seen", "from Gaia"},
+                {"Porto seen from", ""},
+                {"File:Castelo.jpg", "https://upload.wikimedia.org/Castelo.jpg"},
+                {null, "panorama"},
+                {"hotel", null}
+        };
+
+        for (String[] c : cases) {
+            String joined = (c[0] == null ? "" : c[0]) + " " + (c[1] == null ? "" : c[1]);
+            assertThat(MATCHER.match(c[0], c[1])).as(joined).isEqualTo(MATCHER.match(joined));
+        }
+    }
+
+    @Test
+    void matchesAnyOnlyLooksAtTheMask() {
+        assertThat(MATCHER.matchesAny("hotel", 1L << 2)).isTrue();
+        assertThat(MATCHER.matchesAny("hotel", 1L)).isFalse();
+        assertThat(MATCHER.matchesAny(null, -1L)).isFalse();
+        assertThat(MATCHER.match(null)).isZero();
+    }
+
+    @Test
+    void builderRejectsInvalidFamilies() {
+        assertThatThrownBy(() -> KeywordMatcher.builder().add(3L, "a"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> KeywordMatcher.builder().add(1L, "東京"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * O loop que o matcher substituiu: {@code toLowerCase} + {@code contains}
+     * por família.
+     */
+    private static long containsAny(String text) {
+        String hay = text.toLowerCase(Locale.ROOT);
+        long hits = 0L;
+        for (int f = 0; f < FAMILIES.length; f++) {
+            for (String k : FAMILIES[f]) {
+                if (hay.contains(k.toLowerCase(Locale.ROOT))) {
+                    hits |= 1L << f;
+                    break;
+                }
+            }
+        }
+        return hits;
+    }
+
+    private static void assertSameAsContains(String text) {
+        assertThat(MATCHER.match(text)).as(text).isEqualTo(containsAny(text));
+    }
+
+    private static KeywordMatcher build(String[][] families) {
+        KeywordMatcher.Builder builder = KeywordMatcher.builder();
+        for (int f = 0; f < families.length; f++) {
+            builder.add(1L << f, families[f]);
+        }
+        return builder.build();
+    }
+}